@@ -82,5 +82,14 @@ if "%params%"=="" goto endArgs
 
 set javaOpts=%javaOpts% %defaultMx%
 
+REM If DX_DAEMON_PORT is set, --dex runs are handed to a dx daemon
+REM (started with "dx --daemon --port=<n>") listening on that port, which
+REM saves the startup and warm-up time of a fresh VM for each run. Without
+REM a daemon of this user's listening, dx just runs as usual.
+if "%DX_DAEMON_PORT%"=="" goto noDaemon
+    call java %javaOpts% -Djava.ext.dirs=%frameworkdir% -jar %jarpath% --daemon-client %DX_DAEMON_PORT% %args%
+    goto :eof
+:noDaemon
+
 call java %javaOpts% -Djava.ext.dirs=%frameworkdir% -jar %jarpath% %args%
 
@@ -31,7 +31,13 @@ import com.android.dx.util.MutabilityControl;
  */
 public final class ExecutionStack extends MutabilityControl {
     /** {@code non-null;} array of stack contents */
-    private final TypeBearer[] stack;
+    private TypeBearer[] stack;
+
+    /**
+     * whether {@link #stack} may be shared with a copy of this instance,
+     * in which case it must be copied before it is changed
+     */
+    private boolean shared;
 
     /**
      * {@code >= 0;} stack pointer (points one past the end) / current stack
@@ -49,20 +55,32 @@ public final class ExecutionStack extends MutabilityControl {
         super(maxStack != 0);
         stack = new TypeBearer[maxStack];
         stackPtr = 0;
+        shared = false;
+    }
+
+    /**
+     * Constructs a copy of the given instance, which shares its array
+     * until either of them is changed.
+     *
+     * @param toCopy {@code non-null;} instance to copy
+     */
+    private ExecutionStack(ExecutionStack toCopy) {
+        super(toCopy.stack.length != 0);
+        stack = toCopy.stack;
+        stackPtr = toCopy.stackPtr;
+        shared = true;
+        toCopy.shared = true;
     }
 
     /**
-     * Makes and returns a mutable copy of this instance.
+     * Makes and returns a mutable copy of this instance. This takes
+     * constant time: the copy shares the array of this instance, and
+     * whichever of the two is changed first makes its own copy of it.
      * 
      * @return {@code non-null;} the copy
      */
     public ExecutionStack copy() {
-        ExecutionStack result = new ExecutionStack(stack.length);
-
-        System.arraycopy(stack, 0, result.stack, 0, stack.length);
-        result.stackPtr = stackPtr;
-
-        return result;
+        return new ExecutionStack(this);
     }
 
     /**
@@ -100,6 +118,7 @@ public final class ExecutionStack extends MutabilityControl {
 
         for (int i = 0; i < stackPtr; i++) {
             if (stack[i] == type) {
+                unshare();
                 stack[i] = initializedType;
             }
         }
@@ -129,8 +148,14 @@ public final class ExecutionStack extends MutabilityControl {
     public void clear() {
         throwIfImmutable();
 
-        for (int i = 0; i < stackPtr; i++) {
-            stack[i] = null;
+        if (shared) {
+            // There's nothing worth copying.
+            stack = new TypeBearer[stack.length];
+            shared = false;
+        } else {
+            for (int i = 0; i < stackPtr; i++) {
+                stack[i] = null;
+            }
         }
 
         stackPtr = 0;
@@ -161,6 +186,8 @@ public final class ExecutionStack extends MutabilityControl {
             return;
         }
 
+        unshare();
+
         if (category == 2) {
             stack[stackPtr] = null;
             stackPtr++;
@@ -215,6 +242,7 @@ public final class ExecutionStack extends MutabilityControl {
 
         TypeBearer result = peek(0);
 
+        unshare();
         stack[stackPtr - 1] = null;
         stackPtr -= result.getType().getCategory();
 
@@ -253,6 +281,7 @@ public final class ExecutionStack extends MutabilityControl {
                               stackElementString(type));
         }
 
+        unshare();
         stack[idx] = type;
     }
 
@@ -277,6 +306,17 @@ public final class ExecutionStack extends MutabilityControl {
         }
     }
 
+    /**
+     * Gives this instance its own array, if it may be sharing it with
+     * another instance. This must be called before changing the array.
+     */
+    private void unshare() {
+        if (shared) {
+            stack = stack.clone();
+            shared = false;
+        }
+    }
+
     /**
      * Gets the string form for a stack element. This is the same as
      * {@code toString()} except that {@code null} is converted
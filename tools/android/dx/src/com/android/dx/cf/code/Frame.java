@@ -90,7 +90,8 @@ public final class Frame {
     /**
      * Makes and returns a mutable copy of this instance. The copy
      * contains copies of the locals and stack (that is, it doesn't
-     * share them with the original).
+     * share them with the original), though these are cheap, as they
+     * only copy their contents once they are changed.
      *
      * @return {@code non-null;} the copy
      */
@@ -32,7 +32,13 @@ import com.android.dx.util.MutabilityControl;
  */
 public class OneLocalsArray extends LocalsArray {
     /** {@code non-null;} actual array */
-    private final TypeBearer[] locals;
+    private TypeBearer[] locals;
+
+    /**
+     * whether {@link #locals} may be shared with a copy of this instance,
+     * in which case it must be copied before it is changed
+     */
+    private boolean shared;
 
     /**
      * Constructs an instance. The locals array initially consists of
@@ -44,15 +50,31 @@ public class OneLocalsArray extends LocalsArray {
     public OneLocalsArray(int maxLocals) {
         super(maxLocals != 0);
         locals = new TypeBearer[maxLocals];
+        shared = false;
     }
 
-    /** @inheritDoc */
-    public OneLocalsArray copy() {
-        OneLocalsArray result = new OneLocalsArray(locals.length);
-
-        System.arraycopy(locals, 0, result.locals, 0, locals.length);
+    /**
+     * Constructs a copy of the given instance, which shares its array
+     * until either of them is changed.
+     *
+     * @param toCopy {@code non-null;} instance to copy
+     */
+    private OneLocalsArray(OneLocalsArray toCopy) {
+        super(toCopy.locals.length != 0);
+        locals = toCopy.locals;
+        shared = true;
+        toCopy.shared = true;
+    }
 
-        return result;
+    /**
+     * {@inheritDoc}
+     *
+     * <p>This takes constant time: the copy shares the array of this
+     * instance, and whichever of the two is changed first makes its own
+     * copy of it.</p>
+     */
+    public OneLocalsArray copy() {
+        return new OneLocalsArray(this);
     }
 
     /** @inheritDoc */
@@ -92,6 +114,7 @@ public class OneLocalsArray extends LocalsArray {
 
         for (int i = 0; i < len; i++) {
             if (locals[i] == type) {
+                unshare();
                 locals[i] = initializedType;
             }
         }
@@ -117,6 +140,8 @@ public class OneLocalsArray extends LocalsArray {
             throw new IndexOutOfBoundsException("idx < 0");
         }
 
+        unshare();
+
         // Make highest possible out-of-bounds check happen first.
         if (type.getType().isCategory2()) {
             locals[idx + 1] = null;
@@ -140,6 +165,7 @@ public class OneLocalsArray extends LocalsArray {
     /** @inheritDoc */
     public void invalidate(int idx) {
         throwIfImmutable();
+        unshare();
         locals[idx] = null;
     }
 
@@ -233,6 +259,17 @@ public class OneLocalsArray extends LocalsArray {
         return this;
     }
 
+    /**
+     * Gives this instance its own array, if it may be sharing it with
+     * another instance. This must be called before changing the array.
+     */
+    private void unshare() {
+        if (shared) {
+            locals = locals.clone();
+            shared = false;
+        }
+    }
+
     /**
      * Throws a properly-formatted exception.
      *
@@ -332,17 +332,14 @@ public final class ConstantPoolParser {
         // the case "CONSTANT_Class", the way it is currently done
         // will patch user generated strings as well, if they happen
         // to use the same string as one the patch strings.
+        //
+        // The patching is done on the raw bytes, which only get
+        // copied if a patch actually applies.
         //        
-        String			name;
-        byte 			str[]   = new byte[ubytes.size( )];
-        StringPatcher 	patcher = StringPatcher.getInstance( );
-
-        ubytes.getBytes( str, 0 );
-        name = patcher.patch( new String( str ) );        
-        //System.err.println( name );        
+        ubytes = StringPatcher.getInstance( ).patch( ubytes );
 
         try {
-            return new CstUtf8( name );
+            return new CstUtf8( ubytes );
         } catch (IllegalArgumentException ex) {
             // Translate the exception
             throw new ParseException(ex);
@@ -28,6 +28,11 @@ import java.util.Arrays;
 import java.util.Comparator;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * Opens all the class files found in a class path element. Path elements
@@ -46,6 +51,22 @@ public class ClassPathOpener {
      * package.
      */
     private final boolean sort;
+    /**
+     * {@code null-ok;} pool of threads to read archive entries on, or
+     * {@code null} to read them on the calling thread
+     */
+    private final ExecutorService readerPool;
+    /**
+     * whether archives may be memory-mapped; if false, they are always
+     * read with a {@link ZipFile}
+     */
+    private boolean mapArchives;
+
+    /**
+     * number of archive entries which may be read ahead of the one
+     * being consumed, when reading on {@link #readerPool}
+     */
+    private static final int READ_AHEAD = 32;
 
     /**
      * Callback interface for {@code ClassOpener}.
@@ -91,9 +112,41 @@ public class ClassPathOpener {
      * @param consumer {@code non-null;} callback interface
      */
     public ClassPathOpener(String pathname, boolean sort, Consumer consumer) {
+        this(pathname, sort, consumer, null);
+    }
+
+    /**
+     * Constructs an instance which reads (and inflates) archive entries
+     * in parallel. They are still passed to the consumer one at a time,
+     * on the calling thread and in the usual order.
+     *
+     * @param pathname {@code non-null;} path element to process
+     * @param sort if true, sort such that classes appear before their inner
+     * classes and "package-info" occurs before all other classes in that
+     * package.
+     * @param consumer {@code non-null;} callback interface
+     * @param readerPool {@code null-ok;} pool of threads to read archive
+     * entries on, or {@code null} to read them on the calling thread
+     */
+    public ClassPathOpener(String pathname, boolean sort, Consumer consumer,
+            ExecutorService readerPool) {
         this.pathname = pathname;
         this.sort = sort;
         this.consumer = consumer;
+        this.readerPool = readerPool;
+        this.mapArchives = true;
+    }
+
+    /**
+     * Sets whether archives may be memory-mapped, which they are by
+     * default. Long-lived processes should turn this off, as an archive
+     * stays mapped until its mapping is garbage collected (see
+     * {@link MappedZipFile}).
+     *
+     * @param mapArchives whether archives may be memory-mapped
+     */
+    public void setMapArchives(boolean mapArchives) {
+        this.mapArchives = mapArchives;
     }
 
     /**
@@ -195,13 +248,122 @@ public class ClassPathOpener {
 
     /**
      * Processes the contents of an archive ({@code .zip},
-     * {@code .jar}, or {@code .apk}).
+     * {@code .jar}, or {@code .apk}). The archive is memory-mapped if
+     * possible and allowed, and otherwise read with a {@link ZipFile}.
      *
      * @param file {@code non-null;} archive file to process
      * @return whether any processing actually happened
      * @throws IOException on i/o problem
      */
     private boolean processArchive(File file) throws IOException {
+        final MappedZipFile zip =
+            mapArchives ? MappedZipFile.open(file) : null;
+
+        if (zip == null) {
+            return processZipFile(file);
+        }
+
+        ArrayList<MappedZipFile.Entry> entriesList =
+            new ArrayList<MappedZipFile.Entry>(zip.getEntries().size());
+
+        for (MappedZipFile.Entry one : zip.getEntries()) {
+            if (!one.isDirectory()) {
+                entriesList.add(one);
+            }
+        }
+
+        if (sort) {
+            Collections.sort(entriesList,
+                    new Comparator<MappedZipFile.Entry>() {
+                public int compare(MappedZipFile.Entry a,
+                        MappedZipFile.Entry b) {
+                    return compareClassNames(a.getName(), b.getName());
+                }
+            });
+        }
+
+        consumer.onProcessArchiveStart(file);
+
+        boolean any = false;
+
+        if (readerPool == null) {
+            for (MappedZipFile.Entry one : entriesList) {
+                any |= consumer.processFileBytes(one.getName(),
+                        zip.read(one));
+            }
+
+            return any;
+        }
+
+        /*
+         * Keep up to READ_AHEAD entries being read on the pool, and
+         * consume them in order as they become available.
+         */
+        LinkedList<Future<byte[]>> pending = new LinkedList<Future<byte[]>>();
+        int next = 0;
+        int count = entriesList.size();
+
+        try {
+            for (int i = 0; i < count; i++) {
+                while ((next < count) && (next - i < READ_AHEAD)) {
+                    final MappedZipFile.Entry one = entriesList.get(next);
+                    pending.add(readerPool.submit(new Callable<byte[]>() {
+                        public byte[] call() throws IOException {
+                            return zip.read(one);
+                        }
+                    }));
+                    next++;
+                }
+
+                byte[] bytes = getResult(pending.removeFirst());
+                any |= consumer.processFileBytes(
+                        entriesList.get(i).getName(), bytes);
+            }
+        } finally {
+            // Only left over if something went wrong.
+            for (Future<byte[]> f : pending) {
+                f.cancel(false);
+            }
+        }
+
+        return any;
+    }
+
+    /**
+     * Waits for an archive entry being read on {@link #readerPool}.
+     *
+     * @param future {@code non-null;} the read in progress
+     * @return {@code non-null;} the contents of the entry
+     * @throws IOException if reading failed
+     */
+    private static byte[] getResult(Future<byte[]> future)
+            throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            throw new RuntimeException(ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Processes the contents of an archive with a {@link ZipFile}, for
+     * when it can't be memory-mapped.
+     *
+     * @param file {@code non-null;} archive file to process
+     * @return whether any processing actually happened
+     * @throws IOException on i/o problem
+     */
+    private boolean processZipFile(File file) throws IOException {
         ZipFile zip = new ZipFile(file);
         ByteArrayOutputStream baos = new ByteArrayOutputStream(40000);
         byte[] buf = new byte[20000];
@@ -0,0 +1,388 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.cf.direct;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Read-only view of a zip file, which is memory-mapped rather than read
+ * through streams. Entries are found from the central directory, and
+ * their contents are copied (for stored entries) or inflated (for
+ * deflated ones) straight from the mapping into an array of the final
+ * size. Reading entries is thread-safe.
+ *
+ * <p>Only the plain, common kind of zip file is handled. For anything
+ * else, such as encrypted entries or zip64 extensions, {@link #open}
+ * returns {@code null}, and the file should be read some other way.</p>
+ *
+ * <p>There is no way to close an instance: the file stays mapped until
+ * the mapping is garbage collected, as the VM offers no supported way
+ * to unmap it sooner. Meanwhile it uses up address space and, on
+ * Windows, the file can't be deleted or rewritten. That is fine for a
+ * single dx run, but long-lived processes such as the dx daemon must
+ * read archives some other way.</p>
+ */
+/*package*/ final class MappedZipFile {
+    /** signature of the end of central directory record */
+    private static final int END_SIGNATURE = 0x06054b50;
+
+    /** signature of a central directory file header */
+    private static final int CENTRAL_SIGNATURE = 0x02014b50;
+
+    /** signature of a local file header */
+    private static final int LOCAL_SIGNATURE = 0x04034b50;
+
+    /** size of the end of central directory record, sans comment */
+    private static final int END_SIZE = 22;
+
+    /** size of a central directory file header, sans variable parts */
+    private static final int CENTRAL_SIZE = 46;
+
+    /** size of a local file header, sans variable parts */
+    private static final int LOCAL_SIZE = 30;
+
+    /** maximum size of the zip file comment */
+    private static final int MAX_COMMENT_SIZE = 0xffff;
+
+    /** compression method: stored */
+    private static final int METHOD_STORED = 0;
+
+    /** compression method: deflated */
+    private static final int METHOD_DEFLATED = 8;
+
+    /** general purpose flag: the entry is encrypted */
+    private static final int FLAG_ENCRYPTED = 1;
+
+    /** {@code non-null;} the mapped file, positioned at 0 */
+    private final ByteBuffer data;
+
+    /** {@code non-null;} the entries, in central directory order */
+    private final ArrayList<Entry> entries;
+
+    /**
+     * Constructs an instance.
+     *
+     * @param data {@code non-null;} the mapped file
+     * @param entries {@code non-null;} the entries
+     */
+    private MappedZipFile(ByteBuffer data, ArrayList<Entry> entries) {
+        this.data = data;
+        this.entries = entries;
+    }
+
+    /**
+     * Maps the given zip file and reads its central directory.
+     *
+     * @param file {@code non-null;} the zip file
+     * @return {@code null-ok;} the mapped file, or {@code null} if it
+     * can't be handled by this class
+     * @throws IOException on i/o problem
+     */
+    public static MappedZipFile open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        MappedByteBuffer mapped;
+
+        try {
+            long length = raf.length();
+
+            if ((length < END_SIZE) || (length > Integer.MAX_VALUE)) {
+                return null;
+            }
+
+            FileChannel channel = raf.getChannel();
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        } finally {
+            // The mapping stays valid after the file is closed.
+            raf.close();
+        }
+
+        mapped.order(ByteOrder.LITTLE_ENDIAN);
+
+        ArrayList<Entry> entries = readCentralDirectory(mapped);
+
+        if (entries == null) {
+            return null;
+        }
+
+        return new MappedZipFile(mapped, entries);
+    }
+
+    /**
+     * Gets the entries of this instance, in central directory order,
+     * which is the same order that {@link java.util.zip.ZipFile#entries}
+     * yields them in.
+     *
+     * @return {@code non-null;} the entries; the list must not be
+     * modified
+     */
+    public ArrayList<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Reads the contents of the given entry.
+     *
+     * @param entry {@code non-null;} one of this instance's entries
+     * @return {@code non-null;} the uncompressed contents of the entry
+     * @throws IOException on i/o problem or a broken entry
+     */
+    public byte[] read(Entry entry) throws IOException {
+        // Each reader gets its own position and limit.
+        ByteBuffer buf = data.duplicate();
+        int local = entry.localHeaderOffset;
+
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+
+        if ((local > buf.limit() - LOCAL_SIZE)
+                || (buf.getInt(local) != LOCAL_SIGNATURE)) {
+            throw new ZipException("bad local header for " + entry.name);
+        }
+
+        int start = local + LOCAL_SIZE + (buf.getShort(local + 26) & 0xffff)
+            + (buf.getShort(local + 28) & 0xffff);
+
+        if ((start < 0) || (start > buf.limit() - entry.compressedSize)) {
+            throw new ZipException("truncated entry " + entry.name);
+        }
+
+        buf.position(start);
+
+        if (entry.method == METHOD_STORED) {
+            if (entry.compressedSize != entry.size) {
+                throw new ZipException("bad size for stored entry " +
+                        entry.name);
+            }
+
+            byte[] result = new byte[entry.size];
+            buf.get(result);
+            return result;
+        }
+
+        /*
+         * The inflater only takes arrays as input, so the compressed
+         * data has to be copied out; it needs an extra dummy byte at
+         * the end when there is no zlib header.
+         */
+        byte[] input = new byte[entry.compressedSize + 1];
+        byte[] result = new byte[entry.size];
+        Inflater inflater = new Inflater(true);
+
+        buf.get(input, 0, entry.compressedSize);
+
+        try {
+            inflater.setInput(input);
+
+            int at = 0;
+            while ((at < result.length) && !inflater.finished()) {
+                int amt = inflater.inflate(result, at, result.length - at);
+                if ((amt == 0) && (inflater.needsInput()
+                                || inflater.needsDictionary())) {
+                    break;
+                }
+                at += amt;
+            }
+
+            if (at != result.length) {
+                throw new ZipException("bad size for deflated entry " +
+                        entry.name);
+            }
+        } catch (DataFormatException ex) {
+            throw new ZipException("bad deflated entry " + entry.name +
+                    ": " + ex.getMessage());
+        } finally {
+            inflater.end();
+        }
+
+        return result;
+    }
+
+    /**
+     * Reads the central directory of a zip file.
+     *
+     * @param buf {@code non-null;} the whole file
+     * @return {@code null-ok;} the entries, or {@code null} if the file
+     * can't be handled by this class
+     * @throws IOException on a broken file
+     */
+    private static ArrayList<Entry> readCentralDirectory(ByteBuffer buf)
+            throws IOException {
+        int end = findEnd(buf);
+
+        if (end < 0) {
+            return null;
+        }
+
+        int disk = buf.getShort(end + 4) & 0xffff;
+        int cdDisk = buf.getShort(end + 6) & 0xffff;
+        int count = buf.getShort(end + 10) & 0xffff;
+        long cdSize = buf.getInt(end + 12) & 0xffffffffL;
+        long cdOffset = buf.getInt(end + 16) & 0xffffffffL;
+
+        if ((disk != 0) || (cdDisk != 0) || (count == 0xffff)
+                || (cdOffset + cdSize > end)) {
+            // Multi-disk, zip64 or prefixed with other data.
+            return null;
+        }
+
+        ArrayList<Entry> result = new ArrayList<Entry>(count);
+        int at = (int) cdOffset;
+
+        for (int i = 0; i < count; i++) {
+            if ((at > end - CENTRAL_SIZE)
+                    || (buf.getInt(at) != CENTRAL_SIGNATURE)) {
+                return null;
+            }
+
+            int flags = buf.getShort(at + 8) & 0xffff;
+            int method = buf.getShort(at + 10) & 0xffff;
+            long compressedSize = buf.getInt(at + 20) & 0xffffffffL;
+            long size = buf.getInt(at + 24) & 0xffffffffL;
+            int nameLength = buf.getShort(at + 28) & 0xffff;
+            int extraLength = buf.getShort(at + 30) & 0xffff;
+            int commentLength = buf.getShort(at + 32) & 0xffff;
+            long localOffset = buf.getInt(at + 42) & 0xffffffffL;
+
+            if (((flags & FLAG_ENCRYPTED) != 0)
+                    || ((method != METHOD_STORED)
+                            && (method != METHOD_DEFLATED))
+                    || (compressedSize >= Integer.MAX_VALUE)
+                    || (size >= Integer.MAX_VALUE)
+                    || (localOffset >= cdOffset)
+                    || (at + CENTRAL_SIZE + nameLength > end)) {
+                return null;
+            }
+
+            byte[] nameBytes = new byte[nameLength];
+            buf.position(at + CENTRAL_SIZE);
+            buf.get(nameBytes);
+            buf.position(0);
+
+            result.add(new Entry(utf8(nameBytes), method,
+                            (int) compressedSize, (int) size,
+                            (int) localOffset));
+
+            at += CENTRAL_SIZE + nameLength + extraLength + commentLength;
+        }
+
+        return result;
+    }
+
+    /**
+     * Finds the end of central directory record.
+     *
+     * @param buf {@code non-null;} the whole file
+     * @return the offset of the record, or {@code -1} if there is none
+     */
+    private static int findEnd(ByteBuffer buf) {
+        int limit = buf.limit();
+        int stop = Math.max(0, limit - END_SIZE - MAX_COMMENT_SIZE);
+
+        for (int at = limit - END_SIZE; at >= stop; at--) {
+            if ((buf.getInt(at) == END_SIGNATURE)
+                    && (at + END_SIZE + (buf.getShort(at + 20) & 0xffff)
+                            == limit)) {
+                return at;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Decodes an entry name.
+     *
+     * @param bytes {@code non-null;} the UTF-8 encoded name
+     * @return {@code non-null;} the name
+     */
+    private static String utf8(byte[] bytes) {
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (UnsupportedEncodingException ex) {
+            // UTF-8 is always supported.
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Entry of a {@link MappedZipFile}.
+     */
+    public static final class Entry {
+        /** {@code non-null;} the name */
+        private final String name;
+
+        /** the compression method */
+        private final int method;
+
+        /** {@code >= 0;} the size of the entry's data in the file */
+        private final int compressedSize;
+
+        /** {@code >= 0;} the uncompressed size */
+        private final int size;
+
+        /** {@code >= 0;} the offset of the local file header */
+        private final int localHeaderOffset;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param name {@code non-null;} the name
+         * @param method the compression method
+         * @param compressedSize {@code >= 0;} the size of the entry's
+         * data in the file
+         * @param size {@code >= 0;} the uncompressed size
+         * @param localHeaderOffset {@code >= 0;} the offset of the local
+         * file header
+         */
+        private Entry(String name, int method, int compressedSize,
+                int size, int localHeaderOffset) {
+            this.name = name;
+            this.method = method;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        /**
+         * Gets the name.
+         *
+         * @return {@code non-null;} the name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Gets whether this is a directory entry.
+         *
+         * @return whether this is a directory entry
+         */
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+    }
+}
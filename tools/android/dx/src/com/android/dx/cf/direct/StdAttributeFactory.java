@@ -39,6 +39,7 @@ import com.android.dx.cf.code.BytecodeArray;
 import com.android.dx.cf.code.LineNumberList;
 import com.android.dx.cf.code.LocalVariableList;
 import com.android.dx.cf.iface.Attribute;
+import com.android.dx.cf.iface.LazyAttribute;
 import com.android.dx.cf.iface.ParseException;
 import com.android.dx.cf.iface.ParseObserver;
 import com.android.dx.cf.iface.StdAttributeList;
@@ -62,6 +63,11 @@ import java.io.IOException;
 /**
  * Standard subclass of {@link AttributeFactory}, which knows how to parse
  * all the standard attribute types.
+ *
+ * <p>When there is no parse observer, the bulky attributes which are
+ * often not needed ({@code Code}, the debug tables and annotations) are
+ * only decoded when they are first fetched from their attribute list;
+ * see {@link LazyAttribute}.</p>
  */
 public class StdAttributeFactory
     extends AttributeFactory {
@@ -80,6 +86,53 @@ public class StdAttributeFactory
     @Override
     protected Attribute parse0(DirectClassFile cf, int context, String name,
             int offset, int length, ParseObserver observer) {
+        if ((observer == null) && isDeferrable(context, name)) {
+            return new Deferred(cf, context, name, offset, length);
+        }
+
+        return parseNow(cf, context, name, offset, length, observer);
+    }
+
+    /**
+     * Gets whether the given kind of attribute is decoded lazily.
+     *
+     * @param context attribute parsing context
+     * @param name {@code non-null;} the attribute name
+     * @return whether to decode such attributes lazily
+     */
+    private static boolean isDeferrable(int context, String name) {
+        switch (context) {
+            case CTX_CLASS:
+            case CTX_FIELD: {
+                return (name == AttRuntimeVisibleAnnotations.ATTRIBUTE_NAME)
+                    || (name == AttRuntimeInvisibleAnnotations.ATTRIBUTE_NAME);
+            }
+            case CTX_METHOD: {
+                return (name == AttCode.ATTRIBUTE_NAME)
+                    || (name == AttRuntimeVisibleAnnotations.ATTRIBUTE_NAME)
+                    || (name == AttRuntimeInvisibleAnnotations.ATTRIBUTE_NAME)
+                    || (name ==
+                            AttRuntimeVisibleParameterAnnotations.ATTRIBUTE_NAME)
+                    || (name ==
+                            AttRuntimeInvisibleParameterAnnotations
+                            .ATTRIBUTE_NAME);
+            }
+            case CTX_CODE: {
+                return (name == AttLineNumberTable.ATTRIBUTE_NAME)
+                    || (name == AttLocalVariableTable.ATTRIBUTE_NAME)
+                    || (name == AttLocalVariableTypeTable.ATTRIBUTE_NAME);
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Parses attribute content right away. This takes the same arguments
+     * as {@link #parse0}.
+     */
+    private Attribute parseNow(DirectClassFile cf, int context, String name,
+            int offset, int length, ParseObserver observer) {
         switch (context) {
             case CTX_CLASS: {
                 if (name == AttDeprecated.ATTRIBUTE_NAME) {
@@ -190,6 +243,62 @@ public class StdAttributeFactory
         return super.parse0(cf, context, name, offset, length, observer);
     }
 
+    /**
+     * Attribute which is parsed by {@link #parseNow} when it is first
+     * fetched.
+     */
+    private final class Deferred extends LazyAttribute {
+        /** {@code non-null;} class file to parse from */
+        private final DirectClassFile cf;
+
+        /** attribute parsing context */
+        private final int context;
+
+        /** offset to the start of the attribute data */
+        private final int offset;
+
+        /** length of the attribute data */
+        private final int length;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param cf {@code non-null;} class file to parse from
+         * @param context attribute parsing context
+         * @param name {@code non-null;} the attribute name
+         * @param offset offset to the start of the attribute data
+         * @param length length of the attribute data
+         */
+        public Deferred(DirectClassFile cf, int context, String name,
+                int offset, int length) {
+            super(name, length + 6);
+
+            this.cf = cf;
+            this.context = context;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        protected Attribute decode() {
+            String name = getName();
+
+            try {
+                return parseNow(cf, context, name, offset, length, null);
+            } catch (ParseException ex) {
+                ex.addContext("...while parsing " + name +
+                        " attribute at offset " + Hex.u4(offset - 6));
+                throw ex;
+            } catch (RuntimeException ex) {
+                ParseException pe = new ParseException(ex);
+                pe.addContext("...while parsing " + name +
+                        " attribute at offset " + Hex.u4(offset - 6));
+                throw pe;
+            }
+        }
+    }
+
     /**
      * Parses an {@code AnnotationDefault} attribute.
      */
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.dx.cf.iface;
+
+/**
+ * Placeholder for an attribute whose contents are only decoded when
+ * they are first asked for. {@link StdAttributeList} hands out the
+ * decoded attribute in place of the placeholder, so users of attribute
+ * lists never see instances of this class.
+ *
+ * <p>Decoding isn't synchronized: a class file and its attributes are
+ * meant to be used by one thread at a time.</p>
+ */
+public abstract class LazyAttribute implements Attribute {
+    /** {@code non-null;} name of the attribute */
+    private final String name;
+
+    /** {@code >= 6;} total length of the attribute, including the header */
+    private final int byteLength;
+
+    /** {@code null-ok;} the decoded attribute, once it has been decoded */
+    private Attribute decoded;
+
+    /**
+     * Constructs an instance.
+     *
+     * @param name {@code non-null;} name of the attribute
+     * @param byteLength {@code >= 6;} total length of the attribute,
+     * including the header
+     */
+    protected LazyAttribute(String name, int byteLength) {
+        if (name == null) {
+            throw new NullPointerException("name == null");
+        }
+
+        this.name = name;
+        this.byteLength = byteLength;
+        this.decoded = null;
+    }
+
+    /** {@inheritDoc} */
+    public final String getName() {
+        return name;
+    }
+
+    /** {@inheritDoc} */
+    public final int byteLength() {
+        return byteLength;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        return getDecoded().toString();
+    }
+
+    /**
+     * Gets the decoded attribute, decoding it if this is the first time
+     * it is asked for.
+     *
+     * @return {@code non-null;} the decoded attribute
+     * @throws ParseException thrown if the attribute is malformed
+     */
+    public final Attribute getDecoded() {
+        if (decoded == null) {
+            Attribute result = decode();
+
+            if (result.byteLength() != byteLength) {
+                throw new ParseException("bad length for " + name +
+                        " attribute");
+            }
+
+            decoded = result;
+        }
+
+        return decoded;
+    }
+
+    /**
+     * Decodes the attribute. This is only called once per instance.
+     *
+     * @return {@code non-null;} the decoded attribute, with the same
+     * name and length as this instance
+     * @throws ParseException thrown if the attribute is malformed
+     */
+    protected abstract Attribute decode();
+}
@@ -21,6 +21,8 @@ import com.android.dx.util.FixedSizeList;
 /**
  * Standard implementation of {@link AttributeList}, which directly stores
  * an array of {@link Attribute} objects and can be made immutable.
+ * {@link LazyAttribute} elements are decoded when they are first
+ * fetched, and the decoded attribute is returned in their place.
  */
 public final class StdAttributeList extends FixedSizeList
         implements AttributeList {
@@ -35,7 +37,7 @@ public final class StdAttributeList extends FixedSizeList
 
     /** {@inheritDoc} */
     public Attribute get(int n) {
-        return (Attribute) get0(n);
+        return decoded(get0(n));
     }
 
     /** {@inheritDoc} */
@@ -44,7 +46,8 @@ public final class StdAttributeList extends FixedSizeList
         int result = 2; // u2 attributes_count
 
         for (int i = 0; i < sz; i++) {
-            result += get(i).byteLength();
+            // The length of a lazy attribute is known without decoding it.
+            result += ((Attribute) get0(i)).byteLength();
         }
 
         return result;
@@ -55,9 +58,9 @@ public final class StdAttributeList extends FixedSizeList
         int sz = size();
 
         for (int i = 0; i < sz; i++) {
-            Attribute att = get(i);
+            Attribute att = (Attribute) get0(i);
             if (att.getName().equals(name)) {
-                return att;
+                return decoded(att);
             }
         }
 
@@ -69,10 +72,16 @@ public final class StdAttributeList extends FixedSizeList
         int sz = size();
         int at;
 
+        String name = attrib.getName();
+
         outer: {
             for (at = 0; at < sz; at++) {
-                Attribute att = get(at);
-                if (att == attrib) {
+                /*
+                 * Only attributes with the right name need to be
+                 * decoded to compare them.
+                 */
+                Attribute att = (Attribute) get0(at);
+                if (att.getName().equals(name) && (decoded(att) == attrib)) {
                     break outer;
                 }
             }
@@ -80,12 +89,10 @@ public final class StdAttributeList extends FixedSizeList
             return null;
         }
 
-        String name = attrib.getName();
-
         for (at++; at < sz; at++) {
-            Attribute att = get(at);
+            Attribute att = (Attribute) get0(at);
             if (att.getName().equals(name)) {
-                return att;
+                return decoded(att);
             }
         }
 
@@ -101,4 +108,19 @@ public final class StdAttributeList extends FixedSizeList
     public void set(int n, Attribute attribute) {
         set0(n, attribute);
     }
+
+    /**
+     * Gets the attribute to hand out for the given element.
+     *
+     * @param element {@code non-null;} an element of this list
+     * @return {@code non-null;} the element, or the decoded attribute if
+     * it is a {@link LazyAttribute}
+     */
+    private static Attribute decoded(Object element) {
+        if (element instanceof LazyAttribute) {
+            return ((LazyAttribute) element).getDecoded();
+        }
+
+        return (Attribute) element;
+    }
 }
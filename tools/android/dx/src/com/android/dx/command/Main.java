@@ -35,20 +35,80 @@ public class Main {
         "[--dump-width=<n>]\n" +
         "  [--dump-method=<name>[*]] [--verbose-dump] [--no-files] " +
         "[--core-library]\n" +
+        "  [--num-threads=<n>] [--cache-dir=<dir>] [--profile[=<n>]] " +
+        "[--profile-json=<file>]\n" +
+        "  [--multi-dex [--main-dex-list=<file>] " +
+        "[--set-max-idx-number=<n>]]\n" +
+        "  [--optimize-max-insns=<n>] [--optimize-max-blocks=<n>]\n" +
+        "  [--optimize-max-time=<ms>] [--dedupe-data]\n" +
         "  [<file>.class | <file>.{zip,jar,apk} | <directory>] ...\n" +
         "    Convert a set of classfiles into a dex file, optionally " +
         "embedded in a\n" +
         "    jar/zip. Output name must end with one of: .dex .jar " +
         ".zip .apk. Positions\n" +
-        "    options: none, important, lines.\n" +
+        "    options: none, important, lines. With --num-threads, " +
+        "classes, and the\n" +
+        "    methods of large classes, are translated on <n> threads; " +
+        "the output is\n" +
+        "    unchanged. With --cache-dir, translated classes are " +
+        "cached in <dir> and\n" +
+        "    reused while unchanged.\n" +
+        "    With --profile, the time and memory taken by each phase " +
+        "is printed,\n" +
+        "    along with the <n> (default 10) costliest methods and " +
+        "classes; with\n" +
+        "    --profile-json, they are also written to <file> as JSON.\n" +
+        "    With --multi-dex, classes are split across classes.dex, " +
+        "classes2.dex and\n" +
+        "    so on as needed to keep each under 64K method, field and " +
+        "type references;\n" +
+        "    the output must then be an archive or a directory. " +
+        "Classes whose files\n" +
+        "    are listed in the --main-dex-list <file> all go in " +
+        "classes.dex.\n" +
+        "    --set-max-idx-number lowers the 64K limit to <n>, " +
+        "for testing the\n" +
+        "    splitting on small inputs.\n" +
+        "    Methods over an --optimize-max-* budget get a cheaper " +
+        "optimization, or\n" +
+        "    none when over twice the insn or block budget; each is " +
+        "reported.\n" +
+        "    With --dedupe-data, data items with identical encodings, " +
+        "such as the\n" +
+        "    debug info of similar methods, are written only once.\n" +
+        "  dx --daemon [--port=<n>]\n" +
+        "    Run --dex jobs for clients in this VM, saving startup time. " +
+        "It listens\n" +
+        "    on port <n> of the loopback interface; the dx scripts use " +
+        "it when\n" +
+        "    DX_DAEMON_PORT=<n> is set. Only the user running it can " +
+        "send it jobs.\n" +
         "  dx --annotool --annotation=<class> [--element=<element types>]\n" +
-        "  [--print=<print types>]\n" +
+        "  [--print=<print types>] [--index=<file>]\n" +
+        "    List the classes or packages with the given annotation. " +
+        "With --index,\n" +
+        "    the annotations found in archives are kept in <file> " +
+        "for later runs.\n" +
         "  dx --dump [--debug] [--strict] [--bytes] [--optimize]\n" +
         "  [--basic-blocks | --rop-blocks | --ssa-blocks | --dot] " +
         "[--ssa-step=<step>]\n" +
-        "  [--width=<n>] [<file>.class | <file>.txt] ...\n" +
+        "  [--width=<n>] [--parallel[=<n>]]\n" +
+        "  [<file>.class | <file>.txt | <file>.{zip,jar,apk} | " +
+        "<directory>] ...\n" +
         "    Dump classfiles, or transformations thereof, in a " +
         "human-oriented format.\n" +
+        "    Classes are dumped one at a time as they are read; " +
+        "--parallel dumps them\n" +
+        "    on <n> threads (default: one per processor), still " +
+        "writing them in order.\n" +
+        "  dx --bench [--warmup=<n>] [--iterations=<n>] [--stress=<n>] " +
+        "[--only=<name>]\n" +
+        "  [--json=<file>] [<file>.class | <file>.{zip,jar,apk} | " +
+        "<directory>] ...\n" +
+        "    Time each step of translation over the given classes, " +
+        "plus <n> huge\n" +
+        "    generated methods with --stress; --json also writes the " +
+        "results to <file>.\n" +
         "  dx --junit [-wait] <TestClass>\n" +
         "    Run the indicated unit test.\n" + 
         "  dx -J<option> ... <arguments, in one of the above " +
@@ -88,6 +148,14 @@ public class Main {
                 if (arg.equals("--dex")) {
                     com.android.dx.command.dexer.Main.main(without(args, i));
                     break;
+                } else if (arg.equals("--daemon")) {
+                    com.android.dx.command.daemon.Main.main(without(args, i));
+                    break;
+                } else if (arg.equals("--daemon-client")) {
+                    // Not in the usage; the dx scripts run this.
+                    com.android.dx.command.daemon.Client.main(
+                            without(args, i));
+                    break;
                 } else if (arg.equals("--dump")) {
                     com.android.dx.command.dump.Main.main(without(args, i));
                     break;
@@ -95,6 +163,9 @@ public class Main {
                     com.android.dx.command.annotool.Main.main(
                             without(args, i));
                     break;
+                } else if (arg.equals("--bench")) {
+                    com.android.dx.command.bench.Main.main(without(args, i));
+                    break;
                 } else if (arg.equals("--junit")) {
                     TestRunner.main(without(args, i));
                     break;
@@ -150,7 +221,7 @@ public class Main {
     /**
      * Prints the usage message.
      */
-    private static void usage() {
+    public static void usage() {
         System.err.println(USAGE_MESSAGE);
     }
 
@@ -0,0 +1,478 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.command.annotool;
+
+import com.android.dx.cf.attrib.AttRuntimeInvisibleAnnotations;
+import com.android.dx.cf.attrib.AttRuntimeVisibleAnnotations;
+import com.android.dx.cf.attrib.BaseAnnotations;
+import com.android.dx.cf.direct.ClassPathOpener;
+import com.android.dx.cf.direct.DirectClassFile;
+import com.android.dx.cf.direct.StdAttributeFactory;
+import com.android.dx.cf.iface.Attribute;
+import com.android.dx.cf.iface.AttributeList;
+import com.android.dx.rop.annotation.Annotation;
+import com.android.dx.util.ByteArray;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Persistent index of the annotations on the classes of class path
+ * elements, which lets {@link AnnotationLister} answer queries without
+ * parsing any classes. For each element, the index holds its classes
+ * in the order that {@link ClassPathOpener} yields them, each with the
+ * names of its class-level annotations.
+ *
+ * <p>Archives and class files are indexed under their absolute path,
+ * and their entry is used for as long as their modification time and
+ * size stay the same. Directories are scanned every time, since their
+ * own time and size say nothing about the classes in them. An index
+ * file which can't be read is treated as empty, and is rewritten by
+ * {@link #save}.</p>
+ */
+final class AnnotationIndex {
+    /** magic number at the start of an index file */
+    private static final int MAGIC = 0x64786169;
+
+    /** version of the index file format */
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * how many classes per thread may be waiting to be parsed, when
+     * scanning on a pool
+     */
+    private static final int PENDING_CLASSES_PER_THREAD = 4;
+
+    /** {@code non-null;} the index file */
+    private final File file;
+
+    /** {@code non-null;} the indexed elements, by absolute path */
+    private final TreeMap<String, Element> elements;
+
+    /** whether {@link #elements} has changed since it was read */
+    private boolean changed;
+
+    /**
+     * Constructs an instance, reading the given index file if it
+     * exists.
+     *
+     * @param file {@code non-null;} the index file
+     */
+    public AnnotationIndex(File file) {
+        this.file = file;
+        this.elements = new TreeMap<String, Element>();
+        this.changed = false;
+
+        if (file.isFile()) {
+            try {
+                read();
+            } catch (IOException ex) {
+                // A broken index is as good as none; it'll get rewritten.
+                elements.clear();
+                changed = true;
+            }
+        }
+    }
+
+    /**
+     * Gets the classes of a class path element, from the index if it
+     * has an up-to-date entry for the element, or else by scanning the
+     * element and then adding it to the index.
+     *
+     * @param path {@code non-null;} the class path element
+     * @param pool {@code null-ok;} pool of threads to parse classes on,
+     * if the element has to be scanned
+     * @return {@code non-null;} the classes of the element
+     */
+    public ArrayList<AnnotatedClass> getClasses(String path,
+            ExecutorService pool) {
+        File pathFile = new File(path);
+
+        if (!pathFile.isFile()) {
+            return scan(path, pool);
+        }
+
+        String key = pathFile.getAbsolutePath();
+
+        // Looked at before scanning, so that a change during it shows.
+        long lastModified = pathFile.lastModified();
+        long length = pathFile.length();
+        Element element = elements.get(key);
+
+        if ((element != null) && (element.lastModified == lastModified)
+                && (element.length == length)) {
+            return element.classes;
+        }
+
+        ArrayList<AnnotatedClass> classes = scan(path, pool);
+
+        elements.put(key, new Element(lastModified, length, classes));
+        changed = true;
+
+        return classes;
+    }
+
+    /**
+     * Writes the index back to its file, if it has changed. The index is
+     * first written to a temporary file and then renamed into place, so
+     * that concurrent readers never see a partial index.
+     *
+     * @throws IOException on i/o problem
+     */
+    public void save() throws IOException {
+        if (!changed) {
+            return;
+        }
+
+        File parent = file.getAbsoluteFile().getParentFile();
+        File temp = File.createTempFile("index", ".tmp", parent);
+
+        try {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(temp)));
+
+            try {
+                write(out);
+            } finally {
+                out.close();
+            }
+
+            if (!temp.renameTo(file)) {
+                // Some platforms won't rename over an existing file.
+                file.delete();
+                if (!temp.renameTo(file)) {
+                    throw new IOException("couldn't rename " + temp);
+                }
+            }
+
+            temp = null;
+            changed = false;
+        } finally {
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * Reads the index file into {@link #elements}.
+     *
+     * @throws IOException on i/o problem or a broken file
+     */
+    private void read() throws IOException {
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+
+        try {
+            if ((in.readInt() != MAGIC)
+                    || (in.readInt() != FORMAT_VERSION)) {
+                throw new IOException("not an annotation index: " + file);
+            }
+
+            int elementCount = in.readInt();
+
+            for (int i = 0; i < elementCount; i++) {
+                String key = in.readUTF();
+                long lastModified = in.readLong();
+                long length = in.readLong();
+                int classCount = in.readInt();
+                ArrayList<AnnotatedClass> classes =
+                    new ArrayList<AnnotatedClass>(classCount);
+
+                for (int j = 0; j < classCount; j++) {
+                    String name = in.readUTF();
+                    String[] annotations = new String[in.readInt()];
+
+                    for (int k = 0; k < annotations.length; k++) {
+                        annotations[k] = in.readUTF();
+                    }
+
+                    classes.add(new AnnotatedClass(name, annotations));
+                }
+
+                elements.put(key,
+                        new Element(lastModified, length, classes));
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes {@link #elements} in the index file format.
+     *
+     * @param out {@code non-null;} where to write to
+     * @throws IOException on i/o problem
+     */
+    private void write(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(elements.size());
+
+        for (Map.Entry<String, Element> entry : elements.entrySet()) {
+            Element element = entry.getValue();
+
+            out.writeUTF(entry.getKey());
+            out.writeLong(element.lastModified);
+            out.writeLong(element.length);
+            out.writeInt(element.classes.size());
+
+            for (AnnotatedClass one : element.classes) {
+                out.writeUTF(one.getName());
+                out.writeInt(one.getAnnotationCount());
+
+                for (int i = 0; i < one.getAnnotationCount(); i++) {
+                    out.writeUTF(one.getAnnotation(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * Scans a class path element, parsing its classes. With a pool, the
+     * classes are parsed on it, but are still returned in their usual
+     * order.
+     *
+     * @param path {@code non-null;} the class path element
+     * @param pool {@code null-ok;} pool of threads to parse classes on,
+     * or {@code null} to parse them on the calling thread
+     * @return {@code non-null;} the classes of the element
+     */
+    public static ArrayList<AnnotatedClass> scan(String path,
+            final ExecutorService pool) {
+        final ArrayList<AnnotatedClass> classes =
+            new ArrayList<AnnotatedClass>();
+        final LinkedList<Future<AnnotatedClass>> pending =
+            new LinkedList<Future<AnnotatedClass>>();
+        final int maxPending = PENDING_CLASSES_PER_THREAD *
+            Runtime.getRuntime().availableProcessors();
+
+        ClassPathOpener opener = new ClassPathOpener(path, true,
+                new ClassPathOpener.Consumer() {
+            public boolean processFileBytes(final String name,
+                    final byte[] bytes) {
+                if (!name.endsWith(".class")) {
+                    return true;
+                }
+
+                if (pool == null) {
+                    classes.add(parse(name, bytes));
+                    return true;
+                }
+
+                pending.add(pool.submit(new Callable<AnnotatedClass>() {
+                    public AnnotatedClass call() {
+                        return parse(name, bytes);
+                    }
+                }));
+
+                if (pending.size() > maxPending) {
+                    classes.add(getResult(pending.removeFirst()));
+                }
+
+                return true;
+            }
+
+            public void onException(Exception ex) {
+                throw new RuntimeException(ex);
+            }
+
+            public void onProcessArchiveStart(File file) {
+                // This space intentionally left blank.
+            }
+        }, pool);
+
+        try {
+            opener.process();
+
+            while (!pending.isEmpty()) {
+                classes.add(getResult(pending.removeFirst()));
+            }
+        } finally {
+            for (Future<AnnotatedClass> future : pending) {
+                future.cancel(true);
+            }
+        }
+
+        return classes;
+    }
+
+    /**
+     * Waits for a class to be parsed.
+     *
+     * @param future {@code non-null;} the pending parse
+     * @return {@code non-null;} the parsed class
+     */
+    private static AnnotatedClass getResult(Future<AnnotatedClass> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            throw new RuntimeException(ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Parses a class, keeping just its name and annotations.
+     *
+     * @param name {@code non-null;} name of the file
+     * @param bytes {@code non-null;} contents of the file
+     * @return {@code non-null;} the class
+     */
+    private static AnnotatedClass parse(String name, byte[] bytes) {
+        ByteArray ba = new ByteArray(bytes);
+        DirectClassFile cf = new DirectClassFile(ba, name, true);
+
+        cf.setAttributeFactory(StdAttributeFactory.THE_ONE);
+        AttributeList attributes = cf.getAttributes();
+        ArrayList<String> annotations = new ArrayList<String>();
+
+        addAnnotations(annotations, attributes,
+                AttRuntimeInvisibleAnnotations.ATTRIBUTE_NAME);
+        addAnnotations(annotations, attributes,
+                AttRuntimeVisibleAnnotations.ATTRIBUTE_NAME);
+
+        return new AnnotatedClass(
+                cf.getThisClass().getClassType().getClassName(),
+                annotations.toArray(new String[annotations.size()]));
+    }
+
+    /**
+     * Adds the class names of the annotations in all the attributes with
+     * the given name to a list.
+     *
+     * @param annotations {@code non-null;} the list to add to
+     * @param attributes {@code non-null;} the attributes of a class
+     * @param attributeName {@code non-null;} the attribute name
+     */
+    private static void addAnnotations(ArrayList<String> annotations,
+            AttributeList attributes, String attributeName) {
+        Attribute att = attributes.findFirst(attributeName);
+
+        for (;att != null; att = attributes.findNext(att)) {
+            BaseAnnotations ann = (BaseAnnotations) att;
+
+            for (Annotation anAnn : ann.getAnnotations().getAnnotations()) {
+                annotations.add(
+                        anAnn.getType().getClassType().getClassName());
+            }
+        }
+    }
+
+    /**
+     * Indexed class path element.
+     */
+    private static final class Element {
+        /** modification time of the element when it was scanned */
+        final long lastModified;
+
+        /** size of the element when it was scanned */
+        final long length;
+
+        /** {@code non-null;} the classes of the element */
+        final ArrayList<AnnotatedClass> classes;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param lastModified modification time of the element
+         * @param length size of the element
+         * @param classes {@code non-null;} the classes of the element
+         */
+        Element(long lastModified, long length,
+                ArrayList<AnnotatedClass> classes) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.classes = classes;
+        }
+    }
+
+    /**
+     * Class, as far as annotation queries are concerned: its name, and
+     * the class names of its runtime-invisible annotations followed by
+     * those of its runtime-visible ones.
+     */
+    static final class AnnotatedClass {
+        /** {@code non-null;} the internal form of the class name */
+        private final String name;
+
+        /** {@code non-null;} the internal form of annotation names */
+        private final String[] annotations;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param name {@code non-null;} the internal form of the class
+         * name
+         * @param annotations {@code non-null;} the internal form of the
+         * annotation names
+         */
+        AnnotatedClass(String name, String[] annotations) {
+            this.name = name;
+            this.annotations = annotations;
+        }
+
+        /**
+         * Gets the name of the class.
+         *
+         * @return {@code non-null;} the internal form of the class name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Gets the number of annotations on the class.
+         *
+         * @return {@code >= 0;} the number of annotations
+         */
+        public int getAnnotationCount() {
+            return annotations.length;
+        }
+
+        /**
+         * Gets the name of one of the annotations on the class.
+         *
+         * @param n {@code >= 0, < getAnnotationCount();} which annotation
+         * @return {@code non-null;} the internal form of its name
+         */
+        public String getAnnotation(int n) {
+            return annotations[n];
+        }
+    }
+}
@@ -16,25 +16,22 @@
 
 package com.android.dx.command.annotool;
 
-import com.android.dx.cf.direct.ClassPathOpener;
-import com.android.dx.cf.direct.DirectClassFile;
-import com.android.dx.cf.direct.StdAttributeFactory;
-import com.android.dx.cf.iface.AttributeList;
-import com.android.dx.cf.iface.Attribute;
-import com.android.dx.cf.attrib.AttRuntimeInvisibleAnnotations;
-import com.android.dx.cf.attrib.BaseAnnotations;
-import com.android.dx.cf.attrib.AttRuntimeVisibleAnnotations;
-import com.android.dx.util.ByteArray;
-import com.android.dx.rop.annotation.Annotation;
+import com.android.dx.command.annotool.AnnotationIndex.AnnotatedClass;
 
 import java.io.File;
+import java.io.IOException;
 import java.lang.annotation.ElementType;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Greps annotations on a set of class files and prints matching elements
  * to stdout. What counts as a match and what should be printed is controlled
- * by the {@code Main.Arguments} instance.
+ * by the {@code Main.Arguments} instance. The classes are parsed in
+ * parallel, or not at all when they can be found in an
+ * {@link AnnotationIndex}.
  */
 class AnnotationLister {
     /**
@@ -58,117 +55,96 @@ class AnnotationLister {
 
     /** Processes based on configuration specified in constructor. */
     void process() {
-        for (String path : args.files) {
-            ClassPathOpener opener;
-
-            opener = new ClassPathOpener(path, true,
-                    new ClassPathOpener.Consumer() {
-                public boolean processFileBytes(String name, byte[] bytes) {
-                    if (!name.endsWith(".class")) {
-                        return true;
-                    }
-
-                    ByteArray ba = new ByteArray(bytes);
-                    DirectClassFile cf
-                        = new DirectClassFile(ba, name, true);
-
-                    cf.setAttributeFactory(StdAttributeFactory.THE_ONE);
-                    AttributeList attributes = cf.getAttributes();
-                    Attribute att;
-
-                    String cfClassName
-                            = cf.getThisClass().getClassType().getClassName();
-
-                    if (cfClassName.endsWith(PACKAGE_INFO)) {
-                        att = attributes.findFirst(
-                                AttRuntimeInvisibleAnnotations.ATTRIBUTE_NAME);
-
-                        for (;att != null; att = attributes.findNext(att)) {
-                            BaseAnnotations ann = (BaseAnnotations)att;
-                            visitPackageAnnotation(cf, ann);
-                        }
-
-                        att = attributes.findFirst(
-                                AttRuntimeVisibleAnnotations.ATTRIBUTE_NAME);
-
-                        for (;att != null; att = attributes.findNext(att)) {
-                            BaseAnnotations ann = (BaseAnnotations)att;
-                            visitPackageAnnotation(cf, ann);
-                        }
-                    } else if (isMatchingInnerClass(cfClassName)
-                            || isMatchingPackage(cfClassName)) {
-                        printMatch(cf);
-                    } else {
-                        att = attributes.findFirst(
-                                AttRuntimeInvisibleAnnotations.ATTRIBUTE_NAME);
-
-                        for (;att != null; att = attributes.findNext(att)) {
-                            BaseAnnotations ann = (BaseAnnotations)att;
-                            visitClassAnnotation(cf, ann);
-                        }
-
-                        att = attributes.findFirst(
-                                AttRuntimeVisibleAnnotations.ATTRIBUTE_NAME);
-
-                        for (;att != null; att = attributes.findNext(att)) {
-                            BaseAnnotations ann = (BaseAnnotations)att;
-                            visitClassAnnotation(cf, ann);
-                        }
-                    }
-
-                    return true;
+        int numThreads = Runtime.getRuntime().availableProcessors();
+        ExecutorService pool = (numThreads > 1)
+            ? Executors.newFixedThreadPool(numThreads) : null;
+        AnnotationIndex index = (args.indexFile == null)
+            ? null : new AnnotationIndex(new File(args.indexFile));
+
+        try {
+            for (String path : args.files) {
+                ArrayList<AnnotatedClass> classes = (index == null)
+                    ? AnnotationIndex.scan(path, pool)
+                    : index.getClasses(path, pool);
+
+                for (AnnotatedClass one : classes) {
+                    visitClass(one);
                 }
+            }
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+        }
 
-                public void onException(Exception ex) {
-                    throw new RuntimeException(ex);
-                }
-
-                public void onProcessArchiveStart(File file) {
-
-                }
+        if (index != null) {
+            try {
+                index.save();
+            } catch (IOException ex) {
+                System.err.println("warning: couldn't write " +
+                        args.indexFile + ": " + ex.getMessage());
+            }
+        }
+    }
 
-            });
+    /**
+     * Inspects a class.
+     *
+     * @param clazz {@code non-null;} the class
+     */
+    private void visitClass(AnnotatedClass clazz) {
+        String cfClassName = clazz.getName();
+        int sz = clazz.getAnnotationCount();
 
-            opener.process();
+        if (cfClassName.endsWith(PACKAGE_INFO)) {
+            for (int i = 0; i < sz; i++) {
+                visitPackageAnnotation(cfClassName, clazz.getAnnotation(i));
+            }
+        } else if (isMatchingInnerClass(cfClassName)
+                || isMatchingPackage(cfClassName)) {
+            printMatch(cfClassName);
+        } else {
+            for (int i = 0; i < sz; i++) {
+                visitClassAnnotation(cfClassName, clazz.getAnnotation(i));
+            }
         }
     }
 
     /**
      * Inspects a class annotation.
      *
-     * @param cf {@code non-null;} class file
-     * @param ann {@code non-null;} annotation
+     * @param className {@code non-null;} internal form of the class name
+     * @param annClassName {@code non-null;} internal form of the
+     * annotation's class name
      */
-    private void visitClassAnnotation(DirectClassFile cf,
-            BaseAnnotations ann) {
+    private void visitClassAnnotation(String className,
+            String annClassName) {
 
         if (!args.eTypes.contains(ElementType.TYPE)) {
             return;
         }
 
-        for (Annotation anAnn : ann.getAnnotations().getAnnotations()) {
-            String annClassName
-                    = anAnn.getType().getClassType().getClassName();
-            if (args.aclass.equals(annClassName)) {
-                printMatch(cf);
-            }
+        if (args.aclass.equals(annClassName)) {
+            printMatch(className);
         }
     }
 
     /**
      * Inspects a package annotation
      *
-     * @param cf {@code non-null;} class file of "package-info" pseudo-class
-     * @param ann {@code non-null;} annotation
+     * @param className {@code non-null;} internal form of the name of
+     * the "package-info" pseudo-class
+     * @param annClassName {@code non-null;} internal form of the
+     * annotation's class name
      */
-    private void visitPackageAnnotation(
-            DirectClassFile cf, BaseAnnotations ann) {
+    private void visitPackageAnnotation(String className,
+            String annClassName) {
 
         if (!args.eTypes.contains(ElementType.PACKAGE)) {
             return;
         }
 
-        String packageName = cf.getThisClass().getClassType().getClassName();
+        String packageName = className;
 
         int slashIndex = packageName.lastIndexOf('/');
 
@@ -179,13 +155,8 @@ class AnnotationLister {
                     = packageName.substring(0, slashIndex);
         }
 
-
-        for (Annotation anAnn : ann.getAnnotations().getAnnotations()) {
-            String annClassName
-                    = anAnn.getType().getClassType().getClassName();
-            if (args.aclass.equals(annClassName)) {
-                printMatchPackage(packageName);
-            }
+        if (args.aclass.equals(annClassName)) {
+            printMatchPackage(packageName);
         }
     }
 
@@ -215,21 +186,17 @@ class AnnotationLister {
      * Prints, or schedules for printing, elements related to a matching
      * class.
      *
-     * @param cf {@code non-null;} matching class
+     * @param className {@code non-null;} internal form of the name of
+     * the matching class
      */
-    private void printMatch(DirectClassFile cf) {
+    private void printMatch(String className) {
         for (Main.PrintType pt : args.printTypes) {
             switch (pt) {
                 case CLASS:
-                    String classname;
-                    classname =
-                        cf.getThisClass().getClassType().getClassName();
-                    classname = classname.replace('/','.');
-                    System.out.println(classname);
+                    System.out.println(className.replace('/','.'));
                     break;
                 case INNERCLASS:
-                    matchInnerClassesOf.add(
-                            cf.getThisClass().getClassType().getClassName());
+                    matchInnerClassesOf.add(className);
                     break;
                 case METHOD:
                     //TODO
@@ -66,6 +66,12 @@ public class Main {
         /** from --print */
         EnumSet<PrintType> printTypes = EnumSet.noneOf(PrintType.class);
 
+        /**
+         * from --index, the name of the annotation index file to use,
+         * or null to parse every class
+         */
+        String indexFile;
+
         /** remaining positional arguments */
         String[] files;
 
@@ -104,6 +110,8 @@ public class Main {
                     } catch (IllegalArgumentException ex) {
                         throw new InvalidArgumentException("invalid --print");
                     }
+                } else if (arg.startsWith("--index=")) {
+                    indexFile = arg.substring(arg.indexOf('=') + 1);
                 } else {
                     files = new String[argArray.length - i];
                     System.arraycopy(argArray, i, files, 0, files.length);
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.command.bench;
+
+/**
+ * One benchmark: an operation which is timed over a whole
+ * {@link Corpus} at a time. Each timed pass may be preceded by an
+ * untimed setup, for operations which consume their input.
+ */
+abstract class Benchmark {
+    /** {@code non-null;} the name of this benchmark */
+    private final String name;
+
+    /**
+     * Constructs an instance.
+     *
+     * @param name {@code non-null;} the name of this benchmark
+     */
+    public Benchmark(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Gets the name of this benchmark.
+     *
+     * @return {@code non-null;} the name
+     */
+    public final String getName() {
+        return name;
+    }
+
+    /**
+     * Prepares for a timed pass. This isn't timed. By default, this
+     * does nothing.
+     *
+     * @param corpus {@code non-null;} the corpus
+     */
+    public void setUp(Corpus corpus) {
+        // This space intentionally left blank.
+    }
+
+    /**
+     * Cleans up after a timed pass, so that its leftovers don't take up
+     * memory during the next one. This isn't timed. By default, this
+     * does nothing.
+     */
+    public void tearDown() {
+        // This space intentionally left blank.
+    }
+
+    /**
+     * Does a timed pass over the corpus.
+     *
+     * @param corpus {@code non-null;} the corpus
+     * @return a value derived from the results, so that the work can't
+     * be optimized away
+     */
+    public abstract int run(Corpus corpus);
+
+    /**
+     * Gets the number of operations in a pass over the corpus.
+     *
+     * @param corpus {@code non-null;} the corpus
+     * @return {@code >= 0;} the number of operations
+     */
+    public abstract int getOpCount(Corpus corpus);
+}
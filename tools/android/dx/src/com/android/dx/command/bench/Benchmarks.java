@@ -0,0 +1,590 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.command.bench;
+
+import com.android.dx.dex.cf.CfTranslator;
+import com.android.dx.dex.code.DalvCode;
+import com.android.dx.dex.code.DalvInsnList;
+import com.android.dx.dex.code.PositionList;
+import com.android.dx.dex.code.RopTranslator;
+import com.android.dx.dex.file.DebugInfoEncoder;
+import com.android.dx.dex.file.DexFile;
+import com.android.dx.rop.code.LocalVariableExtractor;
+import com.android.dx.rop.code.LocalVariableInfo;
+import com.android.dx.rop.cst.Constant;
+import com.android.dx.rop.cst.CstLiteralBits;
+import com.android.dx.ssa.ConstCollector;
+import com.android.dx.ssa.DeadCodeRemover;
+import com.android.dx.ssa.LiteralOpUpgrader;
+import com.android.dx.ssa.MoveParamCombiner;
+import com.android.dx.ssa.Optimizer;
+import com.android.dx.ssa.PhiTypeResolver;
+import com.android.dx.ssa.SCCP;
+import com.android.dx.ssa.SsaConverter;
+import com.android.dx.ssa.SsaMethod;
+import com.android.dx.ssa.back.FirstFitLocalCombiningAllocator;
+import com.android.dx.ssa.back.InterferenceGraph;
+import com.android.dx.ssa.back.LivenessAnalyzer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * The benchmarks of the steps of the translator.
+ */
+final class Benchmarks {
+    /**
+     * This class is uninstantiable.
+     */
+    private Benchmarks() {
+        // This space intentionally left blank.
+    }
+
+    /**
+     * Gets all the benchmarks, in pipeline order.
+     *
+     * @return {@code non-null;} the benchmarks
+     */
+    public static ArrayList<Benchmark> all() {
+        ArrayList<Benchmark> result = new ArrayList<Benchmark>();
+
+        result.add(new Translate());
+        result.add(new ConvertToSsa());
+        for (Optimizer.OptionalStep step : Optimizer.OptionalStep.values()) {
+            result.add(new OptimizerStep(step));
+        }
+        for (Optimizer.LivenessEngine engine
+                     : Optimizer.LivenessEngine.values()) {
+            result.add(new Liveness(engine));
+        }
+        result.add(new AllocateRegisters());
+        result.add(new TranslateToDex());
+        result.add(new FinishOutput());
+        result.add(new EncodeDebugInfo());
+        result.add(new WriteDex());
+
+        return result;
+    }
+
+    /**
+     * Converts all the methods of a corpus to SSA form.
+     *
+     * @param corpus {@code non-null;} the corpus
+     * @return {@code non-null;} the methods in SSA form
+     */
+    private static ArrayList<SsaMethod> toSsa(Corpus corpus) {
+        ArrayList<SsaMethod> result = new ArrayList<SsaMethod>();
+
+        for (Corpus.MethodInput m : corpus.getMethods()) {
+            result.add(SsaConverter.convertToSsaMethod(m.rop,
+                            m.paramWidth, m.isStatic, Corpus.OPTIMIZER));
+        }
+
+        return result;
+    }
+
+    /**
+     * Whole translation of each class, by {@link CfTranslator#translate}.
+     */
+    private static class Translate extends Benchmark {
+        public Translate() {
+            super("translate");
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int run(Corpus corpus) {
+            int sz = corpus.getClassCount();
+            int sink = 0;
+
+            for (int i = 0; i < sz; i++) {
+                sink ^= System.identityHashCode(
+                        CfTranslator.translate(corpus.getClassName(i),
+                                corpus.getClassFile(i), Corpus.OPTIONS));
+            }
+
+            return sink;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int getOpCount(Corpus corpus) {
+            return corpus.getClassCount();
+        }
+    }
+
+    /**
+     * Base class for benchmarks with one operation per method.
+     */
+    private abstract static class MethodBenchmark extends Benchmark {
+        public MethodBenchmark(String name) {
+            super(name);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int getOpCount(Corpus corpus) {
+            return corpus.getMethods().size();
+        }
+    }
+
+    /**
+     * Conversion of each method to SSA form, by
+     * {@link SsaConverter#convertToSsaMethod}.
+     */
+    private static class ConvertToSsa extends MethodBenchmark {
+        public ConvertToSsa() {
+            super("ssa-convert");
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int run(Corpus corpus) {
+            int sink = 0;
+
+            for (Corpus.MethodInput m : corpus.getMethods()) {
+                SsaMethod ssaMeth = SsaConverter.convertToSsaMethod(m.rop,
+                        m.paramWidth, m.isStatic, Corpus.OPTIMIZER);
+                sink ^= ssaMeth.getRegCount();
+            }
+
+            return sink;
+        }
+    }
+
+    /**
+     * One of the {@link Optimizer.OptionalStep optional optimizer steps},
+     * run on each method freshly converted to SSA form.
+     */
+    private static class OptimizerStep extends MethodBenchmark {
+        /** {@code non-null;} the step */
+        private final Optimizer.OptionalStep step;
+
+        /** {@code null-ok;} the input to the next pass */
+        private ArrayList<SsaMethod> input;
+
+        public OptimizerStep(Optimizer.OptionalStep step) {
+            super("optimize-" + step.name().toLowerCase().replace('_', '-'));
+            this.step = step;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void setUp(Corpus corpus) {
+            input = toSsa(corpus);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void tearDown() {
+            input = null;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int run(Corpus corpus) {
+            int sink = 0;
+
+            for (SsaMethod ssaMeth : input) {
+                switch (step) {
+                    case MOVE_PARAM_COMBINER:
+                        MoveParamCombiner.process(ssaMeth);
+                        break;
+                    case SCCP:
+                        SCCP.process(ssaMeth);
+                        break;
+                    case LITERAL_UPGRADE:
+                        LiteralOpUpgrader.process(ssaMeth);
+                        break;
+                    case CONST_COLLECTOR:
+                        ConstCollector.process(ssaMeth);
+                        break;
+                }
+
+                sink ^= ssaMeth.getRegCount();
+            }
+
+            return sink;
+        }
+    }
+
+    /**
+     * Liveness analysis of each method, with one of the
+     * {@link Optimizer.LivenessEngine engines}. The methods are prepared
+     * as the optimizer does by default, with all the optional steps.
+     */
+    private static class Liveness extends MethodBenchmark {
+        /** {@code non-null;} the engine */
+        private final Optimizer.LivenessEngine engine;
+
+        /** {@code null-ok;} the input to the next pass */
+        private ArrayList<SsaMethod> input;
+
+        public Liveness(Optimizer.LivenessEngine engine) {
+            super("liveness-" +
+                    engine.name().toLowerCase().replace('_', '-'));
+            this.engine = engine;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void setUp(Corpus corpus) {
+            input = toSsa(corpus);
+
+            for (SsaMethod ssaMeth : input) {
+                MoveParamCombiner.process(ssaMeth);
+                SCCP.process(ssaMeth);
+                LiteralOpUpgrader.process(ssaMeth);
+                DeadCodeRemover.process(ssaMeth);
+                ConstCollector.process(ssaMeth);
+                DeadCodeRemover.process(ssaMeth);
+                PhiTypeResolver.process(ssaMeth);
+            }
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void tearDown() {
+            input = null;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int run(Corpus corpus) {
+            int sink = 0;
+
+            for (SsaMethod ssaMeth : input) {
+                InterferenceGraph graph =
+                    LivenessAnalyzer.constructInterferenceGraph(ssaMeth,
+                            engine);
+
+                sink ^= System.identityHashCode(graph);
+            }
+
+            return sink;
+        }
+    }
+
+    /**
+     * Register allocation of each method, by
+     * {@link FirstFitLocalCombiningAllocator}. The methods are prepared
+     * as the optimizer does by default, with all the optional steps.
+     */
+    private static class AllocateRegisters extends MethodBenchmark {
+        /** {@code null-ok;} the methods for the next pass */
+        private ArrayList<SsaMethod> input;
+
+        /** {@code null-ok;} the interference graphs for the next pass */
+        private ArrayList<InterferenceGraph> graphs;
+
+        public AllocateRegisters() {
+            super("allocate-registers");
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void setUp(Corpus corpus) {
+            input = toSsa(corpus);
+            graphs = new ArrayList<InterferenceGraph>(input.size());
+
+            for (SsaMethod ssaMeth : input) {
+                MoveParamCombiner.process(ssaMeth);
+                SCCP.process(ssaMeth);
+                LiteralOpUpgrader.process(ssaMeth);
+                DeadCodeRemover.process(ssaMeth);
+                ConstCollector.process(ssaMeth);
+                DeadCodeRemover.process(ssaMeth);
+                PhiTypeResolver.process(ssaMeth);
+                graphs.add(
+                        LivenessAnalyzer.constructInterferenceGraph(ssaMeth));
+            }
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void tearDown() {
+            input = null;
+            graphs = null;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int run(Corpus corpus) {
+            int sz = input.size();
+            int sink = 0;
+
+            for (int i = 0; i < sz; i++) {
+                FirstFitLocalCombiningAllocator allocator =
+                    new FirstFitLocalCombiningAllocator(input.get(i),
+                            graphs.get(i), false);
+                sink ^= allocator.allocateRegisters().getNewRegisterCount();
+            }
+
+            return sink;
+        }
+    }
+
+    /**
+     * Translation of the rop instructions of each optimized method to
+     * dex instructions, by {@link RopTranslator}. There is one
+     * operation per rop instruction, so the time per operation is the
+     * cost of translating one instruction.
+     */
+    private static class TranslateToDex extends Benchmark {
+        /** {@code null-ok;} the local variables of the methods */
+        private ArrayList<LocalVariableInfo> locals;
+
+        public TranslateToDex() {
+            super("translate-to-dex");
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int getOpCount(Corpus corpus) {
+            int count = 0;
+
+            for (Corpus.MethodInput m : corpus.getMethods()) {
+                count += m.optimized.getBlocks().getInstructionCount();
+            }
+
+            return count;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void setUp(Corpus corpus) {
+            locals = new ArrayList<LocalVariableInfo>();
+
+            for (Corpus.MethodInput m : corpus.getMethods()) {
+                locals.add(LocalVariableExtractor.extract(m.optimized));
+            }
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void tearDown() {
+            locals = null;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int run(Corpus corpus) {
+            ArrayList<Corpus.MethodInput> methods = corpus.getMethods();
+            int sz = methods.size();
+            int sink = 0;
+
+            for (int i = 0; i < sz; i++) {
+                Corpus.MethodInput m = methods.get(i);
+                DalvCode code = RopTranslator.translate(m.optimized,
+                        PositionList.LINES, locals.get(i), m.paramWidth);
+                sink ^= code.getUnprocessedInsns().getInsns().size();
+            }
+
+            return sink;
+        }
+    }
+
+    /**
+     * Makes a callback which gives constants indices in order of first
+     * use, much as a dex file would give them.
+     *
+     * @return {@code non-null;} the callback
+     */
+    private static DalvCode.AssignIndicesCallback makeIndexCallback() {
+        final HashMap<Constant, Integer> indices =
+            new HashMap<Constant, Integer>();
+
+        return new DalvCode.AssignIndicesCallback() {
+            public int getIndex(Constant cst) {
+                if (cst instanceof CstLiteralBits) {
+                    return -1;
+                }
+
+                Integer index = indices.get(cst);
+                if (index == null) {
+                    index = indices.size();
+                    indices.put(cst, index);
+                }
+                return index;
+            }
+        };
+    }
+
+    /**
+     * Final processing of the dex instructions of each optimized
+     * method, by {@link com.android.dx.dex.code.OutputFinisher}. The
+     * constants are given indices in order of first use, much as a dex
+     * file would give them, since the choice of instruction formats
+     * depends on them.
+     */
+    private static class FinishOutput extends MethodBenchmark {
+        /** {@code null-ok;} the methods for the next pass */
+        private ArrayList<DalvCode> input;
+
+        public FinishOutput() {
+            super("finish-output");
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void setUp(Corpus corpus) {
+            DalvCode.AssignIndicesCallback callback = makeIndexCallback();
+
+            input = new ArrayList<DalvCode>();
+
+            for (Corpus.MethodInput m : corpus.getMethods()) {
+                DalvCode code = RopTranslator.translate(m.optimized,
+                        PositionList.LINES,
+                        LocalVariableExtractor.extract(m.optimized),
+                        m.paramWidth);
+                code.assignIndices(callback);
+                input.add(code);
+            }
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void tearDown() {
+            input = null;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int run(Corpus corpus) {
+            int sink = 0;
+
+            for (DalvCode code : input) {
+                sink ^= code.getUnprocessedInsns()
+                    .finishProcessingAndGetList().size();
+            }
+
+            return sink;
+        }
+    }
+
+    /**
+     * Encoding of the line numbers and local variables of each
+     * optimized method, by {@link DebugInfoEncoder}. No dex file is
+     * involved, so strings and types are all encoded as unnamed; the
+     * time per operation is the cost of encoding one method.
+     */
+    private static class EncodeDebugInfo extends MethodBenchmark {
+        /** {@code null-ok;} the finished methods for the next pass */
+        private ArrayList<DalvCode> input;
+
+        public EncodeDebugInfo() {
+            super("encode-debug-info");
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void setUp(Corpus corpus) {
+            DalvCode.AssignIndicesCallback callback = makeIndexCallback();
+
+            input = new ArrayList<DalvCode>();
+
+            for (Corpus.MethodInput m : corpus.getMethods()) {
+                DalvCode code = RopTranslator.translate(m.optimized,
+                        PositionList.LINES,
+                        LocalVariableExtractor.extract(m.optimized),
+                        m.paramWidth);
+                code.assignIndices(callback);
+                // Finish the instructions here rather than while timing.
+                code.getInsns();
+                input.add(code);
+            }
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void tearDown() {
+            input = null;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int run(Corpus corpus) {
+            ArrayList<Corpus.MethodInput> methods = corpus.getMethods();
+            int sz = methods.size();
+            int sink = 0;
+
+            for (int i = 0; i < sz; i++) {
+                Corpus.MethodInput m = methods.get(i);
+                DalvCode code = input.get(i);
+                DalvInsnList insns = code.getInsns();
+                DebugInfoEncoder encoder = new DebugInfoEncoder(
+                        code.getPositions(), code.getLocals(), null,
+                        insns.codeSize(), insns.getRegistersSize(),
+                        m.isStatic, m.ref);
+
+                sink ^= encoder.convert().length;
+            }
+
+            return sink;
+        }
+    }
+
+    /**
+     * Layout and writing of a dex file of the whole corpus, by
+     * {@link DexFile#toDex}.
+     */
+    private static class WriteDex extends Benchmark {
+        /** {@code null-ok;} the file for the next pass */
+        private DexFile input;
+
+        public WriteDex() {
+            super("write-dex");
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void setUp(Corpus corpus) {
+            int sz = corpus.getClassCount();
+
+            input = new DexFile();
+
+            for (int i = 0; i < sz; i++) {
+                input.add(CfTranslator.translate(corpus.getClassName(i),
+                                corpus.getClassFile(i), Corpus.OPTIONS));
+            }
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void tearDown() {
+            input = null;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int run(Corpus corpus) {
+            try {
+                return input.toDex(null, false).length;
+            } catch (IOException ex) {
+                // Nothing is written to a stream.
+                throw new RuntimeException(ex);
+            }
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int getOpCount(Corpus corpus) {
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.command.bench;
+
+import com.android.dx.cf.code.ConcreteMethod;
+import com.android.dx.cf.code.Ropper;
+import com.android.dx.cf.direct.ClassPathOpener;
+import com.android.dx.cf.direct.DirectClassFile;
+import com.android.dx.cf.direct.StdAttributeFactory;
+import com.android.dx.cf.iface.Method;
+import com.android.dx.cf.iface.MethodList;
+import com.android.dx.dex.cf.CfOptions;
+import com.android.dx.dex.code.PositionList;
+import com.android.dx.rop.code.AccessFlags;
+import com.android.dx.rop.code.DexTranslationAdvice;
+import com.android.dx.rop.code.RopMethod;
+import com.android.dx.rop.cst.CstMethodRef;
+import com.android.dx.ssa.Optimizer;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+/**
+ * Set of classes to benchmark on, along with the methods in them,
+ * already converted to the forms that the individual steps of the
+ * translator take as input.
+ */
+final class Corpus {
+    /** {@code non-null;} options to translate classes with */
+    public static final CfOptions OPTIONS = makeOptions();
+
+    /** {@code non-null;} settings to optimize methods with */
+    public static final Optimizer OPTIMIZER =
+        new Optimizer(OPTIONS.localInfo, DexTranslationAdvice.THE_ONE,
+                OPTIONS.livenessEngine);
+
+    /** {@code non-null;} names of the classes, in order */
+    private final ArrayList<String> names;
+
+    /** {@code non-null;} contents of the classes, in order */
+    private final ArrayList<byte[]> classFiles;
+
+    /** {@code non-null;} the concrete methods of all the classes */
+    private final ArrayList<MethodInput> methods;
+
+    /** {@code non-null;} names seen so far, to skip duplicates */
+    private final HashSet<String> seen;
+
+    /** {@code >= 0;} total size of the class files */
+    private long totalBytes;
+
+    /**
+     * Constructs an empty instance.
+     */
+    public Corpus() {
+        names = new ArrayList<String>();
+        classFiles = new ArrayList<byte[]>();
+        methods = new ArrayList<MethodInput>();
+        seen = new HashSet<String>();
+        totalBytes = 0;
+    }
+
+    /**
+     * Makes the options to translate classes with. These match the
+     * defaults of {@code dx --dex}, except that class names aren't
+     * checked against file names, since generated classes have none.
+     *
+     * @return {@code non-null;} the options
+     */
+    private static CfOptions makeOptions() {
+        CfOptions result = new CfOptions();
+
+        result.positionInfo = PositionList.LINES;
+        result.localInfo = true;
+        result.strictNameCheck = false;
+        result.optimize = true;
+
+        return result;
+    }
+
+    /**
+     * Adds all the classes found under a path: a class file, an archive
+     * or a directory. Files that aren't class files are ignored.
+     *
+     * @param path {@code non-null;} the path
+     */
+    public void addPath(final String path) {
+        ClassPathOpener opener = new ClassPathOpener(path, true,
+                new ClassPathOpener.Consumer() {
+            public boolean processFileBytes(String name, byte[] bytes) {
+                if (!name.endsWith(".class")) {
+                    return false;
+                }
+                addClass(name, bytes);
+                return true;
+            }
+            public void onException(Exception ex) {
+                throw new RuntimeException("trouble reading " + path, ex);
+            }
+            public void onProcessArchiveStart(File file) {
+                // This space intentionally left blank.
+            }
+        });
+
+        opener.process();
+    }
+
+    /**
+     * Adds a class, unless one of the same name has already been added.
+     *
+     * @param name {@code non-null;} the file name of the class
+     * @param bytes {@code non-null;} the contents of the class file
+     */
+    public void addClass(String name, byte[] bytes) {
+        DirectClassFile cf = new DirectClassFile(bytes, name, false);
+
+        cf.setAttributeFactory(StdAttributeFactory.THE_ONE);
+
+        if (!seen.add(cf.getThisClass().getClassType().getDescriptor())) {
+            return;
+        }
+
+        names.add(name);
+        classFiles.add(bytes);
+        totalBytes += bytes.length;
+
+        MethodList list = cf.getMethods();
+        int sz = list.size();
+
+        for (int i = 0; i < sz; i++) {
+            Method one = list.get(i);
+            int accessFlags = one.getAccessFlags();
+
+            if (AccessFlags.isNative(accessFlags)
+                    || AccessFlags.isAbstract(accessFlags)) {
+                continue;
+            }
+
+            boolean isStatic = AccessFlags.isStatic(accessFlags);
+            CstMethodRef meth =
+                new CstMethodRef(cf.getThisClass(), one.getNat());
+            ConcreteMethod concrete = new ConcreteMethod(one, cf,
+                    true, OPTIONS.localInfo);
+            RopMethod rop =
+                Ropper.convert(concrete, DexTranslationAdvice.THE_ONE);
+            int paramWidth = meth.getParameterWordCount(isStatic);
+            RopMethod optimized =
+                OPTIMIZER.optimize(rop, paramWidth, isStatic);
+
+            methods.add(new MethodInput(meth, rop, optimized, paramWidth,
+                            isStatic));
+        }
+    }
+
+    /**
+     * Gets the number of classes.
+     *
+     * @return {@code >= 0;} the number of classes
+     */
+    public int getClassCount() {
+        return classFiles.size();
+    }
+
+    /**
+     * Gets the file name of the class at the given index.
+     *
+     * @param n {@code >= 0, < getClassCount();} the index
+     * @return {@code non-null;} the file name
+     */
+    public String getClassName(int n) {
+        return names.get(n);
+    }
+
+    /**
+     * Gets the contents of the class at the given index.
+     *
+     * @param n {@code >= 0, < getClassCount();} the index
+     * @return {@code non-null;} the class file; it must not be modified
+     */
+    public byte[] getClassFile(int n) {
+        return classFiles.get(n);
+    }
+
+    /**
+     * Gets the total size of the class files.
+     *
+     * @return {@code >= 0;} the size in bytes
+     */
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * Gets the concrete methods of all the classes.
+     *
+     * @return {@code non-null;} the methods; the list must not be
+     * modified
+     */
+    public ArrayList<MethodInput> getMethods() {
+        return methods;
+    }
+
+    /**
+     * A concrete method, in the forms the steps of the translator take.
+     */
+    public static final class MethodInput {
+        /** {@code non-null;} reference to the method */
+        public final CstMethodRef ref;
+
+        /** {@code non-null;} the method as converted from bytecode */
+        public final RopMethod rop;
+
+        /** {@code non-null;} the method after optimization */
+        public final RopMethod optimized;
+
+        /** {@code >= 0;} width of the parameters, in register units */
+        public final int paramWidth;
+
+        /** whether the method is static */
+        public final boolean isStatic;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param ref {@code non-null;} reference to the method
+         * @param rop {@code non-null;} the method as converted from
+         * bytecode
+         * @param optimized {@code non-null;} the method after
+         * optimization
+         * @param paramWidth {@code >= 0;} width of the parameters, in
+         * register units
+         * @param isStatic whether the method is static
+         */
+        public MethodInput(CstMethodRef ref, RopMethod rop,
+                RopMethod optimized, int paramWidth, boolean isStatic) {
+            this.ref = ref;
+            this.rop = rop;
+            this.optimized = optimized;
+            this.paramWidth = paramWidth;
+            this.isStatic = isStatic;
+        }
+    }
+}
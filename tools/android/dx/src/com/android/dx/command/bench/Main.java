@@ -0,0 +1,314 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.command.bench;
+
+import com.android.dx.command.UsageException;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.ArrayList;
+
+/**
+ * Main class for the translator benchmarks. Each benchmark times one
+ * step of the translator over a corpus of classes, taken from the
+ * given paths and optionally padded out with generated classes with
+ * huge methods. Results are only comparable between runs on the same
+ * corpus, options and VM, which are all reported along with them.
+ */
+public class Main {
+    /**
+     * values derived from the results of the benchmarks, stored so that
+     * the VM can't tell they are unused and optimize the work away
+     */
+    private static volatile int sink;
+
+    /**
+     * This class is uninstantiable.
+     */
+    private Main() {
+        // This space intentionally left blank.
+    }
+
+    /**
+     * Runs the benchmarks.
+     *
+     * @param args the command line arguments
+     */
+    public static void main(String[] args) {
+        int warmup = 3;
+        int iterations = 5;
+        int stress = 0;
+        String only = null;
+        String jsonName = null;
+        int at = 0;
+
+        for (/*at*/; at < args.length; at++) {
+            String arg = args[at];
+            if (arg.equals("--") || !arg.startsWith("--")) {
+                break;
+            } else if (arg.startsWith("--warmup=")) {
+                warmup = parseCount(arg);
+            } else if (arg.startsWith("--iterations=")) {
+                iterations = parseCount(arg);
+                if (iterations == 0) {
+                    System.err.println("--iterations must be at least 1");
+                    throw new UsageException();
+                }
+            } else if (arg.startsWith("--stress=")) {
+                stress = parseCount(arg);
+            } else if (arg.startsWith("--only=")) {
+                only = arg.substring(arg.indexOf('=') + 1);
+            } else if (arg.startsWith("--json=")) {
+                jsonName = arg.substring(arg.indexOf('=') + 1);
+            } else {
+                System.err.println("unknown option: " + arg);
+                throw new UsageException();
+            }
+        }
+
+        if ((at == args.length) && (stress == 0)) {
+            System.err.println("no input files specified");
+            throw new UsageException();
+        }
+
+        Corpus corpus = new Corpus();
+
+        for (/*at*/; at < args.length; at++) {
+            corpus.addPath(args[at]);
+        }
+
+        if (stress != 0) {
+            corpus.addClass("dx/bench/Stress.class",
+                    StressClassGenerator.generate("dx/bench/Stress", stress));
+        }
+
+        PrintStream out = System.out;
+        String corpusDesc = corpus.getClassCount() + " classes, " +
+            corpus.getMethods().size() + " methods, " +
+            corpus.getTotalBytes() + " bytes";
+
+        out.println("corpus: " + corpusDesc);
+        out.println("vm: " + vmDescription());
+        out.println("passes: " + warmup + " warmup, " + iterations +
+                " timed");
+        out.println();
+        out.println(String.format("%-28s %8s %10s %10s %10s %10s",
+                        "benchmark", "ops", "mean ms", "stddev ms",
+                        "min ms", "us/op"));
+
+        ArrayList<Result> results = new ArrayList<Result>();
+
+        for (Benchmark b : Benchmarks.all()) {
+            if ((only != null) && !b.getName().startsWith(only)) {
+                continue;
+            }
+
+            Result r = measure(b, corpus, warmup, iterations);
+            results.add(r);
+            out.println(r.toHuman());
+        }
+
+        if (jsonName != null) {
+            try {
+                writeJson(jsonName, corpusDesc, warmup, iterations, results);
+            } catch (IOException ex) {
+                System.err.println("trouble writing " + jsonName + ": " +
+                        ex.getMessage());
+                System.exit(2);
+            }
+        }
+    }
+
+    /**
+     * Parses the value of a count option.
+     *
+     * @param arg {@code non-null;} the option, of the form
+     * {@code --name=<n>}
+     * @return {@code >= 0;} the count
+     */
+    private static int parseCount(String arg) {
+        int result = Integer.parseInt(arg.substring(arg.indexOf('=') + 1));
+
+        if (result < 0) {
+            System.err.println(arg.substring(0, arg.indexOf('=')) +
+                    " must be at least 0");
+            throw new UsageException();
+        }
+
+        return result;
+    }
+
+    /**
+     * Gets a description of the VM running the benchmarks.
+     *
+     * @return {@code non-null;} the description
+     */
+    private static String vmDescription() {
+        Runtime rt = Runtime.getRuntime();
+
+        return System.getProperty("java.vm.name") + " " +
+            System.getProperty("java.version") + ", " +
+            rt.availableProcessors() + " cpus, " +
+            (rt.maxMemory() >> 20) + "M max heap";
+    }
+
+    /**
+     * Runs a benchmark.
+     *
+     * @param b {@code non-null;} the benchmark
+     * @param corpus {@code non-null;} the corpus to run it on
+     * @param warmup {@code >= 0;} the number of untimed passes
+     * @param iterations {@code > 0;} the number of timed passes
+     * @return {@code non-null;} the results
+     */
+    private static Result measure(Benchmark b, Corpus corpus, int warmup,
+            int iterations) {
+        long[] times = new long[iterations];
+
+        for (int i = -warmup; i < iterations; i++) {
+            b.setUp(corpus);
+
+            // Keep garbage from earlier passes from being charged to this one.
+            System.gc();
+
+            long start = System.nanoTime();
+            sink ^= b.run(corpus);
+            long time = System.nanoTime() - start;
+
+            b.tearDown();
+
+            if (i >= 0) {
+                times[i] = time;
+            }
+        }
+
+        return new Result(b.getName(), b.getOpCount(corpus), times);
+    }
+
+    /**
+     * Writes the results as JSON.
+     *
+     * @param name {@code non-null;} the file name
+     * @param corpusDesc {@code non-null;} description of the corpus
+     * @param warmup {@code >= 0;} the number of untimed passes
+     * @param iterations {@code > 0;} the number of timed passes
+     * @param results {@code non-null;} the results
+     * @throws IOException on i/o problem
+     */
+    private static void writeJson(String name, String corpusDesc,
+            int warmup, int iterations, ArrayList<Result> results)
+            throws IOException {
+        Writer out = new OutputStreamWriter(new FileOutputStream(name),
+                "UTF-8");
+
+        try {
+            out.write("{\n  \"corpus\": \"" + corpusDesc + "\",\n");
+            out.write("  \"vm\": \"" + vmDescription() + "\",\n");
+            out.write("  \"warmup\": " + warmup + ",\n");
+            out.write("  \"iterations\": " + iterations + ",\n");
+            out.write("  \"results\": [");
+
+            String sep = "\n";
+            for (Result r : results) {
+                out.write(sep + "    " + r.toJson());
+                sep = ",\n";
+            }
+
+            out.write("\n  ]\n}\n");
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Timings of one benchmark.
+     */
+    private static class Result {
+        /** {@code non-null;} the name of the benchmark */
+        private final String name;
+
+        /** {@code >= 0;} the number of operations in each pass */
+        private final int ops;
+
+        /** mean time of a pass, in nanoseconds */
+        private final double mean;
+
+        /** standard deviation of the time of a pass, in nanoseconds */
+        private final double stddev;
+
+        /** shortest time of a pass, in nanoseconds */
+        private final long min;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param name {@code non-null;} the name of the benchmark
+         * @param ops {@code >= 0;} the number of operations in each pass
+         * @param times {@code non-null;} the time of each timed pass, in
+         * nanoseconds
+         */
+        public Result(String name, int ops, long[] times) {
+            double sum = 0;
+            long least = Long.MAX_VALUE;
+
+            for (long t : times) {
+                sum += t;
+                least = Math.min(least, t);
+            }
+
+            double avg = sum / times.length;
+            double squares = 0;
+
+            for (long t : times) {
+                squares += (t - avg) * (t - avg);
+            }
+
+            this.name = name;
+            this.ops = ops;
+            this.mean = avg;
+            this.stddev = (times.length < 2) ? 0 :
+                Math.sqrt(squares / (times.length - 1));
+            this.min = least;
+        }
+
+        /**
+         * Gets the results as a line of a table.
+         *
+         * @return {@code non-null;} the line
+         */
+        public String toHuman() {
+            return String.format("%-28s %8d %10.1f %10.1f %10.1f %10.2f",
+                    name, ops, mean / 1e6, stddev / 1e6, min / 1e6,
+                    (ops == 0) ? 0.0 : mean / 1e3 / ops);
+        }
+
+        /**
+         * Gets the results as a JSON object.
+         *
+         * @return {@code non-null;} the JSON text
+         */
+        public String toJson() {
+            return "{\"name\": \"" + name + "\", \"ops\": " + ops +
+                ", \"meanNanos\": " + Math.round(mean) +
+                ", \"stddevNanos\": " + Math.round(stddev) +
+                ", \"minNanos\": " + min + "}";
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.command.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Generator of class files with huge methods, for stressing the parts
+ * of the translator whose cost grows faster than linearly with method
+ * size. Each method is a long run of small blocks, each adding two of
+ * many live locals and conditionally incrementing the sum, so that
+ * there are plenty of blocks, registers and phis for the optimizer and
+ * register allocator to chew on.
+ */
+final class StressClassGenerator {
+    /** number of locals used by each method, including the parameter */
+    private static final int LOCAL_COUNT = 200;
+
+    /** number of blocks in each method; keeps the code under 64k */
+    private static final int BLOCK_COUNT = 2000;
+
+    /** constant pool index of the class's name */
+    private static final int CP_THIS_NAME = 1;
+
+    /** constant pool index of the class */
+    private static final int CP_THIS = 2;
+
+    /** constant pool index of the superclass's name */
+    private static final int CP_SUPER_NAME = 3;
+
+    /** constant pool index of the superclass */
+    private static final int CP_SUPER = 4;
+
+    /** constant pool index of the method descriptor */
+    private static final int CP_DESCRIPTOR = 5;
+
+    /** constant pool index of the name {@code "Code"} */
+    private static final int CP_CODE = 6;
+
+    /** constant pool index of the first method name */
+    private static final int CP_FIRST_METHOD = 7;
+
+    /**
+     * This class is uninstantiable.
+     */
+    private StressClassGenerator() {
+        // This space intentionally left blank.
+    }
+
+    /**
+     * Generates a class.
+     *
+     * @param className {@code non-null;} the internal name of the class,
+     * such as {@code "dx/bench/Stress"}
+     * @param methodCount {@code >= 0;} the number of huge methods to
+     * put in it
+     * @return {@code non-null;} the class file
+     */
+    public static byte[] generate(String className, int methodCount) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+
+            out.writeInt(0xcafebabe);
+            out.writeShort(0);                       // minor version
+            out.writeShort(49);                      // major version
+
+            out.writeShort(CP_FIRST_METHOD + methodCount);
+            writeUtf8(out, className);
+            writeClass(out, CP_THIS_NAME);
+            writeUtf8(out, "java/lang/Object");
+            writeClass(out, CP_SUPER_NAME);
+            writeUtf8(out, "(I)I");
+            writeUtf8(out, "Code");
+            for (int i = 0; i < methodCount; i++) {
+                writeUtf8(out, "huge" + i);
+            }
+
+            out.writeShort(0x21);                    // ACC_PUBLIC | ACC_SUPER
+            out.writeShort(CP_THIS);
+            out.writeShort(CP_SUPER);
+            out.writeShort(0);                       // interfaces
+            out.writeShort(0);                       // fields
+
+            byte[] code = makeCode();
+
+            out.writeShort(methodCount);
+            for (int i = 0; i < methodCount; i++) {
+                out.writeShort(0x09);                // ACC_PUBLIC | ACC_STATIC
+                out.writeShort(CP_FIRST_METHOD + i);
+                out.writeShort(CP_DESCRIPTOR);
+                out.writeShort(1);                   // attributes
+                out.writeShort(CP_CODE);
+                out.writeInt(code.length + 12);
+                out.writeShort(2);                   // max_stack
+                out.writeShort(LOCAL_COUNT);
+                out.writeInt(code.length);
+                out.write(code);
+                out.writeShort(0);                   // exception table
+                out.writeShort(0);                   // attributes
+            }
+
+            out.writeShort(0);                       // attributes
+            out.flush();
+
+            return bytes.toByteArray();
+        } catch (IOException ex) {
+            // ByteArrayOutputStream doesn't throw.
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Makes the code of a huge method, of descriptor {@code (I)I}.
+     *
+     * @return {@code non-null;} the bytecode
+     */
+    private static byte[] makeCode() {
+        ByteArrayOutputStream code = new ByteArrayOutputStream();
+        int vars = LOCAL_COUNT - 1;
+
+        // Copy the parameter to all the other locals.
+        for (int i = 1; i <= vars; i++) {
+            code.write(0x1a);                        // iload_0
+            code.write(0x36);                        // istore
+            code.write(i);
+        }
+
+        for (int i = 0; i < BLOCK_COUNT; i++) {
+            int a = 1 + ((i * 7) % vars);
+            int b = 1 + ((i * 13 + 5) % vars);
+            int c = 1 + ((i * 31 + 11) % vars);
+
+            code.write(0x15);                        // iload a
+            code.write(a);
+            code.write(0x15);                        // iload b
+            code.write(b);
+            code.write(0x60);                        // iadd
+            code.write(0x36);                        // istore c
+            code.write(c);
+            code.write(0x15);                        // iload c
+            code.write(c);
+            code.write(0x9e);                        // ifle over the iinc
+            code.write(0);
+            code.write(6);
+            code.write(0x84);                        // iinc c, 1
+            code.write(c);
+            code.write(1);
+        }
+
+        code.write(0x15);                            // iload 1
+        code.write(1);
+        code.write(0xac);                            // ireturn
+
+        return code.toByteArray();
+    }
+
+    /**
+     * Writes a {@code CONSTANT_Utf8} constant pool entry. The string
+     * must be plain ASCII.
+     *
+     * @param out {@code non-null;} where to write to
+     * @param s {@code non-null;} the string
+     */
+    private static void writeUtf8(DataOutputStream out, String s)
+            throws IOException {
+        out.writeByte(1);
+        out.writeUTF(s);
+    }
+
+    /**
+     * Writes a {@code CONSTANT_Class} constant pool entry.
+     *
+     * @param out {@code non-null;} where to write to
+     * @param nameIndex the constant pool index of the class's name
+     */
+    private static void writeClass(DataOutputStream out, int nameIndex)
+            throws IOException {
+        out.writeByte(7);
+        out.writeShort(nameIndex);
+    }
+}
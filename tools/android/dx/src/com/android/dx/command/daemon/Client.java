@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.command.daemon;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+
+/**
+ * Thin client for the dx daemon, run as {@code dx --daemon-client}. It
+ * takes the daemon's port followed by the usual dx command line.
+ * {@code --dex} runs are passed on to the daemon, which saves starting
+ * up the rest of dx in this VM; anything else, or any run when no
+ * daemon of this user's is listening, is run here as usual.
+ */
+public class Client {
+    /**
+     * This class is uninstantiable.
+     */
+    private Client() {
+        // This space intentionally left blank.
+    }
+
+    /**
+     * Runs the client.
+     *
+     * @param args the daemon's port, followed by the dx arguments
+     */
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.err.println(
+                    "usage: dx --daemon-client <port> <dx arguments>");
+            System.exit(1);
+        }
+
+        int port = Integer.parseInt(args[0]);
+        String[] dxArgs = new String[args.length - 1];
+        System.arraycopy(args, 1, dxArgs, 0, dxArgs.length);
+
+        if ((dxArgs.length != 0) && dxArgs[0].equals("--dex")) {
+            String token = Protocol.readToken(port);
+            Socket socket = (token == null) ? null : connect(port);
+
+            if (socket != null) {
+                System.exit(runRemotely(socket, token, dxArgs));
+            }
+        }
+
+        com.android.dx.command.Main.main(dxArgs);
+    }
+
+    /**
+     * Connects to the daemon.
+     *
+     * @param port the daemon's port
+     * @return {@code null-ok;} the connection, or {@code null} if there
+     * is no daemon listening
+     */
+    private static Socket connect(int port) {
+        try {
+            return new Socket(InetAddress.getByName("127.0.0.1"), port);
+        } catch (ConnectException ex) {
+            return null;
+        } catch (IOException ex) {
+            System.err.println("dx: can't connect to daemon: " +
+                    ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Has the daemon run a job and relays its results.
+     *
+     * @param socket {@code non-null;} connection to the daemon
+     * @param token {@code non-null;} the daemon's token
+     * @param dxArgs {@code non-null;} the dx arguments, starting with
+     * {@code --dex}
+     * @return the exit status of the job
+     */
+    private static int runRemotely(Socket socket, String token,
+            String[] dxArgs) {
+        try {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(socket.getOutputStream()));
+
+            out.writeInt(Protocol.MAGIC);
+            out.writeUTF(token);
+            out.writeUTF(System.getProperty("user.dir"));
+            out.writeInt(dxArgs.length - 1);
+            for (int i = 1; i < dxArgs.length; i++) {
+                out.writeUTF(dxArgs[i]);
+            }
+            out.flush();
+
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(socket.getInputStream()));
+            byte[] buf = new byte[8192];
+
+            for (;;) {
+                int tag = in.readByte();
+
+                if (tag == Protocol.FRAME_EXIT) {
+                    System.out.flush();
+                    System.err.flush();
+                    return in.readInt();
+                }
+
+                PrintStream dest =
+                    (tag == Protocol.FRAME_OUT) ? System.out : System.err;
+
+                for (int len = in.readInt(); len > 0; /*len*/) {
+                    int amt = Math.min(len, buf.length);
+                    in.readFully(buf, 0, amt);
+                    dest.write(buf, 0, amt);
+                    len -= amt;
+                }
+            }
+        } catch (EOFException ex) {
+            System.err.println(
+                    "dx: the daemon went away or refused the job");
+            return 3;
+        } catch (IOException ex) {
+            System.err.println("dx: lost connection to daemon: " +
+                    ex.getMessage());
+            return 3;
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ex) {
+                // Ignore it.
+            }
+        }
+    }
+}
@@ -0,0 +1,380 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.command.daemon;
+
+import com.android.dx.command.DxConsole;
+import com.android.dx.command.UsageException;
+import com.mosync.android.StringPatcher;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.security.MessageDigest;
+
+/**
+ * Main class for the dx daemon. It listens on a port of the loopback
+ * interface and runs each {@code --dex} job sent to it by a
+ * {@link Client} in this same VM, one job at a time, which saves the
+ * VM startup and warm-up time that a fresh dx pays for every run.
+ *
+ * <p>Relative paths in a job are resolved against the working
+ * directory of its client, and the output of the job is sent back to
+ * the client rather than to this VM's own standard streams. Jobs have
+ * files read and written with the daemon's permissions, so only those
+ * that carry the token from the daemon's private token file (see
+ * {@link Protocol}) are run.</p>
+ */
+public class Main {
+    /**
+     * {@code > 0;} how long, in milliseconds, a client has to send the
+     * whole of a job, so that one which connects and then sends nothing,
+     * or only part of a job, can't hold up the daemon for ever
+     */
+    private static final int REQUEST_TIMEOUT_MILLIS = 10000;
+
+    /**
+     * whether a job failed so badly that the VM may no longer be in a
+     * fit state to run more of them
+     */
+    private static boolean stopRequested = false;
+
+    /** {@code null-ok;} the token clients must send; set at startup */
+    private static byte[] token;
+
+    /**
+     * This class is uninstantiable.
+     */
+    private Main() {
+        // This space intentionally left blank.
+    }
+
+    /**
+     * Runs the daemon. This only returns if the daemon can't be started.
+     *
+     * @param args the command line arguments
+     */
+    public static void main(String[] args) {
+        int port = Protocol.DEFAULT_PORT;
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.startsWith("--port=")) {
+                arg = arg.substring(arg.indexOf('=') + 1);
+                port = Integer.parseInt(arg);
+            } else {
+                System.err.println("unknown option: " + arg);
+                throw new UsageException();
+            }
+        }
+
+        ServerSocket server;
+
+        try {
+            server = new ServerSocket(port, 50,
+                    InetAddress.getByName("127.0.0.1"));
+        } catch (IOException ex) {
+            System.err.println("dx daemon: can't listen on port " + port +
+                    ": " + ex.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        try {
+            String str = Protocol.makeToken(server.getLocalPort());
+            token = str.getBytes("UTF-8");
+        } catch (IOException ex) {
+            System.err.println("dx daemon: can't write token file: " +
+                    ex.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        System.out.println("dx daemon listening on port " +
+                server.getLocalPort());
+
+        while (!stopRequested) {
+            Socket socket;
+
+            try {
+                socket = server.accept();
+            } catch (IOException ex) {
+                System.err.println("dx daemon: accept failed: " +
+                        ex.getMessage());
+                continue;
+            }
+
+            try {
+                serve(socket);
+            } catch (SocketTimeoutException ex) {
+                System.err.println("dx daemon: dropped a client that " +
+                        "didn't send a whole job in time");
+            } catch (IOException ex) {
+                // The client went away; there's nobody left to tell.
+            } finally {
+                try {
+                    socket.close();
+                } catch (IOException ex) {
+                    // Ignore it.
+                }
+            }
+        }
+
+        System.err.println("dx daemon: stopping after an unexpected error");
+        System.exit(3);
+    }
+
+    /**
+     * Reads one job from the given connection, runs it and sends back
+     * its results. Reading the job times out after {@link
+     * #REQUEST_TIMEOUT_MILLIS}; running it doesn't.
+     *
+     * @param socket {@code non-null;} the connection
+     * @throws SocketTimeoutException if the client didn't send the
+     * whole job in time
+     */
+    private static void serve(Socket socket) throws IOException {
+        socket.setSoTimeout(REQUEST_TIMEOUT_MILLIS);
+
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(socket.getOutputStream()));
+
+        if (in.readInt() != Protocol.MAGIC) {
+            // Not one of ours, or a mismatched version.
+            return;
+        }
+
+        if (!MessageDigest.isEqual(token, in.readUTF().getBytes("UTF-8"))) {
+            // Not from the user running the daemon.
+            return;
+        }
+
+        File dir = new File(in.readUTF());
+        int argc = in.readInt();
+
+        if (argc < 0) {
+            return;
+        }
+
+        String[] args = new String[argc];
+        for (int i = 0; i < argc; i++) {
+            args[i] = in.readUTF();
+        }
+
+        // The job is all in; from here on the daemon only writes.
+        socket.setSoTimeout(0);
+
+        int status = runJob(dir, args, out);
+
+        synchronized (out) {
+            out.writeByte(Protocol.FRAME_EXIT);
+            out.writeInt(status);
+            out.flush();
+        }
+    }
+
+    /**
+     * Runs one job, with all of its output redirected to the given
+     * stream.
+     *
+     * @param dir {@code non-null;} the working directory of the client
+     * @param args {@code non-null;} the arguments to {@code dx --dex}
+     * @param out {@code non-null;} where to send the output to
+     * @return the exit status of the job
+     */
+    private static int runJob(File dir, String[] args, DataOutputStream out) {
+        PrintStream oldOut = System.out;
+        PrintStream oldErr = System.err;
+        PrintStream oldDxOut = DxConsole.out;
+        PrintStream oldDxErr = DxConsole.err;
+        PrintStream jobOut =
+            new PrintStream(new FrameOutputStream(out, Protocol.FRAME_OUT));
+        PrintStream jobErr =
+            new PrintStream(new FrameOutputStream(out, Protocol.FRAME_ERR));
+
+        System.setOut(jobOut);
+        System.setErr(jobErr);
+        DxConsole.out = jobOut;
+        DxConsole.err = jobErr;
+
+        try {
+            return runDexer(dir, args);
+        } catch (UsageException ex) {
+            com.android.dx.command.Main.usage();
+            return 1;
+        } catch (RuntimeException ex) {
+            jobErr.println("\nUNEXPECTED TOP-LEVEL EXCEPTION:");
+            ex.printStackTrace(jobErr);
+            return 2;
+        } catch (Throwable ex) {
+            jobErr.println("\nUNEXPECTED TOP-LEVEL ERROR:");
+            ex.printStackTrace(jobErr);
+            stopRequested = true;
+            return 3;
+        } finally {
+            jobOut.flush();
+            jobErr.flush();
+            System.setOut(oldOut);
+            System.setErr(oldErr);
+            DxConsole.out = oldDxOut;
+            DxConsole.err = oldDxErr;
+        }
+    }
+
+    /**
+     * Runs the dexer on the given arguments.
+     *
+     * @param dir {@code non-null;} the directory to resolve relative
+     * paths against
+     * @param args {@code non-null;} the arguments to {@code dx --dex}
+     * @return the exit status of the dexer
+     */
+    private static int runDexer(File dir, String[] args) {
+        // Patches are global, and would otherwise pile up across jobs.
+        StringPatcher.getInstance().clearPatches();
+
+        com.android.dx.command.dexer.Main.Arguments arguments =
+            new com.android.dx.command.dexer.Main.Arguments();
+
+        arguments.parse(args);
+        resolvePaths(arguments, dir);
+
+        /*
+         * Mapped archives stay mapped until garbage collected, which in
+         * this long-lived VM would keep the inputs of past jobs mapped,
+         * and on Windows stop them from being rewritten.
+         */
+        arguments.mapArchives = false;
+
+        return com.android.dx.command.dexer.Main.run(arguments);
+    }
+
+    /**
+     * Makes all the relative paths in the given arguments relative to
+     * the given directory instead of to the daemon's own.
+     *
+     * @param arguments {@code non-null;} the parsed arguments
+     * @param dir {@code non-null;} the directory to resolve against
+     */
+    private static void resolvePaths(
+            com.android.dx.command.dexer.Main.Arguments arguments, File dir) {
+        String[] fileNames = arguments.fileNames;
+
+        for (int i = 0; i < fileNames.length; i++) {
+            if (!new File(fileNames[i]).isAbsolute()) {
+                /*
+                 * The dexer takes the class name of a file to start
+                 * after the last "/./" in its path, so insert one to
+                 * keep the names the same as if it was run in dir.
+                 */
+                fileNames[i] =
+                    new File(new File(dir, "."), fileNames[i]).getPath();
+            }
+        }
+
+        arguments.outName = resolve(dir, arguments.outName);
+        arguments.humanOutName = resolve(dir, arguments.humanOutName);
+        arguments.optimizeListFile =
+            resolve(dir, arguments.optimizeListFile);
+        arguments.dontOptimizeListFile =
+            resolve(dir, arguments.dontOptimizeListFile);
+        arguments.cacheDir = resolve(dir, arguments.cacheDir);
+        arguments.mainDexListFile =
+            resolve(dir, arguments.mainDexListFile);
+        arguments.profileJsonName =
+            resolve(dir, arguments.profileJsonName);
+    }
+
+    /**
+     * Resolves an optional path against the given directory.
+     *
+     * @param dir {@code non-null;} the directory to resolve against
+     * @param name {@code null-ok;} the path; {@code "-"} stands for
+     * standard output
+     * @return {@code null-ok;} the resolved path
+     */
+    private static String resolve(File dir, String name) {
+        if ((name == null) || name.equals("-")
+                || new File(name).isAbsolute()) {
+            return name;
+        }
+
+        return new File(dir, name).getPath();
+    }
+
+    /**
+     * Output stream which sends everything written to it as frames of
+     * a given kind. Frames from several streams may share the same
+     * connection, as they are written while holding its lock.
+     */
+    private static class FrameOutputStream extends OutputStream {
+        /** {@code non-null;} the connection */
+        private final DataOutputStream out;
+
+        /** the frame tag */
+        private final int tag;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param out {@code non-null;} the connection
+         * @param tag the frame tag
+         */
+        public FrameOutputStream(DataOutputStream out, int tag) {
+            this.out = out;
+            this.tag = tag;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return;
+            }
+
+            synchronized (out) {
+                out.writeByte(tag);
+                out.writeInt(len);
+                out.write(b, off, len);
+            }
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void flush() throws IOException {
+            synchronized (out) {
+                out.flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.command.daemon;
+
+import com.android.dx.util.Hex;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.security.SecureRandom;
+
+/**
+ * Constants of the protocol spoken between the dx daemon and its
+ * clients. A connection carries exactly one job.
+ *
+ * <p>The client sends, using {@code DataOutputStream} encodings: the
+ * int {@link #MAGIC}, the daemon's token as a UTF string, its working
+ * directory as a UTF string, the int number of arguments and then each
+ * argument as a UTF string. The arguments are the ones that would be
+ * passed to {@code dx --dex}.</p>
+ *
+ * <p>The token is a random string which the daemon writes to the
+ * {@link #tokenFile} of its port when it starts, readable only by the
+ * user running it. Only that user's clients can read it back, so other
+ * local users can't have jobs run with the daemon's permissions.</p>
+ *
+ * <p>The daemon then sends a sequence of frames, each starting with a
+ * byte tag. {@link #FRAME_OUT} and {@link #FRAME_ERR} frames carry
+ * output of the job, as an int length followed by that many bytes. The
+ * final frame is a {@link #FRAME_EXIT}, followed by the int exit
+ * status of the job.</p>
+ */
+final class Protocol {
+    /** magic number at the start of a request; includes a version */
+    public static final int MAGIC = 0x64786402;
+
+    /** frame tag: exit status */
+    public static final int FRAME_EXIT = 0;
+
+    /** frame tag: bytes written to standard output */
+    public static final int FRAME_OUT = 1;
+
+    /** frame tag: bytes written to standard error */
+    public static final int FRAME_ERR = 2;
+
+    /** default port to listen on, on the loopback interface */
+    public static final int DEFAULT_PORT = 7543;
+
+    /** number of random bytes in a token */
+    private static final int TOKEN_BYTES = 16;
+
+    /**
+     * This class is uninstantiable.
+     */
+    private Protocol() {
+        // This space intentionally left blank.
+    }
+
+    /**
+     * Gets the file holding the token of the daemon on the given port.
+     * It is in the user's home directory, which on Windows is already
+     * private to the user.
+     *
+     * @param port the daemon's port
+     * @return {@code non-null;} the token file
+     */
+    public static File tokenFile(int port) {
+        return new File(System.getProperty("user.home"),
+                ".dx-daemon-" + port);
+    }
+
+    /**
+     * Makes a new random token and writes it to the token file of the
+     * given port, replacing any stale one. The file is made private to
+     * the current user before the token is written to it.
+     *
+     * @param port the daemon's port
+     * @return {@code non-null;} the token
+     * @throws IOException if the file can't be written or, on systems
+     * with Unix permissions, made private
+     */
+    public static String makeToken(int port) throws IOException {
+        File file = tokenFile(port);
+        byte[] bytes = new byte[TOKEN_BYTES];
+        StringBuilder sb = new StringBuilder(TOKEN_BYTES * 2);
+
+        new SecureRandom().nextBytes(bytes);
+        for (int i = 0; i < bytes.length; i++) {
+            sb.append(Hex.u1(bytes[i]));
+        }
+
+        if (file.exists() && !file.delete()) {
+            throw new IOException("can't delete stale " + file);
+        }
+
+        if (!file.createNewFile()) {
+            throw new IOException("can't create " + file);
+        }
+
+        /*
+         * Taking away everybody's access fails where there are no Unix
+         * permissions, that is on Windows, where the home directory
+         * keeps the file private instead.
+         */
+        boolean isPrivate = file.setReadable(false, false)
+            && file.setWritable(false, false)
+            && file.setReadable(true, true)
+            && file.setWritable(true, true);
+
+        if (!isPrivate && (File.separatorChar == '/')) {
+            file.delete();
+            throw new IOException("can't make " + file + " private");
+        }
+
+        String token = sb.toString();
+        Writer writer = new FileWriter(file);
+
+        try {
+            writer.write(token);
+        } finally {
+            writer.close();
+        }
+
+        file.deleteOnExit();
+        return token;
+    }
+
+    /**
+     * Reads the token of the daemon on the given port.
+     *
+     * @param port the daemon's port
+     * @return {@code null-ok;} the token, or {@code null} if there is
+     * no token file that can be read
+     */
+    public static String readToken(int port) {
+        try {
+            BufferedReader reader =
+                new BufferedReader(new FileReader(tokenFile(port)));
+
+            try {
+                return reader.readLine();
+            } finally {
+                reader.close();
+            }
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+}
@@ -24,28 +24,44 @@ import com.android.dx.command.UsageException;
 import com.android.dx.dex.cf.CfOptions;
 import com.android.dx.dex.cf.CfTranslator;
 import com.android.dx.dex.cf.CodeStatistics;
+import com.android.dx.dex.cf.OptimizerOptions;
+import com.android.dx.dex.cf.TranslationCache;
 import com.android.dx.dex.code.PositionList;
 import com.android.dx.dex.file.ClassDefItem;
 import com.android.dx.dex.file.DexFile;
 import com.android.dx.dex.file.EncodedMethod;
+import com.android.dx.dex.file.ReferenceSet;
+import com.android.dx.dex.file.Statistics;
 import com.android.dx.rop.annotation.Annotation;
 import com.android.dx.rop.annotation.Annotations;
 import com.android.dx.rop.annotation.AnnotationsList;
+import com.android.dx.rop.code.RegisterSpec;
 import com.android.dx.rop.cst.CstNat;
 import com.android.dx.rop.cst.CstUtf8;
 import com.mosync.android.StringPatcher;
 
+import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.FileReader;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.util.Arrays;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.jar.Attributes;
 import java.util.jar.JarEntry;
 import java.util.jar.JarOutputStream;
@@ -85,6 +101,12 @@ public class Main {
         "xml"
     };
 
+    /**
+     * number of class translations, per thread, which may be in flight
+     * before the oldest one is waited for and added to the output
+     */
+    private static final int PENDING_CLASSES_PER_THREAD = 4;
+
     /** number of warnings during processing */
     private static int warnings = 0;
 
@@ -94,15 +116,54 @@ public class Main {
     /** {@code non-null;} parsed command-line arguments */
     private static Arguments args;
 
-    /** {@code non-null;} output file in-progress */
+    /**
+     * {@code null-ok;} output file in-progress, or {@code null} when
+     * classes are split across several files by {@link #dexPacker}
+     */
     private static DexFile outputDex;
 
+    /**
+     * {@code null-ok;} packer of classes into several output files, with
+     * {@code --multi-dex}, or {@code null} if there is just
+     * {@link #outputDex}
+     */
+    private static MultiDexPacker dexPacker;
+
     /**
      * {@code null-ok;} map of resources to include in the output, or
      * {@code null} if resources are being ignored
      */
     private static TreeMap<String, byte[]> outputResources;
 
+    /**
+     * {@code null-ok;} pool of threads that classes get translated on, or
+     * {@code null} if classes are translated serially
+     */
+    private static ExecutorService classTranslatorPool;
+
+    /**
+     * {@code null-ok;} pool of threads that help translate the methods
+     * of large classes, or {@code null} if methods are translated
+     * serially; this is separate from {@link #classTranslatorPool}, as
+     * class translations wait for method translations. The two pools
+     * share {@code --num-threads} permits to translate, so that no more
+     * than that many threads are translating at once.
+     */
+    private static ExecutorService methodTranslatorPool;
+
+    /**
+     * {@code null-ok;} translations in progress on
+     * {@link #classTranslatorPool}, in the order that they must be added
+     * to the output
+     */
+    private static LinkedList<Future<ClassDefItem>> pendingClasses;
+
+    /**
+     * {@code null-ok;} cache of translated classes, or {@code null} if
+     * classes are always translated afresh
+     */
+    private static TranslationCache translationCache;
+
     /**
      * This class is uninstantiable.
      */
@@ -134,29 +195,85 @@ public class Main {
         warnings = 0;
         errors = 0;
 
+        /*
+         * Also reset the rest of the global state, which matters when
+         * this is called more than once in the same VM, as the daemon
+         * does.
+         */
+        CodeStatistics.reset();
+        OptimizerOptions.reset();
+
         args = arguments;
         args.makeCfOptions();
+        CodeStatistics.setProfiling(args.profile);
 
-        if (!processAllFiles()) {
-            return 1;
-        }
+        try {
+            if (!processAllFiles()) {
+                return 1;
+            }
 
-        byte[] outArray = writeDex();
+            CodeStatistics.Mark writeStart = CodeStatistics.mark();
 
-        if (outArray == null) {
-            return 2;
-        }
+            if (!writeDex()) {
+                return 2;
+            }
 
-        if (args.jarOutput) {
-            // Effectively free up the (often massive) DexFile memory.
+            if (args.jarOutput) {
+                if (!createJar(args.outName)) {
+                    return 3;
+                }
+            }
+
+            CodeStatistics.recordPhase(CodeStatistics.Phase.WRITE, writeStart);
+
+            if (args.statistics) {
+                DxConsole.out.println(getOutputStatistics().toHuman());
+            }
+
+            if (args.profile) {
+                CodeStatistics.dumpProfile(DxConsole.out, args.profileTop);
+
+                if ((args.profileJsonName != null) && !writeProfileJson()) {
+                    return 2;
+                }
+            }
+
+            return 0;
+        } finally {
+            // Don't hold onto the output until the next run.
             outputDex = null;
+            dexPacker = null;
+            outputResources = null;
+            translationCache = null;
+            RegisterSpec.clearInterns();
+        }
+    }
+
+    /**
+     * Writes the profile, and the statistics of the output file, as JSON
+     * to the file named by {@code --profile-json}.
+     *
+     * @return whether writing was successful
+     */
+    private static boolean writeProfileJson() {
+        try {
+            OutputStream out = openOutput(args.profileJsonName);
+            OutputStreamWriter writer = new OutputStreamWriter(out, "UTF-8");
 
-            if (!createJar(args.outName, outArray)) {
-                return 3;
+            try {
+                CodeStatistics.writeProfileJson(writer, args.profileTop,
+                        getOutputStatistics());
+                writer.flush();
+            } finally {
+                closeOutput(out);
             }
+        } catch (IOException ex) {
+            DxConsole.err.println("\ntrouble writing profile: " +
+                    ex.getMessage());
+            return false;
         }
 
-        return 0;
+        return true;
     }
 
     /**
@@ -166,28 +283,90 @@ public class Main {
      * @return whether processing was successful
      */
     private static boolean processAllFiles() {
-        outputDex = new DexFile();
+        if (args.multiDex) {
+            Set<String> mainDexClasses = null;
+
+            if (args.mainDexListFile != null) {
+                try {
+                    mainDexClasses = readMainDexList(args.mainDexListFile);
+                } catch (IOException ex) {
+                    DxConsole.err.println("trouble reading " +
+                            args.mainDexListFile + ": " + ex.getMessage());
+                    return false;
+                }
+            }
+
+            outputDex = null;
+            dexPacker = new MultiDexPacker(args.maxIdsPerDex, mainDexClasses,
+                    args.dedupeData);
+        } else {
+            outputDex = new DexFile();
+            outputDex.setDeduplicatingData(args.dedupeData);
+            dexPacker = null;
+        }
 
         if (args.jarOutput) {
             outputResources = new TreeMap<String, byte[]>();
+        } else {
+            outputResources = null;
         }
 
-        if (args.dumpWidth != 0) {
+        if ((args.dumpWidth != 0) && (outputDex != null)) {
             outputDex.setDumpWidth(args.dumpWidth);
         }
 
+        if (args.cacheDir != null) {
+            translationCache =
+                new TranslationCache(new File(args.cacheDir), args.cfOptions);
+        } else {
+            translationCache = null;
+        }
+
+        if (args.numThreads > 1) {
+            /*
+             * A class translation holds a permit for as long as it
+             * runs, including while it waits for help with its
+             * methods, so at most numThreads - 1 helpers can ever run.
+             */
+            classTranslatorPool = Executors.newFixedThreadPool(args.numThreads);
+            pendingClasses = new LinkedList<Future<ClassDefItem>>();
+            methodTranslatorPool =
+                Executors.newFixedThreadPool(args.numThreads - 1);
+            args.cfOptions.methodPool = methodTranslatorPool;
+            args.cfOptions.methodPoolThreads = args.numThreads - 1;
+            args.cfOptions.translatorPermits =
+                new Semaphore(args.numThreads);
+        }
+
         boolean any = false;
         String[] fileNames = args.fileNames;
 
         try {
-            for (int i = 0; i < fileNames.length; i++) {
-                any |= processOne(fileNames[i]);
+            try {
+                for (int i = 0; i < fileNames.length; i++) {
+                    any |= processOne(fileNames[i]);
+                }
+
+                if (classTranslatorPool != null) {
+                    any |= addPendingClasses(0);
+                }
+            } catch (StopProcessing ex) {
+                /*
+                 * Ignore it and just let the warning/error reporting do
+                 * their things.
+                 */
+            }
+        } finally {
+            if (classTranslatorPool != null) {
+                classTranslatorPool.shutdownNow();
+                classTranslatorPool = null;
+                pendingClasses = null;
+                methodTranslatorPool.shutdownNow();
+                methodTranslatorPool = null;
+                args.cfOptions.methodPool = null;
+                args.cfOptions.methodPoolThreads = 0;
+                args.cfOptions.translatorPermits = null;
             }
-        } catch (StopProcessing ex) {
-            /*
-             * Ignore it and just let the warning/error reporting do
-             * their things.
-             */
         }
 
         if (warnings != 0) {
@@ -210,6 +389,10 @@ public class Main {
             CodeStatistics.dumpStatistics(DxConsole.out);
         }
 
+        if ((translationCache != null) && args.statistics) {
+            translationCache.dumpStatistics(DxConsole.out);
+        }
+
         return true;
     }
 
@@ -243,8 +426,9 @@ public class Main {
                             "...");
                 }
             }
-        });
+        }, classTranslatorPool);
 
+        opener.setMapArchives(args.mapArchives);
         return opener.process();     
     }
 
@@ -291,27 +475,233 @@ public class Main {
      * @param bytes {@code non-null;} contents of the file
      * @return whether processing was successful
      */
-    private static boolean processClass(String name, byte[] bytes) {
+    private static boolean processClass(final String name,
+            final byte[] bytes) {
         if (! args.coreLibrary) {
             checkClassName(name);
         }
+
+        if (classTranslatorPool != null) {
+            /*
+             * Only the translation happens on the pool. Classes are
+             * still added to the output one at a time and in their
+             * original order, which keeps the output identical to
+             * that of a serial run.
+             */
+            pendingClasses.add(classTranslatorPool.submit(
+                    new Callable<ClassDefItem>() {
+                        public ClassDefItem call() {
+                            return translatePermitted(name, bytes);
+                        }
+                    }));
+            return addPendingClasses(
+                    args.numThreads * PENDING_CLASSES_PER_THREAD);
+        }
         
         try {
-            ClassDefItem clazz =
-                CfTranslator.translate(name, bytes, args.cfOptions);
-            outputDex.add(clazz);
+            ClassDefItem clazz = translateClass(name, bytes);
+            addToOutput(clazz);
             return true;
         } catch (ParseException ex) {
-            DxConsole.err.println("\ntrouble processing:");
-            if (args.debug) {
-                ex.printStackTrace(DxConsole.err);
-            } else {
-                ex.printContext(DxConsole.err);
+            reportParseException(ex);
+        }
+
+        return false;
+    }
+
+    /**
+     * Translates a single class on {@link #classTranslatorPool}, once
+     * one of the permits to translate is free.
+     *
+     * @param name {@code non-null;} name of the file
+     * @param bytes {@code non-null;} contents of the file
+     * @return {@code non-null;} the translated class
+     */
+    private static ClassDefItem translatePermitted(String name,
+            byte[] bytes) {
+        Semaphore permits = args.cfOptions.translatorPermits;
+
+        try {
+            permits.acquire();
+        } catch (InterruptedException ex) {
+            throw new RuntimeException(ex);
+        }
+
+        try {
+            return translateClass(name, bytes);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Translates a single class, going via the translation cache if
+     * there is one.
+     *
+     * @param name {@code non-null;} name of the file
+     * @param bytes {@code non-null;} contents of the file
+     * @return {@code non-null;} the translated class
+     */
+    private static ClassDefItem translateClass(String name, byte[] bytes) {
+        if (translationCache != null) {
+            return translationCache.translate(name, bytes);
+        }
+
+        return CfTranslator.translate(name, bytes, args.cfOptions);
+    }
+
+    /**
+     * Waits for the oldest pending class translations to finish and adds
+     * the results to the output, until no more than the given number of
+     * translations remain pending. Translation failures are reported
+     * here, in the same order that a serial run would report them.
+     *
+     * @param maxPending {@code >= 0;} how many translations may be left
+     * pending
+     * @return whether any of the classes that were waited for were
+     * successfully processed
+     */
+    private static boolean addPendingClasses(int maxPending) {
+        boolean any = false;
+
+        while (pendingClasses.size() > maxPending) {
+            Future<ClassDefItem> future = pendingClasses.removeFirst();
+
+            try {
+                addToOutput(future.get());
+                any = true;
+            } catch (InterruptedException ex) {
+                throw new RuntimeException(ex);
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof ParseException) {
+                    reportParseException((ParseException) cause);
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                } else {
+                    DxConsole.err.println(
+                            "\nUNEXPECTED TOP-LEVEL EXCEPTION:");
+                    cause.printStackTrace(DxConsole.err);
+                    errors++;
+                }
             }
         }
 
+        return any;
+    }
+
+    /**
+     * Adds a translated class to the output. With {@code --multi-dex},
+     * this may start a new output file. If the class is for the main
+     * dex file but doesn't fit in it, this updates the error count and
+     * throws an exception to stop processing.
+     *
+     * @param clazz {@code non-null;} the class
+     */
+    private static void addToOutput(ClassDefItem clazz) {
+        if (dexPacker == null) {
+            outputDex.add(clazz);
+            return;
+        }
+
+        int oldCount = dexPacker.getDexFiles().size();
+
+        if (!dexPacker.add(clazz)) {
+            DxConsole.err.println("\ntrouble processing \"" +
+                    clazz.getThisClass().toHuman() + "\":\n" +
+                    "too many method, field or type references for the " +
+                    "main dex file.\nTry putting fewer classes in the " +
+                    "main dex list.");
+            errors++;
+            throw new StopProcessing();
+        }
+
+        int newCount = dexPacker.getDexFiles().size();
+
+        /*
+         * Report files filling up, but not the file after a main dex
+         * file, which is started as soon as there's a class for it.
+         */
+        if (args.verbose && (newCount != oldCount)
+                && ((oldCount > 1) || (args.mainDexListFile == null))) {
+            ReferenceSet refs = dexPacker.getReferences(oldCount - 1);
+            DxConsole.out.println("starting " +
+                    MultiDexPacker.getFileName(newCount - 1) + "; " +
+                    MultiDexPacker.getFileName(oldCount - 1) + " has " +
+                    refs.getMethodCount() + " method, " +
+                    refs.getFieldCount() + " field and " +
+                    refs.getTypeCount() + " type references");
+        }
+    }
+
+    /**
+     * Reads the list of classes for the main dex file. Each line names
+     * the class file of one class, such as
+     * {@code com/example/Foo.class}; blank lines are ignored.
+     *
+     * @param fileName {@code non-null;} name of the list file
+     * @return {@code non-null;} the set of class file names
+     * @throws IOException on i/o problem
+     */
+    private static Set<String> readMainDexList(String fileName)
+            throws IOException {
+        HashSet<String> result = new HashSet<String>();
+        BufferedReader in = new BufferedReader(new FileReader(fileName));
+
+        try {
+            for (;;) {
+                String line = in.readLine();
+                if (line == null) {
+                    break;
+                }
+
+                line = line.trim();
+                if (line.length() != 0) {
+                    result.add(fixPath(line));
+                }
+            }
+        } finally {
+            in.close();
+        }
+
+        return result;
+    }
+
+    /**
+     * Gets the statistics of the output, which must already have been
+     * written. With {@code --multi-dex}, these are the totals of all the
+     * output files.
+     *
+     * @return {@code non-null;} the statistics
+     */
+    private static Statistics getOutputStatistics() {
+        if (dexPacker == null) {
+            return outputDex.getStatistics();
+        }
+
+        Statistics result = new Statistics();
+
+        for (DexFile dex : dexPacker.getDexFiles()) {
+            result.addAll(dex.getStatistics());
+        }
+
+        return result;
+    }
+
+    /**
+     * Reports a problem parsing a classfile, and counts it as a warning.
+     *
+     * @param ex {@code non-null;} the exception to report
+     */
+    private static void reportParseException(ParseException ex) {
+        DxConsole.err.println("\ntrouble processing:");
+        if (args.debug) {
+            ex.printStackTrace(DxConsole.err);
+        } else {
+            ex.printContext(DxConsole.err);
+        }
+
         warnings++;
-        return false;
     }
 
     /**
@@ -399,15 +789,19 @@ public class Main {
     }
 
     /**
-     * Converts {@link #outputDex} into a {@code byte[]}, write
-     * it out to the proper file (if any), and also do whatever human-oriented
-     * dumping is required.
+     * Writes {@link #outputDex} out to the proper file (if any), and also
+     * does whatever human-oriented dumping is required. When the output
+     * is a {@code .jar} file, this only arranges for {@link #createJar}
+     * to include the dex file. Unless there is dumping to do, the dex
+     * file is streamed straight from {@link #outputDex}, and never held
+     * in memory as a whole.
      *
-     * @return {@code null-ok;} the converted {@code byte[]} or {@code null}
-     * if there was a problem
+     * @return whether writing was successful
      */
-    private static byte[] writeDex() {
-        byte[] outArray = null;
+    private static boolean writeDex() {
+        if (dexPacker != null) {
+            return writeMultiDex();
+        }
 
         try {
             OutputStream out = null;
@@ -427,21 +821,33 @@ public class Main {
                      */
                     outputDex.toDex(null, false);
                     dumpMethod(outputDex, args.methodToDump, humanOut);
-                } else {
+                } else if (humanOut != null) {
                     /*
-                     * This is the usual case: Create an output .dex file,
-                     * and write it, dump it, etc.
+                     * The dump needs the whole file in memory anyway,
+                     * so write out that copy.
                      */
-                    outArray = outputDex.toDex(humanOut, args.verboseDump);
+                    byte[] outArray =
+                        outputDex.toDex(humanOut, args.verboseDump);
 
-                    if ((args.outName != null) && !args.jarOutput) {
+                    if (args.jarOutput) {
+                        outputResources.put(DEX_IN_JAR_NAME, outArray);
+                    } else if (args.outName != null) {
                         out = openOutput(args.outName);
                         out.write(outArray);
                     }
-                }
+                } else if (args.jarOutput) {
+                    // createJar() streams it from outputDex.
+                    outputResources.put(DEX_IN_JAR_NAME, null);
+                } else {
+                    /*
+                     * This is the usual case: Stream the output .dex
+                     * file straight to its destination.
+                     */
+                    if (args.outName != null) {
+                        out = openOutput(args.outName);
+                    }
 
-                if (args.statistics) {
-                    DxConsole.out.println(outputDex.getStatistics().toHuman());
+                    outputDex.writeTo(out, null, false);
                 }
             } finally {
                 if (humanOut != null) {
@@ -458,25 +864,80 @@ public class Main {
                 DxConsole.err.println("\ntrouble writing output: " +
                                    ex.getMessage());
             }
-            return null;
+            return false;
         }
 
-        return outArray;
+        return true;
     }
 
     /**
-     * Creates a jar file from the resources and given dex file array.
+     * Writes all the files of {@link #dexPacker} out, into the output
+     * directory, or arranges for {@link #createJar} to include them when
+     * the output is a {@code .jar} file.
+     *
+     * @return whether writing was successful
+     */
+    private static boolean writeMultiDex() {
+        ArrayList<DexFile> dexFiles = dexPacker.getDexFiles();
+        int sz = dexFiles.size();
+
+        if (args.jarOutput) {
+            for (int i = 0; i < sz; i++) {
+                // createJar() streams them from dexPacker.
+                outputResources.put(MultiDexPacker.getFileName(i), null);
+            }
+            return true;
+        }
+
+        try {
+            File dir = new File(args.outName);
+
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("can't create directory " + dir);
+            }
+
+            for (int i = 0; i < sz; i++) {
+                File file = new File(dir, MultiDexPacker.getFileName(i));
+                OutputStream out = openOutput(file.getPath());
+
+                try {
+                    dexFiles.get(i).writeTo(out, null, false);
+                } finally {
+                    closeOutput(out);
+                }
+
+                if (args.verbose) {
+                    DxConsole.out.println("wrote " + file + "; size " +
+                            file.length());
+                }
+            }
+        } catch (Exception ex) {
+            if (args.debug) {
+                DxConsole.err.println("\ntrouble writing output:");
+                ex.printStackTrace(DxConsole.err);
+            } else {
+                DxConsole.err.println("\ntrouble writing output: " +
+                                   ex.getMessage());
+            }
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Creates a jar file from the resources, which {@link #writeDex} has
+     * added the dex file to. A {@code null} entry in the resources map
+     * stands for a dex file, to be streamed from {@link #outputDex} or,
+     * with {@code --multi-dex}, from {@link #dexPacker}.
      *
      * @param fileName {@code non-null;} name of the file
-     * @param dexArray {@code non-null;} array containing the dex file
-     * to include
      * @return whether the creation was successful
      */
-    private static boolean createJar(String fileName, byte[] dexArray) {
+    private static boolean createJar(String fileName) {
         /*
-         * Make or modify the manifest (as appropriate), put the dex
-         * array into the resources map, and then process the entire
-         * resources map in a uniform manner.
+         * Make or modify the manifest (as appropriate), and then
+         * process the entire resources map in a uniform manner.
          */
 
         try {
@@ -484,8 +945,6 @@ public class Main {
             OutputStream out = openOutput(fileName);
             JarOutputStream jarOut = new JarOutputStream(out, manifest);
 
-            outputResources.put(DEX_IN_JAR_NAME, dexArray);
-
             try {
                 for (Map.Entry<String, byte[]> e :
                          outputResources.entrySet()) {
@@ -493,6 +952,21 @@ public class Main {
                     byte[] contents = e.getValue();
                     JarEntry entry = new JarEntry(name);
 
+                    if (contents == null) {
+                        DexFile dex = (dexPacker == null) ? outputDex :
+                            dexPacker.getDexFile(name);
+
+                        jarOut.putNextEntry(entry);
+                        dex.writeTo(jarOut, null, false);
+                        jarOut.closeEntry();
+
+                        if (args.verbose) {
+                            DxConsole.out.println("wrote " + name +
+                                    "; size " + entry.getSize());
+                        }
+                        continue;
+                    }
+
                     if (args.verbose) {
                         DxConsole.out.println("writing " + name + "; size " +
                                            contents.length + "...");
@@ -801,12 +1275,90 @@ public class Main {
         /** Filename containing list of methods to NOT optimize */
         public String dontOptimizeListFile = null;
 
+        /**
+         * {@code >= 0;} the most rop instructions in a method to fully
+         * optimize; {@code 0} for no limit
+         */
+        public int optimizeMaxInsns = 0;
+
+        /**
+         * {@code >= 0;} the most basic blocks in a method to fully
+         * optimize; {@code 0} for no limit
+         */
+        public int optimizeMaxBlocks = 0;
+
+        /**
+         * {@code >= 0;} the most milliseconds to spend optimizing a
+         * method; {@code 0} for no limit
+         */
+        public int optimizeMaxMillis = 0;
+
         /** Whether to print statistics to stdout at end of compile cycle */
         public boolean statistics;
 
+        /**
+         * whether to profile the phases of translation, and print the
+         * profile to stdout at end of compile cycle
+         */
+        public boolean profile = false;
+
+        /** {@code >= 0;} how many methods and classes to list in the profile */
+        public int profileTop = 10;
+
+        /**
+         * {@code null-ok;} file to also write the profile to as JSON, or
+         * {@code null} not to
+         */
+        public String profileJsonName = null;
+
         /** Options for dex.cf.* */
         public CfOptions cfOptions;
 
+        /** number of threads that may translate classes at once */
+        public int numThreads = 1;
+
+        /**
+         * {@code null-ok;} directory to cache translated classes in, or
+         * {@code null} not to cache them
+         */
+        public String cacheDir = null;
+
+        /**
+         * whether to split the output across several dex files if the
+         * references don't all fit in one
+         */
+        public boolean multiDex = false;
+
+        /**
+         * {@code null-ok;} file listing the classes that must go in the
+         * first dex file, with {@code --multi-dex}
+         */
+        public String mainDexListFile = null;
+
+        /**
+         * {@code >= 1;} the most method, field or type references to put
+         * in one dex file, with {@code --multi-dex}
+         */
+        public int maxIdsPerDex = 65536;
+
+        /**
+         * whether data items with equal encodings, such as identical
+         * debug info, share one copy in the output
+         */
+        public boolean dedupeData = false;
+
+        /**
+         * whether {@link #outName} names a directory to write dex files
+         * into, which is only possible with {@code --multi-dex}
+         */
+        public boolean outputIsDirectory = false;
+
+        /**
+         * whether input archives may be memory-mapped; there is no
+         * option for this, as only the dx daemon turns it off
+         */
+        public boolean mapArchives = true;
+
         /**
          * Parses the given command-line arguments.
          *
@@ -835,6 +1387,19 @@ public class Main {
                     coreLibrary = true;
                 } else if (arg.equals("--statistics")) {
                     statistics = true;
+                } else if (arg.equals("--profile")) {
+                    profile = true;
+                } else if (arg.startsWith("--profile=")) {
+                    arg = arg.substring(arg.indexOf('=') + 1);
+                    profile = true;
+                    profileTop = Integer.parseInt(arg);
+                    if (profileTop < 0) {
+                        System.err.println("--profile must be at least 0");
+                        throw new UsageException();
+                    }
+                } else if (arg.startsWith("--profile-json=")) {
+                    profile = true;
+                    profileJsonName = arg.substring(arg.indexOf('=') + 1);
                 } else if (arg.startsWith("--optimize-list=")) {
                     if (dontOptimizeListFile != null) {
                         System.err.println("--optimize-list and "
@@ -851,10 +1416,17 @@ public class Main {
                     }
                     optimize = true;
                     dontOptimizeListFile = arg.substring(arg.indexOf('=') + 1);
+                } else if (arg.startsWith("--optimize-max-insns=")) {
+                    optimizeMaxInsns = parseLimit(arg);
+                } else if (arg.startsWith("--optimize-max-blocks=")) {
+                    optimizeMaxBlocks = parseLimit(arg);
+                } else if (arg.startsWith("--optimize-max-time=")) {
+                    optimizeMaxMillis = parseLimit(arg);
                 } else if (arg.equals("--keep-classes")) {
                     keepClassesInJar = true;
                 } else if (arg.startsWith("--output=")) {
                     outName = arg.substring(arg.indexOf('=') + 1);
+                    outputIsDirectory = false;
                     if (outName.endsWith(".zip") ||
                             outName.endsWith(".jar") ||
                             outName.endsWith(".apk")) {
@@ -863,9 +1435,9 @@ public class Main {
                                outName.equals("-")) {
                         jarOutput = false;
                     } else {
-                        System.err.println("unknown output extension: " +
-                                           outName);
-                        throw new UsageException();
+                        // Checked once all the options are known.
+                        jarOutput = false;
+                        outputIsDirectory = true;
                     }
                 } else if (arg.startsWith("--dump-to=")) {
                     humanOutName = arg.substring(arg.indexOf('=') + 1);
@@ -890,6 +1462,30 @@ public class Main {
                     }
                 } else if (arg.equals("--no-locals")) {
                     localInfo = false;
+                } else if (arg.startsWith("--num-threads=")) {
+                    arg = arg.substring(arg.indexOf('=') + 1);
+                    numThreads = Integer.parseInt(arg);
+                    if (numThreads < 1) {
+                        System.err.println("--num-threads must be at " +
+                                           "least 1");
+                        throw new UsageException();
+                    }
+                } else if (arg.startsWith("--cache-dir=")) {
+                    cacheDir = arg.substring(arg.indexOf('=') + 1);
+                } else if (arg.equals("--multi-dex")) {
+                    multiDex = true;
+                } else if (arg.equals("--dedupe-data")) {
+                    dedupeData = true;
+                } else if (arg.startsWith("--main-dex-list=")) {
+                    mainDexListFile = arg.substring(arg.indexOf('=') + 1);
+                } else if (arg.startsWith("--set-max-idx-number=")) {
+                    arg = arg.substring(arg.indexOf('=') + 1);
+                    maxIdsPerDex = Integer.parseInt(arg);
+                    if (maxIdsPerDex < 1) {
+                        System.err.println("--set-max-idx-number must be " +
+                                           "at least 1");
+                        throw new UsageException();
+                    }
                  
                 } else if (arg.equals("--patch-string")) {
                 	//
@@ -925,9 +1521,48 @@ public class Main {
                 humanOutName = "-";
             }
 
+            if (multiDex) {
+                if (!(jarOutput || outputIsDirectory)) {
+                    System.err.println("--multi-dex needs an archive or " +
+                            "a directory as its --output");
+                    throw new UsageException();
+                }
+
+                if (humanOutName != null) {
+                    System.err.println("--multi-dex is incompatible with " +
+                            "--dump-to and --dump-method");
+                    throw new UsageException();
+                }
+            } else if (outputIsDirectory) {
+                System.err.println("unknown output extension: " + outName);
+                throw new UsageException();
+            } else if (mainDexListFile != null) {
+                System.err.println("--main-dex-list needs --multi-dex");
+                throw new UsageException();
+            }
+
             makeCfOptions();
         }
 
+        /**
+         * Parses the value of an optimizer budget option.
+         *
+         * @param arg {@code non-null;} the option, including its value
+         * @return {@code >= 0;} the value
+         */
+        private static int parseLimit(String arg) {
+            int result =
+                Integer.parseInt(arg.substring(arg.indexOf('=') + 1));
+
+            if (result < 0) {
+                System.err.println(arg.substring(0, arg.indexOf('=')) +
+                        " must be at least 0");
+                throw new UsageException();
+            }
+
+            return result;
+        }
+
         /**
          * Copies relevent arguments over into a CfOptions instance.
          */
@@ -940,6 +1575,9 @@ public class Main {
             cfOptions.optimize = optimize;
             cfOptions.optimizeListFile = optimizeListFile;
             cfOptions.dontOptimizeListFile = dontOptimizeListFile;
+            cfOptions.optimizeMaxInsns = optimizeMaxInsns;
+            cfOptions.optimizeMaxBlocks = optimizeMaxBlocks;
+            cfOptions.optimizeMaxMillis = optimizeMaxMillis;
             cfOptions.statistics = statistics;
             cfOptions.warn = DxConsole.err;
         }
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.command.dexer;
+
+import com.android.dx.dex.file.ClassDefItem;
+import com.android.dx.dex.file.DexFile;
+import com.android.dx.dex.file.ReferenceSet;
+
+import java.util.ArrayList;
+import java.util.Set;
+
+/**
+ * Packer of classes into as many dex files as it takes to keep the
+ * method, field and type references of each under a limit. Classes
+ * are packed greedily as they are added, in order: each goes into the
+ * file being filled, unless it wouldn't fit, in which case a new file
+ * is started.
+ *
+ * <p>Classes named in the main dex list, if there is one, all go into
+ * the first file, which holds nothing else; the rest are packed into
+ * the files after it.</p>
+ */
+/*package*/ final class MultiDexPacker {
+    /** {@code >= 1;} the most references of each kind in one file */
+    private final int maxIds;
+
+    /**
+     * {@code null-ok;} file names of the classes for the first file, or
+     * {@code null} if any classes may go there
+     */
+    private final Set<String> mainDexClasses;
+
+    /** whether the files share data items with equal encodings */
+    private final boolean dedupeData;
+
+    /** {@code non-null;} the files, in order */
+    private final ArrayList<DexFile> dexFiles;
+
+    /** {@code non-null;} the references of each of {@link #dexFiles} */
+    private final ArrayList<ReferenceSet> references;
+
+    /**
+     * Constructs an instance.
+     *
+     * @param maxIds {@code >= 1;} the most references of each kind to
+     * put in one file
+     * @param mainDexClasses {@code null-ok;} file names, such as
+     * {@code "com/example/Foo.class"}, of the classes to put in the
+     * first file, or {@code null} to pack that one like the others
+     * @param dedupeData whether the files should share data items with
+     * equal encodings; see {@link DexFile#setDeduplicatingData}
+     */
+    public MultiDexPacker(int maxIds, Set<String> mainDexClasses,
+            boolean dedupeData) {
+        this.maxIds = maxIds;
+        this.mainDexClasses = mainDexClasses;
+        this.dedupeData = dedupeData;
+        this.dexFiles = new ArrayList<DexFile>();
+        this.references = new ArrayList<ReferenceSet>();
+
+        startFile();
+    }
+
+    /**
+     * Gets the name that the file at the given index should have.
+     *
+     * @param n {@code >= 0;} the index
+     * @return {@code non-null;} the name, such as {@code "classes2.dex"}
+     */
+    public static String getFileName(int n) {
+        return (n == 0) ? "classes.dex" : ("classes" + (n + 1) + ".dex");
+    }
+
+    /**
+     * Adds a class to one of the files.
+     *
+     * @param clazz {@code non-null;} the class
+     * @return {@code false} if the class belongs in the first file but
+     * doesn't fit there, in which case it isn't added; {@code true} if
+     * it was added
+     */
+    public boolean add(ClassDefItem clazz) {
+        ReferenceSet refs = ReferenceSet.of(clazz);
+        int last = dexFiles.size() - 1;
+
+        if (mainDexClasses != null) {
+            String name =
+                clazz.getThisClass().getClassType().getClassName() + ".class";
+
+            if (mainDexClasses.contains(name)) {
+                if (!references.get(0).fitsWith(refs, maxIds)) {
+                    return false;
+                }
+
+                addTo(0, clazz, refs);
+                return true;
+            }
+
+            if (last == 0) {
+                // The first file is only for the main classes.
+                last = startFile();
+            }
+        }
+
+        ReferenceSet lastRefs = references.get(last);
+
+        /*
+         * A class that doesn't fit even in an empty file still gets a
+         * file to itself, and writing it out fails as it always would
+         * have.
+         */
+        if ((lastRefs.getTypeCount() != 0)
+                && !lastRefs.fitsWith(refs, maxIds)) {
+            last = startFile();
+        }
+
+        addTo(last, clazz, refs);
+        return true;
+    }
+
+    /**
+     * Gets the files, in order.
+     *
+     * @return {@code non-null;} the files; the list must not be modified
+     */
+    public ArrayList<DexFile> getDexFiles() {
+        return dexFiles;
+    }
+
+    /**
+     * Gets the file with the given name.
+     *
+     * @param name {@code non-null;} the name
+     * @return {@code null-ok;} the file, or {@code null} if there is no
+     * file of that name
+     */
+    public DexFile getDexFile(String name) {
+        int sz = dexFiles.size();
+
+        for (int i = 0; i < sz; i++) {
+            if (getFileName(i).equals(name)) {
+                return dexFiles.get(i);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Gets the references of the file at the given index.
+     *
+     * @param n {@code >= 0;} the index
+     * @return {@code non-null;} the references
+     */
+    public ReferenceSet getReferences(int n) {
+        return references.get(n);
+    }
+
+    /**
+     * Starts a new, empty file.
+     *
+     * @return the index of the new file
+     */
+    private int startFile() {
+        DexFile file = new DexFile();
+
+        file.setDeduplicatingData(dedupeData);
+        dexFiles.add(file);
+        references.add(new ReferenceSet());
+
+        return dexFiles.size() - 1;
+    }
+
+    /**
+     * Adds a class to the given file.
+     *
+     * @param n {@code >= 0;} the index of the file
+     * @param clazz {@code non-null;} the class
+     * @param refs {@code non-null;} the class's references
+     */
+    private void addTo(int n, ClassDefItem clazz, ReferenceSet refs) {
+        dexFiles.get(n).add(clazz);
+        references.get(n).addAll(refs);
+    }
+}
@@ -53,4 +53,10 @@ class Args {
     /** if non-null, an explicit method to dump */
     String method;
 
+    /**
+     * number of threads to dump classes on; with more than one, the
+     * dump of each class is buffered until it can be written in order
+     */
+    int numThreads = 1;
+
 }
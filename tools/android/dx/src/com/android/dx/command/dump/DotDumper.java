@@ -20,9 +20,9 @@ import com.android.dx.cf.code.ConcreteMethod;
 import com.android.dx.cf.code.Ropper;
 import com.android.dx.cf.direct.DirectClassFile;
 import com.android.dx.cf.direct.StdAttributeFactory;
-import com.android.dx.cf.iface.Member;
 import com.android.dx.cf.iface.Method;
-import com.android.dx.cf.iface.ParseObserver;
+import com.android.dx.cf.iface.ParseException;
+import com.android.dx.cf.iface.MethodList;
 import com.android.dx.rop.code.BasicBlock;
 import com.android.dx.rop.code.BasicBlockList;
 import com.android.dx.rop.code.RopMethod;
@@ -34,25 +34,30 @@ import com.android.dx.util.ByteArray;
 import com.android.dx.util.Hex;
 import com.android.dx.util.IntList;
 
+import java.io.PrintStream;
+
 /**
  * Dumps the pred/succ graph of methods into a format compatible
  * with the popular graph utility "dot".
  */
-public class DotDumper implements ParseObserver {
+public class DotDumper {
     private DirectClassFile classFile;
 
     private final byte[] bytes;
+    private final PrintStream out;
     private final String filePath;
     private final boolean strictParse;
     private final boolean optimize;
     private final Args args;
 
-    static void dump(byte[] bytes, String filePath, Args args) {
-        new DotDumper(bytes, filePath, args).run();
+    static void dump(byte[] bytes, PrintStream out, String filePath,
+            Args args) {
+        new DotDumper(bytes, out, filePath, args).run();
     }
 
-    DotDumper(byte[] bytes, String filePath, Args args) {
+    DotDumper(byte[] bytes, PrintStream out, String filePath, Args args) {
         this.bytes = bytes;
+        this.out = out;
         this.filePath = filePath;
         this.strictParse = args.strictParse;
         this.optimize = args.optimize;
@@ -63,19 +68,41 @@ public class DotDumper implements ParseObserver {
         ByteArray ba = new ByteArray(bytes);
 
         /*
-         * First, parse the file completely, so we can safely refer to
-         * attributes, etc.
+         * Nothing but the methods is dumped, so there is no need to
+         * observe a second parse; the methods of the one complete
+         * parse are walked in file order instead.
          */
         classFile = new DirectClassFile(ba, filePath, strictParse);
         classFile.setAttributeFactory(StdAttributeFactory.THE_ONE);
-        classFile.getMagic(); // Force parsing to happen.
-
-        // Next, reparse it and observe the process.
-        DirectClassFile liveCf =
-            new DirectClassFile(ba, filePath, strictParse);
-        liveCf.setAttributeFactory(StdAttributeFactory.THE_ONE);
-        liveCf.setObserver(this);
-        liveCf.getMagic(); // Force parsing to happen.
+
+        MethodList methods = classFile.getMethods();
+        int sz = methods.size();
+
+        for (int i = 0; i < sz; i++) {
+            Method one = methods.get(i);
+            String name = one.getName().getString();
+
+            if (!shouldDumpMethod(name)
+                    || ((one.getAccessFlags() &
+                            (AccessFlags.ACC_ABSTRACT |
+                                    AccessFlags.ACC_NATIVE)) != 0)) {
+                // There is no code to make a graph of.
+                continue;
+            }
+
+            try {
+                dumpMethod(name, one);
+            } catch (ParseException ex) {
+                ex.addContext("...while dumping methods[" + i + "]");
+                ex.addContext("...while dumping " + filePath);
+                throw ex;
+            } catch (RuntimeException ex) {
+                ParseException pe = new ParseException(ex);
+                pe.addContext("...while dumping methods[" + i + "]");
+                pe.addContext("...while dumping " + filePath);
+                throw pe;
+            }
+        }
     }
 
     /**
@@ -86,31 +113,14 @@ public class DotDumper implements ParseObserver {
         return args.method == null || args.method.equals(name);
     }
 
-    public void changeIndent(int indentDelta) {
-        // This space intentionally left blank.
-    }
-
-    public void parsed(ByteArray bytes, int offset, int len, String human) {
-        // This space intentionally left blank.
-    }
-
-    /** {@inheritDoc} */
-    public void startParsingMember(ByteArray bytes, int offset, String name,
-                                   String descriptor) {
-        // This space intentionally left blank.
-    }
-
-    public void endParsingMember(ByteArray bytes, int offset, String name,
-                                 String descriptor, Member member) {
-        if (!(member instanceof Method)) {
-            return;
-        }
-
-        if (!shouldDumpMethod(name)) {
-            return;
-        }
-
-        ConcreteMethod meth = new ConcreteMethod((Method) member, classFile,
+    /**
+     * Dumps the graph of one method.
+     *
+     * @param name {@code non-null;} the method name
+     * @param method {@code non-null;} the method
+     */
+    private void dumpMethod(String name, Method method) {
+        ConcreteMethod meth = new ConcreteMethod(method, classFile,
                                                  true, true);
 
         TranslationAdvice advice = DexTranslationAdvice.THE_ONE;
@@ -124,9 +134,9 @@ public class DotDumper implements ParseObserver {
                     true, advice);
         }
 
-        System.out.println("digraph "  + name + "{");
+        out.println("digraph "  + name + "{");
 
-        System.out.println("\tfirst -> n"
+        out.println("\tfirst -> n"
                 + Hex.u2(rmeth.getFirstLabel()) + ";");
 
         BasicBlockList blocks = rmeth.getBlocks();
@@ -138,23 +148,23 @@ public class DotDumper implements ParseObserver {
             IntList successors = bb.getSuccessors();
 
             if (successors.size() == 0) {
-                System.out.println("\tn" + Hex.u2(label) + " -> returns;");
+                out.println("\tn" + Hex.u2(label) + " -> returns;");
             } else if (successors.size() == 1) {
-                System.out.println("\tn" + Hex.u2(label) + " -> n"
+                out.println("\tn" + Hex.u2(label) + " -> n"
                         + Hex.u2(successors.get(0)) + ";");
             } else {
-                System.out.print("\tn" + Hex.u2(label) + " -> {");
+                out.print("\tn" + Hex.u2(label) + " -> {");
                 for (int j = 0; j < successors.size(); j++ ) {
                     int successor = successors.get(j);
 
                     if (successor != bb.getPrimarySuccessor()) {
-                        System.out.print(" n" + Hex.u2(successor) + " ");
+                        out.print(" n" + Hex.u2(successor) + " ");
                     }
 
                 }
-                System.out.println("};");
+                out.println("};");
 
-                System.out.println("\tn" + Hex.u2(label) + " -> n"
+                out.println("\tn" + Hex.u2(label) + " -> n"
                         + Hex.u2(bb.getPrimarySuccessor())
                         + " [label=\"primary\"];");
 
@@ -162,6 +172,6 @@ public class DotDumper implements ParseObserver {
             }
         }
 
-        System.out.println("}");
+        out.println("}");
     }
 }
@@ -16,19 +16,46 @@
 
 package com.android.dx.command.dump;
 
+import com.android.dx.cf.direct.ClassPathOpener;
 import com.android.dx.cf.iface.ParseException;
 import com.android.dx.util.FileUtils;
 import com.android.dx.util.HexParser;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
 import java.io.UnsupportedEncodingException;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
- * Main class for the class file dumper.
+ * Main class for the class file dumper. Classes are dumped one at a
+ * time, as they are read, so that only one of them has to be held in
+ * memory at once (or, with {@code --parallel}, a few per thread).
  */
 public class Main {
+    /**
+     * how many dumps per thread may be waiting to be written out, with
+     * {@code --parallel}
+     */
+    private static final int PENDING_DUMPS_PER_THREAD = 4;
 
     static Args parsedArgs = new Args();
 
+    /** {@code null-ok;} pool to dump classes on, with {@code --parallel} */
+    private static ExecutorService dumpPool;
+
+    /**
+     * {@code null-ok;} dumps which have not yet been written out, oldest
+     * first; non-null exactly when {@link #dumpPool} is
+     */
+    private static LinkedList<Future<BufferedDump>> pendingDumps;
+
     /**
      * This class is uninstantiable.
      */
@@ -70,6 +97,12 @@ public class Main {
             } else if (arg.startsWith("--method=")) {
                 arg = arg.substring(arg.indexOf('=') + 1);
                 parsedArgs.method = arg;
+            } else if (arg.equals("--parallel")) {
+                parsedArgs.numThreads =
+                    Runtime.getRuntime().availableProcessors();
+            } else if (arg.startsWith("--parallel=")) {
+                arg = arg.substring(arg.indexOf('=') + 1);
+                parsedArgs.numThreads = Integer.parseInt(arg);
             } else {
                 System.err.println("unknown option: " + arg);
                 throw new RuntimeException("usage");
@@ -81,51 +114,233 @@ public class Main {
             throw new RuntimeException("usage");
         }
 
-        for (/*at*/; at < args.length; at++) {
-            try {
-                String name = args[at];
-                System.out.println("reading " + name + "...");
-                byte[] bytes = FileUtils.readFile(name);
-                if (!name.endsWith(".class")) {
-                    String src;
-                    try {
-                        src = new String(bytes, "utf-8");
-                    } catch (UnsupportedEncodingException ex) {
-                        throw new RuntimeException("shouldn't happen", ex);
+        if (parsedArgs.ssaBlocks) {
+            // --optimize ignored with --ssa-blocks
+            parsedArgs.optimize = false;
+        }
+
+        if (parsedArgs.numThreads > 1) {
+            dumpPool = Executors.newFixedThreadPool(parsedArgs.numThreads);
+            pendingDumps = new LinkedList<Future<BufferedDump>>();
+        }
+
+        try {
+            for (/*at*/; at < args.length; at++) {
+                processFile(args[at]);
+            }
+
+            if (dumpPool != null) {
+                writePendingDumps(0);
+            }
+        } finally {
+            if (dumpPool != null) {
+                dumpPool.shutdownNow();
+                dumpPool = null;
+                pendingDumps = null;
+            }
+        }
+    }
+
+    /**
+     * Processes one file named on the commandline. Archives and
+     * directories are processed class by class; any other file is
+     * taken to be a class file if its name says so, or a hex dump of
+     * one otherwise.
+     *
+     * @param name {@code non-null;} name of the file
+     */
+    private static void processFile(String name) {
+        if (new File(name).isDirectory() || name.endsWith(".zip")
+                || name.endsWith(".jar") || name.endsWith(".apk")) {
+            ClassPathOpener opener = new ClassPathOpener(name, false,
+                    new ClassPathOpener.Consumer() {
+                public boolean processFileBytes(String name, byte[] bytes) {
+                    if (!name.endsWith(".class")) {
+                        return false;
                     }
-                    bytes = HexParser.parse(src);
+
+                    processOne(name, bytes);
+                    return true;
                 }
-                processOne(name, bytes);
-            } catch (ParseException ex) {
-                System.err.println("\ntrouble parsing:");
-                if (parsedArgs.debug) {
-                    ex.printStackTrace();
-                } else {
-                    ex.printContext(System.err);
+
+                public void onException(Exception ex) {
+                    if (ex instanceof RuntimeException) {
+                        throw (RuntimeException) ex;
+                    }
+
+                    throw new RuntimeException(ex);
                 }
+
+                public void onProcessArchiveStart(File file) {
+                    // This space intentionally left blank.
+                }
+            });
+
+            opener.process();
+            return;
+        }
+
+        byte[] bytes = FileUtils.readFile(name);
+        if (!name.endsWith(".class")) {
+            String src;
+            try {
+                src = new String(bytes, "utf-8");
+            } catch (UnsupportedEncodingException ex) {
+                throw new RuntimeException("shouldn't happen", ex);
             }
+            bytes = HexParser.parse(src);
         }
+        processOne(name, bytes);
     }
 
     /**
-     * Processes one file.
+     * Processes one class, either right away or, with
+     * {@code --parallel}, on {@link #dumpPool}.
      *
      * @param name {@code non-null;} name of the file
      * @param bytes {@code non-null;} contents of the file
      */
     private static void processOne(String name, byte[] bytes) {
+        if (dumpPool == null) {
+            try {
+                dump(name, bytes, System.out);
+            } catch (ParseException ex) {
+                reportParseException(ex);
+            }
+            return;
+        }
+
+        pendingDumps.add(dumpPool.submit(new BufferedDump(name, bytes)));
+        writePendingDumps(parsedArgs.numThreads * PENDING_DUMPS_PER_THREAD);
+    }
+
+    /**
+     * Dumps one class.
+     *
+     * @param name {@code non-null;} name of the file
+     * @param bytes {@code non-null;} contents of the file
+     * @param out {@code non-null;} where to dump to
+     */
+    private static void dump(String name, byte[] bytes, PrintStream out) {
+        out.println("reading " + name + "...");
+
         if (parsedArgs.dotDump) {
-            DotDumper.dump(bytes, name, parsedArgs);
+            DotDumper.dump(bytes, out, name, parsedArgs);
         } else if (parsedArgs.basicBlocks) {
-            BlockDumper.dump(bytes, System.out, name, false, parsedArgs);
+            BlockDumper.dump(bytes, out, name, false, parsedArgs);
         } else if (parsedArgs.ropBlocks) {
-            BlockDumper.dump(bytes, System.out, name, true, parsedArgs);
+            BlockDumper.dump(bytes, out, name, true, parsedArgs);
         } else if (parsedArgs.ssaBlocks) {
-            // --optimize ignored with --ssa-blocks
-            parsedArgs.optimize = false;
-            SsaDumper.dump(bytes, System.out, name, parsedArgs);
+            SsaDumper.dump(bytes, out, name, parsedArgs);
         } else {
-            ClassDumper.dump(bytes, System.out, name, parsedArgs);
+            ClassDumper.dump(bytes, out, name, parsedArgs);
+        }
+    }
+
+    /**
+     * Reports a failure to parse a class.
+     *
+     * @param ex {@code non-null;} the failure
+     */
+    private static void reportParseException(ParseException ex) {
+        System.err.println("\ntrouble parsing:");
+        if (parsedArgs.debug) {
+            ex.printStackTrace();
+        } else {
+            ex.printContext(System.err);
+        }
+    }
+
+    /**
+     * Waits for the oldest pending dumps to finish and writes them out,
+     * until no more than the given number of them remain pending.
+     *
+     * @param maxPending {@code >= 0;} how many dumps may be left pending
+     */
+    private static void writePendingDumps(int maxPending) {
+        while (pendingDumps.size() > maxPending) {
+            Future<BufferedDump> future = pendingDumps.removeFirst();
+
+            try {
+                future.get().writeOut();
+            } catch (InterruptedException ex) {
+                throw new RuntimeException(ex);
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new RuntimeException(cause);
+            }
+        }
+    }
+
+    /**
+     * Dump of one class, made on {@link #dumpPool} into a buffer and
+     * kept there until it can be written out in order.
+     */
+    private static final class BufferedDump
+            implements Callable<BufferedDump> {
+        /** {@code non-null;} name of the file */
+        private final String name;
+
+        /**
+         * {@code null-ok;} contents of the file; dropped once they
+         * have been dumped
+         */
+        private byte[] bytes;
+
+        /** {@code non-null;} the dump */
+        private final ByteArrayOutputStream output;
+
+        /** {@code null-ok;} why the dump was cut short, if it was */
+        private RuntimeException failure;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param name {@code non-null;} name of the file
+         * @param bytes {@code non-null;} contents of the file
+         */
+        public BufferedDump(String name, byte[] bytes) {
+            this.name = name;
+            this.bytes = bytes;
+            this.output = new ByteArrayOutputStream(bytes.length * 4);
+            this.failure = null;
+        }
+
+        /** {@inheritDoc} */
+        public BufferedDump call() {
+            PrintStream out = new PrintStream(output);
+
+            try {
+                dump(name, bytes, out);
+            } catch (RuntimeException ex) {
+                failure = ex;
+            }
+
+            out.flush();
+            bytes = null;
+            return this;
+        }
+
+        /**
+         * Writes out the dump, and then reports or rethrows whatever cut
+         * it short, just as if it had been made right there.
+         */
+        public void writeOut() {
+            try {
+                output.writeTo(System.out);
+            } catch (IOException ex) {
+                // PrintStream never throws.
+                throw new RuntimeException(ex);
+            }
+
+            if (failure instanceof ParseException) {
+                reportParseException((ParseException) failure);
+            } else if (failure != null) {
+                throw failure;
+            }
         }
     }
 }
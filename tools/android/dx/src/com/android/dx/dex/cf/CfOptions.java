@@ -17,8 +17,11 @@
 package com.android.dx.dex.cf;
 
 import com.android.dx.dex.code.PositionList;
+import com.android.dx.ssa.Optimizer;
 
 import java.io.PrintStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
 
 /**
  * A class to contain options passed into dex.cf
@@ -42,9 +45,51 @@ public class CfOptions {
     /** filename containing list of methods <i>not</i> to optimize */
     public String dontOptimizeListFile = null;
 
+    /**
+     * {@code >= 0;} the most rop instructions in a method to fully
+     * optimize; {@code 0} for no limit
+     */
+    public int optimizeMaxInsns = 0;
+
+    /**
+     * {@code >= 0;} the most basic blocks in a method to fully
+     * optimize; {@code 0} for no limit
+     */
+    public int optimizeMaxBlocks = 0;
+
+    /**
+     * {@code >= 0;} the most milliseconds to spend optimizing a method;
+     * {@code 0} for no limit
+     */
+    public int optimizeMaxMillis = 0;
+
+    /**
+     * {@code non-null;} liveness analysis engine for the optimizer's
+     * register allocation
+     */
+    public Optimizer.LivenessEngine livenessEngine =
+        Optimizer.LivenessEngine.WORKLIST;
+
     /** whether to print statistics to stdout at end of compile cycle */
     public boolean statistics;
 
     /** where to issue warnings to */
     public PrintStream warn = System.err;
+
+    /**
+     * {@code null-ok;} pool of threads to help translate the methods of
+     * large classes on, or {@code null} to translate them serially
+     */
+    public ExecutorService methodPool = null;
+
+    /** number of threads in {@link #methodPool}, if there is one */
+    public int methodPoolThreads = 0;
+
+    /**
+     * {@code null-ok;} permits to translate, one for each thread that
+     * may be translating at once, shared by the threads translating
+     * classes and those of {@link #methodPool}; {@code null} if there
+     * is no limit
+     */
+    public Semaphore translatorPermits = null;
 }
@@ -52,8 +52,16 @@ import com.android.dx.rop.cst.TypedConstant;
 import com.android.dx.rop.type.Type;
 import com.android.dx.rop.type.TypeList;
 import com.android.dx.ssa.Optimizer;
+import com.android.dx.ssa.OptimizerBudget;
 import com.android.dx.util.ExceptionWithContext;
 
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Static method that turns {@code byte[]}s containing Java
  * classfiles into {@link ClassDefItem} instances.
@@ -62,6 +70,12 @@ public class CfTranslator {
     /** set to {@code true} to enable development-time debugging code */
     private static final boolean DEBUG = false;
 
+    /**
+     * the fewest methods that a class must have for its methods to be
+     * translated on several threads, when there is a pool for it
+     */
+    private static final int MIN_PARALLEL_METHODS = 8;
+
     /**
      * This class is uninstantiable.
      */
@@ -82,7 +96,15 @@ public class CfTranslator {
     public static ClassDefItem translate(String filePath, byte[] bytes,
             CfOptions args) {
         try {
-            return translate0(filePath, bytes, args);
+            CodeStatistics.Mark start = CodeStatistics.mark();
+            ClassDefItem result = translate0(filePath, bytes, args);
+
+            if (start != null) {
+                CodeStatistics.recordClass(result.getThisClass().toHuman(),
+                        start);
+            }
+
+            return result;
         } catch (RuntimeException ex) {
             String msg = "...while processing " + filePath;
             throw ExceptionWithContext.withContext(ex, msg);
@@ -102,11 +124,13 @@ public class CfTranslator {
      */
     private static ClassDefItem translate0(String filePath, byte[] bytes,
             CfOptions args) {
+        CodeStatistics.Mark parseStart = CodeStatistics.mark();
         DirectClassFile cf =
             new DirectClassFile(bytes, filePath, args.strictNameCheck);
 
         cf.setAttributeFactory(StdAttributeFactory.THE_ONE);
         cf.getMagic();
+        CodeStatistics.recordPhase(CodeStatistics.Phase.PARSE, parseStart);
 
         OptimizerOptions.loadOptimizeLists(args.optimizeListFile,
                 args.dontOptimizeListFile);
@@ -222,6 +246,7 @@ public class CfTranslator {
         CstType thisClass = cf.getThisClass();
         MethodList methods = cf.getMethods();
         int sz = methods.size();
+        TranslatedCode[] codes = translateAllCode(cf, args);
 
         for (int i = 0; i < sz; i++) {
             Method one = methods.get(i);
@@ -231,68 +256,15 @@ public class CfTranslator {
                 boolean isStatic = AccessFlags.isStatic(accessFlags);
                 boolean isPrivate = AccessFlags.isPrivate(accessFlags);
                 boolean isNative = AccessFlags.isNative(accessFlags);
-                boolean isAbstract = AccessFlags.isAbstract(accessFlags);
                 boolean isConstructor = meth.isInstanceInit() ||
                     meth.isClassInit();
                 DalvCode code;
 
-                if (isNative || isAbstract) {
+                if (codes[i] == null) {
                     // There's no code for native or abstract methods.
                     code = null;
                 } else {
-                    ConcreteMethod concrete =
-                        new ConcreteMethod(one, cf,
-                                (args.positionInfo != PositionList.NONE),
-                                args.localInfo);
-
-                    TranslationAdvice advice;
-
-                    advice = DexTranslationAdvice.THE_ONE;
-
-                    RopMethod rmeth = Ropper.convert(concrete, advice);
-                    RopMethod nonOptRmeth = null;
-                    int paramSize;
-
-                    paramSize = meth.getParameterWordCount(isStatic);
-    
-                    String canonicalName 
-                            = thisClass.getClassType().getDescriptor()
-                                + "." + one.getName().getString();
-
-                    if (args.optimize &&
-                            OptimizerOptions.shouldOptimize(canonicalName)) {
-                        if (DEBUG) {
-                            System.err.println("Optimizing " + canonicalName);
-                        }
-
-                        nonOptRmeth = rmeth;
-                        rmeth = Optimizer.optimize(rmeth,
-                                paramSize, isStatic, args.localInfo, advice);
-
-                        if (DEBUG) {
-                            OptimizerOptions.compareOptimizerStep(nonOptRmeth,
-                                    paramSize, isStatic, args, advice, rmeth);
-                        }
-
-                        if (args.statistics) {
-                            CodeStatistics.updateRopStatistics(
-                                    nonOptRmeth, rmeth);
-                        }
-                    }
-
-                    LocalVariableInfo locals = null;
-
-                    if (args.localInfo) {
-                        locals = LocalVariableExtractor.extract(rmeth);
-                    }
-
-                    code = RopTranslator.translate(rmeth, args.positionInfo,
-                            locals, paramSize);
-
-                    if (args.statistics && nonOptRmeth != null) {
-                        updateDexStatistics(args, rmeth, nonOptRmeth, locals,
-                                paramSize, concrete.getCode().size());
-                    }
+                    code = codes[i].getCode(args.warn);
                 }
 
                 // Preserve the synchronized flag as its "declared" variant...
@@ -342,6 +314,217 @@ public class CfTranslator {
         }
     }
 
+    /**
+     * Helper for {@link #processMethods}, which translates the code of
+     * each method of the given class that has any. If the class is
+     * large enough and there is a {@link CfOptions#methodPool}, the
+     * threads of the pool help the calling thread do so, each taking
+     * the next method not yet taken until there are none left. A
+     * helper only does so if it can get one of the
+     * {@link CfOptions#translatorPermits}, which the calling thread is
+     * expected to hold one of already.
+     *
+     * @param cf {@code non-null;} class being translated
+     * @param args {@code non-null;} command-line args
+     * @return {@code non-null;} the translated code, indexed like the
+     * methods of the class, with {@code null} for methods without code
+     */
+    private static TranslatedCode[] translateAllCode(final DirectClassFile cf,
+            final CfOptions args) {
+        final MethodList methods = cf.getMethods();
+        final int sz = methods.size();
+        final TranslatedCode[] result = new TranslatedCode[sz];
+        final AtomicInteger nextIndex = new AtomicInteger(0);
+        final CountDownLatch finished = new CountDownLatch(sz);
+
+        final Runnable worker = new Runnable() {
+            public void run() {
+                for (;;) {
+                    int i = nextIndex.getAndIncrement();
+                    if (i >= sz) {
+                        break;
+                    }
+
+                    try {
+                        result[i] = translateCode(cf, args, methods.get(i));
+                    } catch (Error ex) {
+                        // It gets rethrown on the calling thread.
+                        result[i] = new TranslatedCode(null, null, ex);
+                    }
+
+                    finished.countDown();
+                }
+            }
+        };
+
+        if ((args.methodPool == null) || (sz < MIN_PARALLEL_METHODS)) {
+            worker.run();
+            return result;
+        }
+
+        int helperCount = Math.min(sz - 1, args.methodPoolThreads);
+        ArrayList<Future<?>> helpers = new ArrayList<Future<?>>(helperCount);
+        final Semaphore permits = args.translatorPermits;
+
+        /*
+         * Helpers never wait for a permit: when all are in use, the
+         * calling thread is better off doing the work itself.
+         */
+        Runnable helpWorker = new Runnable() {
+            public void run() {
+                if (permits == null) {
+                    worker.run();
+                } else if (permits.tryAcquire()) {
+                    try {
+                        worker.run();
+                    } finally {
+                        permits.release();
+                    }
+                }
+            }
+        };
+
+        for (int i = 0; i < helperCount; i++) {
+            helpers.add(args.methodPool.submit(helpWorker));
+        }
+
+        worker.run();
+
+        try {
+            finished.await();
+        } catch (InterruptedException ex) {
+            throw new RuntimeException(ex);
+        }
+
+        /*
+         * Every method is done by now, so helpers that haven't started
+         * yet would have nothing to do.
+         */
+        for (Future<?> helper : helpers) {
+            helper.cancel(false);
+        }
+
+        return result;
+    }
+
+    /**
+     * Helper for {@link #translateAllCode}, which translates the code of
+     * one method, if it has any. This may be called on any thread, so
+     * issuing warnings and adding to the output class are left to the
+     * caller.
+     *
+     * @param cf {@code non-null;} class being translated
+     * @param args {@code non-null;} command-line args
+     * @param one {@code non-null;} the method
+     * @return {@code null-ok;} the translated code, or {@code null} if
+     * the method has none
+     */
+    private static TranslatedCode translateCode(DirectClassFile cf,
+            CfOptions args, Method one) {
+        int accessFlags = one.getAccessFlags();
+
+        if (AccessFlags.isNative(accessFlags)
+                || AccessFlags.isAbstract(accessFlags)) {
+            return null;
+        }
+
+        try {
+            CstType thisClass = cf.getThisClass();
+            CstMethodRef meth = new CstMethodRef(thisClass, one.getNat());
+            boolean isStatic = AccessFlags.isStatic(accessFlags);
+            String warning = null;
+            ConcreteMethod concrete =
+                new ConcreteMethod(one, cf,
+                        (args.positionInfo != PositionList.NONE),
+                        args.localInfo);
+
+            TranslationAdvice advice;
+
+            advice = DexTranslationAdvice.THE_ONE;
+
+            CodeStatistics.Mark methodStart = CodeStatistics.mark();
+            RopMethod rmeth = Ropper.convert(concrete, advice);
+            CodeStatistics.recordPhase(CodeStatistics.Phase.ROP,
+                    methodStart);
+            RopMethod nonOptRmeth = null;
+            int paramSize;
+
+            paramSize = meth.getParameterWordCount(isStatic);
+
+            String canonicalName 
+                    = thisClass.getClassType().getDescriptor()
+                        + "." + one.getName().getString();
+
+            if (args.optimize &&
+                    OptimizerOptions.shouldOptimize(canonicalName)) {
+                if (DEBUG) {
+                    System.err.println("Optimizing " + canonicalName);
+                }
+
+                CodeStatistics.Mark optStart = CodeStatistics.mark();
+                OptimizerBudget budget =
+                    new OptimizerBudget(args.optimizeMaxInsns,
+                            args.optimizeMaxBlocks,
+                            args.optimizeMaxMillis);
+                nonOptRmeth = rmeth;
+                rmeth = new Optimizer(args.localInfo, advice,
+                        args.livenessEngine).optimize(
+                                rmeth, paramSize, isStatic, budget);
+                CodeStatistics.recordPhase(
+                        CodeStatistics.Phase.OPTIMIZE, optStart);
+
+                if (budget.getFallback()
+                        != OptimizerBudget.Fallback.NONE) {
+                    CodeStatistics.recordOptimizerFallback(
+                            budget.getFallback());
+                    warning = "warning: " + canonicalName +
+                        one.getDescriptor().getString() +
+                        ((budget.getFallback() ==
+                                OptimizerBudget.Fallback.REDUCED)
+                            ? ": partly optimized ("
+                            : ": not optimized (") +
+                        budget.getReason() + ")";
+                }
+
+                if (DEBUG) {
+                    OptimizerOptions.compareOptimizerStep(nonOptRmeth,
+                            paramSize, isStatic, args, advice, rmeth);
+                }
+
+                if (args.statistics) {
+                    CodeStatistics.updateRopStatistics(
+                            nonOptRmeth, rmeth);
+                }
+            }
+
+            CodeStatistics.Mark translateStart = CodeStatistics.mark();
+            LocalVariableInfo locals = null;
+
+            if (args.localInfo) {
+                locals = LocalVariableExtractor.extract(rmeth);
+            }
+
+            DalvCode code = RopTranslator.translate(rmeth, args.positionInfo,
+                    locals, paramSize);
+            CodeStatistics.recordPhase(CodeStatistics.Phase.TRANSLATE,
+                    translateStart);
+
+            if (methodStart != null) {
+                CodeStatistics.recordMethod(canonicalName +
+                        one.getDescriptor().getString(), methodStart);
+            }
+
+            if (args.statistics && nonOptRmeth != null) {
+                updateDexStatistics(args, rmeth, nonOptRmeth, locals,
+                        paramSize, concrete.getCode().size());
+            }
+
+            return new TranslatedCode(code, warning, null);
+        } catch (RuntimeException ex) {
+            return new TranslatedCode(null, null, ex);
+        }
+    }
+
     /**
      * Helper that updates the dex statistics.
      */
@@ -380,4 +563,59 @@ public class CfTranslator {
         CodeStatistics.updateDexStatistics(nonOptCode, optCode);
         CodeStatistics.updateOriginalByteCount(originalByteCount);
     }
+
+    /**
+     * The outcome of translating the code of one method.
+     */
+    private static final class TranslatedCode {
+        /** {@code null-ok;} the code, or {@code null} if translation failed */
+        private final DalvCode code;
+
+        /** {@code null-ok;} warning to issue about the method, if any */
+        private final String warning;
+
+        /**
+         * {@code null-ok;} what translation failed with, if it did;
+         * either a {@code RuntimeException} or an {@code Error}
+         */
+        private final Throwable failure;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param code {@code null-ok;} the code, or {@code null} if
+         * translation failed
+         * @param warning {@code null-ok;} warning to issue about the
+         * method, if any
+         * @param failure {@code null-ok;} what translation failed with,
+         * if it did
+         */
+        public TranslatedCode(DalvCode code, String warning,
+                Throwable failure) {
+            this.code = code;
+            this.warning = warning;
+            this.failure = failure;
+        }
+
+        /**
+         * Issues the warning about the method, if any, and gets the code,
+         * rethrowing the failure if translation failed.
+         *
+         * @param warn {@code non-null;} where to issue warnings to
+         * @return {@code non-null;} the code
+         */
+        public DalvCode getCode(PrintStream warn) {
+            if (warning != null) {
+                warn.println(warning);
+            }
+
+            if (failure instanceof Error) {
+                throw (Error) failure;
+            } else if (failure != null) {
+                throw (RuntimeException) failure;
+            }
+
+            return code;
+        }
+    }
 }
@@ -0,0 +1,714 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.dex.cf;
+
+import com.android.dx.dex.code.ArrayData;
+import com.android.dx.dex.code.CodeAddress;
+import com.android.dx.dex.code.CstInsn;
+import com.android.dx.dex.code.DalvCode;
+import com.android.dx.dex.code.DalvInsn;
+import com.android.dx.dex.code.Dop;
+import com.android.dx.dex.code.Dops;
+import com.android.dx.dex.code.ListCatchBuilder;
+import com.android.dx.dex.code.LocalEnd;
+import com.android.dx.dex.code.LocalSnapshot;
+import com.android.dx.dex.code.LocalStart;
+import com.android.dx.dex.code.OddSpacer;
+import com.android.dx.dex.code.OutputFinisher;
+import com.android.dx.dex.code.SimpleInsn;
+import com.android.dx.dex.code.SwitchData;
+import com.android.dx.dex.code.TargetInsn;
+import com.android.dx.dex.file.ClassDefItem;
+import com.android.dx.dex.file.EncodedField;
+import com.android.dx.dex.file.EncodedMethod;
+import com.android.dx.rop.annotation.Annotation;
+import com.android.dx.rop.annotation.AnnotationVisibility;
+import com.android.dx.rop.annotation.Annotations;
+import com.android.dx.rop.annotation.AnnotationsList;
+import com.android.dx.rop.annotation.NameValuePair;
+import com.android.dx.rop.code.LocalItem;
+import com.android.dx.rop.code.RegisterSpec;
+import com.android.dx.rop.code.RegisterSpecList;
+import com.android.dx.rop.code.RegisterSpecSet;
+import com.android.dx.rop.code.SourcePosition;
+import com.android.dx.rop.cst.Constant;
+import com.android.dx.rop.cst.CstAnnotation;
+import com.android.dx.rop.cst.CstArray;
+import com.android.dx.rop.cst.CstBoolean;
+import com.android.dx.rop.cst.CstByte;
+import com.android.dx.rop.cst.CstChar;
+import com.android.dx.rop.cst.CstDouble;
+import com.android.dx.rop.cst.CstEnumRef;
+import com.android.dx.rop.cst.CstFieldRef;
+import com.android.dx.rop.cst.CstFloat;
+import com.android.dx.rop.cst.CstInteger;
+import com.android.dx.rop.cst.CstInterfaceMethodRef;
+import com.android.dx.rop.cst.CstKnownNull;
+import com.android.dx.rop.cst.CstLong;
+import com.android.dx.rop.cst.CstMethodRef;
+import com.android.dx.rop.cst.CstNat;
+import com.android.dx.rop.cst.CstShort;
+import com.android.dx.rop.cst.CstString;
+import com.android.dx.rop.cst.CstType;
+import com.android.dx.rop.cst.CstUtf8;
+import com.android.dx.rop.type.StdTypeList;
+import com.android.dx.rop.type.Type;
+import com.android.dx.rop.type.TypeBearer;
+import com.android.dx.rop.type.TypeList;
+import com.android.dx.util.ByteArray;
+import com.android.dx.util.IntList;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import static com.android.dx.dex.cf.ClassDefEncoder.*;
+
+/**
+ * Reader of the serialized form of {@link ClassDefItem} instances,
+ * as written by {@link ClassDefEncoder}. The result is built up the
+ * same way {@link CfTranslator} builds up a freshly translated class,
+ * so it can be added to a {@link com.android.dx.dex.file.DexFile} in
+ * exactly the same way.
+ */
+final class ClassDefDecoder {
+    /** {@code non-null;} where to read from */
+    private final DataInputStream in;
+
+    /** {@code non-null;} constants read so far, by back-reference index */
+    private final ArrayList<Constant> constants;
+
+    /** {@code non-null;} types read so far, by back-reference index */
+    private final ArrayList<Type> types;
+
+    /** {@code non-null;} positions read so far, by back-reference index */
+    private final ArrayList<SourcePosition> positions;
+
+    /** {@code null-ok;} addresses of the method currently being read */
+    private CodeAddress[] addresses;
+
+    /**
+     * Reads the serialized form of a class.
+     *
+     * @param in {@code non-null;} where to read from
+     * @return {@code non-null;} the class
+     * @throws IOException thrown if there was trouble reading, including
+     * if the data is malformed
+     */
+    public static ClassDefItem decode(InputStream in) throws IOException {
+        ClassDefDecoder decoder = new ClassDefDecoder(in);
+
+        try {
+            return decoder.readClass();
+        } catch (RuntimeException ex) {
+            // Whatever the underlying problem, the data is no good.
+            IOException ioe = new IOException("malformed cache entry");
+            ioe.initCause(ex);
+            throw ioe;
+        }
+    }
+
+    /**
+     * Constructs an instance.
+     *
+     * @param in {@code non-null;} where to read from
+     */
+    private ClassDefDecoder(InputStream in) {
+        this.in = new DataInputStream(in);
+        this.constants = new ArrayList<Constant>();
+        this.types = new ArrayList<Type>();
+        this.positions = new ArrayList<SourcePosition>();
+        this.addresses = null;
+    }
+
+    /**
+     * Reads an unsigned value, as written by
+     * {@code ClassDefEncoder.writeUnsigned()}.
+     *
+     * @return the value
+     */
+    private int readUnsigned() throws IOException {
+        int result = 0;
+
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            result |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+
+        throw new IOException("bad unsigned value");
+    }
+
+    /**
+     * Reads a whole class.
+     *
+     * @return {@code non-null;} the class
+     */
+    private ClassDefItem readClass() throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("bad magic");
+        }
+
+        CstType thisClass = (CstType) readConstant();
+        int accessFlags = readUnsigned();
+        CstType superclass = (CstType) readConstant();
+        TypeList interfaces = readTypeList();
+        CstUtf8 sourceFile = (CstUtf8) readConstant();
+        ClassDefItem result = new ClassDefItem(thisClass, accessFlags,
+                superclass, interfaces, sourceFile);
+
+        int staticCount = readUnsigned();
+        for (int i = 0; i < staticCount; i++) {
+            EncodedField field = readField();
+            result.addStaticField(field, readConstant());
+        }
+
+        int instanceCount = readUnsigned();
+        for (int i = 0; i < instanceCount; i++) {
+            result.addInstanceField(readField());
+        }
+
+        int directCount = readUnsigned();
+        for (int i = 0; i < directCount; i++) {
+            result.addDirectMethod(readMethod());
+        }
+
+        int virtualCount = readUnsigned();
+        for (int i = 0; i < virtualCount; i++) {
+            result.addVirtualMethod(readMethod());
+        }
+
+        if (in.readBoolean()) {
+            result.setClassAnnotations(readAnnotations());
+        }
+
+        int fieldAnnotationCount = readUnsigned();
+        for (int i = 0; i < fieldAnnotationCount; i++) {
+            CstFieldRef field = (CstFieldRef) readConstant();
+            result.addFieldAnnotations(field, readAnnotations());
+        }
+
+        int methodAnnotationCount = readUnsigned();
+        for (int i = 0; i < methodAnnotationCount; i++) {
+            CstMethodRef method = (CstMethodRef) readConstant();
+            result.addMethodAnnotations(method, readAnnotations());
+        }
+
+        int parameterAnnotationCount = readUnsigned();
+        for (int i = 0; i < parameterAnnotationCount; i++) {
+            CstMethodRef method = (CstMethodRef) readConstant();
+            int sz = readUnsigned();
+            AnnotationsList list = new AnnotationsList(sz);
+
+            for (int j = 0; j < sz; j++) {
+                list.set(j, readAnnotations());
+            }
+
+            list.setImmutable();
+            result.addParameterAnnotations(method, list);
+        }
+
+        return result;
+    }
+
+    /**
+     * Reads a field.
+     *
+     * @return {@code non-null;} the field
+     */
+    private EncodedField readField() throws IOException {
+        CstFieldRef ref = (CstFieldRef) readConstant();
+        int accessFlags = readUnsigned();
+
+        return new EncodedField(ref, accessFlags);
+    }
+
+    /**
+     * Reads a method, including its code.
+     *
+     * @return {@code non-null;} the method
+     */
+    private EncodedMethod readMethod() throws IOException {
+        CstMethodRef ref = (CstMethodRef) readConstant();
+        int accessFlags = readUnsigned();
+        DalvCode code = null;
+        TypeList throwsList = StdTypeList.EMPTY;
+
+        if (in.readBoolean()) {
+            throwsList = readTypeList();
+            code = readCode();
+        }
+
+        return new EncodedMethod(ref, accessFlags, code, throwsList);
+    }
+
+    /**
+     * Reads the code of a method.
+     *
+     * @return {@code non-null;} the code
+     */
+    private DalvCode readCode() throws IOException {
+        int positionInfo = readUnsigned();
+        int regCount = readUnsigned();
+
+        int addressCount = readUnsigned();
+        addresses = new CodeAddress[addressCount];
+        for (int i = 0; i < addressCount; i++) {
+            addresses[i] = new CodeAddress(readPosition());
+        }
+
+        int insnCount = readUnsigned();
+        OutputFinisher finisher = new OutputFinisher(insnCount, regCount);
+        for (int i = 0; i < insnCount; i++) {
+            finisher.add(readInsn());
+        }
+
+        int blockCount = readUnsigned();
+        CodeAddress[] lasts = new CodeAddress[blockCount];
+        CodeAddress[] ends = new CodeAddress[blockCount];
+        TypeList[] catches = new TypeList[blockCount];
+        CodeAddress[][] handlers = new CodeAddress[blockCount][];
+        for (int i = 0; i < blockCount; i++) {
+            lasts[i] = readAddress();
+            ends[i] = readAddress();
+            catches[i] = readTypeList();
+
+            int catchSize = catches[i].size();
+            handlers[i] = new CodeAddress[catchSize];
+            for (int j = 0; j < catchSize; j++) {
+                handlers[i][j] = readAddress();
+            }
+        }
+
+        int catchTypeCount = readUnsigned();
+        HashSet<Type> catchTypes = new HashSet<Type>(catchTypeCount);
+        for (int i = 0; i < catchTypeCount; i++) {
+            catchTypes.add(readType());
+        }
+
+        addresses = null;
+
+        return new DalvCode(positionInfo, finisher,
+                new ListCatchBuilder(lasts, ends, catches, handlers,
+                        catchTypes));
+    }
+
+    /**
+     * Reads a reference to an address of the current method.
+     *
+     * @return {@code non-null;} the address
+     */
+    private CodeAddress readAddress() throws IOException {
+        return addresses[readUnsigned()];
+    }
+
+    /**
+     * Reads a single instruction.
+     *
+     * @return {@code non-null;} the instruction
+     */
+    private DalvInsn readInsn() throws IOException {
+        int tag = in.readUnsignedByte();
+
+        switch (tag) {
+            case INSN_SIMPLE: {
+                Dop opcode = Dops.get(readUnsigned());
+                SourcePosition position = readPosition();
+                return new SimpleInsn(opcode, position,
+                        readRegisterSpecList());
+            }
+            case INSN_CST: {
+                Dop opcode = Dops.get(readUnsigned());
+                SourcePosition position = readPosition();
+                RegisterSpecList registers = readRegisterSpecList();
+                return new CstInsn(opcode, position, registers,
+                        readConstant());
+            }
+            case INSN_TARGET: {
+                Dop opcode = Dops.get(readUnsigned());
+                SourcePosition position = readPosition();
+                RegisterSpecList registers = readRegisterSpecList();
+                return new TargetInsn(opcode, position, registers,
+                        readAddress());
+            }
+            case INSN_CODE_ADDRESS: {
+                return readAddress();
+            }
+            case INSN_LOCAL_SNAPSHOT: {
+                SourcePosition position = readPosition();
+                boolean immutable = in.readBoolean();
+                RegisterSpecSet locals = new RegisterSpecSet(readUnsigned());
+                int sz = readUnsigned();
+                for (int i = 0; i < sz; i++) {
+                    locals.put(readRegisterSpec());
+                }
+                if (immutable) {
+                    locals.setImmutable();
+                }
+                return new LocalSnapshot(position, locals);
+            }
+            case INSN_LOCAL_START: {
+                SourcePosition position = readPosition();
+                return new LocalStart(position, readRegisterSpec());
+            }
+            case INSN_LOCAL_END: {
+                SourcePosition position = readPosition();
+                return new LocalEnd(position, readRegisterSpec());
+            }
+            case INSN_SWITCH_DATA: {
+                SourcePosition position = readPosition();
+                CodeAddress user = readAddress();
+                int sz = readUnsigned();
+                IntList cases = new IntList(sz);
+                CodeAddress[] targets = new CodeAddress[sz];
+                for (int i = 0; i < sz; i++) {
+                    cases.add(in.readInt());
+                    targets[i] = readAddress();
+                }
+                cases.setImmutable();
+                return new SwitchData(position, user, cases, targets);
+            }
+            case INSN_ARRAY_DATA: {
+                SourcePosition position = readPosition();
+                CodeAddress user = readAddress();
+                Constant arrayType = readConstant();
+                int sz = readUnsigned();
+                ArrayList<Constant> values = new ArrayList<Constant>(sz);
+                for (int i = 0; i < sz; i++) {
+                    values.add(readConstant());
+                }
+                return new ArrayData(position, user, values, arrayType);
+            }
+            case INSN_ODD_SPACER: {
+                return new OddSpacer(readPosition());
+            }
+        }
+
+        throw new IOException("bad instruction tag: " + tag);
+    }
+
+    /**
+     * Reads a list of register specs.
+     *
+     * @return {@code non-null;} the list
+     */
+    private RegisterSpecList readRegisterSpecList() throws IOException {
+        boolean immutable = in.readBoolean();
+        int sz = readUnsigned();
+
+        if ((sz == 0) && immutable) {
+            return RegisterSpecList.EMPTY;
+        }
+
+        RegisterSpecList result = new RegisterSpecList(sz);
+
+        for (int i = 0; i < sz; i++) {
+            result.set(i, readRegisterSpec());
+        }
+
+        if (immutable) {
+            result.setImmutable();
+        }
+
+        return result;
+    }
+
+    /**
+     * Reads a register spec.
+     *
+     * @return {@code non-null;} the spec
+     */
+    private RegisterSpec readRegisterSpec() throws IOException {
+        int reg = readUnsigned();
+        TypeBearer type;
+        LocalItem local = null;
+
+        if (in.readBoolean()) {
+            type = (TypeBearer) readConstant();
+        } else {
+            type = readType();
+        }
+
+        if (in.readBoolean()) {
+            CstUtf8 name = (CstUtf8) readConstant();
+            CstUtf8 signature = (CstUtf8) readConstant();
+            local = LocalItem.make(name, signature);
+        }
+
+        return RegisterSpec.makeLocalOptional(reg, type, local);
+    }
+
+    /**
+     * Reads a source position.
+     *
+     * @return {@code non-null;} the position
+     */
+    private SourcePosition readPosition() throws IOException {
+        int tag = in.readUnsignedByte();
+
+        switch (tag) {
+            case POSITION_NO_INFO: {
+                return SourcePosition.NO_INFO;
+            }
+            case POSITION_BACK_REF: {
+                return positions.get(readUnsigned());
+            }
+            case POSITION_NEW: {
+                CstUtf8 sourceFile = (CstUtf8) readConstant();
+                int address = in.readInt();
+                int line = in.readInt();
+                SourcePosition result =
+                    new SourcePosition(sourceFile, address, line);
+                positions.add(result);
+                return result;
+            }
+        }
+
+        throw new IOException("bad position tag: " + tag);
+    }
+
+    /**
+     * Reads a list of types.
+     *
+     * @return {@code non-null;} the list
+     */
+    private TypeList readTypeList() throws IOException {
+        int sz = readUnsigned();
+
+        if (sz == 0) {
+            return StdTypeList.EMPTY;
+        }
+
+        StdTypeList result = new StdTypeList(sz);
+
+        for (int i = 0; i < sz; i++) {
+            result.set(i, readType());
+        }
+
+        result.setImmutable();
+        return result;
+    }
+
+    /**
+     * Reads a type.
+     *
+     * @return {@code non-null;} the type
+     */
+    private Type readType() throws IOException {
+        int tag = in.readUnsignedByte();
+        Type result;
+
+        switch (tag) {
+            case TYPE_BACK_REF: {
+                return types.get(readUnsigned());
+            }
+            case TYPE_PLAIN: {
+                result = typeForDescriptor(in.readUTF());
+                break;
+            }
+            case TYPE_UNINITIALIZED: {
+                Type initialized = readType();
+                result = initialized.asUninitialized(in.readInt());
+                break;
+            }
+            default: {
+                throw new IOException("bad type tag: " + tag);
+            }
+        }
+
+        types.add(result);
+        return result;
+    }
+
+    /**
+     * Gets the type for the given descriptor, including the special
+     * types which can't be looked up via {@link Type#intern}.
+     *
+     * @param descriptor {@code non-null;} the descriptor
+     * @return {@code non-null;} the type
+     */
+    private static Type typeForDescriptor(String descriptor) {
+        if (descriptor.equals(Type.VOID.getDescriptor())) {
+            return Type.VOID;
+        } else if (descriptor.equals(Type.KNOWN_NULL.getDescriptor())) {
+            return Type.KNOWN_NULL;
+        } else if (descriptor.equals(Type.RETURN_ADDRESS.getDescriptor())) {
+            return Type.RETURN_ADDRESS;
+        }
+
+        return Type.intern(descriptor);
+    }
+
+    /**
+     * Reads a set of annotations.
+     *
+     * @return {@code non-null;} the annotations
+     */
+    private Annotations readAnnotations() throws IOException {
+        int sz = readUnsigned();
+        Annotations result = new Annotations();
+
+        for (int i = 0; i < sz; i++) {
+            result.add(readAnnotation());
+        }
+
+        result.setImmutable();
+        return result;
+    }
+
+    /**
+     * Reads a single annotation.
+     *
+     * @return {@code non-null;} the annotation
+     */
+    private Annotation readAnnotation() throws IOException {
+        CstType type = (CstType) readConstant();
+        AnnotationVisibility visibility =
+            AnnotationVisibility.values()[readUnsigned()];
+        Annotation result = new Annotation(type, visibility);
+        int sz = readUnsigned();
+
+        for (int i = 0; i < sz; i++) {
+            CstUtf8 name = (CstUtf8) readConstant();
+            result.add(new NameValuePair(name, readConstant()));
+        }
+
+        result.setImmutable();
+        return result;
+    }
+
+    /**
+     * Reads a constant, which may be {@code null}.
+     *
+     * @return {@code null-ok;} the constant
+     */
+    private Constant readConstant() throws IOException {
+        int tag = in.readUnsignedByte();
+        Constant result;
+
+        switch (tag) {
+            case CST_NULL: {
+                return null;
+            }
+            case CST_BACK_REF: {
+                return constants.get(readUnsigned());
+            }
+            case CST_UTF8: {
+                byte[] bytes = new byte[readUnsigned()];
+                in.readFully(bytes);
+                result = new CstUtf8(new ByteArray(bytes));
+                break;
+            }
+            case CST_STRING: {
+                result = new CstString((CstUtf8) readConstant());
+                break;
+            }
+            case CST_TYPE: {
+                result = CstType.intern(readType());
+                break;
+            }
+            case CST_NAT: {
+                CstUtf8 name = (CstUtf8) readConstant();
+                CstUtf8 descriptor = (CstUtf8) readConstant();
+                result = new CstNat(name, descriptor);
+                break;
+            }
+            case CST_FIELD_REF: {
+                CstType definingClass = (CstType) readConstant();
+                result = new CstFieldRef(definingClass,
+                        (CstNat) readConstant());
+                break;
+            }
+            case CST_METHOD_REF: {
+                CstType definingClass = (CstType) readConstant();
+                result = new CstMethodRef(definingClass,
+                        (CstNat) readConstant());
+                break;
+            }
+            case CST_INTERFACE_METHOD_REF: {
+                CstType definingClass = (CstType) readConstant();
+                result = new CstInterfaceMethodRef(definingClass,
+                        (CstNat) readConstant());
+                break;
+            }
+            case CST_ENUM_REF: {
+                result = new CstEnumRef((CstNat) readConstant());
+                break;
+            }
+            case CST_INTEGER: {
+                result = CstInteger.make(in.readInt());
+                break;
+            }
+            case CST_LONG: {
+                result = CstLong.make(in.readLong());
+                break;
+            }
+            case CST_FLOAT: {
+                result = CstFloat.make(in.readInt());
+                break;
+            }
+            case CST_DOUBLE: {
+                result = CstDouble.make(in.readLong());
+                break;
+            }
+            case CST_BOOLEAN: {
+                result = CstBoolean.make(in.readBoolean());
+                break;
+            }
+            case CST_BYTE: {
+                result = CstByte.make(in.readByte());
+                break;
+            }
+            case CST_CHAR: {
+                result = CstChar.make(in.readChar());
+                break;
+            }
+            case CST_SHORT: {
+                result = CstShort.make(in.readShort());
+                break;
+            }
+            case CST_KNOWN_NULL: {
+                result = CstKnownNull.THE_ONE;
+                break;
+            }
+            case CST_ARRAY: {
+                int sz = readUnsigned();
+                CstArray.List list = new CstArray.List(sz);
+                for (int i = 0; i < sz; i++) {
+                    list.set(i, readConstant());
+                }
+                list.setImmutable();
+                result = new CstArray(list);
+                break;
+            }
+            case CST_ANNOTATION: {
+                result = new CstAnnotation(readAnnotation());
+                break;
+            }
+            default: {
+                throw new IOException("bad constant tag: " + tag);
+            }
+        }
+
+        constants.add(result);
+        return result;
+    }
+}
@@ -0,0 +1,832 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.dex.cf;
+
+import com.android.dx.dex.code.ArrayData;
+import com.android.dx.dex.code.CatchBuilder;
+import com.android.dx.dex.code.CodeAddress;
+import com.android.dx.dex.code.CstInsn;
+import com.android.dx.dex.code.DalvCode;
+import com.android.dx.dex.code.DalvInsn;
+import com.android.dx.dex.code.Dop;
+import com.android.dx.dex.code.Dops;
+import com.android.dx.dex.code.ListCatchBuilder;
+import com.android.dx.dex.code.LocalEnd;
+import com.android.dx.dex.code.LocalSnapshot;
+import com.android.dx.dex.code.LocalStart;
+import com.android.dx.dex.code.OddSpacer;
+import com.android.dx.dex.code.OutputFinisher;
+import com.android.dx.dex.code.SimpleInsn;
+import com.android.dx.dex.code.StdCatchBuilder;
+import com.android.dx.dex.code.SwitchData;
+import com.android.dx.dex.code.TargetInsn;
+import com.android.dx.dex.file.ClassDefItem;
+import com.android.dx.dex.file.CodeItem;
+import com.android.dx.dex.file.EncodedField;
+import com.android.dx.dex.file.EncodedMethod;
+import com.android.dx.dex.file.FieldAnnotationStruct;
+import com.android.dx.dex.file.MethodAnnotationStruct;
+import com.android.dx.dex.file.ParameterAnnotationStruct;
+import com.android.dx.rop.annotation.Annotation;
+import com.android.dx.rop.annotation.Annotations;
+import com.android.dx.rop.annotation.AnnotationsList;
+import com.android.dx.rop.annotation.NameValuePair;
+import com.android.dx.rop.code.LocalItem;
+import com.android.dx.rop.code.RegisterSpec;
+import com.android.dx.rop.code.RegisterSpecList;
+import com.android.dx.rop.code.RegisterSpecSet;
+import com.android.dx.rop.code.SourcePosition;
+import com.android.dx.rop.cst.Constant;
+import com.android.dx.rop.cst.CstAnnotation;
+import com.android.dx.rop.cst.CstArray;
+import com.android.dx.rop.cst.CstBoolean;
+import com.android.dx.rop.cst.CstByte;
+import com.android.dx.rop.cst.CstChar;
+import com.android.dx.rop.cst.CstDouble;
+import com.android.dx.rop.cst.CstEnumRef;
+import com.android.dx.rop.cst.CstFieldRef;
+import com.android.dx.rop.cst.CstFloat;
+import com.android.dx.rop.cst.CstInteger;
+import com.android.dx.rop.cst.CstInterfaceMethodRef;
+import com.android.dx.rop.cst.CstKnownNull;
+import com.android.dx.rop.cst.CstLong;
+import com.android.dx.rop.cst.CstMemberRef;
+import com.android.dx.rop.cst.CstMethodRef;
+import com.android.dx.rop.cst.CstNat;
+import com.android.dx.rop.cst.CstShort;
+import com.android.dx.rop.cst.CstString;
+import com.android.dx.rop.cst.CstType;
+import com.android.dx.rop.cst.CstUtf8;
+import com.android.dx.rop.type.Type;
+import com.android.dx.rop.type.TypeBearer;
+import com.android.dx.rop.type.TypeList;
+import com.android.dx.util.ByteArray;
+import com.android.dx.util.IntList;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Writer of the compact serialized form of {@link ClassDefItem}
+ * instances, as stored by {@link TranslationCache}. Only freshly
+ * translated classes can be written, that is, ones whose code hasn't
+ * yet been processed into its final form by being added to a
+ * {@link com.android.dx.dex.file.DexFile}. The form is read back by
+ * {@link ClassDefDecoder}.
+ *
+ * <p>Constants, types and source positions are each written in full
+ * only the first time they occur; later occurrences are written as
+ * back-references. Anything that can't be represented causes a
+ * {@link NotCacheableException}, in which case the class just doesn't
+ * get cached.</p>
+ */
+final class ClassDefEncoder {
+    /** magic number at the start of the serialized form */
+    static final int MAGIC = 0x64786331; // "dxc1"
+
+    /** constant tag: {@code null} */
+    static final int CST_NULL = 0;
+
+    /** constant tag: back-reference to an earlier constant */
+    static final int CST_BACK_REF = 1;
+
+    /** constant tag: {@link CstUtf8} */
+    static final int CST_UTF8 = 2;
+
+    /** constant tag: {@link CstString} */
+    static final int CST_STRING = 3;
+
+    /** constant tag: {@link CstType} */
+    static final int CST_TYPE = 4;
+
+    /** constant tag: {@link CstNat} */
+    static final int CST_NAT = 5;
+
+    /** constant tag: {@link CstFieldRef} */
+    static final int CST_FIELD_REF = 6;
+
+    /** constant tag: {@link CstMethodRef} */
+    static final int CST_METHOD_REF = 7;
+
+    /** constant tag: {@link CstInterfaceMethodRef} */
+    static final int CST_INTERFACE_METHOD_REF = 8;
+
+    /** constant tag: {@link CstEnumRef} */
+    static final int CST_ENUM_REF = 9;
+
+    /** constant tag: {@link CstInteger} */
+    static final int CST_INTEGER = 10;
+
+    /** constant tag: {@link CstLong} */
+    static final int CST_LONG = 11;
+
+    /** constant tag: {@link CstFloat} */
+    static final int CST_FLOAT = 12;
+
+    /** constant tag: {@link CstDouble} */
+    static final int CST_DOUBLE = 13;
+
+    /** constant tag: {@link CstBoolean} */
+    static final int CST_BOOLEAN = 14;
+
+    /** constant tag: {@link CstByte} */
+    static final int CST_BYTE = 15;
+
+    /** constant tag: {@link CstChar} */
+    static final int CST_CHAR = 16;
+
+    /** constant tag: {@link CstShort} */
+    static final int CST_SHORT = 17;
+
+    /** constant tag: {@link CstKnownNull} */
+    static final int CST_KNOWN_NULL = 18;
+
+    /** constant tag: {@link CstArray} */
+    static final int CST_ARRAY = 19;
+
+    /** constant tag: {@link CstAnnotation} */
+    static final int CST_ANNOTATION = 20;
+
+    /** type tag: back-reference to an earlier type */
+    static final int TYPE_BACK_REF = 0;
+
+    /** type tag: plain type, by descriptor */
+    static final int TYPE_PLAIN = 1;
+
+    /** type tag: uninitialized type, by initialized type and address */
+    static final int TYPE_UNINITIALIZED = 2;
+
+    /** position tag: {@link SourcePosition#NO_INFO} */
+    static final int POSITION_NO_INFO = 0;
+
+    /** position tag: back-reference to an earlier position */
+    static final int POSITION_BACK_REF = 1;
+
+    /** position tag: explicit position */
+    static final int POSITION_NEW = 2;
+
+    /** instruction tag: {@link SimpleInsn} */
+    static final int INSN_SIMPLE = 0;
+
+    /** instruction tag: {@link CstInsn} */
+    static final int INSN_CST = 1;
+
+    /** instruction tag: {@link TargetInsn} */
+    static final int INSN_TARGET = 2;
+
+    /** instruction tag: {@link CodeAddress} */
+    static final int INSN_CODE_ADDRESS = 3;
+
+    /** instruction tag: {@link LocalSnapshot} */
+    static final int INSN_LOCAL_SNAPSHOT = 4;
+
+    /** instruction tag: {@link LocalStart} */
+    static final int INSN_LOCAL_START = 5;
+
+    /** instruction tag: {@link LocalEnd} */
+    static final int INSN_LOCAL_END = 6;
+
+    /** instruction tag: {@link SwitchData} */
+    static final int INSN_SWITCH_DATA = 7;
+
+    /** instruction tag: {@link ArrayData} */
+    static final int INSN_ARRAY_DATA = 8;
+
+    /** instruction tag: {@link OddSpacer} */
+    static final int INSN_ODD_SPACER = 9;
+
+    /** {@code non-null;} where to write to */
+    private final DataOutputStream out;
+
+    /** {@code non-null;} map from constants to back-reference indices */
+    private final HashMap<Constant, Integer> constants;
+
+    /** {@code non-null;} map from types to back-reference indices */
+    private final HashMap<Type, Integer> types;
+
+    /**
+     * {@code non-null;} map from positions to back-reference indices;
+     * positions are shared by identity, which is also all that is
+     * worth looking for
+     */
+    private final IdentityHashMap<SourcePosition, Integer> positions;
+
+    /**
+     * {@code null-ok;} map from the addresses of the method currently
+     * being written to their indices
+     */
+    private IdentityHashMap<CodeAddress, Integer> addresses;
+
+    /**
+     * Writes the serialized form of the given class.
+     *
+     * @param clazz {@code non-null;} the class to write
+     * @param out {@code non-null;} where to write to
+     * @throws NotCacheableException thrown if the class contains
+     * something that can't be represented
+     * @throws IOException thrown if there was trouble writing
+     */
+    public static void encode(ClassDefItem clazz, OutputStream out)
+            throws IOException {
+        ClassDefEncoder encoder = new ClassDefEncoder(out);
+
+        encoder.writeClass(clazz);
+        encoder.out.flush();
+    }
+
+    /**
+     * Constructs an instance.
+     *
+     * @param out {@code non-null;} where to write to
+     */
+    private ClassDefEncoder(OutputStream out) {
+        this.out = new DataOutputStream(out);
+        this.constants = new HashMap<Constant, Integer>();
+        this.types = new HashMap<Type, Integer>();
+        this.positions = new IdentityHashMap<SourcePosition, Integer>();
+        this.addresses = null;
+    }
+
+    /**
+     * Writes an unsigned value, in the usual seven-bits-per-byte
+     * little-endian form.
+     *
+     * @param value the value, treated as unsigned
+     */
+    private void writeUnsigned(int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+
+        out.writeByte(value);
+    }
+
+    /**
+     * Writes a whole class.
+     *
+     * @param clazz {@code non-null;} the class
+     */
+    private void writeClass(ClassDefItem clazz) throws IOException {
+        out.writeInt(MAGIC);
+
+        writeConstant(clazz.getThisClass());
+        writeUnsigned(clazz.getAccessFlags());
+        writeConstant(clazz.getSuperclass());
+        writeTypeList(clazz.getInterfaces());
+        writeConstant(clazz.getSourceFile());
+
+        ArrayList<EncodedField> staticFields = clazz.getStaticFields();
+        writeUnsigned(staticFields.size());
+        for (EncodedField field : staticFields) {
+            writeField(field);
+            writeConstant(clazz.getStaticValue(field));
+        }
+
+        ArrayList<EncodedField> instanceFields = clazz.getInstanceFields();
+        writeUnsigned(instanceFields.size());
+        for (EncodedField field : instanceFields) {
+            writeField(field);
+        }
+
+        writeMethods(clazz.getDirectMethods());
+        writeMethods(clazz.getVirtualMethods());
+
+        Annotations classAnnotations = clazz.getClassAnnotations();
+        out.writeBoolean(classAnnotations != null);
+        if (classAnnotations != null) {
+            writeAnnotations(classAnnotations);
+        }
+
+        ArrayList<FieldAnnotationStruct> fieldAnnotations =
+            clazz.getAllFieldAnnotations();
+        writeUnsigned(fieldAnnotations.size());
+        for (FieldAnnotationStruct item : fieldAnnotations) {
+            writeConstant(item.getField());
+            writeAnnotations(item.getAnnotations());
+        }
+
+        ArrayList<MethodAnnotationStruct> methodAnnotations =
+            clazz.getAllMethodAnnotations();
+        writeUnsigned(methodAnnotations.size());
+        for (MethodAnnotationStruct item : methodAnnotations) {
+            writeConstant(item.getMethod());
+            writeAnnotations(item.getAnnotations());
+        }
+
+        ArrayList<ParameterAnnotationStruct> parameterAnnotations =
+            clazz.getAllParameterAnnotations();
+        writeUnsigned(parameterAnnotations.size());
+        for (ParameterAnnotationStruct item : parameterAnnotations) {
+            AnnotationsList list = item.getAnnotationsList();
+            int sz = list.size();
+
+            writeConstant(item.getMethod());
+            writeUnsigned(sz);
+            for (int i = 0; i < sz; i++) {
+                writeAnnotations(list.get(i));
+            }
+        }
+    }
+
+    /**
+     * Writes a field.
+     *
+     * @param field {@code non-null;} the field
+     */
+    private void writeField(EncodedField field) throws IOException {
+        writeConstant(field.getRef());
+        writeUnsigned(field.getAccessFlags());
+    }
+
+    /**
+     * Writes a list of methods, including their code.
+     *
+     * @param methods {@code non-null;} the methods
+     */
+    private void writeMethods(ArrayList<EncodedMethod> methods)
+            throws IOException {
+        writeUnsigned(methods.size());
+
+        for (EncodedMethod method : methods) {
+            CodeItem code = method.getCode();
+
+            writeConstant(method.getRef());
+            writeUnsigned(method.getAccessFlags());
+            out.writeBoolean(code != null);
+
+            if (code != null) {
+                writeTypeList(code.getThrowsList());
+                writeCode(code.getCode());
+            }
+        }
+    }
+
+    /**
+     * Writes the code of a method, in its unprocessed form.
+     *
+     * @param code {@code non-null;} the code
+     */
+    private void writeCode(DalvCode code) throws IOException {
+        OutputFinisher finisher = code.getUnprocessedInsns();
+        ArrayList<DalvInsn> insns = finisher.getInsns();
+        ListCatchBuilder catches = toListCatchBuilder(
+                code.getUnprocessedCatches());
+
+        /*
+         * Addresses are referred to by index, and the references can
+         * point forward, so all the addresses get written up front.
+         */
+        ArrayList<CodeAddress> addressList = new ArrayList<CodeAddress>();
+        addresses = new IdentityHashMap<CodeAddress, Integer>();
+
+        for (DalvInsn insn : insns) {
+            if (insn instanceof CodeAddress) {
+                CodeAddress address = (CodeAddress) insn;
+                addresses.put(address, addressList.size());
+                addressList.add(address);
+            }
+        }
+
+        writeUnsigned(code.getPositionInfo());
+        writeUnsigned(finisher.getUnreservedRegCount());
+
+        writeUnsigned(addressList.size());
+        for (CodeAddress address : addressList) {
+            writePosition(address.getPosition());
+        }
+
+        writeUnsigned(insns.size());
+        for (DalvInsn insn : insns) {
+            writeInsn(insn);
+        }
+
+        int blockCount = catches.getBlockCount();
+        writeUnsigned(blockCount);
+        for (int i = 0; i < blockCount; i++) {
+            TypeList blockCatches = catches.getCatches(i);
+            CodeAddress[] blockHandlers = catches.getHandlers(i);
+
+            writeAddress(catches.getLast(i));
+            writeAddress(catches.getEnd(i));
+            writeTypeList(blockCatches);
+            for (int j = 0; j < blockHandlers.length; j++) {
+                writeAddress(blockHandlers[j]);
+            }
+        }
+
+        Set<Type> catchTypes = catches.getCatchTypes();
+        writeUnsigned(catchTypes.size());
+        for (Type type : catchTypes) {
+            writeType(type);
+        }
+
+        addresses = null;
+    }
+
+    /**
+     * Gets the explicit form of the given catch builder.
+     *
+     * @param builder {@code non-null;} the builder
+     * @return {@code non-null;} the explicit form
+     * @throws NotCacheableException thrown if the builder is of an
+     * unknown kind
+     */
+    private static ListCatchBuilder toListCatchBuilder(
+            CatchBuilder builder) throws NotCacheableException {
+        if (builder instanceof ListCatchBuilder) {
+            return (ListCatchBuilder) builder;
+        } else if (builder instanceof StdCatchBuilder) {
+            return ((StdCatchBuilder) builder).toListCatchBuilder();
+        }
+
+        throw new NotCacheableException(
+                "unknown catch builder: " + builder.getClass().getName());
+    }
+
+    /**
+     * Writes a reference to an address of the current method.
+     *
+     * @param address {@code non-null;} the address
+     */
+    private void writeAddress(CodeAddress address) throws IOException {
+        Integer index = addresses.get(address);
+
+        if (index == null) {
+            throw new NotCacheableException(
+                    "address not in instruction list");
+        }
+
+        writeUnsigned(index);
+    }
+
+    /**
+     * Writes a single instruction.
+     *
+     * @param insn {@code non-null;} the instruction
+     */
+    private void writeInsn(DalvInsn insn) throws IOException {
+        /*
+         * Everything is checked against the exact class, since the
+         * reader can only reconstruct those.
+         */
+        Class<?> clazz = insn.getClass();
+
+        if (clazz == SimpleInsn.class) {
+            out.writeByte(INSN_SIMPLE);
+            writeInsnCommon(insn);
+        } else if (clazz == CstInsn.class) {
+            CstInsn cstInsn = (CstInsn) insn;
+            if (cstInsn.hasIndex() || cstInsn.hasClassIndex()) {
+                throw new NotCacheableException("already indexed");
+            }
+            out.writeByte(INSN_CST);
+            writeInsnCommon(insn);
+            writeConstant(cstInsn.getConstant());
+        } else if (clazz == TargetInsn.class) {
+            out.writeByte(INSN_TARGET);
+            writeInsnCommon(insn);
+            writeAddress(((TargetInsn) insn).getTarget());
+        } else if (clazz == CodeAddress.class) {
+            out.writeByte(INSN_CODE_ADDRESS);
+            writeAddress((CodeAddress) insn);
+        } else if (clazz == LocalSnapshot.class) {
+            RegisterSpecSet locals = ((LocalSnapshot) insn).getLocals();
+            int maxSize = locals.getMaxSize();
+            out.writeByte(INSN_LOCAL_SNAPSHOT);
+            writePosition(insn.getPosition());
+            out.writeBoolean(locals.isImmutable());
+            writeUnsigned(maxSize);
+            writeUnsigned(locals.size());
+            for (int i = 0; i < maxSize; i++) {
+                RegisterSpec spec = locals.get(i);
+                if (spec != null) {
+                    writeRegisterSpec(spec);
+                }
+            }
+        } else if (clazz == LocalStart.class) {
+            out.writeByte(INSN_LOCAL_START);
+            writePosition(insn.getPosition());
+            writeRegisterSpec(((LocalStart) insn).getLocal());
+        } else if (clazz == LocalEnd.class) {
+            out.writeByte(INSN_LOCAL_END);
+            writePosition(insn.getPosition());
+            writeRegisterSpec(((LocalEnd) insn).getLocal());
+        } else if (clazz == SwitchData.class) {
+            SwitchData data = (SwitchData) insn;
+            IntList cases = data.getCases();
+            CodeAddress[] targets = data.getTargets();
+            int sz = cases.size();
+            out.writeByte(INSN_SWITCH_DATA);
+            writePosition(insn.getPosition());
+            writeAddress(data.getUser());
+            writeUnsigned(sz);
+            for (int i = 0; i < sz; i++) {
+                out.writeInt(cases.get(i));
+                writeAddress(targets[i]);
+            }
+        } else if (clazz == ArrayData.class) {
+            ArrayData data = (ArrayData) insn;
+            ArrayList<Constant> values = data.getValues();
+            out.writeByte(INSN_ARRAY_DATA);
+            writePosition(insn.getPosition());
+            writeAddress(data.getUser());
+            writeConstant(data.getArrayType());
+            writeUnsigned(values.size());
+            for (Constant value : values) {
+                writeConstant(value);
+            }
+        } else if (clazz == OddSpacer.class) {
+            out.writeByte(INSN_ODD_SPACER);
+            writePosition(insn.getPosition());
+        } else {
+            throw new NotCacheableException(
+                    "unknown instruction: " + clazz.getName());
+        }
+    }
+
+    /**
+     * Writes the opcode, position and registers of an instruction.
+     *
+     * @param insn {@code non-null;} the instruction
+     */
+    private void writeInsnCommon(DalvInsn insn) throws IOException {
+        Dop opcode = insn.getOpcode();
+        RegisterSpecList registers = insn.getRegisters();
+        int sz = registers.size();
+
+        if (Dops.get(opcode.getOpcode()) != opcode) {
+            throw new NotCacheableException(
+                    "unknown opcode: " + opcode);
+        }
+
+        writeUnsigned(opcode.getOpcode());
+        writePosition(insn.getPosition());
+        out.writeBoolean(registers.isImmutable());
+        writeUnsigned(sz);
+        for (int i = 0; i < sz; i++) {
+            writeRegisterSpec(registers.get(i));
+        }
+    }
+
+    /**
+     * Writes a register spec.
+     *
+     * @param spec {@code non-null;} the spec
+     */
+    private void writeRegisterSpec(RegisterSpec spec) throws IOException {
+        TypeBearer type = spec.getTypeBearer();
+        LocalItem local = spec.getLocalItem();
+
+        writeUnsigned(spec.getReg());
+
+        if (type instanceof Type) {
+            out.writeBoolean(false);
+            writeType((Type) type);
+        } else if (type instanceof Constant) {
+            out.writeBoolean(true);
+            writeConstant((Constant) type);
+        } else {
+            throw new NotCacheableException(
+                    "unknown type bearer: " + type.getClass().getName());
+        }
+
+        out.writeBoolean(local != null);
+        if (local != null) {
+            writeConstant(local.getName());
+            writeConstant(local.getSignature());
+        }
+    }
+
+    /**
+     * Writes a source position.
+     *
+     * @param position {@code non-null;} the position
+     */
+    private void writePosition(SourcePosition position) throws IOException {
+        if (position == SourcePosition.NO_INFO) {
+            out.writeByte(POSITION_NO_INFO);
+            return;
+        }
+
+        Integer index = positions.get(position);
+
+        if (index != null) {
+            out.writeByte(POSITION_BACK_REF);
+            writeUnsigned(index);
+            return;
+        }
+
+        out.writeByte(POSITION_NEW);
+        writeConstant(position.getSourceFile());
+        out.writeInt(position.getAddress());
+        out.writeInt(position.getLine());
+        positions.put(position, positions.size());
+    }
+
+    /**
+     * Writes a list of types.
+     *
+     * @param list {@code non-null;} the list
+     */
+    private void writeTypeList(TypeList list) throws IOException {
+        int sz = list.size();
+
+        writeUnsigned(sz);
+        for (int i = 0; i < sz; i++) {
+            writeType(list.getType(i));
+        }
+    }
+
+    /**
+     * Writes a type.
+     *
+     * @param type {@code non-null;} the type
+     */
+    private void writeType(Type type) throws IOException {
+        Integer index = types.get(type);
+
+        if (index != null) {
+            out.writeByte(TYPE_BACK_REF);
+            writeUnsigned(index);
+            return;
+        }
+
+        if (type.isUninitialized()) {
+            out.writeByte(TYPE_UNINITIALIZED);
+            writeType(type.getInitializedType());
+            out.writeInt(type.getNewAt());
+        } else {
+            out.writeByte(TYPE_PLAIN);
+            out.writeUTF(type.getDescriptor());
+        }
+
+        types.put(type, types.size());
+    }
+
+    /**
+     * Writes a set of annotations.
+     *
+     * @param annotations {@code non-null;} the annotations
+     */
+    private void writeAnnotations(Annotations annotations)
+            throws IOException {
+        Collection<Annotation> list = annotations.getAnnotations();
+
+        writeUnsigned(list.size());
+        for (Annotation annotation : list) {
+            writeAnnotation(annotation);
+        }
+    }
+
+    /**
+     * Writes a single annotation.
+     *
+     * @param annotation {@code non-null;} the annotation
+     */
+    private void writeAnnotation(Annotation annotation) throws IOException {
+        Collection<NameValuePair> pairs = annotation.getNameValuePairs();
+
+        writeConstant(annotation.getType());
+        writeUnsigned(annotation.getVisibility().ordinal());
+        writeUnsigned(pairs.size());
+        for (NameValuePair pair : pairs) {
+            writeConstant(pair.getName());
+            writeConstant(pair.getValue());
+        }
+    }
+
+    /**
+     * Writes a constant, which may be {@code null}.
+     *
+     * @param cst {@code null-ok;} the constant
+     */
+    private void writeConstant(Constant cst) throws IOException {
+        if (cst == null) {
+            out.writeByte(CST_NULL);
+            return;
+        }
+
+        Integer index = constants.get(cst);
+
+        if (index != null) {
+            out.writeByte(CST_BACK_REF);
+            writeUnsigned(index);
+            return;
+        }
+
+        /*
+         * As with instructions, the exact class matters, since for
+         * example a CstInterfaceMethodRef is a kind of CstMethodRef.
+         */
+        Class<?> clazz = cst.getClass();
+
+        if (clazz == CstUtf8.class) {
+            ByteArray bytes = ((CstUtf8) cst).getBytes();
+            byte[] arr = new byte[bytes.size()];
+            bytes.getBytes(arr, 0);
+            out.writeByte(CST_UTF8);
+            writeUnsigned(arr.length);
+            out.write(arr);
+        } else if (clazz == CstString.class) {
+            out.writeByte(CST_STRING);
+            writeConstant(((CstString) cst).getString());
+        } else if (clazz == CstType.class) {
+            out.writeByte(CST_TYPE);
+            writeType(((CstType) cst).getClassType());
+        } else if (clazz == CstNat.class) {
+            CstNat nat = (CstNat) cst;
+            out.writeByte(CST_NAT);
+            writeConstant(nat.getName());
+            writeConstant(nat.getDescriptor());
+        } else if (clazz == CstFieldRef.class) {
+            out.writeByte(CST_FIELD_REF);
+            writeMemberRef((CstMemberRef) cst);
+        } else if (clazz == CstMethodRef.class) {
+            out.writeByte(CST_METHOD_REF);
+            writeMemberRef((CstMemberRef) cst);
+        } else if (clazz == CstInterfaceMethodRef.class) {
+            out.writeByte(CST_INTERFACE_METHOD_REF);
+            writeMemberRef((CstMemberRef) cst);
+        } else if (clazz == CstEnumRef.class) {
+            out.writeByte(CST_ENUM_REF);
+            writeConstant(((CstEnumRef) cst).getNat());
+        } else if (clazz == CstInteger.class) {
+            out.writeByte(CST_INTEGER);
+            out.writeInt(((CstInteger) cst).getValue());
+        } else if (clazz == CstLong.class) {
+            out.writeByte(CST_LONG);
+            out.writeLong(((CstLong) cst).getValue());
+        } else if (clazz == CstFloat.class) {
+            out.writeByte(CST_FLOAT);
+            out.writeInt(((CstFloat) cst).getIntBits());
+        } else if (clazz == CstDouble.class) {
+            out.writeByte(CST_DOUBLE);
+            out.writeLong(((CstDouble) cst).getLongBits());
+        } else if (clazz == CstBoolean.class) {
+            out.writeByte(CST_BOOLEAN);
+            out.writeBoolean(((CstBoolean) cst).getValue());
+        } else if (clazz == CstByte.class) {
+            out.writeByte(CST_BYTE);
+            out.writeByte(((CstByte) cst).getValue());
+        } else if (clazz == CstChar.class) {
+            out.writeByte(CST_CHAR);
+            out.writeChar(((CstChar) cst).getValue());
+        } else if (clazz == CstShort.class) {
+            out.writeByte(CST_SHORT);
+            out.writeShort(((CstShort) cst).getValue());
+        } else if (clazz == CstKnownNull.class) {
+            out.writeByte(CST_KNOWN_NULL);
+        } else if (clazz == CstArray.class) {
+            CstArray.List list = ((CstArray) cst).getList();
+            int sz = list.size();
+            out.writeByte(CST_ARRAY);
+            writeUnsigned(sz);
+            for (int i = 0; i < sz; i++) {
+                writeConstant(list.get(i));
+            }
+        } else if (clazz == CstAnnotation.class) {
+            out.writeByte(CST_ANNOTATION);
+            writeAnnotation(((CstAnnotation) cst).getAnnotation());
+        } else {
+            throw new NotCacheableException(
+                    "unknown constant: " + clazz.getName());
+        }
+
+        /*
+         * The index is only assigned once the constant is complete,
+         * which is also the point at which the reader gets to see it.
+         */
+        constants.put(cst, constants.size());
+    }
+
+    /**
+     * Writes the parts of a member reference.
+     *
+     * @param ref {@code non-null;} the reference
+     */
+    private void writeMemberRef(CstMemberRef ref) throws IOException {
+        writeConstant(ref.getDefiningClass());
+        writeConstant(ref.getNat());
+    }
+}
@@ -17,13 +17,33 @@
 package com.android.dx.dex.cf;
 
 import com.android.dx.dex.code.DalvCode;
+import com.android.dx.dex.file.Statistics;
 import com.android.dx.rop.code.RopMethod;
+import com.android.dx.ssa.OptimizerBudget;
 
+import java.io.IOException;
 import java.io.PrintStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Static methods and variables for collecting statistics on generated
- * code.
+ * code. The update methods are synchronized, since they may be called
+ * from several translator threads at once.
+ *
+ * <p>When profiling is on, this also collects the cost of each
+ * {@link Phase} of translation, and of each method and class: wall
+ * time, thread CPU time and, where the VM can tell, bytes allocated.
+ * Costs are measured on the thread doing the work and summed over all
+ * threads.</p>
  */
 public final class CodeStatistics {
     /** set to {@code true} to enable development-time debugging code */
@@ -66,6 +86,76 @@ public final class CodeStatistics {
     /** running sum of original class bytecode bytes */
     public static int runningOriginalBytes = 0;
 
+    /**
+     * number of methods that the optimizer only partly optimized, to
+     * stay within its budget
+     */
+    public static int runningReducedOptimizations = 0;
+
+    /**
+     * number of methods that the optimizer left unoptimized, to stay
+     * within its budget
+     */
+    public static int runningSkippedOptimizations = 0;
+
+    /** whether profiling is on */
+    private static volatile boolean profiling = false;
+
+    /** {@code non-null;} cost of each phase, when profiling */
+    private static final EnumMap<Phase, Cost> phaseCosts =
+        new EnumMap<Phase, Cost>(Phase.class);
+
+    /** {@code non-null;} cost of each method, when profiling */
+    private static final HashMap<String, Cost> methodCosts =
+        new HashMap<String, Cost>();
+
+    /** {@code non-null;} cost of each class, when profiling */
+    private static final HashMap<String, Cost> classCosts =
+        new HashMap<String, Cost>();
+
+    /** {@code non-null;} source of thread CPU times */
+    private static final ThreadMXBean threadBean =
+        ManagementFactory.getThreadMXBean();
+
+    /**
+     * {@code null-ok;} {@code getThreadAllocatedBytes(long)} of the
+     * thread bean, if the VM has it; it isn't part of the standard API
+     */
+    private static final Method allocatedBytesMethod =
+        findAllocatedBytesMethod();
+
+    /**
+     * A phase of the work of translation, for profiling.
+     */
+    public enum Phase {
+        /** parsing class files */
+        PARSE("parse"),
+
+        /** converting bytecode to rop form */
+        ROP("rop"),
+
+        /** optimizing rop form */
+        OPTIMIZE("optimize"),
+
+        /** translating rop form to dex form */
+        TRANSLATE("translate"),
+
+        /** laying out and writing the output */
+        WRITE("write");
+
+        /** {@code non-null;} name to use in reports */
+        private final String label;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param label {@code non-null;} name to use in reports
+         */
+        private Phase(String label) {
+            this.label = label;
+        }
+    }
+
     /**
      * This class is uninstantiable.
      */
@@ -73,12 +163,52 @@ public final class CodeStatistics {
         // This space intentionally left blank.
     }
 
+    /**
+     * Resets all of the running sums to zero, so that statistics may be
+     * collected afresh. This also discards any profile, and turns
+     * profiling off.
+     */
+    public static synchronized void reset() {
+        profiling = false;
+        phaseCosts.clear();
+        methodCosts.clear();
+        classCosts.clear();
+
+        runningDeltaRegisters = 0;
+        runningDeltaInsns = 0;
+        runningTotalInsns = 0;
+        dexRunningDeltaRegisters = 0;
+        dexRunningDeltaInsns = 0;
+        dexRunningTotalInsns = 0;
+        runningOriginalBytes = 0;
+        runningReducedOptimizations = 0;
+        runningSkippedOptimizations = 0;
+    }
+
+    /**
+     * Counts a method that the optimizer cut back on to stay within its
+     * budget.
+     *
+     * @param fallback {@code non-null;} how it cut back
+     */
+    public static synchronized void recordOptimizerFallback(
+            OptimizerBudget.Fallback fallback) {
+        switch (fallback) {
+            case REDUCED:
+                runningReducedOptimizations++;
+                break;
+            case UNOPTIMIZED:
+                runningSkippedOptimizations++;
+                break;
+        }
+    }
+
     /**
      * Updates the number of original bytecode bytes processed.
      * 
      * @param count {@code >= 0;} the number of bytes to add
      */
-    public static void updateOriginalByteCount(int count) {
+    public static synchronized void updateOriginalByteCount(int count) {
         runningOriginalBytes += count;
     }
 
@@ -88,7 +218,7 @@ public final class CodeStatistics {
      * @param nonOptCode non-optimized code block
      * @param code optimized code block
      */
-    public static void updateDexStatistics(DalvCode nonOptCode,
+    public static synchronized void updateDexStatistics(DalvCode nonOptCode,
             DalvCode code) {
         if (DEBUG) {
             System.err.println("dex insns (old/new) "
@@ -117,7 +247,7 @@ public final class CodeStatistics {
      * @param nonOptRmeth non-optimized method
      * @param rmeth optimized method
      */
-    public static void updateRopStatistics(RopMethod nonOptRmeth,
+    public static synchronized void updateRopStatistics(RopMethod nonOptRmeth,
             RopMethod rmeth) {
         int oldCountInsns
                 = nonOptRmeth.getBlocks().getEffectiveInstructionCount();
@@ -143,6 +273,355 @@ public final class CodeStatistics {
         runningTotalInsns += newCountInsns;
     }
 
+    /**
+     * Turns profiling on or off.
+     *
+     * @param enable whether to profile
+     */
+    public static void setProfiling(boolean enable) {
+        if (enable && threadBean.isThreadCpuTimeSupported()
+                && !threadBean.isThreadCpuTimeEnabled()) {
+            threadBean.setThreadCpuTimeEnabled(true);
+        }
+
+        profiling = enable;
+    }
+
+    /**
+     * Notes the current costs of the calling thread, as the start of
+     * something to profile. This is cheap when profiling is off.
+     *
+     * @return {@code null-ok;} the mark to pass to one of the
+     * {@code record*()} methods once done, or {@code null} if profiling
+     * is off
+     */
+    public static Mark mark() {
+        if (!profiling) {
+            return null;
+        }
+
+        return new Mark();
+    }
+
+    /**
+     * Records the cost of a phase, from the given mark up to now.
+     *
+     * @param phase {@code non-null;} the phase
+     * @param start {@code null-ok;} mark made at the start of the phase;
+     * nothing is recorded if it is {@code null}
+     */
+    public static void recordPhase(Phase phase, Mark start) {
+        if (start != null) {
+            Mark end = new Mark();
+            synchronized (CodeStatistics.class) {
+                costOf(phaseCosts, phase).add(start, end);
+            }
+        }
+    }
+
+    /**
+     * Records the cost of translating a method, from the given mark up
+     * to now.
+     *
+     * @param name {@code non-null;} the name of the method
+     * @param start {@code null-ok;} mark made at the start of the method;
+     * nothing is recorded if it is {@code null}
+     */
+    public static void recordMethod(String name, Mark start) {
+        if (start != null) {
+            Mark end = new Mark();
+            synchronized (CodeStatistics.class) {
+                costOf(methodCosts, name).add(start, end);
+            }
+        }
+    }
+
+    /**
+     * Records the cost of translating a class, from the given mark up
+     * to now.
+     *
+     * @param name {@code non-null;} the name of the class
+     * @param start {@code null-ok;} mark made at the start of the class;
+     * nothing is recorded if it is {@code null}
+     */
+    public static void recordClass(String name, Mark start) {
+        if (start != null) {
+            Mark end = new Mark();
+            synchronized (CodeStatistics.class) {
+                costOf(classCosts, name).add(start, end);
+            }
+        }
+    }
+
+    /**
+     * Prints out the collected profile: the cost of each phase, and of
+     * the most expensive methods and classes.
+     *
+     * @param out {@code non-null;} where to output to
+     * @param top {@code >= 0;} how many methods and classes to list
+     */
+    public static synchronized void dumpProfile(PrintStream out, int top) {
+        out.println("Profile (wall ms, cpu ms, allocated KB; summed over " +
+                "threads):");
+
+        for (Map.Entry<Phase, Cost> e : phaseCosts.entrySet()) {
+            out.println("  " + e.getValue().toHuman() + "  " +
+                    e.getKey().label);
+        }
+
+        out.println("Most expensive methods:");
+        for (Map.Entry<String, Cost> e : topCosts(methodCosts, top)) {
+            out.println("  " + e.getValue().toHuman() + "  " + e.getKey());
+        }
+
+        out.println("Most expensive classes:");
+        for (Map.Entry<String, Cost> e : topCosts(classCosts, top)) {
+            out.println("  " + e.getValue().toHuman() + "  " + e.getKey());
+        }
+    }
+
+    /**
+     * Writes the collected profile as a JSON object, together with the
+     * given statistics of the output file.
+     *
+     * @param out {@code non-null;} where to write to
+     * @param top {@code >= 0;} how many methods and classes to list
+     * @param fileStats {@code null-ok;} statistics of the output file
+     * @throws IOException on i/o problem
+     */
+    public static synchronized void writeProfileJson(Writer out, int top,
+            Statistics fileStats) throws IOException {
+        out.write("{\n  \"phases\": {");
+
+        String sep = "\n";
+        for (Map.Entry<Phase, Cost> e : phaseCosts.entrySet()) {
+            out.write(sep + "    " + jsonQuote(e.getKey().label) + ": " +
+                    e.getValue().toJson());
+            sep = ",\n";
+        }
+
+        out.write("\n  },\n  \"methods\": [");
+        writeJsonCosts(out, topCosts(methodCosts, top));
+        out.write("\n  ],\n  \"classes\": [");
+        writeJsonCosts(out, topCosts(classCosts, top));
+        out.write("\n  ]");
+
+        if (fileStats != null) {
+            out.write(",\n  \"items\": " + fileStats.toJson());
+        }
+
+        out.write("\n}\n");
+    }
+
+    /**
+     * Writes the elements of a JSON array of named costs.
+     *
+     * @param out {@code non-null;} where to write to
+     * @param costs {@code non-null;} the costs
+     * @throws IOException on i/o problem
+     */
+    private static void writeJsonCosts(Writer out,
+            ArrayList<Map.Entry<String, Cost>> costs) throws IOException {
+        String sep = "\n";
+
+        for (Map.Entry<String, Cost> e : costs) {
+            Cost cost = e.getValue();
+            out.write(sep + "    {\"name\": " + jsonQuote(e.getKey()) +
+                    ", \"cost\": " + cost.toJson() + "}");
+            sep = ",\n";
+        }
+    }
+
+    /**
+     * Quotes a string for JSON.
+     *
+     * @param s {@code non-null;} the string
+     * @return {@code non-null;} the quoted string
+     */
+    private static String jsonQuote(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2);
+
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if ((c == '"') || (c == '\\')) {
+                sb.append('\\');
+                sb.append(c);
+            } else if ((c < 0x20) || (c > 0x7e)) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        sb.append('"');
+
+        return sb.toString();
+    }
+
+    /**
+     * Gets the most expensive entries of a cost map, by wall time.
+     *
+     * @param costs {@code non-null;} the costs
+     * @param top {@code >= 0;} how many entries to get at most
+     * @return {@code non-null;} the entries, most expensive first
+     */
+    private static ArrayList<Map.Entry<String, Cost>> topCosts(
+            HashMap<String, Cost> costs, int top) {
+        ArrayList<Map.Entry<String, Cost>> result =
+            new ArrayList<Map.Entry<String, Cost>>(costs.entrySet());
+
+        Collections.sort(result, new Comparator<Map.Entry<String, Cost>>() {
+            public int compare(Map.Entry<String, Cost> a,
+                    Map.Entry<String, Cost> b) {
+                long wa = a.getValue().wallNanos;
+                long wb = b.getValue().wallNanos;
+                if (wa != wb) {
+                    return (wa > wb) ? -1 : 1;
+                }
+                return a.getKey().compareTo(b.getKey());
+            }
+        });
+
+        while (result.size() > top) {
+            result.remove(result.size() - 1);
+        }
+
+        return result;
+    }
+
+    /**
+     * Gets the cost for the given key of a map, adding it if need be.
+     *
+     * @param map {@code non-null;} the map
+     * @param key {@code non-null;} the key
+     * @return {@code non-null;} the cost
+     */
+    private static <K> Cost costOf(Map<K, Cost> map, K key) {
+        Cost cost = map.get(key);
+
+        if (cost == null) {
+            cost = new Cost();
+            map.put(key, cost);
+        }
+
+        return cost;
+    }
+
+    /**
+     * Finds the non-standard method for getting the number of bytes
+     * allocated by a thread, if the VM has it.
+     *
+     * @return {@code null-ok;} the method, or {@code null} if there
+     * is none
+     */
+    private static Method findAllocatedBytesMethod() {
+        try {
+            Class<?> c = Class.forName("com.sun.management.ThreadMXBean");
+            if (!c.isInstance(threadBean)) {
+                return null;
+            }
+            return c.getMethod("getThreadAllocatedBytes", long.class);
+        } catch (Exception ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Gets the number of bytes allocated so far by the calling thread.
+     *
+     * @return {@code >= -1;} the number of bytes, or {@code -1} if
+     * unknown
+     */
+    private static long currentThreadAllocatedBytes() {
+        if (allocatedBytesMethod == null) {
+            return -1;
+        }
+
+        try {
+            Object result = allocatedBytesMethod.invoke(threadBean,
+                    Thread.currentThread().getId());
+            return ((Long) result).longValue();
+        } catch (Exception ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * Snapshot of the costs of the calling thread so far.
+     */
+    public static final class Mark {
+        /** wall time, in nanoseconds */
+        private final long wallNanos;
+
+        /** CPU time of the thread, in nanoseconds, or {@code -1} */
+        private final long cpuNanos;
+
+        /** bytes allocated by the thread, or {@code -1} */
+        private final long allocatedBytes;
+
+        /**
+         * Constructs an instance for the calling thread and now.
+         */
+        private Mark() {
+            wallNanos = System.nanoTime();
+            cpuNanos = threadBean.isCurrentThreadCpuTimeSupported()
+                ? threadBean.getCurrentThreadCpuTime() : -1;
+            allocatedBytes = currentThreadAllocatedBytes();
+        }
+    }
+
+    /**
+     * Accumulated cost of something profiled.
+     */
+    private static final class Cost {
+        /** {@code >= 0;} wall time, in nanoseconds */
+        private long wallNanos;
+
+        /** {@code >= 0;} CPU time, in nanoseconds */
+        private long cpuNanos;
+
+        /** {@code >= 0;} bytes allocated */
+        private long allocatedBytes;
+
+        /**
+         * Adds the cost between two marks of the same thread.
+         *
+         * @param start {@code non-null;} the earlier mark
+         * @param end {@code non-null;} the later mark
+         */
+        public void add(Mark start, Mark end) {
+            wallNanos += end.wallNanos - start.wallNanos;
+
+            if (start.cpuNanos >= 0) {
+                cpuNanos += end.cpuNanos - start.cpuNanos;
+            }
+
+            if (start.allocatedBytes >= 0) {
+                allocatedBytes += end.allocatedBytes - start.allocatedBytes;
+            }
+        }
+
+        /**
+         * Gets a human-oriented summary of this instance.
+         *
+         * @return {@code non-null;} the summary
+         */
+        public String toHuman() {
+            return String.format("%9d %9d %11d", wallNanos / 1000000,
+                    cpuNanos / 1000000, allocatedBytes / 1024);
+        }
+
+        /**
+         * Gets this instance as a JSON object.
+         *
+         * @return {@code non-null;} the JSON text
+         */
+        public String toJson() {
+            return "{\"wallNanos\": " + wallNanos + ", \"cpuNanos\": " +
+                cpuNanos + ", \"allocatedBytes\": " + allocatedBytes + "}";
+        }
+    }
+
     /**
      * Prints out the collected statistics.
      * 
@@ -168,5 +647,10 @@ public final class CodeStatistics {
 
         out.printf("Original bytecode byte count: %d\n",
                 runningOriginalBytes);
+
+        out.printf("Optimizer budget exceeded: partly optimized: %d "
+                + "not optimized: %d\n",
+                runningReducedOptimizations,
+                runningSkippedOptimizations);
     }
 }
@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.dx.dex.cf;
+
+import java.io.IOException;
+
+/**
+ * Exception thrown by {@link ClassDefEncoder} when a class contains
+ * something that its serialized form can't represent. Such a class
+ * just doesn't get added to the {@link TranslationCache}.
+ */
+/*package*/ final class NotCacheableException extends IOException {
+    /**
+     * Constructs an instance.
+     *
+     * @param message {@code non-null;} what can't be represented
+     */
+    public NotCacheableException(String message) {
+        super(message);
+    }
+}
@@ -55,12 +55,14 @@ public class OptimizerOptions {
     }
 
     /**
-     * Loads the optimize/don't optimize lists from files.
+     * Loads the optimize/don't optimize lists from files. This is
+     * synchronized, since it is called at the start of every class
+     * translation, which may happen on several threads at once.
      * 
      * @param optimizeListFile Pathname
      * @param dontOptimizeListFile Pathname
      */
-    public static void loadOptimizeLists(String optimizeListFile,
+    public static synchronized void loadOptimizeLists(String optimizeListFile,
             String dontOptimizeListFile) {
         if (optimizeListsLoaded) {
             return;
@@ -86,6 +88,16 @@ public class OptimizerOptions {
         optimizeListsLoaded = true;
     }
 
+    /**
+     * Forgets any loaded optimize/don't optimize lists, so that the next
+     * call to {@link #loadOptimizeLists} loads them afresh.
+     */
+    public static synchronized void reset() {
+        optimizeList = null;
+        dontOptimizeList = null;
+        optimizeListsLoaded = false;
+    }
+
     /**
      * Loads a list of newline-separated strings into a new HashSet and returns
      * the HashSet.
@@ -0,0 +1,490 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.dex.cf;
+
+import com.android.dx.Version;
+import com.android.dx.dex.file.ClassDefItem;
+import com.android.dx.util.ByteArrayAnnotatedOutput;
+import com.android.dx.util.Hex;
+import com.mosync.android.StringPatcher;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * On-disk cache of translated classes, which lets an incremental build
+ * skip {@link CfTranslator#translate} for classes that haven't changed
+ * since they were last translated. Entries are keyed by a SHA-1 hash of
+ * the class file bytes together with everything else that affects the
+ * translation: the relevant {@link CfOptions}, the contents of the
+ * optimize lists, the {@link StringPatcher} patches and the version of
+ * this tool. Stale entries are thus simply never looked up again; the
+ * cache directory may be deleted at any time to reclaim the space.
+ *
+ * <p>Each entry is a file holding the CRC32 checksum of the serialized
+ * form written by {@link ClassDefEncoder}, as a big-endian int,
+ * followed by the form itself. An entry that is unreadable or fails the
+ * checksum is treated as a miss, and a class that can't be serialized
+ * is just translated every time. Instances may be used from several
+ * threads at once.</p>
+ */
+public final class TranslationCache {
+    /** version of the cache entry format; part of every key */
+    private static final int FORMAT_VERSION = 2;
+
+    /** size of the checksum at the start of each entry */
+    private static final int CHECKSUM_SIZE = 4;
+
+    /** {@code non-null;} the cache directory */
+    private final File dir;
+
+    /** {@code non-null;} options to translate with */
+    private final CfOptions args;
+
+    /**
+     * {@code non-null;} hash of everything other than the class itself
+     * that goes into a key
+     */
+    private final byte[] optionsHash;
+
+    /** number of classes found in the cache */
+    private int hits;
+
+    /** number of classes not found in the cache */
+    private int misses;
+
+    /** number of classes successfully added to the cache */
+    private int stores;
+
+    /** number of classes that couldn't be added to the cache */
+    private int storeFailures;
+
+    /** number of bytes read from the cache */
+    private long bytesRead;
+
+    /** number of bytes written to the cache */
+    private long bytesWritten;
+
+    /**
+     * Constructs an instance. Patches must already have been added to
+     * the {@link StringPatcher}, and the options must not change
+     * afterwards.
+     *
+     * @param dir {@code non-null;} the cache directory; it is created
+     * if necessary
+     * @param args {@code non-null;} options to translate with
+     */
+    public TranslationCache(File dir, CfOptions args) {
+        if (dir == null) {
+            throw new NullPointerException("dir == null");
+        }
+
+        if (args == null) {
+            throw new NullPointerException("args == null");
+        }
+
+        this.dir = dir;
+        this.args = args;
+        this.optionsHash = hashOptions(args);
+    }
+
+    /**
+     * Translates a class, using the cached translation if there is one,
+     * and otherwise translating it with {@link CfTranslator#translate}
+     * and adding the result to the cache. This must be called before the
+     * result is added to a {@link com.android.dx.dex.file.DexFile}.
+     *
+     * @param filePath {@code non-null;} the file path for the class,
+     * excluding any base directory specification
+     * @param bytes {@code non-null;} contents of the file
+     * @return {@code non-null;} the translated class
+     */
+    public ClassDefItem translate(String filePath, byte[] bytes) {
+        String key = makeKey(filePath, bytes);
+        File file = new File(new File(dir, key.substring(0, 2)),
+                key.substring(2));
+        ClassDefItem result = read(file);
+
+        if (result != null) {
+            return result;
+        }
+
+        result = CfTranslator.translate(filePath, bytes, args);
+        write(file, result);
+
+        return result;
+    }
+
+    /**
+     * Prints out the collected statistics.
+     *
+     * @param out {@code non-null;} where to output to
+     */
+    public synchronized void dumpStatistics(PrintStream out) {
+        out.printf("Translation cache: %d hits, %d misses, %d stored, "
+                + "%d not stored\n", hits, misses, stores, storeFailures);
+        out.printf("Translation cache bytes read: %d written: %d\n",
+                bytesRead, bytesWritten);
+    }
+
+    /**
+     * Reads the cache entry in the given file, if possible.
+     *
+     * @param file {@code non-null;} the entry file
+     * @return {@code null-ok;} the cached class, or {@code null} if
+     * there is no usable entry
+     */
+    private ClassDefItem read(File file) {
+        if (!file.isFile()) {
+            recordMiss();
+            return null;
+        }
+
+        try {
+            FileInputStream in = new FileInputStream(file);
+            byte[] data;
+
+            try {
+                data = new byte[(int) file.length()];
+                int at = 0;
+
+                while (at < data.length) {
+                    int amt = in.read(data, at, data.length - at);
+                    if (amt < 0) {
+                        throw new IOException("unexpected EOF");
+                    }
+                    at += amt;
+                }
+            } finally {
+                in.close();
+            }
+
+            if ((data.length < CHECKSUM_SIZE)
+                    || (readInt(data) != checksum(data, CHECKSUM_SIZE))) {
+                throw new IOException("bad checksum");
+            }
+
+            ClassDefItem result = ClassDefDecoder.decode(
+                    new ByteArrayInputStream(data, CHECKSUM_SIZE,
+                            data.length - CHECKSUM_SIZE));
+            recordHit(data.length);
+            return result;
+        } catch (IOException ex) {
+            // A broken entry is as good as none; it'll get overwritten.
+            recordMiss();
+            return null;
+        }
+    }
+
+    /**
+     * Writes a cache entry to the given file, if possible. The entry is
+     * first written to a temporary file and then renamed into place, so
+     * that concurrent readers never see a partial entry.
+     *
+     * @param file {@code non-null;} the entry file
+     * @param clazz {@code non-null;} the freshly translated class
+     */
+    private void write(File file, ClassDefItem clazz) {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+
+        try {
+            ClassDefEncoder.encode(clazz, payload);
+        } catch (NotCacheableException ex) {
+            // Not representable in the cache; that's fine.
+            recordStoreFailure();
+            return;
+        } catch (IOException ex) {
+            // Can't happen with a ByteArrayOutputStream.
+            recordStoreFailure();
+            return;
+        }
+
+        byte[] bytes = new byte[CHECKSUM_SIZE + payload.size()];
+        byte[] payloadBytes = payload.toByteArray();
+
+        System.arraycopy(payloadBytes, 0, bytes, CHECKSUM_SIZE,
+                payloadBytes.length);
+        writeInt(bytes, (int) checksum(bytes, CHECKSUM_SIZE));
+
+        File parent = file.getParentFile();
+        File temp = null;
+
+        try {
+            parent.mkdirs();
+            temp = File.createTempFile("entry", ".tmp", parent);
+
+            FileOutputStream out = new FileOutputStream(temp);
+            try {
+                out.write(bytes);
+            } finally {
+                out.close();
+            }
+
+            if (!temp.renameTo(file)) {
+                /*
+                 * Some platforms won't rename over an existing file,
+                 * which is what we get if another dx got there first.
+                 */
+                file.delete();
+                if (!temp.renameTo(file)) {
+                    throw new IOException("couldn't rename " + temp);
+                }
+            }
+
+            temp = null;
+            recordStore(bytes.length);
+        } catch (IOException ex) {
+            recordStoreFailure();
+        } finally {
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * Computes the CRC32 checksum of the given bytes, from the given
+     * offset to the end.
+     *
+     * @param bytes {@code non-null;} the bytes
+     * @param offset {@code >= 0;} where to start
+     * @return the checksum, in the low 32 bits
+     */
+    private static long checksum(byte[] bytes, int offset) {
+        CRC32 crc = new CRC32();
+
+        crc.update(bytes, offset, bytes.length - offset);
+        return crc.getValue();
+    }
+
+    /**
+     * Reads a big-endian int from the start of the given bytes.
+     *
+     * @param bytes {@code non-null;} the bytes
+     * @return the value, in the low 32 bits
+     */
+    private static long readInt(byte[] bytes) {
+        return ((bytes[0] & 0xffL) << 24) | ((bytes[1] & 0xff) << 16)
+            | ((bytes[2] & 0xff) << 8) | (bytes[3] & 0xff);
+    }
+
+    /**
+     * Writes a big-endian int to the start of the given bytes.
+     *
+     * @param bytes {@code non-null;} the bytes
+     * @param value the value
+     */
+    private static void writeInt(byte[] bytes, int value) {
+        bytes[0] = (byte) (value >> 24);
+        bytes[1] = (byte) (value >> 16);
+        bytes[2] = (byte) (value >> 8);
+        bytes[3] = (byte) value;
+    }
+
+    /**
+     * Makes the key for the given class.
+     *
+     * @param filePath {@code non-null;} the file path for the class
+     * @param bytes {@code non-null;} contents of the file
+     * @return {@code non-null;} the key, as a hex string
+     */
+    private String makeKey(String filePath, byte[] bytes) {
+        MessageDigest digest = makeDigest();
+
+        digest.update(optionsHash);
+        digest.update(utf8(filePath));
+        digest.update((byte) 0);
+        digest.update(bytes);
+
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Hashes all of the inputs to a translation other than the class
+     * itself.
+     *
+     * @param args {@code non-null;} options to translate with
+     * @return {@code non-null;} the hash
+     */
+    private static byte[] hashOptions(CfOptions args) {
+        ByteArrayAnnotatedOutput out = new ByteArrayAnnotatedOutput();
+
+        out.writeInt(FORMAT_VERSION);
+        writeString(out, Version.VERSION);
+        out.writeInt(args.positionInfo);
+        out.writeByte(args.localInfo ? 1 : 0);
+        out.writeByte(args.strictNameCheck ? 1 : 0);
+        out.writeByte(args.optimize ? 1 : 0);
+        writeFile(out, args.optimizeListFile);
+        writeFile(out, args.dontOptimizeListFile);
+        out.writeInt(args.optimizeMaxInsns);
+        out.writeInt(args.optimizeMaxBlocks);
+        out.writeInt(args.optimizeMaxMillis);
+
+        for (Map.Entry<String, String> patch :
+                 StringPatcher.getInstance().getPatches()) {
+            writeString(out, patch.getKey());
+            writeString(out, patch.getValue());
+        }
+
+        MessageDigest digest = makeDigest();
+        digest.update(out.getArray(), 0, out.getCursor());
+        return digest.digest();
+    }
+
+    /**
+     * Writes a length-prefixed string to the given output.
+     *
+     * @param out {@code non-null;} where to write to
+     * @param s {@code non-null;} the string
+     */
+    private static void writeString(ByteArrayAnnotatedOutput out, String s) {
+        byte[] bytes = utf8(s);
+
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Writes the contents of the given optional file to the given
+     * output. If the file can't be read, its name is written instead;
+     * the translator will complain about it in due course.
+     *
+     * @param out {@code non-null;} where to write to
+     * @param fileName {@code null-ok;} name of the file, if any
+     */
+    private static void writeFile(ByteArrayAnnotatedOutput out,
+            String fileName) {
+        if (fileName == null) {
+            out.writeInt(-1);
+            return;
+        }
+
+        try {
+            File file = new File(fileName);
+            FileInputStream in = new FileInputStream(file);
+            ByteArrayOutputStream contents = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+
+            try {
+                for (;;) {
+                    int amt = in.read(buf);
+                    if (amt < 0) {
+                        break;
+                    }
+                    contents.write(buf, 0, amt);
+                }
+            } finally {
+                in.close();
+            }
+
+            out.writeInt(contents.size());
+            out.write(contents.toByteArray());
+        } catch (IOException ex) {
+            out.writeInt(-2);
+            writeString(out, fileName);
+        }
+    }
+
+    /**
+     * Gets the UTF-8 encoding of the given string.
+     *
+     * @param s {@code non-null;} the string
+     * @return {@code non-null;} its encoding
+     */
+    private static byte[] utf8(String s) {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (IOException ex) {
+            // UTF-8 is always supported.
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Makes a new SHA-1 digest.
+     *
+     * @return {@code non-null;} the digest
+     */
+    private static MessageDigest makeDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException ex) {
+            // SHA-1 is always supported.
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Converts a hash to a hex string.
+     *
+     * @param hash {@code non-null;} the hash
+     * @return {@code non-null;} the hex string
+     */
+    private static String toHex(byte[] hash) {
+        StringBuilder sb = new StringBuilder(hash.length * 2);
+
+        for (int i = 0; i < hash.length; i++) {
+            sb.append(Hex.u1(hash[i]));
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Records a cache hit.
+     *
+     * @param size {@code >= 0;} the size of the entry
+     */
+    private synchronized void recordHit(int size) {
+        hits++;
+        bytesRead += size;
+    }
+
+    /**
+     * Records a cache miss.
+     */
+    private synchronized void recordMiss() {
+        misses++;
+    }
+
+    /**
+     * Records a successful store.
+     *
+     * @param size {@code >= 0;} the size of the entry
+     */
+    private synchronized void recordStore(int size) {
+        stores++;
+        bytesWritten += size;
+    }
+
+    /**
+     * Records a failed store.
+     */
+    private synchronized void recordStoreFailure() {
+        storeFailures++;
+    }
+}
@@ -126,6 +126,48 @@ public final class DalvCode {
         unprocessedInsns.assignIndices(callback);
     }
     
+    /**
+     * Gets how much position info this instance preserves.
+     * 
+     * @return one of the static constants in {@link PositionList}
+     */
+    public int getPositionInfo() {
+        return positionInfo;
+    }
+
+    /**
+     * Gets the instruction list, in its form before final processing.
+     * This is only available until the first call to one of the
+     * getters for the processed forms, such as {@link #getInsns}.
+     * 
+     * @return {@code non-null;} the unprocessed instruction list
+     * @throws IllegalStateException if the instructions have
+     * already been processed
+     */
+    public OutputFinisher getUnprocessedInsns() {
+        if (unprocessedInsns == null) {
+            throw new IllegalStateException("already processed");
+        }
+
+        return unprocessedInsns;
+    }
+
+    /**
+     * Gets the catch table builder, which is only available under the
+     * same conditions as {@link #getUnprocessedInsns}.
+     * 
+     * @return {@code non-null;} the unprocessed catch table
+     * @throws IllegalStateException if the catches have
+     * already been processed
+     */
+    public CatchBuilder getUnprocessedCatches() {
+        if (unprocessedCatches == null) {
+            throw new IllegalStateException("already processed");
+        }
+
+        return unprocessedCatches;
+    }
+
     /**
      * Gets whether this instance has any position data to represent.
      * 
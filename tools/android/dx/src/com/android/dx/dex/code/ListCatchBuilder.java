@@ -0,0 +1,299 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.dex.code;
+
+import com.android.dx.rop.cst.CstType;
+import com.android.dx.rop.type.Type;
+import com.android.dx.rop.type.TypeList;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+/**
+ * Constructor of {@link CatchTable} instances from an explicit list of
+ * the blocks of a method that can throw, in output order. This is what
+ * a {@link StdCatchBuilder} boils down to, and unlike that class it
+ * doesn't need the original {@link com.android.dx.rop.code.RopMethod}
+ * to be kept around.
+ */
+public final class ListCatchBuilder implements CatchBuilder {
+    /** the maximum range of a single catch handler, in code units */
+    private static final int MAX_CATCH_RANGE = 65535;
+
+    /**
+     * {@code non-null;} address of the last (throwing) instruction of
+     * each block
+     */
+    private final CodeAddress[] lasts;
+
+    /** {@code non-null;} address just past the end of each block */
+    private final CodeAddress[] ends;
+
+    /**
+     * {@code non-null;} catch types of each block, cut off after the
+     * first catch-all, if any
+     */
+    private final TypeList[] catches;
+
+    /**
+     * {@code non-null;} handler addresses of each block, parallel to
+     * {@link #catches}
+     */
+    private final CodeAddress[][] handlers;
+
+    /** {@code non-null;} set of all the catch types of the method */
+    private final HashSet<Type> catchTypes;
+
+    /**
+     * Constructs an instance. It merely holds onto its parameters for
+     * a subsequent call to {@link #build}. All the arrays are indexed
+     * by the position of the block among the blocks that can throw.
+     *
+     * @param lasts {@code non-null;} address of the last instruction of
+     * each block
+     * @param ends {@code non-null;} address just past the end of each block
+     * @param catches {@code non-null;} catch types of each block, cut off
+     * after the first catch-all, if any
+     * @param handlers {@code non-null;} handler addresses of each block,
+     * parallel to {@code catches}
+     * @param catchTypes {@code non-null;} set of all the catch types of the
+     * method, including any that were cut off
+     */
+    public ListCatchBuilder(CodeAddress[] lasts, CodeAddress[] ends,
+            TypeList[] catches, CodeAddress[][] handlers,
+            HashSet<Type> catchTypes) {
+        if (lasts == null) {
+            throw new NullPointerException("lasts == null");
+        }
+
+        if (ends == null) {
+            throw new NullPointerException("ends == null");
+        }
+
+        if (catches == null) {
+            throw new NullPointerException("catches == null");
+        }
+
+        if (handlers == null) {
+            throw new NullPointerException("handlers == null");
+        }
+
+        if (catchTypes == null) {
+            throw new NullPointerException("catchTypes == null");
+        }
+
+        if ((ends.length != lasts.length) ||
+                (catches.length != lasts.length) ||
+                (handlers.length != lasts.length)) {
+            throw new IllegalArgumentException("length mismatch");
+        }
+
+        this.lasts = lasts;
+        this.ends = ends;
+        this.catches = catches;
+        this.handlers = handlers;
+        this.catchTypes = catchTypes;
+    }
+
+    /** {@inheritDoc} */
+    public CatchTable build() {
+        int len = lasts.length;
+        ArrayList<CatchTable.Entry> resultList =
+            new ArrayList<CatchTable.Entry>(len);
+        CatchHandlerList currentHandlers = CatchHandlerList.EMPTY;
+        int currentStart = -1;
+        int currentEnd = -1;
+
+        for (int i = 0; i < len; i++) {
+            CatchHandlerList handlers = handlersFor(i);
+
+            if (currentHandlers.size() == 0) {
+                // This is the start of a new catch range.
+                currentStart = i;
+                currentEnd = i;
+                currentHandlers = handlers;
+                continue;
+            }
+
+            if (currentHandlers.equals(handlers)
+                    && rangeIsValid(currentStart, i)) {
+                /*
+                 * The block we are looking at now has the same handlers
+                 * as the block that started the currently open catch
+                 * range, and adding it to the currently open range won't
+                 * cause it to be too long.
+                 */
+                currentEnd = i;
+                continue;
+            }
+
+            /*
+             * The block we are looking at now has incompatible handlers,
+             * so we need to finish off the last entry and start a new
+             * one. Note: We only emit an entry if it has associated handlers.
+             */
+            if (currentHandlers.size() != 0) {
+                resultList.add(makeEntry(currentStart, currentEnd,
+                                currentHandlers));
+            }
+
+            currentStart = i;
+            currentEnd = i;
+            currentHandlers = handlers;
+        }
+
+        if (currentHandlers.size() != 0) {
+            // Emit an entry for the range that was left hanging.
+            resultList.add(makeEntry(currentStart, currentEnd,
+                            currentHandlers));
+        }
+
+        // Construct the final result.
+
+        int resultSz = resultList.size();
+
+        if (resultSz == 0) {
+            return CatchTable.EMPTY;
+        }
+
+        CatchTable result = new CatchTable(resultSz);
+
+        for (int i = 0; i < resultSz; i++) {
+            result.set(i, resultList.get(i));
+        }
+
+        result.setImmutable();
+        return result;
+    }
+
+    /** {@inheritDoc} */
+    public boolean hasAnyCatches() {
+        return !catchTypes.isEmpty();
+    }
+
+    /** {@inheritDoc} */
+    public HashSet<Type> getCatchTypes() {
+        return catchTypes;
+    }
+
+    /**
+     * Gets the number of blocks that can throw.
+     *
+     * @return {@code >= 0;} the number of blocks
+     */
+    public int getBlockCount() {
+        return lasts.length;
+    }
+
+    /**
+     * Gets the address of the last instruction of the given block.
+     *
+     * @param n {@code >= 0, < getBlockCount();} which block
+     * @return {@code non-null;} the address
+     */
+    public CodeAddress getLast(int n) {
+        return lasts[n];
+    }
+
+    /**
+     * Gets the address just past the end of the given block.
+     *
+     * @param n {@code >= 0, < getBlockCount();} which block
+     * @return {@code non-null;} the address
+     */
+    public CodeAddress getEnd(int n) {
+        return ends[n];
+    }
+
+    /**
+     * Gets the catch types of the given block.
+     *
+     * @param n {@code >= 0, < getBlockCount();} which block
+     * @return {@code non-null;} the catch types
+     */
+    public TypeList getCatches(int n) {
+        return catches[n];
+    }
+
+    /**
+     * Gets the handler addresses of the given block, parallel to
+     * {@link #getCatches}.
+     *
+     * @param n {@code >= 0, < getBlockCount();} which block
+     * @return {@code non-null;} the handler addresses; the array must
+     * not be modified
+     */
+    public CodeAddress[] getHandlers(int n) {
+        return handlers[n];
+    }
+
+    /**
+     * Makes the {@link CatchHandlerList} for the given block.
+     *
+     * @param n {@code >= 0, < getBlockCount();} which block
+     * @return {@code non-null;} array of entries
+     */
+    private CatchHandlerList handlersFor(int n) {
+        TypeList blockCatches = catches[n];
+        CodeAddress[] blockHandlers = handlers[n];
+        int catchSize = blockCatches.size();
+
+        if (catchSize == 0) {
+            return CatchHandlerList.EMPTY;
+        }
+
+        CatchHandlerList result = new CatchHandlerList(catchSize);
+
+        for (int i = 0; i < catchSize; i++) {
+            CstType oneType = new CstType(blockCatches.getType(i));
+            result.set(i, oneType, blockHandlers[i].getAddress());
+        }
+
+        result.setImmutable();
+        return result;
+    }
+
+    /**
+     * Makes a {@link CatchTable#Entry} for the given block range and
+     * handlers.
+     *
+     * @param start {@code >= 0;} the start block for the range (inclusive)
+     * @param end {@code >= 0;} the end block for the range (also inclusive)
+     * @param handlers {@code non-null;} the handlers for the range
+     */
+    private CatchTable.Entry makeEntry(int start, int end,
+            CatchHandlerList handlers) {
+        return new CatchTable.Entry(lasts[start].getAddress(),
+                ends[end].getAddress(), handlers);
+    }
+
+    /**
+     * Gets whether the address range for the given two blocks is valid
+     * for a catch handler. This is true as long as the covered range is
+     * under 65536 code units.
+     *
+     * @param start {@code >= 0;} the start block for the range (inclusive)
+     * @param end {@code >= 0;} the end block for the range (also inclusive)
+     * @return {@code true} if the range is valid as a catch range
+     */
+    private boolean rangeIsValid(int start, int end) {
+        int startAddress = lasts[start].getAddress();
+        int endAddress = ends[end].getAddress();
+
+        return (endAddress - startAddress) <= MAX_CATCH_RANGE;
+    }
+}
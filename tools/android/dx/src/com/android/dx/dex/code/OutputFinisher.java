@@ -28,6 +28,7 @@ import com.android.dx.rop.cst.CstUtf8;
 import com.android.dx.rop.type.Type;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 
 /**
@@ -36,6 +37,13 @@ import java.util.HashSet;
  * form of a {@link DalvInsnList} instance.
  */
 public final class OutputFinisher {
+    /**
+     * the register numbers at which an instruction's registers may stop
+     * fitting its format: the limits of nibble, byte and short register
+     * fields
+     */
+    private static final int[] REGISTER_LIMITS = { 0x10, 0x100, 0x10000 };
+
     /**
      * {@code >= 0;} register count for the method, not including any extra
      * "reserved" registers needed to translate "difficult" instructions
@@ -51,6 +59,13 @@ public final class OutputFinisher {
     /** whether any instruction has local variable info */
     private boolean hasAnyLocalInfo;
 
+    /**
+     * whether {@link #reserveRegisters} only re-examines instructions
+     * whose registers reach a field limit, rather than rescanning the
+     * whole method each time the reserved count grows
+     */
+    private boolean incrementalReservation;
+
     /**
      * {@code >= 0;} the count of reserved registers (low-numbered
      * registers used when expanding instructions that can't be
@@ -72,6 +87,54 @@ public final class OutputFinisher {
         this.reservedCount = -1;
         this.hasAnyPositionInfo = false;
         this.hasAnyLocalInfo = false;
+        this.incrementalReservation = true;
+    }
+
+    /**
+     * Gets whether this instance reserves registers incrementally.
+     * It does unless told otherwise.
+     *
+     * @return whether registers are reserved incrementally
+     */
+    public boolean getIncrementalReservation() {
+        return incrementalReservation;
+    }
+
+    /**
+     * Sets whether this instance reserves registers incrementally.
+     * Both ways give the same results; the rescanning one is the
+     * original algorithm, and is kept to check the other against.
+     * This may only be called before the instructions are processed.
+     *
+     * @param incremental whether to reserve registers incrementally
+     */
+    public void setIncrementalReservation(boolean incremental) {
+        if (reservedCount >= 0) {
+            throw new IllegalStateException("already processed");
+        }
+
+        incrementalReservation = incremental;
+    }
+
+    /**
+     * Gets the register count for the method, not including any extra
+     * "reserved" registers.
+     * 
+     * @return {@code >= 0;} the register count
+     */
+    public int getUnreservedRegCount() {
+        return unreservedRegCount;
+    }
+
+    /**
+     * Gets the instructions added to this instance so far. The returned
+     * list is not linked in any way to the underlying list contained in
+     * this instance, but the instructions in the list are shared.
+     * 
+     * @return {@code non-null;} the list of instructions
+     */
+    public ArrayList<DalvInsn> getInsns() {
+        return new ArrayList<DalvInsn>(insns);
     }
 
     /**
@@ -194,6 +257,9 @@ public final class OutputFinisher {
 
         if (type != Type.KNOWN_NULL) {
             result.add(CstType.intern(type));
+        } else {
+            // Locals lists describe known nulls as Objects.
+            result.add(CstType.OBJECT);
         }
 
         if (name != null) {
@@ -382,6 +448,142 @@ public final class OutputFinisher {
      * @param formats {@code non-null;} array of per-instruction format selections
      */
     private void reserveRegisters(InsnFormat[] formats) {
+        if (!incrementalReservation) {
+            reserveRegistersByRescanning(formats);
+            return;
+        }
+
+        int newReservedCount = calculateReservedCount(formats);
+
+        if (newReservedCount <= 0) {
+            // The common case: Nothing needs to be expanded.
+            reservedCount = 0;
+            return;
+        }
+
+        int size = insns.size();
+
+        /*
+         * The reserved count can never exceed the largest requirement
+         * of any instruction, so register offsets beyond that are of
+         * no interest.
+         */
+        int maxReservedCount = 0;
+        for (int i = 0; i < size; i++) {
+            int reserve = insns.get(i).getMinimumRegisterRequirement();
+            if (reserve > maxReservedCount) {
+                maxReservedCount = reserve;
+            }
+        }
+
+        /*
+         * Shifting registers up can only make an instruction stop
+         * fitting its format when one of them reaches a field limit.
+         * So, each instruction that still has a format is filed under
+         * the register offset at which that next happens, in linked
+         * lists of indices, and only gets looked at again once the
+         * reserved count gets that far.
+         */
+        int[] firstAtOffset = new int[maxReservedCount + 1];
+        int[] nextAtOffset = new int[size];
+
+        Arrays.fill(firstAtOffset, -1);
+
+        for (int i = 0; i < size; i++) {
+            if (formats[i] != null) {
+                int at = nextLimitOffset(insns.get(i), 0);
+                if (at <= maxReservedCount) {
+                    nextAtOffset[i] = firstAtOffset[at];
+                    firstAtOffset[at] = i;
+                }
+            }
+        }
+
+        for (int offset = 1; offset <= newReservedCount; offset++) {
+            int i = firstAtOffset[offset];
+
+            while (i >= 0) {
+                int nextI = nextAtOffset[i];
+                DalvInsn insn = insns.get(i);
+                InsnFormat format = findFormatForInsn(
+                        insn.withRegisterOffset(newReservedCount), formats[i]);
+
+                formats[i] = format;
+
+                if (format == null) {
+                    int reserve = insn.getMinimumRegisterRequirement();
+                    if (reserve > newReservedCount) {
+                        newReservedCount = reserve;
+                    }
+                } else {
+                    int at = nextLimitOffset(insn, newReservedCount);
+                    if (at <= maxReservedCount) {
+                        nextAtOffset[i] = firstAtOffset[at];
+                        firstAtOffset[at] = i;
+                    }
+                }
+
+                i = nextI;
+            }
+        }
+
+        for (int i = 0; i < size; i++) {
+            // See reserveRegistersByRescanning() about the instanceof test.
+            DalvInsn insn = insns.get(i);
+            if (!(insn instanceof CodeAddress)) {
+                insns.set(i, insn.withRegisterOffset(newReservedCount));
+            }
+        }
+
+        reservedCount = newReservedCount;
+    }
+
+    /**
+     * Helper for {@link #reserveRegisters}, which finds the smallest
+     * register offset, greater than the given one, at which one of the
+     * registers of the given instruction reaches a field limit.
+     *
+     * @param insn {@code non-null;} the instruction, with its registers
+     * not yet offset
+     * @param offset {@code >= 0;} the current register offset
+     * @return {@code > offset;} the offset at which to look at the
+     * instruction again, or {@code Integer.MAX_VALUE} if never
+     */
+    private static int nextLimitOffset(DalvInsn insn, int offset) {
+        RegisterSpecList regs = insn.getRegisters();
+        int sz = regs.size();
+        int result = Integer.MAX_VALUE;
+
+        for (int i = 0; i < sz; i++) {
+            RegisterSpec spec = regs.get(i);
+            int reg = spec.getReg();
+
+            /*
+             * Both halves of a category-2 register matter, since some
+             * formats check the number of the second one.
+             */
+            for (int last = reg + spec.getCategory() - 1;
+                 reg <= last; reg++) {
+                for (int limit : REGISTER_LIMITS) {
+                    if (reg + offset < limit) {
+                        result = Math.min(result, limit - reg);
+                        break;
+                    }
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Helper for {@link #reserveRegisters}, which is the original way
+     * of reserving registers: It rescans every instruction and
+     * renumbers all registers each time the reserved count grows.
+     *
+     * @param formats {@code non-null;} array of per-instruction format selections
+     */
+    private void reserveRegistersByRescanning(InsnFormat[] formats) {
         int oldReservedCount = (reservedCount < 0) ? 0 : reservedCount;
         
         /*
@@ -624,9 +826,17 @@ public final class OutputFinisher {
      * targets.
      */
     private void assignAddressesAndFixBranches() {
+        int from = 0;
+
         for (;;) {
-            assignAddresses();
-            if (!fixBranches()) {
+            assignAddresses(from);
+
+            /*
+             * Instructions before the first fixed one stay the same
+             * size, so their addresses stay valid.
+             */
+            from = fixBranches();
+            if (from < 0) {
                 break;
             }
         }
@@ -634,13 +844,18 @@ public final class OutputFinisher {
 
     /**
      * Helper for {@link #assignAddressesAndFixBranches}, which
-     * assigns an address to each instruction, in order.
+     * assigns an address to each instruction, in order, starting
+     * at the given one.
+     *
+     * @param from {@code >= 0;} the index of the first instruction to
+     * assign an address to; all earlier ones must already have their
+     * addresses
      */
-    private void assignAddresses() {
-        int address = 0;
+    private void assignAddresses(int from) {
+        int address = (from == 0) ? 0 : insns.get(from - 1).getNextAddress();
         int size = insns.size();
 
-        for (int i = 0; i < size; i++) {
+        for (int i = from; i < size; i++) {
             DalvInsn insn = insns.get(i);
             insn.setAddress(address);
             address += insn.codeSize();
@@ -656,11 +871,12 @@ public final class OutputFinisher {
      * test is reversed in order to branch around a {@code goto}
      * to the original target.
      * 
-     * @return whether any branches had to be fixed
+     * @return the index of the first instruction that had to be
+     * fixed, or {@code -1} if none did
      */
-    private boolean fixBranches() {
+    private int fixBranches() {
         int size = insns.size();
-        boolean anyFixed = false;
+        int firstFixed = -1;
 
         for (int i = 0; i < size; i++) {
             DalvInsn insn = insns.get(i);
@@ -677,6 +893,10 @@ public final class OutputFinisher {
                 continue;
             }
 
+            if (firstFixed < 0) {
+                firstFixed = i;
+            }
+
             if (dop.getFamily() == DalvOps.GOTO) {
                 // It is a goto; widen it if possible.
                 InsnFormat newFormat = findFormatForInsn(insn, format);
@@ -729,9 +949,8 @@ public final class OutputFinisher {
                 i++;
             }
 
-            anyFixed = true;
         }
 
-        return anyFixed;
+        return firstFixed;
     }
 }
@@ -29,6 +29,7 @@ import com.android.dx.rop.cst.CstType;
 import com.android.dx.rop.type.Type;
 
 import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Translator from rop-level {@link Insn} instances to corresponding
@@ -38,6 +39,19 @@ public final class RopToDop {
     /** {@code non-null;} map from all the common rops to dalvik opcodes */
     private static final HashMap<Rop, Dop> MAP;
 
+    /**
+     * {@code non-null;} the keys of {@link #MAP}, grouped by rop opcode,
+     * which is what they are looked up by; each group is short, so it
+     * is simply searched
+     */
+    private static final Rop[][] ROPS_BY_OPCODE;
+
+    /**
+     * {@code non-null;} the dalvik opcodes for the rops in
+     * {@link #ROPS_BY_OPCODE}, at the same indices
+     */
+    private static final Dop[][] DOPS_BY_OPCODE;
+
     /**
      * This class is uninstantiable.
      */
@@ -272,6 +286,67 @@ public final class RopToDop {
          * filled_new_array, since they need to be handled specially
          * (see dopFor() below).
          */
+
+        int opcodeCount = 0;
+        for (Rop rop : MAP.keySet()) {
+            opcodeCount = Math.max(opcodeCount, rop.getOpcode() + 1);
+        }
+
+        int[] counts = new int[opcodeCount];
+        for (Rop rop : MAP.keySet()) {
+            counts[rop.getOpcode()]++;
+        }
+
+        ROPS_BY_OPCODE = new Rop[opcodeCount][];
+        DOPS_BY_OPCODE = new Dop[opcodeCount][];
+        for (int i = 0; i < opcodeCount; i++) {
+            ROPS_BY_OPCODE[i] = new Rop[counts[i]];
+            DOPS_BY_OPCODE[i] = new Dop[counts[i]];
+            counts[i] = 0;
+        }
+
+        for (Map.Entry<Rop, Dop> entry : MAP.entrySet()) {
+            int opcode = entry.getKey().getOpcode();
+            int at = counts[opcode];
+            ROPS_BY_OPCODE[opcode][at] = entry.getKey();
+            DOPS_BY_OPCODE[opcode][at] = entry.getValue();
+            counts[opcode] = at + 1;
+        }
+    }
+
+    /**
+     * Looks up the given rop among the easy cases. This is equivalent
+     * to {@code MAP.get(rop)}, but the rops are nearly always the
+     * shared instances from {@link Rops}, which are found by identity
+     * without having to hash them.
+     *
+     * @param rop {@code non-null;} the rop to look up
+     * @return {@code null-ok;} the corresponding dalvik opcode, or
+     * {@code null} if it isn't one of the easy cases
+     */
+    private static Dop easyDopFor(Rop rop) {
+        int opcode = rop.getOpcode();
+
+        if (opcode >= ROPS_BY_OPCODE.length) {
+            return null;
+        }
+
+        Rop[] rops = ROPS_BY_OPCODE[opcode];
+
+        for (int i = 0; i < rops.length; i++) {
+            if (rops[i] == rop) {
+                return DOPS_BY_OPCODE[opcode][i];
+            }
+        }
+
+        // An equal rop may have been made elsewhere.
+        for (int i = 0; i < rops.length; i++) {
+            if (rops[i].equals(rop)) {
+                return DOPS_BY_OPCODE[opcode][i];
+            }
+        }
+
+        return null;
     }
 
     /**
@@ -289,7 +364,7 @@ public final class RopToDop {
          * First, just try looking up the rop in the MAP of easy
          * cases.
          */
-        Dop result = MAP.get(rop);
+        Dop result = easyDopFor(rop);
         if (result != null) {
             return result;
         }
@@ -19,7 +19,7 @@ package com.android.dx.dex.code;
 import com.android.dx.rop.code.BasicBlock;
 import com.android.dx.rop.code.BasicBlockList;
 import com.android.dx.rop.code.RopMethod;
-import com.android.dx.rop.cst.CstType;
+import com.android.dx.rop.type.StdTypeList;
 import com.android.dx.rop.type.Type;
 import com.android.dx.rop.type.TypeList;
 import com.android.dx.util.IntList;
@@ -32,9 +32,9 @@ import java.util.HashSet;
  * and associated data.
  */
 public final class StdCatchBuilder implements CatchBuilder {
-    /** the maximum range of a single catch handler, in code units */
-    private static final int MAX_CATCH_RANGE = 65535;
-    
+    /** {@code non-null;} handler addresses of a block without catches */
+    private static final CodeAddress[] NO_HANDLERS = new CodeAddress[0];
+
     /** {@code non-null;} method to build the list for */
     private final RopMethod method;
 
@@ -73,7 +73,7 @@ public final class StdCatchBuilder implements CatchBuilder {
 
     /** {@inheritDoc} */
     public CatchTable build() {
-        return build(method, order, addresses);
+        return toListCatchBuilder(method, order, addresses, null).build();
     }
 
     /** {@inheritDoc} */
@@ -121,14 +121,40 @@ public final class StdCatchBuilder implements CatchBuilder {
      */
     public static CatchTable build(RopMethod method, int[] order,
             BlockAddresses addresses) {
+        return toListCatchBuilder(method, order, addresses, null).build();
+    }
+
+    /**
+     * Boils this instance down to a {@link ListCatchBuilder}, which no
+     * longer refers to the underlying method and builds the same table.
+     * 
+     * @return {@code non-null;} the equivalent list-based builder
+     */
+    public ListCatchBuilder toListCatchBuilder() {
+        return toListCatchBuilder(method, order, addresses, getCatchTypes());
+    }
+
+    /**
+     * Makes the {@link ListCatchBuilder} for a given method, by listing
+     * the blocks that can throw in output order.
+     * 
+     * @param method {@code non-null;} method to build the list for
+     * @param order {@code non-null;} block output order
+     * @param addresses {@code non-null;} address objects for each block
+     * @param catchTypes {@code null-ok;} the set of catch types of the
+     * method, or {@code null} if the result will only be used to
+     * {@link ListCatchBuilder#build build} a table
+     * @return {@code non-null;} the list-based builder
+     */
+    private static ListCatchBuilder toListCatchBuilder(RopMethod method,
+            int[] order, BlockAddresses addresses, HashSet<Type> catchTypes) {
         int len = order.length;
         BasicBlockList blocks = method.getBlocks();
-        ArrayList<CatchTable.Entry> resultList =
-            new ArrayList<CatchTable.Entry>(len);
-        CatchHandlerList currentHandlers = CatchHandlerList.EMPTY;
-        BasicBlock currentStartBlock = null;
-        BasicBlock currentEndBlock = null;
-        
+        ArrayList<CodeAddress> lasts = new ArrayList<CodeAddress>(len);
+        ArrayList<CodeAddress> ends = new ArrayList<CodeAddress>(len);
+        ArrayList<TypeList> catches = new ArrayList<TypeList>(len);
+        ArrayList<CodeAddress[]> handlers = new ArrayList<CodeAddress[]>(len);
+
         for (int i = 0; i < len; i++) {
             BasicBlock block = blocks.labelToBlock(order[i]);
 
@@ -141,88 +167,48 @@ public final class StdCatchBuilder implements CatchBuilder {
                 continue;
             }
 
-            CatchHandlerList handlers = handlersFor(block, addresses);
-
-            if (currentHandlers.size() == 0) {
-                // This is the start of a new catch range.
-                currentStartBlock = block;
-                currentEndBlock = block;
-                currentHandlers = handlers;
-                continue;
-            }
-
-            if (currentHandlers.equals(handlers)
-                    && rangeIsValid(currentStartBlock, block, addresses)) {
-                /*
-                 * The block we are looking at now has the same handlers
-                 * as the block that started the currently open catch
-                 * range, and adding it to the currently open range won't
-                 * cause it to be too long.
-                 */
-                currentEndBlock = block;
-                continue;
-            }
-
             /*
-             * The block we are looking at now has incompatible handlers,
-             * so we need to finish off the last entry and start a new
-             * one. Note: We only emit an entry if it has associated handlers.
+             * We start at the *last* instruction of the block, since
+             * that's the instruction that can throw, and we end *after*
+             * it.
              */
-            if (currentHandlers.size() != 0) {
-                CatchTable.Entry entry =
-                    makeEntry(currentStartBlock, currentEndBlock,
-                            currentHandlers, addresses);
-                resultList.add(entry);
-            }
-
-            currentStartBlock = block;
-            currentEndBlock = block;
-            currentHandlers = handlers;
+            lasts.add(addresses.getLast(block));
+            ends.add(addresses.getEnd(block));
+            addHandlersFor(block, addresses, catches, handlers);
         }
 
-        if (currentHandlers.size() != 0) {
-            // Emit an entry for the range that was left hanging.
-            CatchTable.Entry entry =
-                makeEntry(currentStartBlock, currentEndBlock,
-                        currentHandlers, addresses);
-            resultList.add(entry);
-        }
-        
-        // Construct the final result.
+        int sz = lasts.size();
 
-        int resultSz = resultList.size();
-        
-        if (resultSz == 0) {
-            return CatchTable.EMPTY;
-        }
-
-        CatchTable result = new CatchTable(resultSz);
-
-        for (int i = 0; i < resultSz; i++) {
-            result.set(i, resultList.get(i));
-        }
-
-        result.setImmutable();
-        return result;
+        return new ListCatchBuilder(lasts.toArray(new CodeAddress[sz]),
+                ends.toArray(new CodeAddress[sz]),
+                catches.toArray(new TypeList[sz]),
+                handlers.toArray(new CodeAddress[sz][]),
+                (catchTypes != null) ? catchTypes : new HashSet<Type>());
     }
 
     /**
-     * Makes the {@link CatchHandlerList} for the given basic block.
+     * Lists the catch types and handler addresses for the given basic
+     * block.
      * 
      * @param block {@code non-null;} block to get entries for
      * @param addresses {@code non-null;} address objects for each block
-     * @return {@code non-null;} array of entries
+     * @param catches {@code non-null;} list to add the catch types to
+     * @param handlers {@code non-null;} list to add the handler
+     * addresses to
      */
-    private static CatchHandlerList handlersFor(BasicBlock block,
-            BlockAddresses addresses) {
+    private static void addHandlersFor(BasicBlock block,
+            BlockAddresses addresses, ArrayList<TypeList> catches,
+            ArrayList<CodeAddress[]> handlers) {
         IntList successors = block.getSuccessors();
         int succSize = successors.size();
         int primary = block.getPrimarySuccessor();
-        TypeList catches = block.getLastInsn().getCatches();
-        int catchSize = catches.size();
+        TypeList blockCatches = block.getLastInsn().getCatches();
+        int catchSize = blockCatches.size();
 
         if (catchSize == 0) {
-            return CatchHandlerList.EMPTY;
+            catches.add(StdTypeList.EMPTY);
+            handlers.add(NO_HANDLERS);
+            return;
         }
 
         if (((primary == -1) && (succSize != catchSize))
@@ -243,74 +229,23 @@ public final class StdCatchBuilder implements CatchBuilder {
          * isn't at the end.
          */
         for (int i = 0; i < catchSize; i++) {
-            Type type = catches.getType(i);
+            Type type = blockCatches.getType(i);
             if (type.equals(Type.OBJECT)) {
                 catchSize = i + 1;
                 break;
             }
         }
-        
-        CatchHandlerList result = new CatchHandlerList(catchSize);
-
-        for (int i = 0; i < catchSize; i++) {
-            CstType oneType = new CstType(catches.getType(i));
-            CodeAddress oneHandler = addresses.getStart(successors.get(i));
-            result.set(i, oneType, oneHandler.getAddress());
-        }
 
-        result.setImmutable();
-        return result;
-    }
+        StdTypeList types = new StdTypeList(catchSize);
+        CodeAddress[] blockHandlers = new CodeAddress[catchSize];
 
-    /**
-     * Makes a {@link CatchTable#Entry} for the given block range and
-     * handlers.
-     *
-     * @param start {@code non-null;} the start block for the range (inclusive)
-     * @param end {@code non-null;} the start block for the range (also inclusive)
-     * @param handlers {@code non-null;} the handlers for the range
-     * @param addresses {@code non-null;} address objects for each block
-     */
-    private static CatchTable.Entry makeEntry(BasicBlock start,
-            BasicBlock end, CatchHandlerList handlers,
-            BlockAddresses addresses) {
-        /*
-         * We start at the *last* instruction of the start block, since
-         * that's the instruction that can throw...
-         */
-        CodeAddress startAddress = addresses.getLast(start);
-
-        // ...And we end *after* the last instruction of the end block.
-        CodeAddress endAddress = addresses.getEnd(end);
-
-        return new CatchTable.Entry(startAddress.getAddress(),
-                endAddress.getAddress(), handlers);
-    }
-
-    /**
-     * Gets whether the address range for the given two blocks is valid
-     * for a catch handler. This is true as long as the covered range is
-     * under 65536 code units.
-     * 
-     * @param start {@code non-null;} the start block for the range (inclusive)
-     * @param end {@code non-null;} the start block for the range (also inclusive)
-     * @param addresses {@code non-null;} address objects for each block
-     * @return {@code true} if the range is valid as a catch range
-     */
-    private static boolean rangeIsValid(BasicBlock start, BasicBlock end,
-            BlockAddresses addresses) {
-        if (start == null) {
-            throw new NullPointerException("start == null");
-        }
-
-        if (end == null) {
-            throw new NullPointerException("end == null");
+        for (int i = 0; i < catchSize; i++) {
+            types.set(i, blockCatches.getType(i));
+            blockHandlers[i] = addresses.getStart(successors.get(i));
         }
-        
-        // See above about selection of instructions.
-        int startAddress = addresses.getLast(start).getAddress();
-        int endAddress = addresses.getEnd(end).getAddress();
 
-        return (endAddress - startAddress) <= MAX_CATCH_RANGE;
+        types.setImmutable();
+        catches.add(types);
+        handlers.add(blockHandlers);
     }
 }
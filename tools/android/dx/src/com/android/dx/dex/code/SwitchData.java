@@ -157,6 +157,34 @@ public final class SwitchData extends VariableSizeInsn {
         return packed;
     }
 
+    /**
+     * Gets the address representing the instruction that uses this
+     * instance.
+     * 
+     * @return {@code non-null;} the user address
+     */
+    public CodeAddress getUser() {
+        return user;
+    }
+
+    /**
+     * Gets the list of case values.
+     * 
+     * @return {@code non-null;} the case values
+     */
+    public IntList getCases() {
+        return cases;
+    }
+
+    /**
+     * Gets the list of branch targets, parallel to the case values.
+     * 
+     * @return {@code non-null;} the targets; the array must not be modified
+     */
+    public CodeAddress[] getTargets() {
+        return targets;
+    }
+
     /** {@inheritDoc} */
     @Override
     protected String argString() {
@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.dx.dex.code._tests;
+
+import com.android.dx.cf.code.ConcreteMethod;
+import com.android.dx.cf.code.Ropper;
+import com.android.dx.cf.direct.DirectClassFile;
+import com.android.dx.cf.direct.StdAttributeFactory;
+import com.android.dx.cf.iface.Method;
+import com.android.dx.cf.iface.MethodList;
+import com.android.dx.dex.code.CodeAddress;
+import com.android.dx.dex.code.DalvCode;
+import com.android.dx.dex.code.DalvInsnList;
+import com.android.dx.dex.code.Dop;
+import com.android.dx.dex.code.Dops;
+import com.android.dx.dex.code.OutputFinisher;
+import com.android.dx.dex.code.PositionList;
+import com.android.dx.dex.code.RopTranslator;
+import com.android.dx.dex.code.SimpleInsn;
+import com.android.dx.dex.code.TargetInsn;
+import com.android.dx.rop.code.AccessFlags;
+import com.android.dx.rop.code.DexTranslationAdvice;
+import com.android.dx.rop.code.RegisterSpec;
+import com.android.dx.rop.code.RegisterSpecList;
+import com.android.dx.rop.code.RopMethod;
+import com.android.dx.rop.code.SourcePosition;
+import com.android.dx.rop.cst.Constant;
+import com.android.dx.rop.cst.CstMethodRef;
+import com.android.dx.rop.type.Type;
+import com.android.dx.ssa.Optimizer;
+import com.android.dx.util._tests.DxClassFiles;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.HashMap;
+
+/**
+ * Test the class {@code com.android.dx.dex.code.OutputFinisher}, by
+ * checking that reserving registers incrementally gets the same
+ * results as the original rescanning way.
+ */
+public class _OutputFinisher extends TestCase {
+    /** classes to take the methods from; some have very large methods */
+    private static final String[] CLASSES = {
+        "com/android/dx/cf/code/RopperMachine",
+        "com/android/dx/cf/code/Ropper",
+        "com/android/dx/dex/code/Dops",
+        "com/android/dx/dex/code/OutputFinisher",
+        "com/android/dx/rop/code/Rops",
+        "com/android/dx/ssa/SCCP",
+        "com/android/dx/ssa/back/FirstFitLocalCombiningAllocator",
+    };
+
+    /** register count of the generated method */
+    private static final int GENERATED_REG_COUNT = 300;
+
+    /**
+     * number of filler instructions that a long branch of the generated
+     * method jumps over, which is beyond the reach of a 16-bit offset
+     */
+    private static final int LONG_JUMP_FILLER = 40000;
+
+    /**
+     * number of filler instructions that a short branch of the
+     * generated method jumps over, which is beyond the reach of an
+     * 8-bit offset
+     */
+    private static final int SHORT_JUMP_FILLER = 200;
+
+    public void test_sameAsRescanning() throws IOException {
+        int count = 0;
+        int reserving = 0;
+
+        for (String name : CLASSES) {
+            DirectClassFile cf =
+                new DirectClassFile(DxClassFiles.read(name), name + ".class", false);
+
+            cf.setAttributeFactory(StdAttributeFactory.THE_ONE);
+
+            MethodList methods = cf.getMethods();
+            int sz = methods.size();
+
+            for (int i = 0; i < sz; i++) {
+                Method one = methods.get(i);
+                int accessFlags = one.getAccessFlags();
+
+                if (AccessFlags.isNative(accessFlags)
+                        || AccessFlags.isAbstract(accessFlags)) {
+                    continue;
+                }
+
+                boolean isStatic = AccessFlags.isStatic(accessFlags);
+                int paramWidth = new CstMethodRef(cf.getThisClass(),
+                        one.getNat()).getParameterWordCount(isStatic);
+                RopMethod rop = Ropper.convert(
+                        new ConcreteMethod(one, cf, true, true),
+                        DexTranslationAdvice.THE_ONE);
+                RopMethod optRop = Optimizer.optimize(rop, paramWidth,
+                        isStatic, true, DexTranslationAdvice.THE_ONE);
+                String label = name + "." + one.getName().getString();
+
+                DalvCode expected = translate(optRop, paramWidth);
+                DalvCode actual = translate(optRop, paramWidth);
+                int unreserved =
+                    actual.getUnprocessedInsns().getUnreservedRegCount();
+
+                assertSameList(label, finish(expected, false),
+                        finish(actual, true));
+
+                if (actual.getInsns().getRegistersSize() > unreserved) {
+                    reserving++;
+                }
+
+                count++;
+            }
+        }
+
+        assertTrue(count > 0);
+        assertTrue(reserving > 0);
+    }
+
+    public void test_highRegistersAndLongBranches() {
+        DalvInsnList expected = finish(makeGenerated(), false);
+        DalvInsnList actual = finish(makeGenerated(), true);
+
+        assertSameList("generated", expected, actual);
+        assertTrue(actual.getRegistersSize() > GENERATED_REG_COUNT);
+
+        String listing = listing(actual);
+        assertTrue(listing.indexOf("goto/16") >= 0);
+        assertTrue(listing.indexOf("goto/32") >= 0);
+    }
+
+    /**
+     * Makes the code of a method with over 256 registers, whose
+     * instructions need different numbers of reserved registers, and
+     * which has branches that need widening and reversing. Reserving
+     * registers for some instructions pushes others in turn past the
+     * 16- and 256-register limits of their formats.
+     */
+    private static OutputFinisher makeGenerated() {
+        OutputFinisher result =
+            new OutputFinisher(LONG_JUMP_FILLER + 100, GENERATED_REG_COUNT);
+        CodeAddress nearTarget = new CodeAddress(SourcePosition.NO_INFO);
+        CodeAddress farTarget = new CodeAddress(SourcePosition.NO_INFO);
+        CodeAddress end = new CodeAddress(SourcePosition.NO_INFO);
+
+        result.add(simple(Dops.MOVE, reg(15), reg(14)));
+        result.add(simple(Dops.MOVE_FROM16, reg(12), reg(254)));
+        addBranch(result, Dops.IF_EQ, nearTarget, reg(15), reg(13));
+        result.add(simple(Dops.ADD_INT, reg(253), reg(254), reg(255)));
+        result.add(simple(Dops.ADD_LONG, wide(296), wide(292), wide(294)));
+        addBranch(result, Dops.IF_EQ, farTarget, reg(200), reg(201));
+        addBranch(result, Dops.GOTO, nearTarget);
+
+        for (int i = 0; i < SHORT_JUMP_FILLER; i++) {
+            result.add(simple(Dops.MOVE, reg(1), reg(2)));
+        }
+
+        result.add(nearTarget);
+        result.add(simple(Dops.ADD_INT, reg(3), reg(4), reg(5)));
+        addBranch(result, Dops.GOTO, end);
+
+        for (int i = 0; i < LONG_JUMP_FILLER; i++) {
+            result.add(simple(Dops.MOVE, reg(1), reg(2)));
+        }
+
+        result.add(farTarget);
+        result.add(simple(Dops.MOVE_16, reg(299), reg(11)));
+        result.add(end);
+        result.add(simple(Dops.RETURN_VOID));
+
+        return result;
+    }
+
+    private static SimpleInsn simple(Dop opcode, RegisterSpec... regs) {
+        return new SimpleInsn(opcode, SourcePosition.NO_INFO, list(regs));
+    }
+
+    /**
+     * Adds a branch, followed by the address that it falls through to,
+     * as the translator does.
+     */
+    private static void addBranch(OutputFinisher insns, Dop opcode,
+            CodeAddress target, RegisterSpec... regs) {
+        insns.add(new TargetInsn(opcode, SourcePosition.NO_INFO, list(regs),
+                        target));
+        insns.add(new CodeAddress(SourcePosition.NO_INFO));
+    }
+
+    private static RegisterSpecList list(RegisterSpec[] regs) {
+        RegisterSpecList result = new RegisterSpecList(regs.length);
+
+        for (int i = 0; i < regs.length; i++) {
+            result.set(i, regs[i]);
+        }
+
+        result.setImmutable();
+        return result;
+    }
+
+    private static RegisterSpec reg(int n) {
+        return RegisterSpec.make(n, Type.INT);
+    }
+
+    private static RegisterSpec wide(int n) {
+        return RegisterSpec.make(n, Type.LONG);
+    }
+
+    /**
+     * Translates a method, giving its constants small indices as if
+     * they were the first ones in the output.
+     */
+    private static DalvCode translate(RopMethod rop, int paramWidth) {
+        DalvCode result = RopTranslator.translate(rop, PositionList.LINES,
+                null, paramWidth);
+        final HashMap<Constant, Integer> indices =
+            new HashMap<Constant, Integer>();
+
+        result.assignIndices(new DalvCode.AssignIndicesCallback() {
+            public int getIndex(Constant cst) {
+                Integer index = indices.get(cst);
+
+                if (index == null) {
+                    index = indices.size();
+                    indices.put(cst, index);
+                }
+
+                return index;
+            }
+        });
+
+        return result;
+    }
+
+    /**
+     * Finishes the given code, reserving registers in the given way.
+     */
+    private static DalvInsnList finish(DalvCode code, boolean incremental) {
+        code.getUnprocessedInsns().setIncrementalReservation(incremental);
+        return code.getInsns();
+    }
+
+    /**
+     * Finishes the given instructions, reserving registers in the given
+     * way.
+     */
+    private static DalvInsnList finish(OutputFinisher insns,
+            boolean incremental) {
+        insns.setIncrementalReservation(incremental);
+        return insns.finishProcessingAndGetList();
+    }
+
+    private static void assertSameList(String label, DalvInsnList expected,
+            DalvInsnList actual) {
+        assertEquals(label, expected.getRegistersSize(),
+                actual.getRegistersSize());
+        assertEquals(label, expected.codeSize(), actual.codeSize());
+        assertEquals(label, listing(expected), listing(actual));
+    }
+
+    private static String listing(DalvInsnList list) {
+        StringWriter sw = new StringWriter();
+
+        list.debugPrint(sw, "", false);
+        return sw.toString();
+    }
+}
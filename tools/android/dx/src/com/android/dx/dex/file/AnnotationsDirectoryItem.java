@@ -194,6 +194,64 @@ public final class AnnotationsDirectoryItem extends OffsettedItem {
         parameterAnnotations.add(new ParameterAnnotationStruct(method, list));
     }
 
+    /**
+     * Gets the direct annotations on this instance, if any.
+     * 
+     * @return {@code null-ok;} the class annotations, if any
+     */
+    public Annotations getClassAnnotations() {
+        if (classAnnotations == null) {
+            return null;
+        }
+
+        return classAnnotations.getAnnotations();
+    }
+
+    /**
+     * Gets all the field annotations items, in the order they were added.
+     * The returned list is not linked in any way to the underlying list
+     * contained in this instance.
+     * 
+     * @return {@code non-null;} list of field annotations
+     */
+    public ArrayList<FieldAnnotationStruct> getAllFieldAnnotations() {
+        if (fieldAnnotations == null) {
+            return new ArrayList<FieldAnnotationStruct>();
+        }
+
+        return new ArrayList<FieldAnnotationStruct>(fieldAnnotations);
+    }
+
+    /**
+     * Gets all the method annotations items, in the order they were added.
+     * The returned list is not linked in any way to the underlying list
+     * contained in this instance.
+     * 
+     * @return {@code non-null;} list of method annotations
+     */
+    public ArrayList<MethodAnnotationStruct> getAllMethodAnnotations() {
+        if (methodAnnotations == null) {
+            return new ArrayList<MethodAnnotationStruct>();
+        }
+
+        return new ArrayList<MethodAnnotationStruct>(methodAnnotations);
+    }
+
+    /**
+     * Gets all the parameter annotations items, in the order they were
+     * added. The returned list is not linked in any way to the underlying
+     * list contained in this instance.
+     * 
+     * @return {@code non-null;} list of parameter annotations
+     */
+    public ArrayList<ParameterAnnotationStruct> getAllParameterAnnotations() {
+        if (parameterAnnotations == null) {
+            return new ArrayList<ParameterAnnotationStruct>();
+        }
+
+        return new ArrayList<ParameterAnnotationStruct>(parameterAnnotations);
+    }
+
     /**
      * Gets the method annotations for a given method, if any. This is
      * meant for use by debugging / dumping code.
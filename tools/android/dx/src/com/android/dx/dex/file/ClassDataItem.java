@@ -190,6 +190,60 @@ public final class ClassDataItem extends OffsettedItem {
         return result;
     }
 
+    /**
+     * Gets the static fields of this class, in the order they were
+     * added. The returned list is not linked in any way to the
+     * underlying list contained in this instance.
+     * 
+     * @return {@code non-null;} list of static fields
+     */
+    public ArrayList<EncodedField> getStaticFields() {
+        return new ArrayList<EncodedField>(staticFields);
+    }
+
+    /**
+     * Gets the initial value of the given static field, as passed to
+     * {@link #addStaticField}.
+     * 
+     * @param field {@code non-null;} the field in question
+     * @return {@code null-ok;} the initial value, if any
+     */
+    public Constant getStaticValue(EncodedField field) {
+        return staticValues.get(field);
+    }
+
+    /**
+     * Gets the instance fields of this class, in the order they were
+     * added. The returned list is not linked in any way to the
+     * underlying list contained in this instance.
+     * 
+     * @return {@code non-null;} list of instance fields
+     */
+    public ArrayList<EncodedField> getInstanceFields() {
+        return new ArrayList<EncodedField>(instanceFields);
+    }
+
+    /**
+     * Gets the direct methods of this class, in the order they were
+     * added. The returned list is not linked in any way to the
+     * underlying list contained in this instance.
+     * 
+     * @return {@code non-null;} list of direct methods
+     */
+    public ArrayList<EncodedMethod> getDirectMethods() {
+        return new ArrayList<EncodedMethod>(directMethods);
+    }
+
+    /**
+     * Gets the virtual methods of this class, in the order they were
+     * added. The returned list is not linked in any way to the
+     * underlying list contained in this instance.
+     * 
+     * @return {@code non-null;} list of virtual methods
+     */
+    public ArrayList<EncodedMethod> getVirtualMethods() {
+        return new ArrayList<EncodedMethod>(virtualMethods);
+    }
 
     /**
      * Prints out the contents of this instance, in a debugging-friendly
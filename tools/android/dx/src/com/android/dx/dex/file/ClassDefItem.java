@@ -307,6 +307,52 @@ public final class ClassDefItem extends IndexedItem {
         classData.addVirtualMethod(method);
     }
 
+    /**
+     * Gets the static fields of this class, in the order they were added.
+     * 
+     * @return {@code non-null;} list of static fields
+     */
+    public ArrayList<EncodedField> getStaticFields() {
+        return classData.getStaticFields();
+    }
+
+    /**
+     * Gets the initial value of the given static field, if any.
+     * 
+     * @param field {@code non-null;} the field in question
+     * @return {@code null-ok;} the initial value, if any
+     */
+    public Constant getStaticValue(EncodedField field) {
+        return classData.getStaticValue(field);
+    }
+
+    /**
+     * Gets the instance fields of this class, in the order they were added.
+     * 
+     * @return {@code non-null;} list of instance fields
+     */
+    public ArrayList<EncodedField> getInstanceFields() {
+        return classData.getInstanceFields();
+    }
+
+    /**
+     * Gets the direct methods of this class, in the order they were added.
+     * 
+     * @return {@code non-null;} list of direct methods
+     */
+    public ArrayList<EncodedMethod> getDirectMethods() {
+        return classData.getDirectMethods();
+    }
+
+    /**
+     * Gets the virtual methods of this class, in the order they were added.
+     * 
+     * @return {@code non-null;} list of virtual methods
+     */
+    public ArrayList<EncodedMethod> getVirtualMethods() {
+        return classData.getVirtualMethods();
+    }
+
     /**
      * Gets all the methods in this class. The returned list is not linked
      * in any way to the underlying lists contained in this instance, but
@@ -362,6 +408,45 @@ public final class ClassDefItem extends IndexedItem {
         annotationsDirectory.addParameterAnnotations(method, list);
     }
 
+    /**
+     * Gets the direct annotations on this class, if any.
+     * 
+     * @return {@code null-ok;} the class annotations, if any
+     */
+    public Annotations getClassAnnotations() {
+        return annotationsDirectory.getClassAnnotations();
+    }
+
+    /**
+     * Gets all the field annotations items of this class, in the order
+     * they were added.
+     * 
+     * @return {@code non-null;} list of field annotations
+     */
+    public ArrayList<FieldAnnotationStruct> getAllFieldAnnotations() {
+        return annotationsDirectory.getAllFieldAnnotations();
+    }
+
+    /**
+     * Gets all the method annotations items of this class, in the order
+     * they were added.
+     * 
+     * @return {@code non-null;} list of method annotations
+     */
+    public ArrayList<MethodAnnotationStruct> getAllMethodAnnotations() {
+        return annotationsDirectory.getAllMethodAnnotations();
+    }
+
+    /**
+     * Gets all the parameter annotations items of this class, in the
+     * order they were added.
+     * 
+     * @return {@code non-null;} list of parameter annotations
+     */
+    public ArrayList<ParameterAnnotationStruct> getAllParameterAnnotations() {
+        return annotationsDirectory.getAllParameterAnnotations();
+    }
+
     /**
      * Gets the method annotations for a given method, if any. This is
      * meant for use by debugging / dumping code.
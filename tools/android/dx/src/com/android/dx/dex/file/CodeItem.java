@@ -155,6 +155,24 @@ public final class CodeItem extends OffsettedItem {
         return ref;
     }
 
+    /**
+     * Gets the underlying code.
+     * 
+     * @return {@code non-null;} the code
+     */
+    public DalvCode getCode() {
+        return code;
+    }
+
+    /**
+     * Gets the list of possibly-thrown exceptions.
+     * 
+     * @return {@code non-null;} the throws list
+     */
+    public TypeList getThrowsList() {
+        return throwsList;
+    }
+
     /**
      * Does a human-friendly dump of this instance.
      * 
@@ -19,7 +19,6 @@ package com.android.dx.dex.file;
 import com.android.dx.dex.code.LocalList;
 import com.android.dx.dex.code.PositionList;
 import com.android.dx.rop.code.RegisterSpec;
-import com.android.dx.rop.code.SourcePosition;
 import com.android.dx.rop.cst.CstMethodRef;
 import com.android.dx.rop.cst.CstType;
 import com.android.dx.rop.cst.CstUtf8;
@@ -55,12 +54,24 @@ import static com.android.dx.dex.file.DebugInfoConstants.*;
 public final class DebugInfoEncoder {
     private static final boolean DEBUG = false;
 
-    /** {@code null-ok;} positions (line numbers) to encode */
-    private final PositionList positions;
+    /**
+     * {@code non-null;} addresses of the positions (line numbers) to
+     * encode, in ascending order; parallel to {@link #positionLines}
+     */
+    private final int[] positionAddresses;
+
+    /** {@code non-null;} line numbers of the positions to encode */
+    private final int[] positionLines;
 
     /** {@code null-ok;} local variables to encode */
     private final LocalList locals;
 
+    /**
+     * {@code non-null;} addresses of the entries of {@link #locals}, in
+     * the same order
+     */
+    private final int[] localAddresses;
+
     private final ByteArrayAnnotatedOutput output;
     private final DexFile file;
     private final int codeSize;
@@ -108,7 +119,6 @@ public final class DebugInfoEncoder {
     public DebugInfoEncoder(PositionList positions, LocalList locals,
             DexFile file, int codeSize, int regSize,
             boolean isStatic, CstMethodRef ref) {
-        this.positions = positions;
         this.locals = locals;
         this.file = file;
         this.desc = ref.getPrototype();
@@ -118,6 +128,25 @@ public final class DebugInfoEncoder {
 
         output = new ByteArrayAnnotatedOutput();
         lastEntryForReg = new LocalList.Entry[regSize];
+
+        int positionsSz = (positions == null) ? 0 : positions.size();
+        positionAddresses = new int[positionsSz];
+        positionLines = new int[positionsSz];
+
+        for (int i = 0; i < positionsSz; i++) {
+            PositionList.Entry entry = positions.get(i);
+            positionAddresses[i] = entry.getAddress();
+            positionLines[i] = entry.getPosition().getLine();
+        }
+
+        sortPositions();
+
+        int localsSz = (locals == null) ? 0 : locals.size();
+        localAddresses = new int[localsSz];
+
+        for (int i = 0; i < localsSz; i++) {
+            localAddresses[i] = locals.get(i).getAddress();
+        }
     }
 
     /**
@@ -191,10 +220,9 @@ public final class DebugInfoEncoder {
     }
 
     private byte[] convert0() throws IOException {
-        ArrayList<PositionList.Entry> sortedPositions = buildSortedPositions();
         ArrayList<LocalList.Entry> methodArgs = extractMethodArguments();
 
-        emitHeader(sortedPositions, methodArgs);
+        emitHeader(methodArgs);
 
         // TODO: Make this mark be the actual prologue end.
         output.writeByte(DBG_SET_PROLOGUE_END);
@@ -203,10 +231,12 @@ public final class DebugInfoEncoder {
             annotate(1, String.format("%04x: prologue end",address));
         }
 
-        int positionsSz = sortedPositions.size();
-        int localsSz = locals.size();
+        int[] positionAddresses = this.positionAddresses;
+        int[] localAddresses = this.localAddresses;
+        int positionsSz = positionAddresses.length;
+        int localsSz = localAddresses.length;
 
-        // Current index in sortedPositions
+        // Current index in positionAddresses
         int curPositionIdx = 0;
         // Current index in locals
         int curLocalIdx = 0;
@@ -217,8 +247,7 @@ public final class DebugInfoEncoder {
              */
 
             curLocalIdx = emitLocalsAtAddress(curLocalIdx);
-            curPositionIdx =
-                emitPositionsAtAddress(curPositionIdx, sortedPositions);
+            curPositionIdx = emitPositionsAtAddress(curPositionIdx);
 
             /*
              * Figure out what the next important address is.
@@ -228,11 +257,11 @@ public final class DebugInfoEncoder {
             int nextAddrP = Integer.MAX_VALUE; // position (line number)
 
             if (curLocalIdx < localsSz) {
-                nextAddrL = locals.get(curLocalIdx).getAddress();
+                nextAddrL = localAddresses[curLocalIdx];
             }
 
             if (curPositionIdx < positionsSz) {
-                nextAddrP = sortedPositions.get(curPositionIdx).getAddress();
+                nextAddrP = positionAddresses[curPositionIdx];
             }
 
             int next = Math.min(nextAddrP, nextAddrL);
@@ -254,7 +283,9 @@ public final class DebugInfoEncoder {
 
             if (next == nextAddrP) {
                 // Combined advance PC + position entry
-                emitPosition(sortedPositions.get(curPositionIdx++));
+                emitPosition(positionAddresses[curPositionIdx],
+                        positionLines[curPositionIdx]);
+                curPositionIdx++;
             } else {
                 emitAdvancePc(next - address);
             }
@@ -277,12 +308,12 @@ public final class DebugInfoEncoder {
      */
     private int emitLocalsAtAddress(int curLocalIdx)
             throws IOException {
-        int sz = locals.size();
+        int sz = localAddresses.length;
 
         // TODO: Don't emit ends implied by starts.
 
         while ((curLocalIdx < sz)
-                && (locals.get(curLocalIdx).getAddress() == address)) {
+                && (localAddresses[curLocalIdx] == address)) {
             LocalList.Entry entry = locals.get(curLocalIdx++);
             int reg = entry.getRegister();
             LocalList.Entry prevEntry = lastEntryForReg[reg];
@@ -340,19 +371,17 @@ public final class DebugInfoEncoder {
     /**
      * Emits all positions that occur at the current {@code address}
      *
-     * @param curPositionIdx Current index in sortedPositions
-     * @param sortedPositions positions, sorted by ascending address
+     * @param curPositionIdx Current index in positionAddresses
      * @return new value for {@code curPositionIdx}
      * @throws IOException
      */
-    private int emitPositionsAtAddress(int curPositionIdx,
-            ArrayList<PositionList.Entry> sortedPositions)
+    private int emitPositionsAtAddress(int curPositionIdx)
             throws IOException {
-        int positionsSz = sortedPositions.size();
+        int positionsSz = positionAddresses.length;
         while ((curPositionIdx < positionsSz)
-                && (sortedPositions.get(curPositionIdx).getAddress()
-                        == address)) {
-            emitPosition(sortedPositions.get(curPositionIdx++));
+                && (positionAddresses[curPositionIdx] == address)) {
+            emitPosition(address, positionLines[curPositionIdx]);
+            curPositionIdx++;
         }
         return curPositionIdx;
     }
@@ -361,20 +390,18 @@ public final class DebugInfoEncoder {
      * Emits the header sequence, which consists of LEB128-encoded initial
      * line number and string indicies for names of all non-"this" arguments.
      *
-     * @param sortedPositions positions, sorted by ascending address
      * @param methodArgs local list entries for method argumens arguments,
      * in left-to-right order omitting "this"
      * @throws IOException
      */
-    private void emitHeader(ArrayList<PositionList.Entry> sortedPositions,
-            ArrayList<LocalList.Entry> methodArgs) throws IOException {
+    private void emitHeader(ArrayList<LocalList.Entry> methodArgs)
+            throws IOException {
         boolean annotate = (annotateTo != null) || (debugPrint != null);
         int mark = output.getCursor();
 
         // Start by initializing the line number register.
-        if (sortedPositions.size() > 0) {
-            PositionList.Entry entry = sortedPositions.get(0);
-            line = entry.getPosition().getLine();
+        if (positionLines.length > 0) {
+            line = positionLines[0];
         }
         output.writeUnsignedLeb128(line);
 
@@ -479,29 +506,35 @@ public final class DebugInfoEncoder {
     }
 
     /**
-     * Builds a list of position entries, sorted by ascending address.
-     *
-     * @return A sorted positions list
+     * Sorts {@link #positionAddresses} in place by ascending address,
+     * keeping {@link #positionLines} in step with it. The sort is
+     * stable, so positions at the same address stay in list order.
+     * Position lists are made in address order, so this is normally
+     * just a single pass that finds nothing to move.
      */
-    private ArrayList<PositionList.Entry> buildSortedPositions() {
-        int sz = (positions == null) ? 0 : positions.size();
-        ArrayList<PositionList.Entry> result = new ArrayList(sz);
+    private void sortPositions() {
+        int[] addresses = positionAddresses;
+        int[] lines = positionLines;
 
-        for (int i = 0; i < sz; i++) {
-            result.add(positions.get(i));
-        }
+        for (int i = 1; i < addresses.length; i++) {
+            int address = addresses[i];
 
-        // Sort ascending by address.
-        Collections.sort (result, new Comparator<PositionList.Entry>() {
-            public int compare (PositionList.Entry a, PositionList.Entry b) {
-                return a.getAddress() - b.getAddress();
+            if (address >= addresses[i - 1]) {
+                continue;
             }
 
-            public boolean equals (Object obj) {
-               return obj == this;
-            }
-        });
-        return result;
+            int line = lines[i];
+            int j = i;
+
+            do {
+                addresses[j] = addresses[j - 1];
+                lines[j] = lines[j - 1];
+                j--;
+            } while ((j > 0) && (addresses[j - 1] > address));
+
+            addresses[j] = address;
+            lines[j] = line;
+        }
     }
 
     /**
@@ -766,16 +799,13 @@ public final class DebugInfoEncoder {
      * entry. This will typically be a single special opcode, although
      * it may also require DBG_ADVANCE_PC or DBG_ADVANCE_LINE.
      *
-     * @param entry position entry to emit.
+     * @param newAddress address of the position to emit
+     * @param newLine line number of the position to emit
      * @throws IOException
      */
-    private void emitPosition(PositionList.Entry entry)
+    private void emitPosition(int newAddress, int newLine)
             throws IOException {
 
-        SourcePosition pos = entry.getPosition();
-        int newLine = pos.getLine();
-        int newAddress = entry.getAddress();
-
         int opcode;
 
         int deltaLines = newLine - line;
@@ -81,6 +81,17 @@ public class DebugInfoItem extends OffsettedItem {
         }
     }
         
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The encoding only refers to other items by index, so equal
+     * encodings may be shared.</p>
+     */
+    @Override
+    protected byte[] getPlacedContents() {
+        return encoded;
+    }
+
     /** {@inheritDoc} */
     @Override
     public String toHuman() {
@@ -24,8 +24,10 @@ import com.android.dx.rop.cst.CstString;
 import com.android.dx.rop.cst.CstType;
 import com.android.dx.rop.cst.CstUtf8;
 import com.android.dx.rop.type.Type;
+import com.android.dx.util.AnnotatedOutput;
 import com.android.dx.util.ByteArrayAnnotatedOutput;
 import com.android.dx.util.ExceptionWithContext;
+import com.android.dx.util.StreamAnnotatedOutput;
 
 import java.io.IOException;
 import java.io.OutputStream;
@@ -162,7 +164,9 @@ public final class DexFile {
 
     /**
      * Writes the contents of this instance as either a binary or a
-     * human-readable form, or both.
+     * human-readable form, or both. Without human-readable output, the
+     * binary form is streamed out a piece at a time, rather than first
+     * being built up in memory in its entirety.
      * 
      * @param out {@code null-ok;} where to write to
      * @param humanOut {@code null-ok;} where to write human-oriented output to
@@ -170,16 +174,23 @@ public final class DexFile {
      */
     public void writeTo(OutputStream out, Writer humanOut, boolean verbose)
         throws IOException {
-        boolean annotate = (humanOut != null);
-        ByteArrayAnnotatedOutput result = toDex0(annotate, verbose);
+        if (humanOut == null) {
+            place();
+
+            if (out != null) {
+                stream(out);
+            }
+
+            return;
+        }
+
+        ByteArrayAnnotatedOutput result = toDex0(true, verbose);
 
         if (out != null) {
             out.write(result.getArray());
         }
 
-        if (annotate) {
-            result.writeAnnotationsTo(humanOut);
-        }
+        result.writeAnnotationsTo(humanOut);
     }
 
     /**
@@ -215,6 +226,18 @@ public final class DexFile {
         this.dumpWidth = dumpWidth;
     }
 
+    /**
+     * Sets whether data items with equal encodings, such as the debug
+     * info of methods with the same positions and locals, should share
+     * one copy in the output. This must be called before the instance
+     * is written.
+     * 
+     * @param deduplicating whether to share equal data items
+     */
+    public void setDeduplicatingData(boolean deduplicating) {
+        byteData.setDeduplicating(deduplicating);
+    }
+
     /**
      * Gets the total file size, if known.
      * 
@@ -475,6 +498,47 @@ public final class DexFile {
      */
     private ByteArrayAnnotatedOutput toDex0(boolean annotate,
             boolean verbose) {
+        place();
+
+        // Write out all the sections.
+
+        byte[] barr = new byte[fileSize];
+        ByteArrayAnnotatedOutput out = new ByteArrayAnnotatedOutput(barr);
+
+        if (annotate) {
+            out.enableAnnotations(dumpWidth, verbose);
+        }
+
+        writeSections(out, 0, sections.length);
+
+        if (out.getCursor() != fileSize) {
+            throw new RuntimeException("foreshortened write");
+        }
+
+        // Perform final bookkeeping.
+        
+        calcSignature(barr);
+        calcChecksum(barr);
+
+        if (annotate) {
+            wordData.writeIndexAnnotation(out, ItemType.TYPE_CODE_ITEM,
+                    "\nmethod code index:\n\n");
+            getStatistics().writeAnnotation(out);
+            out.finishAnnotating();
+        }
+
+        return out;
+    }
+
+    /**
+     * Prepares all the sections and places them within the file, unless
+     * that has already been done. This sets {@link #fileSize}.
+     */
+    private void place() {
+        if (fileSize >= 0) {
+            return;
+        }
+
         /*
          * The following is ordered so that the prepare() calls which
          * add items happen before the calls to the sections that get
@@ -532,17 +596,21 @@ public final class DexFile {
             }
         }
 
-        // Write out all the sections.
-
         fileSize = offset;
-        byte[] barr = new byte[fileSize];
-        ByteArrayAnnotatedOutput out = new ByteArrayAnnotatedOutput(barr);
-
-        if (annotate) {
-            out.enableAnnotations(dumpWidth, verbose);
-        }
+    }
 
-        for (int i = 0; i < count; i++) {
+    /**
+     * Writes out a range of the sections, each preceded by the zeroes
+     * needed to get to its place within the file. The output's cursor
+     * must be at the end of the previous section, if any.
+     * 
+     * @param out {@code non-null;} where to write to
+     * @param start {@code >= 0;} index of the first section to write
+     * @param end {@code >= start;} index just past the last section
+     * to write
+     */
+    private void writeSections(AnnotatedOutput out, int start, int end) {
+        for (int i = start; i < end; i++) {
             try {
                 Section one = sections[i];
                 int zeroCount = one.getFileOffset() - out.getCursor();
@@ -563,24 +631,79 @@ public final class DexFile {
                 throw ec;
             }
         }
+    }
 
-        if (out.getCursor() != fileSize) {
+    /**
+     * Streams the contents of this instance, which must already have been
+     * placed, out as a {@code .dex} file. Only the header is ever held in
+     * memory in one piece, so the checksum and signature in it are worked
+     * out by writing the rest of the file twice: once just to compute
+     * them, and once for real.
+     * 
+     * @param out {@code non-null;} where to write to
+     */
+    private void stream(OutputStream out) throws IOException {
+        byte[] headerBytes = makeHeader();
+
+        out.write(headerBytes);
+
+        StreamAnnotatedOutput rest =
+            new StreamAnnotatedOutput(out, headerBytes.length);
+
+        writeSections(rest, 1, sections.length);
+        rest.finish();
+
+        if (rest.getCursor() != fileSize) {
             throw new RuntimeException("foreshortened write");
         }
+    }
 
-        // Perform final bookkeeping.
-        
-        calcSignature(barr);
-        calcChecksum(barr);
+    /**
+     * Makes the header section of the file, complete with the checksum
+     * and signature of the whole file.
+     * 
+     * @return {@code non-null;} the bytes of the header
+     */
+    private byte[] makeHeader() {
+        byte[] bytes = new byte[header.writeSize()];
+        ByteArrayAnnotatedOutput headerOut =
+            new ByteArrayAnnotatedOutput(bytes);
 
-        if (annotate) {
-            wordData.writeIndexAnnotation(out, ItemType.TYPE_CODE_ITEM,
-                    "\nmethod code index:\n\n");
-            getStatistics().writeAnnotation(out);
-            out.finishAnnotating();
+        writeSections(headerOut, 0, 1);
+
+        MessageDigest md = makeSignatureDigest();
+        Adler32 a32 = new Adler32();
+        SumOutputStream sums = new SumOutputStream(md, a32);
+        StreamAnnotatedOutput rest =
+            new StreamAnnotatedOutput(sums, bytes.length);
+
+        sums.write(bytes, 32, bytes.length - 32);
+        writeSections(rest, 1, sections.length);
+
+        try {
+            rest.finish();
+        } catch (IOException ex) {
+            // SumOutputStream never fails.
+            throw new RuntimeException(ex);
         }
 
-        return out;
+        if (rest.getCursor() != fileSize) {
+            throw new RuntimeException("foreshortened write");
+        }
+
+        storeSignature(md, bytes);
+
+        /*
+         * The checksum also covers the signature, which comes before
+         * everything else that was summed up; so sum it separately
+         * and combine the two.
+         */
+        Adler32 signatureA32 = new Adler32();
+        signatureA32.update(bytes, 12, 20);
+        storeChecksum(adler32Combine(signatureA32.getValue(),
+                        a32.getValue(), fileSize - 32), bytes);
+
+        return bytes;
     }
 
     /**
@@ -605,16 +728,47 @@ public final class DexFile {
      * @param bytes {@code non-null;} the bytes of the file
      */
     private static void calcSignature(byte[] bytes) {
-        MessageDigest md;
+        MessageDigest md = makeSignatureDigest();
+
+        md.update(bytes, 32, bytes.length - 32);
+        storeSignature(md, bytes);
+    }
+
+    /**
+     * Calculates the checksum for the {@code .dex} file in the
+     * given array, and modify the array to contain it.
+     * 
+     * @param bytes {@code non-null;} the bytes of the file
+     */
+    private static void calcChecksum(byte[] bytes) {
+        Adler32 a32 = new Adler32();
+
+        a32.update(bytes, 12, bytes.length - 12);
+        storeChecksum(a32.getValue(), bytes);
+    }
 
+    /**
+     * Makes a digest for computing the signature of a file.
+     * 
+     * @return {@code non-null;} the digest
+     */
+    private static MessageDigest makeSignatureDigest() {
         try {
-            md = MessageDigest.getInstance("SHA-1");
+            return MessageDigest.getInstance("SHA-1");
         } catch (NoSuchAlgorithmException ex) {
             throw new RuntimeException(ex);
         }
+    }
 
-        md.update(bytes, 32, bytes.length - 32);
-
+    /**
+     * Completes the given signature digest, and stores the result in
+     * the header of a file.
+     * 
+     * @param md {@code non-null;} the digest, which has been fed
+     * everything from offset 32 on
+     * @param bytes {@code non-null;} the bytes of (at least) the header
+     */
+    private static void storeSignature(MessageDigest md, byte[] bytes) {
         try {
             int amt = md.digest(bytes, 12, 20);
             if (amt != 20) {
@@ -627,21 +781,90 @@ public final class DexFile {
     }
 
     /**
-     * Calculates the checksum for the {@code .dex} file in the
-     * given array, and modify the array to contain it.
+     * Stores the given checksum in the header of a file.
      * 
-     * @param bytes {@code non-null;} the bytes of the file
+     * @param value the checksum
+     * @param bytes {@code non-null;} the bytes of (at least) the header
      */
-    private static void calcChecksum(byte[] bytes) {
-        Adler32 a32 = new Adler32();
-
-        a32.update(bytes, 12, bytes.length - 12);
-
-        int sum = (int) a32.getValue();
+    private static void storeChecksum(long value, byte[] bytes) {
+        int sum = (int) value;
 
         bytes[8]  = (byte) sum;
         bytes[9]  = (byte) (sum >> 8);
         bytes[10] = (byte) (sum >> 16);
         bytes[11] = (byte) (sum >> 24);
     }
+
+    /**
+     * Combines the Adler-32 checksums of two pieces of data into the
+     * checksum of their concatenation, the same way that zlib's
+     * {@code adler32_combine()} does.
+     * 
+     * @param adler1 the checksum of the first piece
+     * @param adler2 the checksum of the second piece
+     * @param len2 {@code >= 0;} the length of the second piece
+     * @return the checksum of both pieces together
+     */
+    private static long adler32Combine(long adler1, long adler2, long len2) {
+        final long base = 65521;
+        long rem = len2 % base;
+        long sum1 = adler1 & 0xffff;
+        long sum2 = (rem * sum1) % base;
+
+        sum1 += (adler2 & 0xffff) + base - 1;
+        sum2 += ((adler1 >> 16) & 0xffff) + ((adler2 >> 16) & 0xffff)
+            + base - rem;
+
+        if (sum1 >= base) {
+            sum1 -= base;
+        }
+        if (sum1 >= base) {
+            sum1 -= base;
+        }
+        if (sum2 >= (base << 1)) {
+            sum2 -= (base << 1);
+        }
+        if (sum2 >= base) {
+            sum2 -= base;
+        }
+
+        return sum1 | (sum2 << 16);
+    }
+
+    /**
+     * Output stream which just feeds everything written to it to a
+     * signature digest and a checksum.
+     */
+    private static final class SumOutputStream extends OutputStream {
+        /** {@code non-null;} the signature digest */
+        private final MessageDigest md;
+
+        /** {@code non-null;} the checksum */
+        private final Adler32 a32;
+
+        /**
+         * Constructs an instance.
+         * 
+         * @param md {@code non-null;} the signature digest
+         * @param a32 {@code non-null;} the checksum
+         */
+        public SumOutputStream(MessageDigest md, Adler32 a32) {
+            this.md = md;
+            this.a32 = a32;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void write(int b) {
+            md.update((byte) b);
+            a32.update(b);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void write(byte[] b, int off, int len) {
+            md.update(b, off, len);
+            a32.update(b, off, len);
+        }
+    }
 }
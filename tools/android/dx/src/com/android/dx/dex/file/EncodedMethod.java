@@ -154,6 +154,16 @@ public final class EncodedMethod extends EncodedMember
         return method;
     }
 
+    /**
+     * Gets the code for the method, if any.
+     * 
+     * @return {@code null-ok;} the code, or {@code null} if the method
+     * is {@code abstract} or {@code native}
+     */
+    public CodeItem getCode() {
+        return code;
+    }
+
     /** {@inheritDoc} */
     @Override
     public int encode(DexFile file, AnnotatedOutput out, 
@@ -26,9 +26,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
-import java.util.Map;
 import java.util.NoSuchElementException;
-import java.util.TreeMap;
 
 /**
  * A section of a {@code .dex} file which consists of a sequence of
@@ -69,6 +67,9 @@ public final class MixedItemSection extends Section {
     /** {@code non-null;} how to sort the items */
     private final SortType sort;
 
+    /** whether items with equal contents share one copy in the output */
+    private boolean deduplicating;
+
     /**
      * {@code >= -1;} the current size of this part, in bytes, or {@code -1}
      * if not yet calculated
@@ -92,9 +93,24 @@ public final class MixedItemSection extends Section {
         this.items = new ArrayList<OffsettedItem>(100);
         this.interns = new HashMap<OffsettedItem, OffsettedItem>(100);
         this.sort = sort;
+        this.deduplicating = false;
         this.writeSize = -1;
     }
 
+    /**
+     * Sets whether items whose contents are equal should share one copy
+     * in the output. Only items whose contents are known when they are
+     * placed take part; see {@link OffsettedItem#getPlacedContents}.
+     * Items left without a copy of their own are dropped from this
+     * instance when it is placed.
+     *
+     * @param deduplicating whether to share equal items
+     */
+    public void setDeduplicating(boolean deduplicating) {
+        throwIfPrepared();
+        this.deduplicating = deduplicating;
+    }
+
     /** {@inheritDoc} */
     @Override
     public Collection<? extends Item> items() {
@@ -235,26 +251,33 @@ public final class MixedItemSection extends Section {
             String intro) {
         throwIfNotPrepared();
 
-        TreeMap<String, OffsettedItem> index =
-            new TreeMap<String, OffsettedItem>();
+        ArrayList<IndexEntry> index = new ArrayList<IndexEntry>();
 
         for (OffsettedItem item : items) {
             if (item.itemType() == itemType) {
-                String label = item.toHuman();
-                index.put(label, item);
+                index.add(new IndexEntry(item.toHuman(), item));
             }
         }
 
-        if (index.size() == 0) {
+        int sz = index.size();
+
+        if (sz == 0) {
             return;
         }
 
+        // This sort is stable, so the last of several equal labels wins.
+        Collections.sort(index);
         out.annotate(0, intro);
-        
-        for (Map.Entry<String, OffsettedItem> entry : index.entrySet()) {
-            String label = entry.getKey();
-            OffsettedItem item = entry.getValue();
-            out.annotate(0, item.offsetString() + ' ' + label + '\n');
+
+        for (int i = 0; i < sz; i++) {
+            IndexEntry entry = index.get(i);
+
+            if ((i + 1 < sz) && entry.label.equals(index.get(i + 1).label)) {
+                continue;
+            }
+
+            out.annotate(0, entry.item.offsetString() + ' ' + entry.label +
+                    '\n');
         }
     }
 
@@ -304,8 +327,11 @@ public final class MixedItemSection extends Section {
             }
         }
 
+        HashMap<Contents, OffsettedItem> placed = deduplicating ?
+            new HashMap<Contents, OffsettedItem>() : null;
         int sz = items.size();
         int outAt = 0;
+        int keptCount = 0;
         for (int i = 0; i < sz; i++) {
             OffsettedItem one = items.get(i);
             try {
@@ -316,16 +342,106 @@ public final class MixedItemSection extends Section {
                             one);
                 }
 
+                if (placed != null) {
+                    byte[] bytes = one.getPlacedContents();
+
+                    if (bytes != null) {
+                        Contents contents = new Contents(bytes);
+                        OffsettedItem original = placed.get(contents);
+
+                        if (original != null) {
+                            // Share it, and drop this one from the list.
+                            one.placeAsCopyOf(original);
+                            continue;
+                        }
+
+                        placed.put(contents, one);
+                    }
+                }
+
                 outAt = placedAt + one.writeSize();
+                items.set(keptCount, one);
+                keptCount++;
             } catch (RuntimeException ex) {
                 throw ExceptionWithContext.withContext(ex,
                         "...while placing " + one);
             }
         }
 
+        if (keptCount != sz) {
+            items.subList(keptCount, sz).clear();
+        }
+
         writeSize = outAt;
     }
 
+    /**
+     * Entry of the index written by {@link #writeIndexAnnotation}.
+     */
+    private static final class IndexEntry
+            implements Comparable<IndexEntry> {
+        /** {@code non-null;} the label of the item */
+        private final String label;
+
+        /** {@code non-null;} the item */
+        private final OffsettedItem item;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param label {@code non-null;} the label of the item
+         * @param item {@code non-null;} the item
+         */
+        public IndexEntry(String label, OffsettedItem item) {
+            this.label = label;
+            this.item = item;
+        }
+
+        /** {@inheritDoc} */
+        public int compareTo(IndexEntry other) {
+            return label.compareTo(other.label);
+        }
+    }
+
+    /**
+     * Contents of an item, as a key for finding equal items.
+     */
+    private static final class Contents {
+        /** {@code non-null;} the contents */
+        private final byte[] bytes;
+
+        /** hash code of {@link #bytes} */
+        private final int hash;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param bytes {@code non-null;} the contents
+         */
+        public Contents(byte[] bytes) {
+            this.bytes = bytes;
+            this.hash = Arrays.hashCode(bytes);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Contents)) {
+                return false;
+            }
+
+            Contents contents = (Contents) other;
+            return (hash == contents.hash)
+                && Arrays.equals(bytes, contents.bytes);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
     /** {@inheritDoc} */
     @Override
     protected void writeTo0(AnnotatedOutput out) {
@@ -244,6 +244,26 @@ public abstract class OffsettedItem extends Item
         return offset;
     }
 
+    /**
+     * Makes this instance, which has just been placed, share the place
+     * of another instance with the same contents, rather than be
+     * written out itself.
+     *
+     * @param original {@code non-null;} the instance to share with,
+     * already placed in the same section
+     */
+    /*package*/ final void placeAsCopyOf(OffsettedItem original) {
+        if (original.addedTo != addedTo) {
+            throw new IllegalArgumentException("placed in another section");
+        }
+
+        if (original.writeSize != writeSize) {
+            throw new IllegalArgumentException("mismatched write size");
+        }
+
+        offset = original.offset;
+    }
+
     /**
      * Gets the alignment requirement of this instance. An instance should
      * only be written when so aligned.
@@ -302,6 +322,20 @@ public abstract class OffsettedItem extends Item
         // This space intentionally left blank.
     }
 
+    /**
+     * Gets the bytes this instance is written as, if they are known as
+     * soon as it has been placed and don't depend on where it was
+     * placed. Instances with equal such contents may share one copy in
+     * the output; see {@link MixedItemSection#setDeduplicating}. The
+     * default implementation of this method returns {@code null}.
+     *
+     * @return {@code null-ok;} the contents, or {@code null} if this
+     * instance can't be shared that way
+     */
+    protected byte[] getPlacedContents() {
+        return null;
+    }
+
     /**
      * Performs the actual write of the contents of this instance to
      * the given data section. This is called by {@link #writeTo},
@@ -0,0 +1,316 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.dex.file;
+
+import com.android.dx.dex.code.DalvCode;
+import com.android.dx.rop.annotation.Annotation;
+import com.android.dx.rop.annotation.Annotations;
+import com.android.dx.rop.annotation.AnnotationsList;
+import com.android.dx.rop.annotation.NameValuePair;
+import com.android.dx.rop.cst.Constant;
+import com.android.dx.rop.cst.CstAnnotation;
+import com.android.dx.rop.cst.CstArray;
+import com.android.dx.rop.cst.CstBaseMethodRef;
+import com.android.dx.rop.cst.CstEnumRef;
+import com.android.dx.rop.cst.CstFieldRef;
+import com.android.dx.rop.cst.CstType;
+import com.android.dx.rop.type.Prototype;
+import com.android.dx.rop.type.Type;
+import com.android.dx.rop.type.TypeList;
+
+import java.util.HashSet;
+
+/**
+ * Set of the method, field and type references that one or more classes
+ * need ids for in a dex file. Since those ids are indexed with 16 bits
+ * in instructions, each dex file can hold at most 65536 of each; this
+ * is used to decide how classes may be split across several files
+ * before any of them is laid out.
+ *
+ * <p>The references of a class are found from its definition,
+ * annotations and code, in the same way as the items of a file intern
+ * them when the file is prepared. In particular, the constants of the
+ * code include the types of its local variables, which is what its
+ * debug info refers to, so the counts are exact and a file can be
+ * filled right up to the limit.</p>
+ */
+public final class ReferenceSet {
+    /** {@code non-null;} the method references */
+    private final HashSet<CstBaseMethodRef> methods;
+
+    /** {@code non-null;} the field references */
+    private final HashSet<CstFieldRef> fields;
+
+    /** {@code non-null;} the types */
+    private final HashSet<Type> types;
+
+    /**
+     * Constructs an empty instance.
+     */
+    public ReferenceSet() {
+        methods = new HashSet<CstBaseMethodRef>();
+        fields = new HashSet<CstFieldRef>();
+        types = new HashSet<Type>();
+    }
+
+    /**
+     * Gets the references that the given class needs ids for.
+     *
+     * @param clazz {@code non-null;} the class, not yet prepared as
+     * part of a file
+     * @return {@code non-null;} its references
+     */
+    public static ReferenceSet of(ClassDefItem clazz) {
+        ReferenceSet result = new ReferenceSet();
+
+        result.addType(clazz.getThisClass().getClassType());
+
+        CstType superclass = clazz.getSuperclass();
+        if (superclass != null) {
+            result.addType(superclass.getClassType());
+        }
+
+        result.addTypes(clazz.getInterfaces());
+
+        for (EncodedField field : clazz.getStaticFields()) {
+            result.addConstant(field.getRef());
+
+            Constant value = clazz.getStaticValue(field);
+            if (value != null) {
+                result.addConstant(value);
+            }
+        }
+
+        for (EncodedField field : clazz.getInstanceFields()) {
+            result.addConstant(field.getRef());
+        }
+
+        for (EncodedMethod method : clazz.getMethods()) {
+            result.addConstant(method.getRef());
+
+            CodeItem code = method.getCode();
+            if (code != null) {
+                result.addCode(code);
+            }
+        }
+
+        result.addAnnotations(clazz.getClassAnnotations());
+
+        for (FieldAnnotationStruct item : clazz.getAllFieldAnnotations()) {
+            result.addAnnotations(item.getAnnotations());
+        }
+
+        for (MethodAnnotationStruct item : clazz.getAllMethodAnnotations()) {
+            result.addAnnotations(item.getAnnotations());
+        }
+
+        for (ParameterAnnotationStruct item :
+                 clazz.getAllParameterAnnotations()) {
+            AnnotationsList list = item.getAnnotationsList();
+            int sz = list.size();
+            for (int i = 0; i < sz; i++) {
+                result.addAnnotations(list.get(i));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Gets the number of method references.
+     *
+     * @return {@code >= 0;} the count
+     */
+    public int getMethodCount() {
+        return methods.size();
+    }
+
+    /**
+     * Gets the number of field references.
+     *
+     * @return {@code >= 0;} the count
+     */
+    public int getFieldCount() {
+        return fields.size();
+    }
+
+    /**
+     * Gets the number of types.
+     *
+     * @return {@code >= 0;} the count
+     */
+    public int getTypeCount() {
+        return types.size();
+    }
+
+    /**
+     * Gets whether the union of this instance and the given one would
+     * have at most the given number of each kind of reference.
+     *
+     * @param other {@code non-null;} the references to add
+     * @param max {@code >= 0;} the maximum count of each kind
+     * @return whether the union fits
+     */
+    public boolean fitsWith(ReferenceSet other, int max) {
+        return (unionSize(methods, other.methods) <= max)
+            && (unionSize(fields, other.fields) <= max)
+            && (unionSize(types, other.types) <= max);
+    }
+
+    /**
+     * Adds all the references of the given instance to this one.
+     *
+     * @param other {@code non-null;} the references to add
+     */
+    public void addAll(ReferenceSet other) {
+        methods.addAll(other.methods);
+        fields.addAll(other.fields);
+        types.addAll(other.types);
+    }
+
+    /**
+     * Gets the size the union of two sets would have.
+     *
+     * @param set {@code non-null;} the first set
+     * @param toAdd {@code non-null;} the second set
+     * @return {@code >= 0;} the size of the union
+     */
+    private static <T> int unionSize(HashSet<T> set, HashSet<T> toAdd) {
+        int result = set.size();
+
+        for (T item : toAdd) {
+            if (!set.contains(item)) {
+                result++;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Adds a type.
+     *
+     * @param type {@code non-null;} the type
+     */
+    private void addType(Type type) {
+        types.add(type);
+    }
+
+    /**
+     * Adds all the types of a list.
+     *
+     * @param list {@code non-null;} the types
+     */
+    private void addTypes(TypeList list) {
+        int sz = list.size();
+
+        for (int i = 0; i < sz; i++) {
+            types.add(list.getType(i));
+        }
+    }
+
+    /**
+     * Adds the types of a prototype.
+     *
+     * @param proto {@code non-null;} the prototype
+     */
+    private void addPrototype(Prototype proto) {
+        types.add(proto.getReturnType());
+        addTypes(proto.getParameterTypes());
+    }
+
+    /**
+     * Adds the references of a constant, including those of any
+     * constants it contains.
+     *
+     * @param cst {@code non-null;} the constant
+     */
+    private void addConstant(Constant cst) {
+        if (cst instanceof CstBaseMethodRef) {
+            CstBaseMethodRef method = (CstBaseMethodRef) cst;
+            methods.add(method);
+            types.add(method.getDefiningClass().getClassType());
+            addPrototype(method.getPrototype());
+        } else if (cst instanceof CstFieldRef) {
+            CstFieldRef field = (CstFieldRef) cst;
+            fields.add(field);
+            types.add(field.getDefiningClass().getClassType());
+            types.add(field.getType());
+        } else if (cst instanceof CstEnumRef) {
+            addConstant(((CstEnumRef) cst).getFieldRef());
+        } else if (cst instanceof CstType) {
+            types.add(((CstType) cst).getClassType());
+        } else if (cst instanceof CstArray) {
+            CstArray.List list = ((CstArray) cst).getList();
+            int sz = list.size();
+            for (int i = 0; i < sz; i++) {
+                addConstant(list.get(i));
+            }
+        } else if (cst instanceof CstAnnotation) {
+            addAnnotation(((CstAnnotation) cst).getAnnotation());
+        }
+    }
+
+    /**
+     * Adds the references of some annotations.
+     *
+     * @param annotations {@code null-ok;} the annotations, if any
+     */
+    private void addAnnotations(Annotations annotations) {
+        if (annotations == null) {
+            return;
+        }
+
+        for (Annotation annotation : annotations.getAnnotations()) {
+            addAnnotation(annotation);
+        }
+    }
+
+    /**
+     * Adds the references of an annotation.
+     *
+     * @param annotation {@code non-null;} the annotation
+     */
+    private void addAnnotation(Annotation annotation) {
+        types.add(annotation.getType().getClassType());
+
+        for (NameValuePair pair : annotation.getNameValuePairs()) {
+            addConstant(pair.getValue());
+        }
+    }
+
+    /**
+     * Adds the references of the code of a method.
+     *
+     * @param item {@code non-null;} the code
+     */
+    private void addCode(CodeItem item) {
+        DalvCode code = item.getCode();
+
+        addTypes(item.getThrowsList());
+
+        if (code.hasAnyCatches()) {
+            for (Type type : code.getCatchTypes()) {
+                types.add(type);
+            }
+        }
+
+        for (Constant cst : code.getInsnConstants()) {
+            addConstant(cst);
+        }
+    }
+}
@@ -64,6 +64,24 @@ public final class Statistics {
         }
     }
 
+    /**
+     * Adds all the statistics of the given instance to this one, as if
+     * all of its items had been added here too.
+     *
+     * @param other {@code non-null;} the statistics to add
+     */
+    public void addAll(Statistics other) {
+        for (Data data : other.dataMap.values()) {
+            Data mine = dataMap.get(data.name);
+
+            if (mine == null) {
+                dataMap.put(data.name, new Data(data));
+            } else {
+                mine.add(data);
+            }
+        }
+    }
+
     /**
      * Writes the statistics as an annotation.
      * 
@@ -105,6 +123,33 @@ public final class Statistics {
         return sb.toString();
     }
 
+    /**
+     * Gets the statistics as a JSON object, with a member for each type
+     * of item.
+     *
+     * @return {@code non-null;} the JSON text
+     */
+    public String toJson() {
+        StringBuilder sb = new StringBuilder();
+        TreeMap<String, Data> sortedData = new TreeMap<String, Data>();
+
+        for (Data data : dataMap.values()) {
+            sortedData.put(data.name, data);
+        }
+
+        sb.append('{');
+
+        String sep = "\n";
+        for (Data data : sortedData.values()) {
+            sb.append(sep);
+            sb.append(data.toJson());
+            sep = ",\n";
+        }
+
+        sb.append("\n}");
+        return sb.toString();
+    }
+
     /**
      * Statistical data about a particular class.
      */
@@ -140,6 +185,19 @@ public final class Statistics {
             this.smallestSize = size;
         }
 
+        /**
+         * Constructs a copy of the given instance.
+         *
+         * @param other {@code non-null;} instance to copy
+         */
+        public Data(Data other) {
+            this.name = other.name;
+            this.count = other.count;
+            this.totalSize = other.totalSize;
+            this.largestSize = other.largestSize;
+            this.smallestSize = other.smallestSize;
+        }
+
         /**
          * Incorporates a new item. This assumes the type name matches.
          * 
@@ -160,6 +218,25 @@ public final class Statistics {
             }
         }
 
+        /**
+         * Incorporates all the items of another instance. This assumes
+         * the type name matches.
+         *
+         * @param other {@code non-null;} instance to incorporate
+         */
+        public void add(Data other) {
+            count += other.count;
+            totalSize += other.totalSize;
+
+            if (other.largestSize > largestSize) {
+                largestSize = other.largestSize;
+            }
+
+            if (other.smallestSize < smallestSize) {
+                smallestSize = other.smallestSize;
+            }
+        }
+
         /**
          * Writes this instance as an annotation.
          * 
@@ -191,5 +268,18 @@ public final class Statistics {
 
             return sb.toString();
         }
+
+        /**
+         * Gets this instance as a JSON object member, named by the type
+         * name. Type names are plain identifiers, so need no escaping.
+         *
+         * @return {@code non-null;} the JSON text
+         */
+        public String toJson() {
+            return "\"" + name + "\": {\"count\": " + count +
+                ", \"totalSize\": " + totalSize +
+                ", \"smallestSize\": " + smallestSize +
+                ", \"largestSize\": " + largestSize + "}";
+        }
     }
 }
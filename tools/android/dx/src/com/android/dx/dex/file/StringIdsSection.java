@@ -23,11 +23,14 @@ import com.android.dx.rop.cst.CstUtf8;
 import com.android.dx.util.AnnotatedOutput;
 import com.android.dx.util.Hex;
 
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.TreeMap;
+import java.util.HashMap;
 
 /**
- * Strings list section of a {@code .dex} file.
+ * Strings list section of a {@code .dex} file. Strings are interned
+ * into a hash map, and only sorted once, when this instance is
+ * prepared.
  */
 public final class StringIdsSection
         extends UniformItemSection {
@@ -35,7 +38,13 @@ public final class StringIdsSection
      * {@code non-null;} map from string constants to {@link
      * StringIdItem} instances 
      */
-    private final TreeMap<CstUtf8, StringIdItem> strings;
+    private final HashMap<CstUtf8, StringIdItem> strings;
+
+    /**
+     * {@code null-ok;} the items of {@link #strings} in order, once this
+     * instance has been prepared
+     */
+    private StringIdItem[] sorted;
 
     /**
      * Constructs an instance. The file offset is initially unknown.
@@ -45,12 +54,22 @@ public final class StringIdsSection
     public StringIdsSection(DexFile file) {
         super("string_ids", file, 4);
 
-        strings = new TreeMap<CstUtf8, StringIdItem>();
+        strings = new HashMap<CstUtf8, StringIdItem>();
+        sorted = null;
     }
 
-    /** {@inheritDoc} */
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The items are only in order once this instance has been
+     * prepared.</p>
+     */
     @Override
     public Collection<? extends Item> items() {
+        if (sorted != null) {
+            return Arrays.asList(sorted);
+        }
+
         return strings.values();
     }
 
@@ -200,11 +219,15 @@ public final class StringIdsSection
     /** {@inheritDoc} */
     @Override
     protected void orderItems() {
-        int idx = 0;
+        StringIdItem[] items =
+            strings.values().toArray(new StringIdItem[strings.size()]);
 
-        for (StringIdItem s : strings.values()) {
-            s.setIndex(idx);
-            idx++;
+        Arrays.sort(items);
+
+        for (int i = 0; i < items.length; i++) {
+            items[i].setIndex(i);
         }
+
+        sorted = items;
     }
 }
@@ -22,17 +22,37 @@ import com.android.dx.rop.type.Type;
 import com.android.dx.util.AnnotatedOutput;
 import com.android.dx.util.Hex;
 
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.TreeMap;
+import java.util.Comparator;
+import java.util.HashMap;
 
 /**
- * Type identifiers list section of a {@code .dex} file.
+ * Type identifiers list section of a {@code .dex} file. Types are
+ * interned into a hash map, and only sorted once, when this instance
+ * is prepared.
  */
 public final class TypeIdsSection extends UniformItemSection {
+    /** {@code non-null;} comparator which orders items by type */
+    private static final Comparator<TypeIdItem> TYPE_ORDER =
+        new Comparator<TypeIdItem>() {
+        public int compare(TypeIdItem item1, TypeIdItem item2) {
+            Type type1 = item1.getDefiningClass().getClassType();
+            Type type2 = item2.getDefiningClass().getClassType();
+            return type1.compareTo(type2);
+        }
+    };
+
     /**
      * {@code non-null;} map from types to {@link TypeIdItem} instances
      */
-    private final TreeMap<Type, TypeIdItem> typeIds;
+    private final HashMap<Type, TypeIdItem> typeIds;
+
+    /**
+     * {@code null-ok;} the items of {@link #typeIds} in order, once this
+     * instance has been prepared
+     */
+    private TypeIdItem[] sorted;
 
     /**
      * Constructs an instance. The file offset is initially unknown.
@@ -42,12 +62,22 @@ public final class TypeIdsSection extends UniformItemSection {
     public TypeIdsSection(DexFile file) {
         super("type_ids", file, 4);
 
-        typeIds = new TreeMap<Type, TypeIdItem>();
+        typeIds = new HashMap<Type, TypeIdItem>();
+        sorted = null;
     }
 
-    /** {@inheritDoc} */
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The items are only in order once this instance has been
+     * prepared.</p>
+     */
     @Override
     public Collection<? extends Item> items() {
+        if (sorted != null) {
+            return Arrays.asList(sorted);
+        }
+
         return typeIds.values();
     }
 
@@ -182,11 +212,15 @@ public final class TypeIdsSection extends UniformItemSection {
     /** {@inheritDoc} */
     @Override
     protected void orderItems() {
-        int idx = 0;
+        TypeIdItem[] items =
+            typeIds.values().toArray(new TypeIdItem[typeIds.size()]);
+
+        Arrays.sort(items, TYPE_ORDER);
 
-        for (Object i : items()) {
-            ((TypeIdItem) i).setIndex(idx);
-            idx++;
+        for (int i = 0; i < items.length; i++) {
+            items[i].setIndex(i);
         }
+
+        sorted = items;
     }
 }
@@ -100,6 +100,12 @@ public final class ValueEncoder {
 
     /** {@code non-null;} output stream to write to */
     private final AnnotatedOutput out;
+
+    /**
+     * {@code non-null;} scratch space for the header byte and value bytes
+     * of a single encoded value
+     */
+    private final byte[] valueBytes;
     
     /**
      * Construct an instance.
@@ -118,6 +124,7 @@ public final class ValueEncoder {
 
         this.file = file;
         this.out = out;
+        this.valueBytes = new byte[9];
     }
 
     /**
@@ -217,39 +224,44 @@ public final class ValueEncoder {
         /*
          * TODO: Constant should probable have an associated enum, so this
          * can be a switch().
+         *
+         * All of these classes are final and unrelated, so the order of
+         * the tests only matters for speed. The kinds which make up most
+         * encoded values (the strings and arrays of signature annotations,
+         * types, and static field initializers) come first.
          */
-        if (cst instanceof CstByte) {
-            return VALUE_BYTE;
-        } else if (cst instanceof CstShort) {
-            return VALUE_SHORT;
-        } else if (cst instanceof CstChar) {
-            return VALUE_CHAR;
+        if (cst instanceof CstString) {
+            return VALUE_STRING;
+        } else if (cst instanceof CstArray) {
+            return VALUE_ARRAY;
+        } else if (cst instanceof CstType) {
+            return VALUE_TYPE;
         } else if (cst instanceof CstInteger) {
             return VALUE_INT;
+        } else if (cst instanceof CstBoolean) {
+            return VALUE_BOOLEAN;
+        } else if (cst instanceof CstKnownNull) {
+            return VALUE_NULL;
         } else if (cst instanceof CstLong) {
             return VALUE_LONG;
+        } else if (cst instanceof CstEnumRef) {
+            return VALUE_ENUM;
+        } else if (cst instanceof CstAnnotation) {
+            return VALUE_ANNOTATION;
         } else if (cst instanceof CstFloat) {
             return VALUE_FLOAT;
         } else if (cst instanceof CstDouble) {
             return VALUE_DOUBLE;
-        } else if (cst instanceof CstString) {
-            return VALUE_STRING;
-        } else if (cst instanceof CstType) {
-            return VALUE_TYPE;
+        } else if (cst instanceof CstChar) {
+            return VALUE_CHAR;
+        } else if (cst instanceof CstShort) {
+            return VALUE_SHORT;
+        } else if (cst instanceof CstByte) {
+            return VALUE_BYTE;
         } else if (cst instanceof CstFieldRef) {
             return VALUE_FIELD;
         } else if (cst instanceof CstMethodRef) {
             return VALUE_METHOD;
-        } else if (cst instanceof CstEnumRef) {
-            return VALUE_ENUM;
-        } else if (cst instanceof CstArray) {
-            return VALUE_ARRAY;
-        } else if (cst instanceof CstAnnotation) {
-            return VALUE_ANNOTATION;
-        } else if (cst instanceof CstKnownNull) {
-            return VALUE_NULL;
-        } else if (cst instanceof CstBoolean) {
-            return VALUE_BOOLEAN;
         } else {
             throw new RuntimeException("Shouldn't happen");
         }
@@ -403,18 +415,7 @@ public final class ValueEncoder {
         // Round up the requiredBits to a number of bytes.
         int requiredBytes = (requiredBits + 0x07) >> 3;
 
-        /*
-         * Write the header byte, which includes the type and
-         * requiredBytes - 1.
-         */
-        out.writeByte(type | ((requiredBytes - 1) << 5));
-
-        // Write the value, per se.
-        while (requiredBytes > 0) {
-            out.writeByte((byte) value);
-            value >>= 8;
-            requiredBytes--;
-        }
+        writeValue(type, requiredBytes, value);
     }
 
     /**
@@ -434,18 +435,7 @@ public final class ValueEncoder {
         // Round up the requiredBits to a number of bytes.
         int requiredBytes = (requiredBits + 0x07) >> 3;
 
-        /*
-         * Write the header byte, which includes the type and
-         * requiredBytes - 1.
-         */
-        out.writeByte(type | ((requiredBytes - 1) << 5));
-
-        // Write the value, per se.
-        while (requiredBytes > 0) {
-            out.writeByte((byte) value);
-            value >>= 8;
-            requiredBytes--;
-        }
+        writeValue(type, requiredBytes, value);
     }
 
     /**
@@ -468,20 +458,35 @@ public final class ValueEncoder {
         // Scootch the first bits to be written down to the low-order bits.
         value >>= 64 - (requiredBytes * 8);
 
+        writeValue(type, requiredBytes, value);
+    }
+
+    /**
+     * Helper for the {@code write*Value()} methods, which writes out the
+     * header byte and value bytes of an encoded value with a single
+     * write to the output.
+     *
+     * @param type the type constant
+     * @param requiredBytes {@code >= 1, <= 8;} the number of value bytes
+     * @param value {@code long} bits of the value, with the first byte to
+     * write in the low-order bits
+     */
+    private void writeValue(int type, int requiredBytes, long value) {
+        byte[] bytes = valueBytes;
+
         /*
-         * Write the header byte, which includes the type and
-         * requiredBytes - 1.
+         * The header byte includes the type and requiredBytes - 1, and
+         * is followed by the value, per se.
          */
-        out.writeByte(type | ((requiredBytes - 1) << 5));
+        bytes[0] = (byte) (type | ((requiredBytes - 1) << 5));
 
-        // Write the value, per se.
-        while (requiredBytes > 0) {
-            out.writeByte((byte) value);
+        for (int i = 1; i <= requiredBytes; i++) {
+            bytes[i] = (byte) value;
             value >>= 8;
-            requiredBytes--;
         }
-    }
 
+        out.write(bytes, 0, requiredBytes + 1);
+    }
 
     /**
      * Helper for {@code addContents()} methods, which adds
@@ -22,7 +22,8 @@ import com.android.dx.rop.type.Type;
 import com.android.dx.rop.type.TypeBearer;
 import com.android.dx.util.ToHuman;
 
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Combination of a register number and a type, used as the sources and
@@ -33,12 +34,33 @@ public final class RegisterSpec
     /** {@code non-null;} string to prefix register numbers with */
     public static final String PREFIX = "v";
 
+    /**
+     * maximum number of instances in {@link #theInterns}; the table is
+     * emptied when it grows past this
+     */
+    private static final int MAX_INTERNS = 100000;
+
     /** {@code non-null;} intern table for instances */
-    private static final HashMap<Object, RegisterSpec> theInterns =
-        new HashMap<Object, RegisterSpec>(1000);
+    private static final ConcurrentHashMap<Object, RegisterSpec> theInterns =
+        new ConcurrentHashMap<Object, RegisterSpec>(1000);
+
+    /**
+     * {@code non-null;} approximate number of instances in
+     * {@link #theInterns}, which is cheaper to keep up than to ask it
+     */
+    private static final AtomicInteger theInternCount = new AtomicInteger();
 
-    /** {@code non-null;} common comparison instance used while interning */
-    private static final ForComparison theInterningItem = new ForComparison();
+    /**
+     * {@code non-null;} per-thread comparison instance used to look up
+     * instances without allocating a key
+     */
+    private static final ThreadLocal<ForComparison> theInterningItem =
+        new ThreadLocal<ForComparison>() {
+            @Override
+            protected ForComparison initialValue() {
+                return new ForComparison();
+            }
+        };
 
     /** {@code >= 0;} register number */
     private final int reg;
@@ -60,16 +82,42 @@ public final class RegisterSpec
      */
     private static RegisterSpec intern(int reg, TypeBearer type,
             LocalItem local) {
-        theInterningItem.set(reg, type, local);
-        RegisterSpec found = theInterns.get(theInterningItem);
+        ForComparison probe = theInterningItem.get();
+
+        probe.set(reg, type, local);
+        RegisterSpec found = theInterns.get(probe);
+        // Don't hold onto the caller's objects.
+        probe.set(0, null, null);
 
         if (found != null) {
             return found;
         }
 
-        found = theInterningItem.toRegisterSpec();
-        theInterns.put(found, found);
-        return found;
+        found = new RegisterSpec(reg, type, local);
+
+        /*
+         * Instances are only interned to save memory, and equal ones
+         * are interchangeable, so there's no harm in starting afresh
+         * when the table gets too big.
+         */
+        if (theInternCount.incrementAndGet() > MAX_INTERNS) {
+            clearInterns();
+        }
+
+        RegisterSpec already = theInterns.putIfAbsent(found, found);
+        return (already != null) ? already : found;
+    }
+
+    /**
+     * Empties the intern table. Instances are interned only to share
+     * memory, never to be compared with {@code ==}, so this is always
+     * safe to call; it is meant to be called once a compilation is
+     * done, so that the table doesn't keep the types and constants of
+     * that compilation alive.
+     */
+    public static void clearInterns() {
+        theInterns.clear();
+        theInternCount.set(0);
     }
 
     /**
@@ -620,16 +668,6 @@ public final class RegisterSpec
             this.local = local;
         }
 
-        /**
-         * Construct a {@code RegisterSpec} of this instance's
-         * contents.
-         * 
-         * @return {@code non-null;} an appropriately-constructed instance
-         */
-        public RegisterSpec toRegisterSpec() {
-            return new RegisterSpec(reg, type, local);
-        }
-
         /** {@inheritDoc} */
         @Override
         public boolean equals(Object other) {
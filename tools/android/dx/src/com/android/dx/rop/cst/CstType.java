@@ -17,16 +17,18 @@
 package com.android.dx.rop.cst;
 
 import com.android.dx.rop.type.Type;
-
-import java.util.HashMap;
+import com.android.dx.util.WeakInternTable;
 
 /**
  * Constants that represent an arbitrary type (reference or primitive).
  */
 public final class CstType extends TypedConstant {
-    /** {@code non-null;} map of interned types */
-    private static final HashMap<Type, CstType> interns =
-        new HashMap<Type, CstType>(100);
+    /**
+     * {@code non-null;} map of interned types, keyed by descriptor so
+     * that the keys don't keep the types themselves alive
+     */
+    private static final WeakInternTable<String, CstType> interns =
+        new WeakInternTable<String, CstType>(100);
 
     /** {@code non-null;} instance corresponding to the class {@code Object} */
     public static final CstType OBJECT = intern(Type.OBJECT);
@@ -123,14 +125,18 @@ public final class CstType extends TypedConstant {
      * @return {@code non-null;} an appropriately-constructed instance
      */
     public static CstType intern(Type type) {
-        CstType cst = interns.get(type);
-
-        if (cst == null) {
-            cst = new CstType(type);
-            interns.put(type, cst);
+        String descriptor = type.getDescriptor();
+        CstType cst = interns.get(descriptor);
+
+        /*
+         * A live instance keeps its type alive, and types are interned
+         * by descriptor too, so whatever is found has this same type.
+         */
+        if (cst != null) {
+            return cst;
         }
 
-        return cst;
+        return interns.intern(descriptor, new CstType(type));
     }
 
     /**
@@ -16,7 +16,7 @@
 
 package com.android.dx.rop.type;
 
-import java.util.HashMap;
+import com.android.dx.util.WeakInternTable;
 
 /**
  * Representation of a method decriptor. Instances of this class are
@@ -24,9 +24,12 @@ import java.util.HashMap;
  * using {@code ==}.
  */
 public final class Prototype implements Comparable<Prototype> {
-    /** {@code non-null;} intern table mapping string descriptors to instances */
-    private static final HashMap<String, Prototype> internTable =
-        new HashMap<String, Prototype>(500);
+    /**
+     * {@code non-null;} intern table mapping string descriptors to
+     * instances; it only holds onto instances that are otherwise in use
+     */
+    private static final WeakInternTable<String, Prototype> internTable =
+        new WeakInternTable<String, Prototype>(500);
 
     /** {@code non-null;} method descriptor */
     private final String descriptor;
@@ -37,8 +40,12 @@ public final class Prototype implements Comparable<Prototype> {
     /** {@code non-null;} list of parameter types */
     private final StdTypeList parameterTypes;
 
-    /** {@code null-ok;} list of parameter frame types, if calculated */
-    private StdTypeList parameterFrameTypes;
+    /**
+     * {@code null-ok;} list of parameter frame types, if calculated;
+     * {@code volatile} since instances are shared between translator
+     * threads
+     */
+    private volatile StdTypeList parameterFrameTypes;
 
     /**
      * Returns the unique instance corresponding to the 
@@ -384,14 +391,6 @@ public final class Prototype implements Comparable<Prototype> {
      * @return {@code non-null;} the actual interned object
      */
     private static Prototype putIntern(Prototype desc) {
-        synchronized (internTable) {
-            String descriptor = desc.getDescriptor();
-            Prototype already = internTable.get(descriptor);
-            if (already != null) {
-                return already;
-            }
-            internTable.put(descriptor, desc);
-            return desc;
-        }
+        return internTable.intern(desc.getDescriptor(), desc);
     }
 }
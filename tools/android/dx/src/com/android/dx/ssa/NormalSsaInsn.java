@@ -220,7 +220,8 @@ public final class NormalSsaInsn extends SsaInsn implements Cloneable {
         }
 
         boolean hasLocalSideEffect
-            = Optimizer.getPreserveLocals() && getLocalAssignment() != null;
+            = getBlock().getParent().getOptimizer().getPreserveLocals()
+                && getLocalAssignment() != null;
 
         switch (opcode.getOpcode()) {
             case RegOps.MOVE_RESULT:
@@ -28,32 +28,99 @@ import java.util.ArrayList;
 /**
  * Runs a method through the SSA form conversion, any optimization algorithms,
  * and returns it to rop form.
+ *
+ * <p>An instance holds the settings for optimizing methods, which the
+ * steps get at through {@link SsaMethod#getOptimizer}. Instances are
+ * immutable, so different threads may use one, or several, at once.</p>
  */
 public class Optimizer {
-    private static boolean preserveLocals = true;
+    /**
+     * true if local variable information should be preserved, even
+     * at code size/register size cost
+     */
+    private final boolean preserveLocals;
 
-    private static TranslationAdvice advice;
+    /** {@code non-null;} translation advice */
+    private final TranslationAdvice advice;
+
+    /** {@code non-null;} liveness analysis engine for register allocation */
+    private final LivenessEngine livenessEngine;
 
     /** optional optimizer steps */
     public enum OptionalStep {
         MOVE_PARAM_COMBINER,SCCP,LITERAL_UPGRADE,CONST_COLLECTOR
     }
 
+    /**
+     * liveness analysis engines; both give the same results
+     */
+    public enum LivenessEngine {
+        /** walks the method once per register */
+        PER_REGISTER,
+
+        /** solves block live sets with a worklist, then scans each block */
+        WORKLIST
+    }
+
+    /**
+     * Constructs an instance, which uses the
+     * {@link LivenessEngine#WORKLIST worklist} liveness engine.
+     *
+     * @param preserveLocals true if local variable info should be
+     * preserved, at the cost of some registers and insns
+     * @param advice {@code non-null;} translation advice
+     */
+    public Optimizer(boolean preserveLocals, TranslationAdvice advice) {
+        this(preserveLocals, advice, LivenessEngine.WORKLIST);
+    }
+
+    /**
+     * Constructs an instance.
+     *
+     * @param preserveLocals true if local variable info should be
+     * preserved, at the cost of some registers and insns
+     * @param advice {@code non-null;} translation advice
+     * @param livenessEngine {@code non-null;} liveness analysis engine
+     * to use for register allocation
+     */
+    public Optimizer(boolean preserveLocals, TranslationAdvice advice,
+            LivenessEngine livenessEngine) {
+        if (advice == null) {
+            throw new NullPointerException("advice == null");
+        }
+
+        if (livenessEngine == null) {
+            throw new NullPointerException("livenessEngine == null");
+        }
+
+        this.preserveLocals = preserveLocals;
+        this.advice = advice;
+        this.livenessEngine = livenessEngine;
+    }
+
     /**
      * @return true if local variable information should be preserved, even
      * at code size/register size cost
      */
-    public static boolean getPreserveLocals() {
+    public boolean getPreserveLocals() {
         return preserveLocals;
     }
 
     /**
      * @return {@code non-null;} translation advice
      */
-    public static TranslationAdvice getAdvice() {
+    public TranslationAdvice getAdvice() {
         return advice;
     }
 
+    /**
+     * @return {@code non-null;} the liveness analysis engine to use for
+     * register allocation
+     */
+    public LivenessEngine getLivenessEngine() {
+        return livenessEngine;
+    }
+
     /**
      * Runs optimization algorthims over this method, and returns a new
      * instance of RopMethod with the changes.
@@ -70,9 +137,8 @@ public class Optimizer {
     public static RopMethod optimize(RopMethod rmeth, int paramWidth,
             boolean isStatic, boolean inPreserveLocals,
             TranslationAdvice inAdvice) {
-
-        return optimize(rmeth, paramWidth, isStatic, inPreserveLocals, inAdvice, 
-                EnumSet.allOf(OptionalStep.class));
+        return new Optimizer(inPreserveLocals, inAdvice).optimize(rmeth,
+                paramWidth, isStatic);
     }
 
     /**
@@ -92,21 +158,147 @@ public class Optimizer {
     public static RopMethod optimize(RopMethod rmeth, int paramWidth,
             boolean isStatic, boolean inPreserveLocals,
             TranslationAdvice inAdvice, EnumSet<OptionalStep> steps) {
+        return new Optimizer(inPreserveLocals, inAdvice).optimize(rmeth,
+                paramWidth, isStatic, steps);
+    }
+
+    /**
+     * Runs optimization algorthims over this method, within the given
+     * budget, and returns a new instance of RopMethod with the changes,
+     * or {@code rmeth} itself if the budget didn't allow optimizing it.
+     * The budget records how the optimizer had to cut back, if it did.
+     *
+     * @param rmeth method to process
+     * @param paramWidth the total width, in register-units, of this method's
+     * parameters
+     * @param isStatic true if this method has no 'this' pointer argument.
+     * @param inPreserveLocals true if local variable info should be preserved,
+     * at the cost of some registers and insns
+     * @param inAdvice {@code non-null;} translation advice
+     * @param budget {@code non-null;} the budget, not yet used
+     * @return optimized method
+     */
+    public static RopMethod optimize(RopMethod rmeth, int paramWidth,
+            boolean isStatic, boolean inPreserveLocals,
+            TranslationAdvice inAdvice, OptimizerBudget budget) {
+        return new Optimizer(inPreserveLocals, inAdvice).optimize(rmeth,
+                paramWidth, isStatic, budget);
+    }
+
+    /**
+     * Runs optimization algorthims over this method, with this
+     * instance's settings, and returns a new instance of RopMethod with
+     * the changes.
+     *
+     * @param rmeth method to process
+     * @param paramWidth the total width, in register-units, of this method's
+     * parameters
+     * @param isStatic true if this method has no 'this' pointer argument.
+     * @return optimized method
+     */
+    public RopMethod optimize(RopMethod rmeth, int paramWidth,
+            boolean isStatic) {
+        return optimize(rmeth, paramWidth, isStatic,
+                EnumSet.allOf(OptionalStep.class));
+    }
+
+    /**
+     * Runs optimization algorthims over this method, with this
+     * instance's settings, and returns a new instance of RopMethod with
+     * the changes.
+     *
+     * @param rmeth method to process
+     * @param paramWidth the total width, in register-units, of this method's
+     * parameters
+     * @param isStatic true if this method has no 'this' pointer argument.
+     * @param steps set of optional optimization steps to run
+     * @return optimized method
+     */
+    public RopMethod optimize(RopMethod rmeth, int paramWidth,
+            boolean isStatic, EnumSet<OptionalStep> steps) {
+        return optimize(rmeth, paramWidth, isStatic, steps, null);
+    }
+
+    /**
+     * Runs optimization algorthims over this method, with this
+     * instance's settings and within the given budget, and returns a
+     * new instance of RopMethod with the changes, or {@code rmeth}
+     * itself if the budget didn't allow optimizing it. The budget
+     * records how the optimizer had to cut back, if it did.
+     *
+     * @param rmeth method to process
+     * @param paramWidth the total width, in register-units, of this method's
+     * parameters
+     * @param isStatic true if this method has no 'this' pointer argument.
+     * @param budget {@code non-null;} the budget, not yet used
+     * @return optimized method
+     */
+    public RopMethod optimize(RopMethod rmeth, int paramWidth,
+            boolean isStatic, OptimizerBudget budget) {
+        EnumSet<OptionalStep> steps;
+
+        switch (budget.start(rmeth)) {
+            case UNOPTIMIZED:
+                return rmeth;
+            case REDUCED:
+                // See runSsaFormSteps() about the move-param combiner.
+                steps = EnumSet.of(OptionalStep.MOVE_PARAM_COMBINER);
+                break;
+            default:
+                steps = EnumSet.allOf(OptionalStep.class);
+                break;
+        }
+
+        return optimize(rmeth, paramWidth, isStatic, steps, budget);
+    }
+
+    /**
+     * Runs optimization algorthims over this method, and returns a new
+     * instance of RopMethod with the changes.
+     *
+     * @param rmeth method to process
+     * @param paramWidth the total width, in register-units, of this method's
+     * parameters
+     * @param isStatic true if this method has no 'this' pointer argument.
+     * @param steps set of optional optimization steps to run
+     * @param budget {@code null-ok;} the budget, already started, or
+     * {@code null} for none
+     * @return optimized method
+     */
+    private RopMethod optimize(RopMethod rmeth, int paramWidth,
+            boolean isStatic, EnumSet<OptionalStep> steps,
+            OptimizerBudget budget) {
         SsaMethod ssaMeth = null;
 
-        preserveLocals = inPreserveLocals;
-        advice = inAdvice;
+        ssaMeth = SsaConverter.convertToSsaMethod(rmeth, paramWidth, isStatic,
+                this);
+
+        if ((budget != null)
+                && budget.isOverTime(OptimizerBudget.Fallback.UNOPTIMIZED)) {
+            return rmeth;
+        }
 
-        ssaMeth = SsaConverter.convertToSsaMethod(rmeth, paramWidth, isStatic);
-        runSsaFormSteps(ssaMeth, steps);
+        runSsaFormSteps(ssaMeth, steps, budget);
 
         RopMethod resultMeth = SsaToRop.convertToRopMethod(ssaMeth, false);
 
         if (resultMeth.getBlocks().getRegCount()
                 > advice.getMaxOptimalRegisterCount()) {
+            /*
+             * A method that is already over budget doesn't get the
+             * second pass, which converts it to SSA form all over again.
+             */
+            if ((budget != null)
+                    && ((budget.getFallback()
+                                    != OptimizerBudget.Fallback.NONE)
+                            || budget.isOverTime(
+                                    OptimizerBudget.Fallback.REDUCED))) {
+                return resultMeth;
+            }
+
             // Try to see if we can squeeze it under the register count bar
             resultMeth = optimizeMinimizeRegisters(rmeth, paramWidth, isStatic,
-                    steps);
+                    steps, budget);
         }
         return resultMeth;
     }
@@ -124,16 +316,18 @@ public class Optimizer {
      * parameters
      * @param isStatic true if this method has no 'this' pointer argument.
      * @param steps set of optional optimization steps to run
+     * @param budget {@code null-ok;} the budget, already started, or
+     * {@code null} for none
      * @return optimized method
      */
-    private static RopMethod optimizeMinimizeRegisters(RopMethod rmeth,
+    private RopMethod optimizeMinimizeRegisters(RopMethod rmeth,
             int paramWidth, boolean isStatic,
-            EnumSet<OptionalStep> steps) {
+            EnumSet<OptionalStep> steps, OptimizerBudget budget) {
         SsaMethod ssaMeth;
         RopMethod resultMeth;
 
         ssaMeth = SsaConverter.convertToSsaMethod(
-                rmeth, paramWidth, isStatic);
+                rmeth, paramWidth, isStatic, this);
 
         EnumSet<OptionalStep> newSteps = steps.clone();
 
@@ -143,31 +337,49 @@ public class Optimizer {
          */
         newSteps.remove(OptionalStep.CONST_COLLECTOR);
 
-        runSsaFormSteps(ssaMeth, newSteps);
+        runSsaFormSteps(ssaMeth, newSteps, budget);
 
         resultMeth = SsaToRop.convertToRopMethod(ssaMeth, true);
         return resultMeth;
     }
 
+    /**
+     * Runs the given optional steps and the required ones over a method
+     * in SSA form. Once the budget, if any, runs out of time, the
+     * remaining optional steps are skipped.
+     *
+     * @param ssaMeth {@code non-null;} method to process
+     * @param steps {@code non-null;} set of optional steps to run
+     * @param budget {@code null-ok;} the budget, already started, or
+     * {@code null} for none
+     */
     private static void runSsaFormSteps(SsaMethod ssaMeth,
-            EnumSet<OptionalStep> steps) {
+            EnumSet<OptionalStep> steps, OptimizerBudget budget) {
         boolean needsDeadCodeRemover = true;
 
+        /*
+         * The move-param combiner is run even when out of time. It is
+         * cheap, and register allocation can't cope with a parameter
+         * that has more than one move-param.
+         */
         if (steps.contains(OptionalStep.MOVE_PARAM_COMBINER)) {
             MoveParamCombiner.process(ssaMeth);
         }
 
-        if (steps.contains(OptionalStep.SCCP)) {
+        if (steps.contains(OptionalStep.SCCP)
+                && withinTime(budget)) {
             SCCP.process(ssaMeth);
         }
 
-        if (steps.contains(OptionalStep.LITERAL_UPGRADE)) {
+        if (steps.contains(OptionalStep.LITERAL_UPGRADE)
+                && withinTime(budget)) {
             LiteralOpUpgrader.process(ssaMeth);
             DeadCodeRemover.process(ssaMeth);
             needsDeadCodeRemover = false;
         }
 
-        if (steps.contains(OptionalStep.CONST_COLLECTOR)) {
+        if (steps.contains(OptionalStep.CONST_COLLECTOR)
+                && withinTime(budget)) {
             ConstCollector.process(ssaMeth);
             DeadCodeRemover.process(ssaMeth);
             needsDeadCodeRemover = false;
@@ -181,34 +393,43 @@ public class Optimizer {
         PhiTypeResolver.process(ssaMeth);
     }
 
+    /**
+     * Checks whether there is still time to run an optional step.
+     *
+     * @param budget {@code null-ok;} the budget, already started, or
+     * {@code null} for none
+     * @return {@code true} if the step may run
+     */
+    private static boolean withinTime(OptimizerBudget budget) {
+        return (budget == null)
+            || !budget.isOverTime(OptimizerBudget.Fallback.REDUCED);
+    }
+
     public static SsaMethod debugEdgeSplit(RopMethod rmeth, int paramWidth,
             boolean isStatic, boolean inPreserveLocals,
             TranslationAdvice inAdvice) {
+        Optimizer optimizer = new Optimizer(inPreserveLocals, inAdvice);
 
-        preserveLocals = inPreserveLocals;
-        advice = inAdvice;
-
-        return SsaConverter.testEdgeSplit(rmeth, paramWidth, isStatic);
+        return SsaConverter.testEdgeSplit(rmeth, paramWidth, isStatic,
+                optimizer);
     }
 
     public static SsaMethod debugPhiPlacement(RopMethod rmeth, int paramWidth,
             boolean isStatic, boolean inPreserveLocals,
             TranslationAdvice inAdvice) {
+        Optimizer optimizer = new Optimizer(inPreserveLocals, inAdvice);
 
-        preserveLocals = inPreserveLocals;
-        advice = inAdvice;
-
-        return SsaConverter.testPhiPlacement(rmeth, paramWidth, isStatic);
+        return SsaConverter.testPhiPlacement(rmeth, paramWidth, isStatic,
+                optimizer);
     }
 
     public static SsaMethod debugRenaming(RopMethod rmeth, int paramWidth,
             boolean isStatic, boolean inPreserveLocals,
             TranslationAdvice inAdvice) {
+        Optimizer optimizer = new Optimizer(inPreserveLocals, inAdvice);
 
-        preserveLocals = inPreserveLocals;
-        advice = inAdvice;
-
-        return SsaConverter.convertToSsaMethod(rmeth, paramWidth, isStatic);
+        return SsaConverter.convertToSsaMethod(rmeth, paramWidth, isStatic,
+                optimizer);
     }
 
     public static SsaMethod debugDeadCodeRemover(RopMethod rmeth,
@@ -216,11 +437,10 @@ public class Optimizer {
             TranslationAdvice inAdvice) {
 
         SsaMethod ssaMeth;
+        Optimizer optimizer = new Optimizer(inPreserveLocals, inAdvice);
 
-        preserveLocals = inPreserveLocals;
-        advice = inAdvice;
-
-        ssaMeth = SsaConverter.convertToSsaMethod(rmeth, paramWidth, isStatic);
+        ssaMeth = SsaConverter.convertToSsaMethod(rmeth, paramWidth, isStatic,
+                optimizer);
         DeadCodeRemover.process(ssaMeth);
 
         return ssaMeth;
@@ -231,13 +451,12 @@ public class Optimizer {
             TranslationAdvice inAdvice, EnumSet<OptionalStep> steps) {
 
         SsaMethod ssaMeth;
+        Optimizer optimizer = new Optimizer(inPreserveLocals, inAdvice);
 
-        preserveLocals = inPreserveLocals;
-        advice = inAdvice;
-
-        ssaMeth = SsaConverter.convertToSsaMethod(rmeth, paramWidth, isStatic);
+        ssaMeth = SsaConverter.convertToSsaMethod(rmeth, paramWidth, isStatic,
+                optimizer);
 
-        runSsaFormSteps(ssaMeth, steps);
+        runSsaFormSteps(ssaMeth, steps, null);
 
         LivenessAnalyzer.constructInterferenceGraph(ssaMeth);
 
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.dx.ssa;
+
+import com.android.dx.rop.code.BasicBlockList;
+import com.android.dx.rop.code.RopMethod;
+
+/**
+ * Limits on how much work the optimizer may put into one method, along
+ * with a record of how it cut back to stay within them. An instance is
+ * meant for a single call to {@link Optimizer#optimize}.
+ *
+ * <p>A method with more instructions or blocks than allowed is
+ * optimized without the {@link Optimizer.OptionalStep optional steps}
+ * and without a second, register-minimizing pass; one with more than
+ * twice as many isn't optimized at all. The time limit is checked
+ * between steps, so a step that is already running is never cut short:
+ * once it has passed, the remaining optional steps and the second pass
+ * are skipped, or, if the method has only just been converted to SSA
+ * form, it is left unoptimized.</p>
+ */
+public final class OptimizerBudget {
+    /** how the optimizer cut back on a method */
+    public enum Fallback {
+        /** it didn't */
+        NONE,
+
+        /** some steps were skipped */
+        REDUCED,
+
+        /** the method was left unoptimized */
+        UNOPTIMIZED
+    }
+
+    /** {@code >= 0;} the most rop instructions; {@code 0} for no limit */
+    private final int maxInsns;
+
+    /** {@code >= 0;} the most basic blocks; {@code 0} for no limit */
+    private final int maxBlocks;
+
+    /** {@code >= 0;} the most milliseconds; {@code 0} for no limit */
+    private final long maxMillis;
+
+    /** {@link System#nanoTime} past which time is up, once started */
+    private long deadline;
+
+    /** {@code non-null;} the most drastic fallback taken so far */
+    private Fallback fallback;
+
+    /** {@code null-ok;} why {@link #fallback} was taken */
+    private String reason;
+
+    /**
+     * Constructs an instance.
+     *
+     * @param maxInsns {@code >= 0;} the most rop instructions to fully
+     * optimize; {@code 0} for no limit
+     * @param maxBlocks {@code >= 0;} the most basic blocks to fully
+     * optimize; {@code 0} for no limit
+     * @param maxMillis {@code >= 0;} the most milliseconds to spend;
+     * {@code 0} for no limit
+     */
+    public OptimizerBudget(int maxInsns, int maxBlocks, long maxMillis) {
+        if ((maxInsns < 0) || (maxBlocks < 0) || (maxMillis < 0)) {
+            throw new IllegalArgumentException("negative limit");
+        }
+
+        this.maxInsns = maxInsns;
+        this.maxBlocks = maxBlocks;
+        this.maxMillis = maxMillis;
+        this.fallback = Fallback.NONE;
+        this.reason = null;
+    }
+
+    /**
+     * Gets the most drastic fallback that was taken.
+     *
+     * @return {@code non-null;} the fallback
+     */
+    public Fallback getFallback() {
+        return fallback;
+    }
+
+    /**
+     * Gets why {@link #getFallback} was taken.
+     *
+     * @return {@code null-ok;} the reason, or {@code null} if no
+     * fallback was taken
+     */
+    public String getReason() {
+        return reason;
+    }
+
+    /**
+     * Starts the clock, and checks the size of the method against the
+     * limits.
+     *
+     * @param rmeth {@code non-null;} the method to optimize
+     * @return {@code non-null;} the fallback that the size calls for
+     */
+    /*package*/ Fallback start(RopMethod rmeth) {
+        if (maxMillis != 0) {
+            deadline = System.nanoTime() + maxMillis * 1000000L;
+        }
+
+        BasicBlockList blocks = rmeth.getBlocks();
+
+        checkSize(blocks.getInstructionCount(), maxInsns, "insns");
+        checkSize(blocks.size(), maxBlocks, "blocks");
+
+        return fallback;
+    }
+
+    /**
+     * Checks whether the time is up, and if so, records the given
+     * fallback.
+     *
+     * @param ifOver {@code non-null;} the fallback to take if it is
+     * @return {@code true} if the time is up
+     */
+    /*package*/ boolean isOverTime(Fallback ifOver) {
+        if ((maxMillis == 0) || (System.nanoTime() - deadline < 0)) {
+            return false;
+        }
+
+        fallBack(ifOver, "over " + maxMillis + " ms");
+        return true;
+    }
+
+    /**
+     * Checks one measure of the size of the method against its limit.
+     *
+     * @param size {@code >= 0;} the size
+     * @param max {@code >= 0;} the limit; {@code 0} for none
+     * @param what {@code non-null;} what is being measured
+     */
+    private void checkSize(int size, int max, String what) {
+        if ((max == 0) || (size <= max)) {
+            return;
+        }
+
+        String why = size + " " + what + " > " + max;
+
+        if (size > 2L * max) {
+            fallBack(Fallback.UNOPTIMIZED, why);
+        } else {
+            fallBack(Fallback.REDUCED, why);
+        }
+    }
+
+    /**
+     * Records a fallback, unless a more drastic one was already taken.
+     *
+     * @param newFallback {@code non-null;} the fallback
+     * @param why {@code non-null;} the reason for it
+     */
+    private void fallBack(Fallback newFallback, String why) {
+        if (newFallback.compareTo(fallback) > 0) {
+            fallback = newFallback;
+            reason = why;
+        }
+    }
+}
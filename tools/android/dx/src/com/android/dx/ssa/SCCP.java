@@ -27,6 +27,7 @@ import com.android.dx.rop.cst.CstInteger;
 import com.android.dx.rop.cst.TypedConstant;
 import com.android.dx.rop.type.TypeBearer;
 import com.android.dx.rop.type.Type;
+import com.android.dx.util.IntList;
 
 import java.util.ArrayList;
 import java.util.BitSet;
@@ -48,32 +49,58 @@ public class SCCP {
     private int[] latticeValues;
     /** For those registers that are constant, this is the constant value */
     private Constant[] latticeConstants;
-    /** Worklist of basic blocks to be processed */
-    private ArrayList<SsaBasicBlock> cfgWorklist;
+    /** {@code non-null;} ssaMeth.getBlocks() */
+    private ArrayList<SsaBasicBlock> blocks;
+    /** Worklist of indices of basic blocks to be processed */
+    private IntList cfgWorklist;
     /** Bitset containing bits for each block that has been found executable */
     private BitSet executableBlocks;
-    /** Worklist for SSA edges.  This is a list of registers to process */
-    private ArrayList<SsaInsn> ssaWorklist;
+    /**
+     * Bitset of the blocks whose successors have been added to the
+     * worklist; as jumps aren't simplified, they all are at once
+     */
+    private BitSet branchedBlocks;
+    /**
+     * Worklist of indices of executable basic blocks that have gained
+     * an executable predecessor, and so need their phis simulated again
+     */
+    private IntList cfgPhiWorklist;
+    /** Bitset of the blocks on {@link #cfgPhiWorklist} */
+    private BitSet cfgPhiBlocks;
+    /**
+     * Worklist for SSA edges.  This is a list of registers whose uses
+     * need to be simulated again.
+     */
+    private IntList ssaWorklist;
+    /** Bitset of the registers on {@link #ssaWorklist} */
+    private BitSet ssaRegs;
     /**
      * Worklist for SSA edges that represent varying values.  It makes the
      * algorithm much faster if you move all values to VARYING as fast as
      * possible.
      */
-    private ArrayList<SsaInsn> varyingWorklist;
+    private IntList varyingWorklist;
+    /** Bitset of the registers on {@link #varyingWorklist} */
+    private BitSet varyingRegs;
 
     private SCCP(SsaMethod ssaMeth) {
+        int blockCount = ssaMeth.getBlocks().size();
+
         this.ssaMeth = ssaMeth;
         this.regCount = ssaMeth.getRegCount();
         this.latticeValues = new int[this.regCount];
         this.latticeConstants = new Constant[this.regCount];
-        this.cfgWorklist = new ArrayList<SsaBasicBlock>();
-        this.executableBlocks = new BitSet(ssaMeth.getBlocks().size());
-        this.ssaWorklist = new ArrayList<SsaInsn>();
-        this.varyingWorklist = new ArrayList<SsaInsn>();
-        for (int i = 0; i < this.regCount; i++) {
-            latticeValues[i] = TOP;
-            latticeConstants[i] = null;
-        }
+        this.blocks = ssaMeth.getBlocks();
+        this.cfgWorklist = new IntList();
+        this.executableBlocks = new BitSet(blockCount);
+        this.branchedBlocks = new BitSet(blockCount);
+        this.cfgPhiWorklist = new IntList();
+        this.cfgPhiBlocks = new BitSet(blockCount);
+        this.ssaWorklist = new IntList();
+        this.ssaRegs = new BitSet(this.regCount);
+        this.varyingWorklist = new IntList();
+        this.varyingRegs = new BitSet(this.regCount);
+        // TOP is 0 and null is the default, so the lattice starts out right.
     }
 
     /**
@@ -89,25 +116,65 @@ public class SCCP {
      * @param ssaBlock Block to add
      */
     private void addBlockToWorklist(SsaBasicBlock ssaBlock) {
-        if (!executableBlocks.get(ssaBlock.getIndex())) {
-            cfgWorklist.add(ssaBlock);
-            executableBlocks.set(ssaBlock.getIndex());
+        int index = ssaBlock.getIndex();
+
+        if (!executableBlocks.get(index)) {
+            cfgWorklist.add(index);
+            executableBlocks.set(index);
+        } else if (!cfgPhiBlocks.get(index) && hasPhis(ssaBlock)) {
+            /*
+             * The block may have gained an executable predecessor, which
+             * can change the meet of its phis.
+             */
+            cfgPhiWorklist.add(index);
+            cfgPhiBlocks.set(index);
         }
     }
 
     /**
-     * Adds an SSA register's uses to the SSA worklist.
+     * Checks whether a block has any phis.
+     * @param block Block to check
+     * @return true if the block starts with a phi
+     */
+    private static boolean hasPhis(SsaBasicBlock block) {
+        ArrayList<SsaInsn> insns = block.getInsns();
+        return !insns.isEmpty() && (insns.get(0) instanceof PhiInsn);
+    }
+
+    /**
+     * Adds an SSA register to the SSA worklist, so that its uses are
+     * simulated again. A register is only ever on each list once.
      * @param reg SSA register
      * @param latticeValue new lattice value for @param reg.
      */
     private void addUsersToWorklist(int reg, int latticeValue) {
         if (latticeValue == VARYING) {
-            for (SsaInsn insn : ssaMeth.getUseListForRegister(reg)) {
-                varyingWorklist.add(insn);
+            if (!varyingRegs.get(reg)) {
+                varyingWorklist.add(reg);
+                varyingRegs.set(reg);
             }
         } else {
-            for (SsaInsn insn : ssaMeth.getUseListForRegister(reg)) {
-                ssaWorklist.add(insn);
+            if (!ssaRegs.get(reg)) {
+                ssaWorklist.add(reg);
+                ssaRegs.set(reg);
+            }
+        }
+    }
+
+    /**
+     * Simulates the executable uses of a register.
+     * @param reg SSA register
+     */
+    private void simulateUsers(int reg) {
+        for (SsaInsn insn : ssaMeth.getUseListForRegister(reg)) {
+            if (!executableBlocks.get(insn.getBlock().getIndex())) {
+                continue;
+            }
+
+            if (insn instanceof PhiInsn) {
+                simulatePhi((PhiInsn) insn);
+            } else {
+                simulateStmt(insn);
             }
         }
     }
@@ -200,6 +267,21 @@ public class SCCP {
             }
         }
     }
+
+    /**
+     * Simulates the phis of a block, in one sweep.
+     * @param block Block whose phis to visit
+     */
+    private void simulatePhiBlock(SsaBasicBlock block) {
+        for (SsaInsn insn : block.getInsns()) {
+            if (!(insn instanceof PhiInsn)) {
+                // The phis all come first.
+                return;
+            }
+
+            simulatePhi((PhiInsn) insn);
+        }
+    }
     private static String latticeValName(int latticeVal) {
         switch (latticeVal) {
             case TOP: return "TOP";
@@ -325,10 +407,13 @@ public class SCCP {
             ropInsn = simplifyJump (ropInsn);
             /* TODO: If jump becomes constant, only take true edge. */
             SsaBasicBlock block = insn.getBlock();
-            int successorSize = block.getSuccessorList().size();
-            for (int i = 0; i < successorSize; i++) {
-                int successor = block.getSuccessorList().get(i);
-                addBlockToWorklist(ssaMeth.getBlocks().get(successor));
+            if (!branchedBlocks.get(block.getIndex())) {
+                branchedBlocks.set(block.getIndex());
+                int successorSize = block.getSuccessorList().size();
+                for (int i = 0; i < successorSize; i++) {
+                    int successor = block.getSuccessorList().get(i);
+                    addBlockToWorklist(blocks.get(successor));
+                }
             }
         }
 
@@ -391,41 +476,27 @@ public class SCCP {
         addBlockToWorklist(firstBlock);
 
         /* Empty all the worklists by propagating our values */
-        while (!cfgWorklist.isEmpty()
-                || !ssaWorklist.isEmpty()
-                || !varyingWorklist.isEmpty()) {
-            while (!cfgWorklist.isEmpty()) {
-                int listSize = cfgWorklist.size() - 1;
-                SsaBasicBlock block = cfgWorklist.remove(listSize);
-                simulateBlock(block);
+        while (cfgWorklist.size() != 0
+                || cfgPhiWorklist.size() != 0
+                || ssaWorklist.size() != 0
+                || varyingWorklist.size() != 0) {
+            while (cfgWorklist.size() != 0) {
+                simulateBlock(blocks.get(cfgWorklist.pop()));
             }
-            while (!varyingWorklist.isEmpty()) {
-                int listSize = varyingWorklist.size() - 1;
-                SsaInsn insn = varyingWorklist.remove(listSize);
-
-                if (!executableBlocks.get(insn.getBlock().getIndex())) {
-                    continue;
-                }
-
-                if (insn instanceof PhiInsn) {
-                    simulatePhi((PhiInsn)insn);
-                } else {
-                    simulateStmt(insn);
-                }
+            while (cfgPhiWorklist.size() != 0) {
+                int index = cfgPhiWorklist.pop();
+                cfgPhiBlocks.clear(index);
+                simulatePhiBlock(blocks.get(index));
             }
-            while (!ssaWorklist.isEmpty()) {
-                int listSize = ssaWorklist.size() - 1;
-                SsaInsn insn = ssaWorklist.remove(listSize);
-
-                if (!executableBlocks.get(insn.getBlock().getIndex())) {
-                    continue;
-                }
-
-                if (insn instanceof PhiInsn) {
-                    simulatePhi((PhiInsn)insn);
-                } else {
-                    simulateStmt(insn);
-                }
+            while (varyingWorklist.size() != 0) {
+                int reg = varyingWorklist.pop();
+                varyingRegs.clear(reg);
+                simulateUsers(reg);
+            }
+            while (ssaWorklist.size() != 0) {
+                int reg = ssaWorklist.pop();
+                ssaRegs.clear(reg);
+                simulateUsers(reg);
             }
         }
 
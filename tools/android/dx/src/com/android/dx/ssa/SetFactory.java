@@ -17,17 +17,21 @@
 package com.android.dx.ssa;
 
 import com.android.dx.util.BitIntSet;
+import com.android.dx.util.ChunkedIntSet;
 import com.android.dx.util.IntSet;
-import com.android.dx.util.ListIntSet;
 
 
 /**
- * Makes int sets for various parts of the optimizer.
+ * Makes int sets for various parts of the optimizer. Small methods get
+ * plain bit sets; past a threshold, where a bit set per block or per
+ * register would add up to too much memory, they get compressed bit
+ * sets, which cost about the same to use but only take room for the
+ * parts of the range that are actually populated.
  */
 public final class SetFactory {
 
     /**
-     * BitIntSet/ListIntSet threshold for dominance frontier sets. These
+     * BitIntSet/ChunkedIntSet threshold for dominance frontier sets. These
      * sets are kept per basic block until phi placement and tend to be,
      * like the CFG itself, very sparse at large sizes.
      *
@@ -36,7 +40,7 @@ public final class SetFactory {
     private static final int DOMFRONT_SET_THRESHOLD_SIZE = 3072;
 
     /**
-     * BitIntSet/ListIntSet threshold for interference graph sets. These
+     * BitIntSet/ChunkedIntSet threshold for interference graph sets. These
      * sets are kept per register until register allocation is done.
      *
      * A value of 3072 here is somewhere around 1.125mb of total bitset size.
@@ -44,7 +48,7 @@ public final class SetFactory {
     private static final int INTERFERENCE_SET_THRESHOLD_SIZE = 3072;
 
     /**
-     * BitIntSet/ListIntSet threshold for the live in/out sets kept by
+     * BitIntSet/ChunkedIntSet threshold for the live in/out sets kept by
      * {@link SsaBasicBlock}. These are sets of SSA registers kept per basic
      * block during register allocation.
      *
@@ -65,7 +69,7 @@ public final class SetFactory {
     /*package*/ static IntSet makeDomFrontSet(int szBlocks) {
         return szBlocks <= DOMFRONT_SET_THRESHOLD_SIZE
                 ? new BitIntSet(szBlocks)
-                : new ListIntSet();
+                : new ChunkedIntSet();
     }
 
     /**
@@ -78,18 +82,19 @@ public final class SetFactory {
     public static IntSet makeInterferenceSet(int countRegs) {
         return countRegs <= INTERFERENCE_SET_THRESHOLD_SIZE
                 ? new BitIntSet(countRegs)
-                : new ListIntSet();
+                : new ChunkedIntSet();
     }
 
     /**
-     * Make IntSet for register live in/out sets.
+     * Make IntSet for register live in/out sets. Public because
+     * WorklistLivenessAnalyzer is in another package.
      *
      * @param countRegs {@code >=0;} count of SSA registers used in method
      * @return {@code non-null;} appropriate set
      */
-    /*package*/ static IntSet makeLivenessSet(int countRegs) {
+    public static IntSet makeLivenessSet(int countRegs) {
         return countRegs <= LIVENESS_SET_THRESHOLD_SIZE
                 ? new BitIntSet(countRegs)
-                : new ListIntSet();
+                : new ChunkedIntSet();
     }
 }
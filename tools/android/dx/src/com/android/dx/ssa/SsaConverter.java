@@ -38,12 +38,13 @@ public class SsaConverter {
      * parameters
      * @param isStatic {@code true} if this method has no {@code this}
      * pointer argument
+     * @param optimizer {@code non-null;} the optimizer settings to use
      * @return output in SSA form
      */
     public static SsaMethod convertToSsaMethod(RopMethod rmeth,
-            int paramWidth, boolean isStatic) {
-        SsaMethod result
-            = SsaMethod.newFromRopMethod(rmeth, paramWidth, isStatic);
+            int paramWidth, boolean isStatic, Optimizer optimizer) {
+        SsaMethod result = SsaMethod.newFromRopMethod(rmeth, paramWidth,
+                isStatic, optimizer);
 
         edgeSplit(result);
 
@@ -68,13 +69,15 @@ public class SsaConverter {
      * @param paramWidth width of all arguments in the method
      * @param isStatic {@code true} if this method has no {@code this}
      * pointer argument
+     * @param optimizer {@code non-null;} the optimizer settings to use
      * @return an SSA represention with only the edge-splitter run
      */
     public static SsaMethod testEdgeSplit (RopMethod rmeth, int paramWidth,
-            boolean isStatic) {
+            boolean isStatic, Optimizer optimizer) {
         SsaMethod result;
 
-        result = SsaMethod.newFromRopMethod(rmeth, paramWidth, isStatic);
+        result = SsaMethod.newFromRopMethod(rmeth, paramWidth, isStatic,
+                optimizer);
 
         edgeSplit(result);
         return result;
@@ -88,13 +91,15 @@ public class SsaConverter {
      * @param paramWidth width of all arguments in the method
      * @param isStatic {@code true} if this method has no {@code this}
      * pointer argument
+     * @param optimizer {@code non-null;} the optimizer settings to use
      * @return an SSA represention with only the edge-splitter run
      */
     public static SsaMethod testPhiPlacement (RopMethod rmeth, int paramWidth,
-            boolean isStatic) {
+            boolean isStatic, Optimizer optimizer) {
         SsaMethod result;
 
-        result = SsaMethod.newFromRopMethod(rmeth, paramWidth, isStatic);
+        result = SsaMethod.newFromRopMethod(rmeth, paramWidth, isStatic,
+                optimizer);
 
         edgeSplit(result);
 
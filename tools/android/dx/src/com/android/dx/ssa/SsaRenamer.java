@@ -503,7 +503,8 @@ public class SsaRenamer implements Runnable {
                     = RegisterSpec.makeLocalOptional(
                         ssaSourceReg, ropResult.getType(), newLocal);
 
-            if (!Optimizer.getPreserveLocals() || (onlyOneAssociatedLocal
+            if (!ssaMeth.getOptimizer().getPreserveLocals()
+                    || (onlyOneAssociatedLocal
                     && equalsHandlesNulls(newLocal, sourceLocal))) {
                 /*
                  * We don't have to keep this move to preserve local
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.dx.ssa._tests;
+
+import com.android.dx.cf.code.ConcreteMethod;
+import com.android.dx.cf.code.Ropper;
+import com.android.dx.cf.direct.DirectClassFile;
+import com.android.dx.cf.direct.StdAttributeFactory;
+import com.android.dx.cf.iface.Method;
+import com.android.dx.cf.iface.MethodList;
+import com.android.dx.rop.code.AccessFlags;
+import com.android.dx.rop.code.DexTranslationAdvice;
+import com.android.dx.rop.code.RopMethod;
+import com.android.dx.rop.cst.CstMethodRef;
+import com.android.dx.ssa.Optimizer;
+import com.android.dx.ssa.PhiTypeResolver;
+import com.android.dx.ssa.SsaBasicBlock;
+import com.android.dx.ssa.SsaMethod;
+import com.android.dx.ssa.back.InterferenceGraph;
+import com.android.dx.ssa.back.LivenessAnalyzer;
+import com.android.dx.ssa.back.WorklistLivenessAnalyzer;
+import com.android.dx.util.BitIntSet;
+import com.android.dx.util._tests.DxClassFiles;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Test the class {@code com.android.dx.ssa.back.WorklistLivenessAnalyzer},
+ * by checking that it gets the same results as
+ * {@code com.android.dx.ssa.back.LivenessAnalyzer} on the methods of
+ * some of dx's own classes.
+ */
+public class _WorklistLivenessAnalyzer extends TestCase {
+    /** classes to take the methods from; some have very large methods */
+    private static final String[] CLASSES = {
+        "com/android/dx/cf/code/RopperMachine",
+        "com/android/dx/cf/code/Ropper",
+        "com/android/dx/dex/code/Dops",
+        "com/android/dx/rop/code/Rops",
+        "com/android/dx/ssa/SCCP",
+        "com/android/dx/util/IntList",
+    };
+
+    public void test_sameAsPerRegister() throws IOException {
+        int count = 0;
+
+        for (String name : CLASSES) {
+            DirectClassFile cf =
+                new DirectClassFile(DxClassFiles.read(name), name + ".class", false);
+
+            cf.setAttributeFactory(StdAttributeFactory.THE_ONE);
+
+            MethodList methods = cf.getMethods();
+            int sz = methods.size();
+
+            for (int i = 0; i < sz; i++) {
+                Method one = methods.get(i);
+                int accessFlags = one.getAccessFlags();
+
+                if (AccessFlags.isNative(accessFlags)
+                        || AccessFlags.isAbstract(accessFlags)) {
+                    continue;
+                }
+
+                boolean isStatic = AccessFlags.isStatic(accessFlags);
+                int paramWidth = new CstMethodRef(cf.getThisClass(),
+                        one.getNat()).getParameterWordCount(isStatic);
+                RopMethod rop = Ropper.convert(
+                        new ConcreteMethod(one, cf, true, true),
+                        DexTranslationAdvice.THE_ONE);
+                String label = name + "." + one.getName().getString();
+
+                SsaMethod expected = toSsa(rop, paramWidth, isStatic);
+                SsaMethod actual = toSsa(rop, paramWidth, isStatic);
+                InterferenceGraph expectedGraph = LivenessAnalyzer
+                    .constructInterferenceGraphPerRegister(expected);
+                InterferenceGraph actualGraph = WorklistLivenessAnalyzer
+                    .constructInterferenceGraph(actual);
+
+                assertEquals(label, expected.getRegCount(),
+                        actual.getRegCount());
+
+                for (int reg = 0; reg < expected.getRegCount(); reg++) {
+                    assertEquals(label + " v" + reg,
+                            interference(expectedGraph, reg),
+                            interference(actualGraph, reg));
+                }
+
+                ArrayList<SsaBasicBlock> expectedBlocks =
+                    expected.getBlocks();
+                ArrayList<SsaBasicBlock> actualBlocks = actual.getBlocks();
+
+                for (int b = 0; b < expectedBlocks.size(); b++) {
+                    SsaBasicBlock e = expectedBlocks.get(b);
+                    SsaBasicBlock a = actualBlocks.get(b);
+
+                    assertEquals(label + " live-in " + b,
+                            e.getLiveInRegs().toString(),
+                            a.getLiveInRegs().toString());
+                    assertEquals(label + " live-out " + b,
+                            e.getLiveOutRegs().toString(),
+                            a.getLiveOutRegs().toString());
+                }
+
+                count++;
+            }
+        }
+
+        assertTrue(count > 0);
+    }
+
+    /**
+     * Converts a method to SSA form, and runs the dead code remover and
+     * phi type resolver on it, as the optimizer would before register
+     * allocation.
+     */
+    private static SsaMethod toSsa(RopMethod rop, int paramWidth,
+            boolean isStatic) {
+        SsaMethod result = Optimizer.debugDeadCodeRemover(rop, paramWidth,
+                isStatic, true, DexTranslationAdvice.THE_ONE);
+
+        PhiTypeResolver.process(result);
+        return result;
+    }
+
+    /**
+     * Gets the interference set of a register, as a string.
+     */
+    private static String interference(InterferenceGraph graph, int reg) {
+        BitIntSet set = new BitIntSet(0);
+
+        graph.mergeInterferenceSet(reg, set);
+        return set.toString();
+    }
+}
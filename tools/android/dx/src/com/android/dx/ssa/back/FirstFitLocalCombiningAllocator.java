@@ -24,7 +24,6 @@ import com.android.dx.ssa.SsaInsn;
 import com.android.dx.ssa.SsaMethod;
 import com.android.dx.ssa.NormalSsaInsn;
 import com.android.dx.ssa.PhiInsn;
-import com.android.dx.ssa.Optimizer;
 import com.android.dx.ssa.SsaBasicBlock;
 import com.android.dx.util.IntSet;
 import com.android.dx.util.IntIterator;
@@ -618,9 +617,10 @@ public class FirstFitLocalCombiningAllocator extends RegisterAllocator {
                     if (insn.getOpcode().getOpcode() ==
                             RegOps.MOVE_RESULT_PSEUDO) {
                         moveResultPseudoInsns.add((NormalSsaInsn) insn);
-                    } else if (Optimizer.getAdvice().requiresSourcesInOrder(
-                            insn.getOriginalRopInsn().getOpcode(),
-                            insn.getSources())) {
+                    } else if (ssaMeth.getOptimizer().getAdvice()
+                            .requiresSourcesInOrder(
+                                insn.getOriginalRopInsn().getOpcode(),
+                                insn.getSources())) {
                         invokeRangeInsns.add((NormalSsaInsn) insn);
                     }
                 }
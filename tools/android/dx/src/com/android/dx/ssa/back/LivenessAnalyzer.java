@@ -16,6 +16,7 @@
 
 package com.android.dx.ssa.back;
 
+import com.android.dx.ssa.Optimizer;
 import com.android.dx.ssa.SsaMethod;
 import com.android.dx.ssa.SsaBasicBlock;
 import com.android.dx.ssa.SsaInsn;
@@ -77,9 +78,10 @@ public class LivenessAnalyzer {
     }
 
     /**
-     * Runs register liveness algorithm for a method, updating the
+     * Runs register liveness analysis for a method, updating the
      * live in/out information in {@code SsaBasicBlock} instances and
-     * returning an interference graph.
+     * returning an interference graph. This uses the engine the method's
+     * {@link SsaMethod#getOptimizer optimizer settings} call for.
      *
      * @param ssaMeth {@code non-null;} method to process
      * @return {@code non-null;} interference graph indexed by SSA
@@ -87,6 +89,43 @@ public class LivenessAnalyzer {
      */
     public static InterferenceGraph constructInterferenceGraph(
             SsaMethod ssaMeth) {
+        return constructInterferenceGraph(ssaMeth,
+                ssaMeth.getOptimizer().getLivenessEngine());
+    }
+
+    /**
+     * Runs register liveness analysis for a method with the given
+     * engine, updating the live in/out information in
+     * {@code SsaBasicBlock} instances and returning an interference
+     * graph.
+     *
+     * @param ssaMeth {@code non-null;} method to process
+     * @param engine {@code non-null;} the engine to use
+     * @return {@code non-null;} interference graph indexed by SSA
+     * registers in both directions
+     */
+    public static InterferenceGraph constructInterferenceGraph(
+            SsaMethod ssaMeth, Optimizer.LivenessEngine engine) {
+        if (engine == Optimizer.LivenessEngine.WORKLIST) {
+            return WorklistLivenessAnalyzer.constructInterferenceGraph(
+                    ssaMeth);
+        }
+
+        return constructInterferenceGraphPerRegister(ssaMeth);
+    }
+
+    /**
+     * Runs register liveness algorithm for a method, walking it once
+     * per register, updating the live in/out information in
+     * {@code SsaBasicBlock} instances and returning an interference
+     * graph.
+     *
+     * @param ssaMeth {@code non-null;} method to process
+     * @return {@code non-null;} interference graph indexed by SSA
+     * registers in both directions
+     */
+    public static InterferenceGraph constructInterferenceGraphPerRegister(
+            SsaMethod ssaMeth) {
         int szRegs = ssaMeth.getRegCount();
         InterferenceGraph interference = new InterferenceGraph(szRegs);
 
@@ -255,7 +294,7 @@ public class LivenessAnalyzer {
      * @param ssaMeth {@code non-null;} method to pricess
      * @param interference {@code non-null;} interference graph
      */
-    private static void coInterferePhis(SsaMethod ssaMeth,
+    /*package*/ static void coInterferePhis(SsaMethod ssaMeth,
             InterferenceGraph interference) {
         for (SsaBasicBlock b : ssaMeth.getBlocks()) {
             List<SsaInsn> phis = b.getPhiInsns();
@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.dx.ssa.back;
+
+import com.android.dx.rop.code.RegisterSpec;
+import com.android.dx.rop.code.RegisterSpecList;
+import com.android.dx.ssa.PhiInsn;
+import com.android.dx.ssa.SsaBasicBlock;
+import com.android.dx.ssa.SsaInsn;
+import com.android.dx.ssa.SsaMethod;
+import com.android.dx.util.Bits;
+import com.android.dx.util.IntIterator;
+import com.android.dx.util.IntList;
+import com.android.dx.util.IntSet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Liveness analysis which computes the live-in and live-out sets of
+ * all the blocks at once, and then derives the interference graph with
+ * one backward pass over each block. It gives the same results as
+ * {@link LivenessAnalyzer}, which instead walks the method once per
+ * register, but its cost grows with the size of the live sets rather
+ * than with the number of registers times the number of blocks.
+ *
+ * <p>The block sets are solved with a worklist of (block, register)
+ * pairs, each of which is queued at most once, when the register
+ * becomes live-out at the block: it is then either killed by the
+ * register's definition being in the block, or made live-in and passed
+ * on to the block's predecessors.</p>
+ */
+public final class WorklistLivenessAnalyzer {
+    /** {@code non-null;} the blocks of the method */
+    private final ArrayList<SsaBasicBlock> blocks;
+
+    /** {@code >= 0;} the number of registers in the method */
+    private final int regCount;
+
+    /**
+     * {@code non-null;} per register, the index of the block that
+     * defines it, or {@code -1} if none does (yet)
+     */
+    private final int[] defBlocks;
+
+    /**
+     * {@code non-null;} the worklist, as pairs of a block index
+     * followed by a register
+     */
+    private final IntList worklist;
+
+    /**
+     * Runs register liveness analysis for a method, updating the
+     * live in/out information in {@code SsaBasicBlock} instances and
+     * returning an interference graph.
+     *
+     * @param ssaMeth {@code non-null;} method to process
+     * @return {@code non-null;} interference graph indexed by SSA
+     * registers in both directions
+     */
+    public static InterferenceGraph constructInterferenceGraph(
+            SsaMethod ssaMeth) {
+        WorklistLivenessAnalyzer analyzer =
+            new WorklistLivenessAnalyzer(ssaMeth);
+
+        analyzer.solveBlocks();
+
+        InterferenceGraph interference =
+            new InterferenceGraph(ssaMeth.getRegCount());
+
+        analyzer.addInterference(interference);
+        LivenessAnalyzer.coInterferePhis(ssaMeth, interference);
+
+        return interference;
+    }
+
+    /**
+     * Constructs an instance.
+     *
+     * @param ssaMeth {@code non-null;} method to process
+     */
+    private WorklistLivenessAnalyzer(SsaMethod ssaMeth) {
+        this.blocks = ssaMeth.getBlocks();
+        this.regCount = ssaMeth.getRegCount();
+        this.defBlocks = new int[regCount];
+        this.worklist = new IntList();
+
+        Arrays.fill(defBlocks, -1);
+    }
+
+    /**
+     * Computes the live-in and live-out sets of all the blocks.
+     */
+    private void solveBlocks() {
+        int szBlocks = blocks.size();
+
+        for (int i = 0; i < szBlocks; i++) {
+            scanBlock(blocks.get(i));
+        }
+
+        while (worklist.size() != 0) {
+            int reg = worklist.pop();
+            int index = worklist.pop();
+
+            if (defBlocks[reg] != index) {
+                addLiveIn(blocks.get(index), reg);
+            }
+        }
+    }
+
+    /**
+     * Notes the definitions in the given block, and finds the
+     * registers that are live-in at it because of its own uses. The
+     * operands of phi functions are instead made live-out at the blocks
+     * they come from.
+     *
+     * @param block {@code non-null;} the block
+     */
+    private void scanBlock(SsaBasicBlock block) {
+        ArrayList<SsaInsn> insns = block.getInsns();
+        int szInsns = insns.size();
+        int index = block.getIndex();
+
+        for (int i = 0; i < szInsns; i++) {
+            SsaInsn insn = insns.get(i);
+            RegisterSpecList sources = insn.getSources();
+            int szSources = sources.size();
+
+            if (insn instanceof PhiInsn) {
+                PhiInsn phi = (PhiInsn) insn;
+
+                for (int j = 0; j < szSources; j++) {
+                    addLiveOut(phi.predBlockIndexForSourcesIndex(j),
+                            sources.get(j).getReg());
+                }
+            } else {
+                for (int j = 0; j < szSources; j++) {
+                    int reg = sources.get(j).getReg();
+
+                    // Uses after the definition aren't live-in.
+                    if (defBlocks[reg] != index) {
+                        addLiveIn(block, reg);
+                    }
+                }
+            }
+
+            RegisterSpec result = insn.getResult();
+
+            if (result != null) {
+                defBlocks[result.getReg()] = index;
+            }
+        }
+    }
+
+    /**
+     * Makes a register live-in at a block, and so live-out at all its
+     * predecessors.
+     *
+     * @param block {@code non-null;} the block
+     * @param reg {@code >= 0;} the register
+     */
+    private void addLiveIn(SsaBasicBlock block, int reg) {
+        IntSet liveIn = block.getLiveInRegs();
+
+        if (liveIn.has(reg)) {
+            return;
+        }
+
+        liveIn.add(reg);
+
+        BitSet preds = block.getPredecessors();
+
+        for (int i = preds.nextSetBit(0); i >= 0; i = preds.nextSetBit(i + 1)) {
+            addLiveOut(i, reg);
+        }
+    }
+
+    /**
+     * Makes a register live-out at a block, queuing the pair to be
+     * passed on if it is new.
+     *
+     * @param index {@code >= 0;} the index of the block
+     * @param reg {@code >= 0;} the register
+     */
+    private void addLiveOut(int index, int reg) {
+        IntSet liveOut = blocks.get(index).getLiveOutRegs();
+
+        if (!liveOut.has(reg)) {
+            liveOut.add(reg);
+            worklist.add(index);
+            worklist.add(reg);
+        }
+    }
+
+    /**
+     * Adds the interference of each register defined in the method with
+     * the registers live-out at its definition, walking each block
+     * backwards from its live-out set.
+     *
+     * @param interference {@code non-null;} graph to update
+     */
+    private void addInterference(InterferenceGraph interference) {
+        int[] live = Bits.makeBitSet(regCount);
+
+        for (SsaBasicBlock block : blocks) {
+            ArrayList<SsaInsn> insns = block.getInsns();
+
+            for (IntIterator iter = block.getLiveOutRegs().iterator();
+                    iter.hasNext(); /*iter*/) {
+                Bits.set(live, iter.next());
+            }
+
+            for (int i = insns.size() - 1; i >= 0; i--) {
+                SsaInsn insn = insns.get(i);
+                RegisterSpec result = insn.getResult();
+
+                if (result != null) {
+                    int resultReg = result.getReg();
+
+                    Bits.clear(live, resultReg);
+
+                    for (int reg = Bits.findFirst(live, 0); reg >= 0;
+                            reg = Bits.findFirst(live, reg + 1)) {
+                        interference.add(reg, resultReg);
+                    }
+                }
+
+                if (!(insn instanceof PhiInsn)) {
+                    RegisterSpecList sources = insn.getSources();
+                    int szSources = sources.size();
+
+                    for (int j = 0; j < szSources; j++) {
+                        Bits.set(live, sources.get(j).getReg());
+                    }
+                }
+            }
+
+            Arrays.fill(live, 0);
+        }
+    }
+}
@@ -225,38 +225,38 @@ public final class ByteArrayAnnotatedOutput
 
     /** {@inheritDoc} */
     public int writeUnsignedLeb128(int value) {
-        int remaining = value >> 7;
-        int count = 0;
+        int writeAt = cursor;
+        int size = Leb128Utils.unsignedLeb128Size(value);
+        int end = writeAt + size;
 
-        while (remaining != 0) {
-            writeByte((value & 0x7f) | 0x80);
-            value = remaining;
-            remaining >>= 7;
-            count++;
+        if (stretchy) {
+            ensureCapacity(end);
+        } else if (end > data.length) {
+            throwBounds();
+            return 0;
         }
 
-        writeByte(value & 0x7f);
-        return count + 1;
+        Leb128Utils.writeUnsignedLeb128(data, writeAt, value);
+        cursor = end;
+        return size;
     }
 
     /** {@inheritDoc} */
     public int writeSignedLeb128(int value) {
-        int remaining = value >> 7;
-        int count = 0;
-        boolean hasMore = true;
-        int end = ((value & Integer.MIN_VALUE) == 0) ? 0 : -1;
-
-        while (hasMore) {
-            hasMore = (remaining != end)
-                || ((remaining & 1) != ((value >> 6) & 1));
+        int writeAt = cursor;
+        int size = Leb128Utils.signedLeb128Size(value);
+        int end = writeAt + size;
 
-            writeByte((value & 0x7f) | (hasMore ? 0x80 : 0));
-            value = remaining;
-            remaining >>= 7;
-            count++;
+        if (stretchy) {
+            ensureCapacity(end);
+        } else if (end > data.length) {
+            throwBounds();
+            return 0;
         }
 
-        return count;
+        Leb128Utils.writeSignedLeb128(data, writeAt, value);
+        cursor = end;
+        return size;
     }
     
     /** {@inheritDoc} */
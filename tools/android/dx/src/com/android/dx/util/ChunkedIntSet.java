@@ -0,0 +1,407 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.dx.util;
+
+import java.util.NoSuchElementException;
+
+/**
+ * A set of non-negative integers, represented by a compressed bit set:
+ * the range of values is cut into fixed-size chunks, and only chunks
+ * with something in them get a bit set, which are kept sorted by their
+ * position. This stays compact for large sparse sets, while adding,
+ * testing and merging stay close to the speed of a plain bit set.
+ */
+public final class ChunkedIntSet implements IntSet {
+    /** log2 of the number of values per chunk */
+    private static final int CHUNK_SHIFT = 9;
+
+    /** number of ints in the bit set of a chunk */
+    private static final int CHUNK_INTS = (1 << CHUNK_SHIFT) >> 5;
+
+    /** mask for the offset of a value in its chunk */
+    private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+
+    /** {@code non-null;} chunk numbers, in increasing order */
+    private int[] keys;
+
+    /** {@code non-null;} bit sets of the chunks, parallel to {@link #keys} */
+    private int[][] chunks;
+
+    /** {@code >= 0;} number of chunks in use */
+    private int count;
+
+    /** {@code >= 0;} number of elements */
+    private int size;
+
+    /**
+     * Constructs an empty instance.
+     */
+    public ChunkedIntSet() {
+        keys = new int[4];
+        chunks = new int[4][];
+        count = 0;
+        size = 0;
+    }
+
+    /** @inheritDoc */
+    public void add(int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("value < 0");
+        }
+
+        int[] chunk = chunkFor(value >>> CHUNK_SHIFT);
+        int bit = value & CHUNK_MASK;
+        int word = chunk[bit >> 5];
+        int mask = 1 << (bit & 0x1f);
+
+        if ((word & mask) == 0) {
+            chunk[bit >> 5] = word | mask;
+            size++;
+        }
+    }
+
+    /** @inheritDoc */
+    public void remove(int value) {
+        if (value < 0) {
+            return;
+        }
+
+        int index = indexOf(value >>> CHUNK_SHIFT);
+
+        if (index < 0) {
+            return;
+        }
+
+        int[] chunk = chunks[index];
+        int bit = value & CHUNK_MASK;
+        int word = chunk[bit >> 5];
+        int mask = 1 << (bit & 0x1f);
+
+        if ((word & mask) != 0) {
+            // An emptied chunk is kept; it is likely to be refilled.
+            chunk[bit >> 5] = word & ~mask;
+            size--;
+        }
+    }
+
+    /** @inheritDoc */
+    public boolean has(int value) {
+        if (value < 0) {
+            return false;
+        }
+
+        int index = indexOf(value >>> CHUNK_SHIFT);
+
+        if (index < 0) {
+            return false;
+        }
+
+        int bit = value & CHUNK_MASK;
+        return (chunks[index][bit >> 5] & (1 << (bit & 0x1f))) != 0;
+    }
+
+    /** @inheritDoc */
+    public void merge(IntSet other) {
+        if (other instanceof ChunkedIntSet) {
+            mergeChunks((ChunkedIntSet) other);
+        } else {
+            IntIterator iter = other.iterator();
+            while (iter.hasNext()) {
+                add(iter.next());
+            }
+        }
+    }
+
+    /** @inheritDoc */
+    public int elements() {
+        return size;
+    }
+
+    /** @inheritDoc */
+    public IntIterator iterator() {
+        return new IntIterator() {
+            /** index of the chunk that {@link #next} is in */
+            private int index = 0;
+
+            /** {@code >= -1;} next value, or {@code -1} if done */
+            private int next = findNext(0, 0);
+
+            /** @inheritDoc */
+            public boolean hasNext() {
+                return next >= 0;
+            }
+
+            /** @inheritDoc */
+            public int next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                int ret = next;
+                int bit = (ret & CHUNK_MASK) + 1;
+
+                if (bit > CHUNK_MASK) {
+                    index++;
+                    bit = 0;
+                }
+
+                next = findNext(index, bit);
+                return ret;
+            }
+
+            /**
+             * Finds the first element at or after the given position,
+             * updating {@link #index} to the chunk it is in.
+             *
+             * @param at index of the chunk to start at
+             * @param bit {@code >= 0;} offset in that chunk to start at
+             * @return {@code >= -1;} the element, or {@code -1} if
+             * there is none
+             */
+            private int findNext(int at, int bit) {
+                for (; at < count; at++, bit = 0) {
+                    int[] chunk = chunks[at];
+
+                    for (int i = bit >> 5; i < CHUNK_INTS; i++) {
+                        int word = chunk[i];
+
+                        if (i == (bit >> 5)) {
+                            word &= -1 << (bit & 0x1f);
+                        }
+
+                        if (word != 0) {
+                            index = at;
+                            return (keys[at] << CHUNK_SHIFT) + (i << 5)
+                                + Integer.numberOfTrailingZeros(word);
+                        }
+                    }
+                }
+
+                index = count;
+                return -1;
+            }
+        };
+    }
+
+    /** @inheritDoc */
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        IntIterator iter = iterator();
+
+        sb.append('{');
+
+        boolean first = true;
+        while (iter.hasNext()) {
+            if (!first) {
+                sb.append(", ");
+            }
+            first = false;
+            sb.append(iter.next());
+        }
+
+        sb.append('}');
+
+        return sb.toString();
+    }
+
+    /**
+     * Finds the index of the given chunk.
+     *
+     * @param key {@code >= 0;} the chunk number
+     * @return the index of the chunk if it is present, otherwise
+     * {@code -(insertion point) - 1}
+     */
+    private int indexOf(int key) {
+        int[] keys = this.keys;
+        int min = 0;
+        int max = count - 1;
+
+        while (min <= max) {
+            int mid = (min + max) >>> 1;
+            int midKey = keys[mid];
+
+            if (midKey < key) {
+                min = mid + 1;
+            } else if (midKey > key) {
+                max = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+
+        return -(min + 1);
+    }
+
+    /**
+     * Gets the bit set of the given chunk, adding an empty one if it
+     * isn't present.
+     *
+     * @param key {@code >= 0;} the chunk number
+     * @return {@code non-null;} the bit set of the chunk
+     */
+    private int[] chunkFor(int key) {
+        // Values are very often added in increasing order.
+        if ((count != 0) && (keys[count - 1] == key)) {
+            return chunks[count - 1];
+        }
+
+        int index = indexOf(key);
+
+        if (index >= 0) {
+            return chunks[index];
+        }
+
+        index = -(index + 1);
+        ensureCapacity(count + 1);
+        System.arraycopy(keys, index, keys, index + 1, count - index);
+        System.arraycopy(chunks, index, chunks, index + 1, count - index);
+
+        int[] chunk = new int[CHUNK_INTS];
+        keys[index] = key;
+        chunks[index] = chunk;
+        count++;
+
+        return chunk;
+    }
+
+    /**
+     * Ensures there is room for the given number of chunks.
+     *
+     * @param newCount {@code >= 0;} the number of chunks
+     */
+    private void ensureCapacity(int newCount) {
+        if (newCount > keys.length) {
+            int newLength = Math.max(newCount, keys.length * 2);
+            int[] newKeys = new int[newLength];
+            int[][] newChunks = new int[newLength][];
+
+            System.arraycopy(keys, 0, newKeys, 0, count);
+            System.arraycopy(chunks, 0, newChunks, 0, count);
+            keys = newKeys;
+            chunks = newChunks;
+        }
+    }
+
+    /**
+     * Merges another instance of this class into this one, by walking
+     * the chunks of both in order.
+     *
+     * @param other {@code non-null;} the set to merge
+     */
+    private void mergeChunks(ChunkedIntSet other) {
+        int otherCount = other.count;
+        int[] otherKeys = other.keys;
+        int[][] otherChunks = other.chunks;
+        int missing = 0;
+
+        // First, just merge the chunks that both sets have.
+        for (int i = 0, j = 0; j < otherCount; /*i, j*/) {
+            int key = (i < count) ? keys[i] : Integer.MAX_VALUE;
+            int otherKey = otherKeys[j];
+
+            if (key < otherKey) {
+                i++;
+            } else if (key > otherKey) {
+                missing++;
+                j++;
+            } else {
+                size += or(chunks[i], otherChunks[j]);
+                i++;
+                j++;
+            }
+        }
+
+        if (missing == 0) {
+            return;
+        }
+
+        // Then, rebuild the arrays with copies of the missing chunks.
+        int newCount = count + missing;
+        int[] newKeys = new int[Math.max(newCount, keys.length)];
+        int[][] newChunks = new int[newKeys.length][];
+        int i = 0;
+        int j = 0;
+
+        for (int at = 0; at < newCount; at++) {
+            int key = (i < count) ? keys[i] : Integer.MAX_VALUE;
+            int otherKey = (j < otherCount) ? otherKeys[j] : Integer.MAX_VALUE;
+
+            if (key <= otherKey) {
+                newKeys[at] = key;
+                newChunks[at] = chunks[i];
+                i++;
+                if (key == otherKey) {
+                    j++;
+                }
+            } else {
+                int[] chunk = otherChunks[j].clone();
+                newKeys[at] = otherKey;
+                newChunks[at] = chunk;
+                size += bitCount(chunk);
+                j++;
+            }
+        }
+
+        keys = newKeys;
+        chunks = newChunks;
+        count = newCount;
+    }
+
+    /**
+     * Ors the bits of one chunk into another.
+     *
+     * @param dest {@code non-null;} the chunk to modify
+     * @param src {@code non-null;} the chunk to merge in
+     * @return {@code >= 0;} the number of bits newly set in {@code dest}
+     */
+    private static int or(int[] dest, int[] src) {
+        int added = 0;
+
+        for (int i = 0; i < CHUNK_INTS; i++) {
+            int word = src[i];
+
+            if (word != 0) {
+                int old = dest[i];
+                int merged = old | word;
+
+                if (merged != old) {
+                    added += Integer.bitCount(merged ^ old);
+                    dest[i] = merged;
+                }
+            }
+        }
+
+        return added;
+    }
+
+    /**
+     * Counts the bits set in a chunk.
+     *
+     * @param chunk {@code non-null;} the chunk
+     * @return {@code >= 0;} the number of bits set
+     */
+    private static int bitCount(int[] chunk) {
+        int result = 0;
+
+        for (int i = 0; i < CHUNK_INTS; i++) {
+            result += Integer.bitCount(chunk[i]);
+        }
+
+        return result;
+    }
+}
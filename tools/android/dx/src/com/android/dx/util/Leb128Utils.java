@@ -31,21 +31,14 @@ public final class Leb128Utils {
      * Gets the number of bytes in the unsigned LEB128 encoding of the
      * given value.
      * 
-     * @param value the value in question
+     * @param value the value in question, taken to be unsigned
      * @return its write size, in bytes
      */
     public static int unsignedLeb128Size(int value) {
-        // TODO: This could be much cleverer.
-        
-        int remaining = value >> 7;
-        int count = 0;
-
-        while (remaining != 0) {
-            remaining >>= 7;
-            count++;
-        }
+        // Seven bits go in each byte, and even zero takes one.
+        int bits = 32 - Integer.numberOfLeadingZeros(value | 1);
 
-        return count + 1;
+        return (bits + 6) / 7;
     }
 
     /**
@@ -56,10 +49,54 @@ public final class Leb128Utils {
      * @return its write size, in bytes
      */
     public static int signedLeb128Size(int value) {
-        // TODO: This could be much cleverer.
+        /*
+         * The xor leaves non-negative values alone and complements
+         * negative ones, so that the leading zero count gives the
+         * number of bits needed, less the sign bit.
+         */
+        int bits = 33 - Integer.numberOfLeadingZeros(value ^ (value >> 31));
 
+        return (bits + 6) / 7;
+    }
+
+    /**
+     * Writes the unsigned LEB128 encoding of the given value straight
+     * into an array, which must have room for
+     * {@link #unsignedLeb128Size} bytes at the given offset.
+     * 
+     * @param dest {@code non-null;} the array to write to
+     * @param offset {@code >= 0;} where to write the first byte
+     * @param value the value to write, taken to be unsigned
+     * @return the offset just past the last byte written
+     */
+    public static int writeUnsignedLeb128(byte[] dest, int offset,
+            int value) {
+        int remaining = value >>> 7;
+
+        while (remaining != 0) {
+            dest[offset] = (byte) ((value & 0x7f) | 0x80);
+            offset++;
+            value = remaining;
+            remaining >>>= 7;
+        }
+
+        dest[offset] = (byte) (value & 0x7f);
+        return offset + 1;
+    }
+
+    /**
+     * Writes the signed LEB128 encoding of the given value straight
+     * into an array, which must have room for
+     * {@link #signedLeb128Size} bytes at the given offset.
+     * 
+     * @param dest {@code non-null;} the array to write to
+     * @param offset {@code >= 0;} where to write the first byte
+     * @param value the value to write
+     * @return the offset just past the last byte written
+     */
+    public static int writeSignedLeb128(byte[] dest, int offset,
+            int value) {
         int remaining = value >> 7;
-        int count = 0;
         boolean hasMore = true;
         int end = ((value & Integer.MIN_VALUE) == 0) ? 0 : -1;
 
@@ -67,11 +104,12 @@ public final class Leb128Utils {
             hasMore = (remaining != end)
                 || ((remaining & 1) != ((value >> 6) & 1));
 
+            dest[offset] = (byte) ((value & 0x7f) | (hasMore ? 0x80 : 0));
+            offset++;
             value = remaining;
             remaining >>= 7;
-            count++;
         }
 
-        return count;
+        return offset;
     }
 }
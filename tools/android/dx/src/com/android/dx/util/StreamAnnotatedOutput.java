@@ -0,0 +1,317 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Implementation of {@link AnnotatedOutput} which passes everything
+ * written to it on to an {@link OutputStream}, through a small buffer,
+ * rather than keeping it in memory. It never keeps annotations.
+ *
+ * <p>Since the methods of {@link Output} can't throw
+ * {@code IOException}, a failure of the stream is remembered and
+ * reported by {@link #finish}, and anything written after it is
+ * dropped, much like {@link java.io.PrintStream} does.</p>
+ */
+public final class StreamAnnotatedOutput implements AnnotatedOutput {
+    /** size of the buffer */
+    private static final int BUFFER_SIZE = 8192;
+
+    /** {@code non-null;} the stream to write to */
+    private final OutputStream out;
+
+    /** {@code non-null;} bytes not yet passed on to {@link #out} */
+    private final byte[] buffer;
+
+    /** {@code >= 0;} number of bytes in {@link #buffer} */
+    private int buffered;
+
+    /** {@code >= 0;} current output cursor */
+    private int cursor;
+
+    /** {@code null-ok;} the first failure of the stream, if any */
+    private IOException failure;
+
+    /**
+     * Constructs an instance.
+     *
+     * @param out {@code non-null;} the stream to write to
+     * @param cursor {@code >= 0;} the initial cursor, that is, the
+     * offset in the complete output that the first byte written to this
+     * instance goes to
+     */
+    public StreamAnnotatedOutput(OutputStream out, int cursor) {
+        if (out == null) {
+            throw new NullPointerException("out == null");
+        }
+
+        if (cursor < 0) {
+            throw new IllegalArgumentException("cursor < 0");
+        }
+
+        this.out = out;
+        this.buffer = new byte[BUFFER_SIZE];
+        this.buffered = 0;
+        this.cursor = cursor;
+        this.failure = null;
+    }
+
+    /**
+     * Passes on everything written so far to the stream, and flushes it.
+     *
+     * @throws IOException if writing to the stream failed at any point
+     */
+    public void finish() throws IOException {
+        drain();
+
+        if (failure == null) {
+            try {
+                out.flush();
+            } catch (IOException ex) {
+                failure = ex;
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /** {@inheritDoc} */
+    public int getCursor() {
+        return cursor;
+    }
+
+    /** {@inheritDoc} */
+    public void assertCursor(int expectedCursor) {
+        if (cursor != expectedCursor) {
+            throw new ExceptionWithContext("expected cursor " +
+                    expectedCursor + "; actual value: " + cursor);
+        }
+    }
+
+    /** {@inheritDoc} */
+    public void writeByte(int value) {
+        reserve(1);
+        buffer[buffered] = (byte) value;
+        buffered++;
+        cursor++;
+    }
+
+    /** {@inheritDoc} */
+    public void writeShort(int value) {
+        reserve(2);
+
+        int at = buffered;
+        buffer[at] = (byte) value;
+        buffer[at + 1] = (byte) (value >> 8);
+        buffered = at + 2;
+        cursor += 2;
+    }
+
+    /** {@inheritDoc} */
+    public void writeInt(int value) {
+        reserve(4);
+
+        int at = buffered;
+        buffer[at] = (byte) value;
+        buffer[at + 1] = (byte) (value >> 8);
+        buffer[at + 2] = (byte) (value >> 16);
+        buffer[at + 3] = (byte) (value >> 24);
+        buffered = at + 4;
+        cursor += 4;
+    }
+
+    /** {@inheritDoc} */
+    public void writeLong(long value) {
+        writeInt((int) value);
+        writeInt((int) (value >> 32));
+    }
+
+    /** {@inheritDoc} */
+    public int writeUnsignedLeb128(int value) {
+        int size = Leb128Utils.unsignedLeb128Size(value);
+
+        reserve(size);
+        Leb128Utils.writeUnsignedLeb128(buffer, buffered, value);
+        buffered += size;
+        cursor += size;
+        return size;
+    }
+
+    /** {@inheritDoc} */
+    public int writeSignedLeb128(int value) {
+        int size = Leb128Utils.signedLeb128Size(value);
+
+        reserve(size);
+        Leb128Utils.writeSignedLeb128(buffer, buffered, value);
+        buffered += size;
+        cursor += size;
+        return size;
+    }
+
+    /** {@inheritDoc} */
+    public void write(ByteArray bytes) {
+        int blen = bytes.size();
+
+        if (blen <= BUFFER_SIZE) {
+            reserve(blen);
+            bytes.getBytes(buffer, buffered);
+            buffered += blen;
+            cursor += blen;
+        } else {
+            for (int at = 0; at < blen; at += BUFFER_SIZE) {
+                write(bytes.slice(at, Math.min(at + BUFFER_SIZE, blen)));
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    public void write(byte[] bytes, int offset, int length) {
+        int bytesEnd = offset + length;
+
+        // twos-complement math trick: ((x < 0) || (y < 0)) <=> ((x|y) < 0)
+        if (((offset | length | bytesEnd) < 0) || (bytesEnd > bytes.length)) {
+            throw new IndexOutOfBoundsException("bytes.length " +
+                                                bytes.length + "; " +
+                                                offset + "..!" + bytesEnd);
+        }
+
+        if (length <= BUFFER_SIZE) {
+            reserve(length);
+            System.arraycopy(bytes, offset, buffer, buffered, length);
+            buffered += length;
+        } else {
+            // Too big to be worth copying; send it on directly.
+            drain();
+            send(bytes, offset, length);
+        }
+
+        cursor += length;
+    }
+
+    /** {@inheritDoc} */
+    public void write(byte[] bytes) {
+        write(bytes, 0, bytes.length);
+    }
+
+    /** {@inheritDoc} */
+    public void writeZeroes(int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("count < 0");
+        }
+
+        while (count > 0) {
+            reserve(1);
+
+            int amt = Math.min(count, BUFFER_SIZE - buffered);
+            for (int i = 0; i < amt; i++) {
+                buffer[buffered + i] = 0;
+            }
+
+            buffered += amt;
+            cursor += amt;
+            count -= amt;
+        }
+    }
+
+    /** {@inheritDoc} */
+    public void alignTo(int alignment) {
+        int mask = alignment - 1;
+
+        if ((alignment < 0) || ((mask & alignment) != 0)) {
+            throw new IllegalArgumentException("bogus alignment");
+        }
+
+        int end = (cursor + mask) & ~mask;
+
+        writeZeroes(end - cursor);
+    }
+
+    /** {@inheritDoc} */
+    public boolean annotates() {
+        return false;
+    }
+
+    /** {@inheritDoc} */
+    public boolean isVerbose() {
+        return false;
+    }
+
+    /** {@inheritDoc} */
+    public void annotate(String msg) {
+        // This space intentionally left blank.
+    }
+
+    /** {@inheritDoc} */
+    public void annotate(int amt, String msg) {
+        // This space intentionally left blank.
+    }
+
+    /** {@inheritDoc} */
+    public void endAnnotation() {
+        // This space intentionally left blank.
+    }
+
+    /** {@inheritDoc} */
+    public int getAnnotationWidth() {
+        return 0;
+    }
+
+    /**
+     * Makes sure there is room for the given number of bytes in the
+     * buffer, passing on what is in it if need be.
+     *
+     * @param amt {@code >= 0, <= BUFFER_SIZE;} the number of bytes
+     */
+    private void reserve(int amt) {
+        if (buffered + amt > BUFFER_SIZE) {
+            drain();
+        }
+    }
+
+    /**
+     * Passes on the contents of the buffer to the stream, and empties it.
+     */
+    private void drain() {
+        if (buffered != 0) {
+            send(buffer, 0, buffered);
+            buffered = 0;
+        }
+    }
+
+    /**
+     * Writes bytes to the stream, unless it has already failed.
+     *
+     * @param bytes {@code non-null;} the bytes to write
+     * @param offset offset of the first byte to write
+     * @param length number of bytes to write
+     */
+    private void send(byte[] bytes, int offset, int length) {
+        if (failure != null) {
+            return;
+        }
+
+        try {
+            out.write(bytes, offset, length);
+        } catch (IOException ex) {
+            failure = ex;
+        }
+    }
+}
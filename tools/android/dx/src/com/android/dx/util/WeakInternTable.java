@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.dx.util;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Thread-safe intern table which only keeps weak references to its
+ * values. A value stays in the table, and so stays the unique instance
+ * for its key, for as long as something else refers to it; once it is
+ * collected, its entry is dropped the next time a value is added. This
+ * keeps the table bounded by what is actually in use, rather than by
+ * everything that was ever interned, while still allowing interned
+ * values to be compared with {@code ==}.
+ *
+ * <p>Lookups of values that are present don't lock or allocate.</p>
+ *
+ * @param <K> type of the keys
+ * @param <V> type of the values
+ */
+public final class WeakInternTable<K, V> {
+    /** {@code non-null;} the entries, by key */
+    private final ConcurrentHashMap<K, Entry<K, V>> table;
+
+    /** {@code non-null;} queue of entries whose values were collected */
+    private final ReferenceQueue<V> queue;
+
+    /**
+     * Constructs an instance.
+     *
+     * @param initialCapacity {@code >= 0;} the expected number of
+     * entries
+     */
+    public WeakInternTable(int initialCapacity) {
+        table = new ConcurrentHashMap<K, Entry<K, V>>(initialCapacity);
+        queue = new ReferenceQueue<V>();
+    }
+
+    /**
+     * Gets the value interned for the given key.
+     *
+     * @param key {@code non-null;} the key
+     * @return {@code null-ok;} the value, or {@code null} if there is
+     * none
+     */
+    public V get(K key) {
+        Entry<K, V> entry = table.get(key);
+        return (entry == null) ? null : entry.get();
+    }
+
+    /**
+     * Interns the given value under the given key, unless a value is
+     * already interned for it.
+     *
+     * @param key {@code non-null;} the key
+     * @param value {@code non-null;} the value to intern
+     * @return {@code non-null;} the interned value; either {@code value}
+     * or the one that was there already
+     */
+    public V intern(K key, V value) {
+        expunge();
+
+        Entry<K, V> entry = new Entry<K, V>(key, value, queue);
+
+        for (;;) {
+            Entry<K, V> already = table.putIfAbsent(key, entry);
+
+            if (already == null) {
+                return value;
+            }
+
+            V alreadyValue = already.get();
+
+            if (alreadyValue != null) {
+                return alreadyValue;
+            }
+
+            // The old value was collected; take over its slot.
+            if (table.replace(key, already, entry)) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Gets the number of entries, including ones whose values were
+     * collected but which haven't yet been dropped.
+     *
+     * @return {@code >= 0;} the number of entries
+     */
+    public int size() {
+        return table.size();
+    }
+
+    /**
+     * Drops the entries whose values have been collected.
+     */
+    private void expunge() {
+        for (;;) {
+            Entry<?, ?> entry = (Entry<?, ?>) queue.poll();
+
+            if (entry == null) {
+                break;
+            }
+
+            // Only remove it if it wasn't already replaced.
+            table.remove(entry.key, entry);
+        }
+    }
+
+    /**
+     * Entry of a {@link WeakInternTable}, which is a weak reference to
+     * its value that also remembers its key.
+     */
+    private static final class Entry<K, V> extends WeakReference<V> {
+        /** {@code non-null;} the key */
+        private final K key;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param key {@code non-null;} the key
+         * @param value {@code non-null;} the value
+         * @param queue {@code non-null;} queue to enqueue this instance
+         * on once the value is collected
+         */
+        public Entry(K key, V value, ReferenceQueue<V> queue) {
+            super(value, queue);
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.dx.util._tests;
+
+import junit.framework.Assert;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the class files of dx itself, for tests that want real code to
+ * work on.
+ */
+public final class DxClassFiles {
+    /**
+     * This class is uninstantiable.
+     */
+    private DxClassFiles() {
+        // This space intentionally left blank.
+    }
+
+    /**
+     * Reads one of the classes of dx itself.
+     *
+     * @param name {@code non-null;} internal name of the class, such as
+     * {@code com/android/dx/ssa/SCCP}
+     * @return {@code non-null;} the contents of its class file
+     */
+    public static byte[] read(String name) throws IOException {
+        InputStream in = DxClassFiles.class.getClassLoader()
+            .getResourceAsStream(name + ".class");
+
+        Assert.assertNotNull(name, in);
+
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+
+            for (;;) {
+                int amt = in.read(buf);
+
+                if (amt < 0) {
+                    break;
+                }
+
+                out.write(buf, 0, amt);
+            }
+
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.dx.util._tests;
+
+import com.android.dx.util.BitIntSet;
+import com.android.dx.util.ChunkedIntSet;
+import com.android.dx.util.IntIterator;
+
+import junit.framework.TestCase;
+
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+public class _ChunkedIntSet extends TestCase {
+    public void test_basic() {
+        ChunkedIntSet set = new ChunkedIntSet();
+
+        assertEquals(0, set.elements());
+
+        set.add(31);
+        set.add(0);
+        set.add(1);
+        set.add(100000);
+
+        assertTrue(set.has(0));
+        assertTrue(set.has(1));
+        assertTrue(set.has(31));
+        assertTrue(set.has(100000));
+
+        assertEquals(4, set.elements());
+
+        assertFalse(set.has(2));
+        assertFalse(set.has(30));
+        assertFalse(set.has(99999));
+        assertFalse(set.has(-1));
+    }
+
+    public void test_iterator() {
+        ChunkedIntSet set = new ChunkedIntSet();
+
+        set.add(70000);
+        set.add(511);
+        set.add(512);
+        set.add(0);
+        set.add(0);
+
+        IntIterator iter = set.iterator();
+
+        assertTrue(iter.hasNext());
+        assertEquals(0, iter.next());
+        assertTrue(iter.hasNext());
+        assertEquals(511, iter.next());
+        assertTrue(iter.hasNext());
+        assertEquals(512, iter.next());
+        assertTrue(iter.hasNext());
+        assertEquals(70000, iter.next());
+
+        assertFalse(iter.hasNext());
+
+        try {
+            iter.next();
+            fail();
+        } catch (NoSuchElementException ex) {
+            // exception excepted
+        }
+    }
+
+    public void test_empty() {
+        ChunkedIntSet set = new ChunkedIntSet();
+
+        assertFalse(set.iterator().hasNext());
+
+        set.add(5000);
+        set.remove(5000);
+
+        assertFalse(set.iterator().hasNext());
+        assertEquals(0, set.elements());
+    }
+
+    public void test_remove() {
+        ChunkedIntSet set = new ChunkedIntSet();
+
+        set.add(0);
+        set.add(1);
+        set.add(4096);
+
+        set.remove(0);
+        set.remove(0);
+        set.remove(2);
+        set.remove(8192);
+
+        assertFalse(set.has(0));
+        assertTrue(set.has(1));
+        assertTrue(set.has(4096));
+        assertEquals(2, set.elements());
+    }
+
+    public void test_merge() {
+        ChunkedIntSet setA = new ChunkedIntSet();
+        int[] valuesA = {0, 1, 31, 129, 130, 9000};
+
+        for (int i = 0; i < valuesA.length; i++) {
+            setA.add(valuesA[i]);
+        }
+
+        ChunkedIntSet setB = new ChunkedIntSet();
+        int[] valuesB = {0, 5, 6, 32, 127, 128, 1024, 9000, 20000};
+
+        for (int i = 0; i < valuesB.length; i++) {
+            setB.add(valuesB[i]);
+        }
+
+        setA.merge(setB);
+
+        for (int i = 0; i < valuesA.length; i++) {
+            assertTrue(setA.has(valuesA[i]));
+        }
+
+        for (int i = 0; i < valuesB.length; i++) {
+            assertTrue(setA.has(valuesB[i]));
+        }
+
+        assertEquals(13, setA.elements());
+
+        // The merged-in chunks must not be shared.
+        setA.add(20001);
+        assertFalse(setB.has(20001));
+    }
+
+    public void test_mergeWithBitIntSet() {
+        ChunkedIntSet setA = new ChunkedIntSet();
+        setA.add(3);
+
+        BitIntSet setB = new BitIntSet(129);
+        setB.add(3);
+        setB.add(128);
+
+        setA.merge(setB);
+
+        assertTrue(setA.has(3));
+        assertTrue(setA.has(128));
+        assertEquals(2, setA.elements());
+    }
+
+    public void test_matchesBitIntSet() {
+        Random random = new Random(1);
+
+        for (int round = 0; round < 20; round++) {
+            int max = 1 + random.nextInt(20000);
+            ChunkedIntSet setA = new ChunkedIntSet();
+            ChunkedIntSet setB = new ChunkedIntSet();
+            BitIntSet expected = new BitIntSet(max);
+
+            for (int i = 0; i < 500; i++) {
+                int value = random.nextInt(max);
+
+                switch (random.nextInt(3)) {
+                    case 0: {
+                        setA.add(value);
+                        expected.add(value);
+                        break;
+                    }
+                    case 1: {
+                        setB.add(value);
+                        expected.add(value);
+                        break;
+                    }
+                    default: {
+                        setA.remove(value);
+                        setB.remove(value);
+                        expected.remove(value);
+                        break;
+                    }
+                }
+            }
+
+            setA.merge(setB);
+
+            assertEquals(expected.elements(), setA.elements());
+            assertEquals(expected.toString(), setA.toString());
+        }
+    }
+
+    public void test_toString() {
+        ChunkedIntSet set = new ChunkedIntSet();
+
+        assertEquals("{}", set.toString());
+
+        set.add(1);
+
+        assertEquals("{1}", set.toString());
+
+        set.add(2000);
+
+        assertEquals("{1, 2000}", set.toString());
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.dx.util._tests;
+
+import com.android.dx.util.ByteArrayAnnotatedOutput;
+import com.android.dx.util.Leb128Utils;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the class {@code com.android.dx.util.Leb128Utils}.
+ */
+public class _Leb128Utils
+        extends TestCase {
+    /** values around every boundary between encoded sizes */
+    private static final int[] VALUES = makeValues();
+
+    public void test_unsignedLeb128Size() {
+        for (int i = 0; i < VALUES.length; i++) {
+            int value = VALUES[i];
+            assertEquals(label(value), unsignedEncoding(value).length,
+                    Leb128Utils.unsignedLeb128Size(value));
+        }
+    }
+
+    public void test_signedLeb128Size() {
+        for (int i = 0; i < VALUES.length; i++) {
+            int value = VALUES[i];
+            assertEquals(label(value), signedEncoding(value).length,
+                    Leb128Utils.signedLeb128Size(value));
+        }
+    }
+
+    public void test_writeUnsignedLeb128() {
+        for (int i = 0; i < VALUES.length; i++) {
+            int value = VALUES[i];
+            byte[] expect = unsignedEncoding(value);
+            byte[] dest = new byte[expect.length + 2];
+            int end = Leb128Utils.writeUnsignedLeb128(dest, 1, value);
+
+            assertEquals(label(value), expect.length + 1, end);
+            assertEncoded(value, expect, dest);
+        }
+    }
+
+    public void test_writeSignedLeb128() {
+        for (int i = 0; i < VALUES.length; i++) {
+            int value = VALUES[i];
+            byte[] expect = signedEncoding(value);
+            byte[] dest = new byte[expect.length + 2];
+            int end = Leb128Utils.writeSignedLeb128(dest, 1, value);
+
+            assertEquals(label(value), expect.length + 1, end);
+            assertEncoded(value, expect, dest);
+        }
+    }
+
+    public void test_outputExactFit() {
+        for (int i = 0; i < VALUES.length; i++) {
+            int value = VALUES[i];
+            byte[] expect = signedEncoding(value);
+            ByteArrayAnnotatedOutput out =
+                new ByteArrayAnnotatedOutput(new byte[expect.length]);
+
+            assertEquals(label(value), expect.length,
+                    out.writeSignedLeb128(value));
+            assertEquals(label(value), expect.length, out.getCursor());
+            assertTrue(label(value), Arrays.equals(expect, out.getArray()));
+
+            try {
+                out.writeUnsignedLeb128(value);
+                fail(label(value));
+            } catch (IndexOutOfBoundsException ex) {
+                // This is the expected exception.
+            }
+        }
+    }
+
+    private static void assertEncoded(int value, byte[] expect,
+            byte[] dest) {
+        assertEquals(label(value), 0, dest[0]);
+        assertEquals(label(value), 0, dest[dest.length - 1]);
+
+        for (int i = 0; i < expect.length; i++) {
+            assertEquals(label(value), expect[i], dest[i + 1]);
+        }
+    }
+
+    /**
+     * Reference unsigned LEB128 encoder.
+     */
+    private static byte[] unsignedEncoding(int value) {
+        byte[] result = new byte[5];
+        long remaining = value & 0xffffffffL;
+        int count = 0;
+
+        do {
+            int b = (int) (remaining & 0x7f);
+            remaining >>= 7;
+            if (remaining != 0) {
+                b |= 0x80;
+            }
+            result[count++] = (byte) b;
+        } while (remaining != 0);
+
+        return trim(result, count);
+    }
+
+    /**
+     * Reference signed LEB128 encoder.
+     */
+    private static byte[] signedEncoding(int value) {
+        byte[] result = new byte[5];
+        long remaining = value;
+        int count = 0;
+
+        for (;;) {
+            int b = (int) (remaining & 0x7f);
+            remaining >>= 7;
+            boolean done = ((remaining == 0) && ((b & 0x40) == 0))
+                || ((remaining == -1) && ((b & 0x40) != 0));
+            if (!done) {
+                b |= 0x80;
+            }
+            result[count++] = (byte) b;
+            if (done) {
+                break;
+            }
+        }
+
+        return trim(result, count);
+    }
+
+    private static byte[] trim(byte[] bytes, int count) {
+        byte[] result = new byte[count];
+        System.arraycopy(bytes, 0, result, 0, count);
+        return result;
+    }
+
+    private static int[] makeValues() {
+        int[] result = new int[32 * 6 + 2];
+        int at = 0;
+
+        for (int i = 0; i < 32; i++) {
+            int bit = 1 << i;
+            result[at++] = bit;
+            result[at++] = bit - 1;
+            result[at++] = bit + 1;
+            result[at++] = -bit;
+            result[at++] = -bit - 1;
+            result[at++] = -bit + 1;
+        }
+
+        result[at++] = Integer.MAX_VALUE;
+        result[at++] = Integer.MIN_VALUE;
+
+        return result;
+    }
+
+    private static String label(int n) {
+        return "(" + n + "/0x" + Integer.toHexString(n) + ")";
+    }
+}
@@ -0,0 +1,270 @@
+package com.mosync.android;
+
+import com.android.dx.rop.cst.CstUtf8;
+import com.android.dx.util.ByteArray;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map.Entry;
+
+
+/**
+ * Aho-Corasick style matcher for the patches of a StringPatcher.
+ * It works directly on the (modified) UTF-8 bytes of constant pool
+ * entries, so that entries which don't need patching can be scanned
+ * in a single pass, without decoding or copying them.
+ *
+ * Matching bytes is the same as matching chars here, since both
+ * the patches and the input are in the same encoding, and no encoded
+ * char is a part of another one.
+ *
+ * Instances are immutable, and hence may be shared between threads.
+ */
+final class PatchMatcher
+{
+	/** Marks a state where no patch ends */
+	private static final int NO_MATCH = Integer.MAX_VALUE;
+
+	/** Strings to replace, as UTF-8, in the order they are tried */
+	private final byte[][]	m_keys;
+
+	/** Replacements, as UTF-8, parallel to m_keys */
+	private final byte[][]	m_values;
+
+	/**
+	 * Transition table: the state after state s on byte b is
+	 * m_next[(s << 8) | b], with state 0 being the initial state
+	 */
+	private final int[]		m_next;
+
+	/**
+	 * For each state, the index of the first patch (in list order)
+	 * ending at that state, or NO_MATCH
+	 */
+	private final int[]		m_match;
+
+	/** Index of the first patch with an empty key, or NO_MATCH */
+	private final int		m_emptyMatch;
+
+
+	/**
+	 * Builds the matcher for the given patches
+	 *
+	 * @param patches List of (string to replace, replacement) pairs
+	 */
+	public PatchMatcher ( List<Entry<String, String>> patches )
+	{
+		int count = patches.size( );
+		int maxStates = 1;
+		int emptyMatch = NO_MATCH;
+
+		m_keys = new byte[count][];
+		m_values = new byte[count][];
+
+		int n = 0;
+		for ( Entry<String, String> e : patches )
+		{
+			m_keys[n] = CstUtf8.stringToUtf8Bytes( e.getKey( ) );
+			m_values[n] = CstUtf8.stringToUtf8Bytes( e.getValue( ) );
+			maxStates += m_keys[n].length;
+
+			if ( m_keys[n].length == 0 && emptyMatch == NO_MATCH )
+				emptyMatch = n;
+			n++;
+		}
+
+		m_emptyMatch = emptyMatch;
+
+		//
+		// Build the trie, using -1 for missing edges
+		//
+		int[] next = new int[maxStates << 8];
+		int[] match = new int[maxStates];
+		int states = 1;
+
+		Arrays.fill( next, -1 );
+		Arrays.fill( match, NO_MATCH );
+
+		for ( int i = 0; i < count; i++ )
+		{
+			byte[] key = m_keys[i];
+			int s = 0;
+
+			for ( int j = 0; j < key.length; j++ )
+			{
+				int at = (s << 8) | (key[j] & 0xff);
+				if ( next[at] < 0 )
+					next[at] = states++;
+				s = next[at];
+			}
+
+			if ( i < match[s] )
+				match[s] = i;
+		}
+
+		//
+		// Turn it into a full automaton, breadth first, so that each
+		// state's fallback is done before the state itself. Missing
+		// edges take the fallback's edge, and each state also matches
+		// whatever its fallback matches.
+		//
+		int[] fail = new int[states];
+		int[] queue = new int[states];
+		int head = 0;
+		int tail = 0;
+
+		for ( int b = 0; b < 256; b++ )
+		{
+			int t = next[b];
+			if ( t < 0 )
+			{
+				next[b] = 0;
+			}
+			else
+			{
+				fail[t] = 0;
+				queue[tail++] = t;
+			}
+		}
+
+		while ( head < tail )
+		{
+			int s = queue[head++];
+			int f = fail[s];
+
+			if ( match[f] < match[s] )
+				match[s] = match[f];
+
+			for ( int b = 0; b < 256; b++ )
+			{
+				int at = (s << 8) | b;
+				int t = next[at];
+				int ft = next[(f << 8) | b];
+
+				if ( t < 0 )
+				{
+					next[at] = ft;
+				}
+				else
+				{
+					fail[t] = ft;
+					queue[tail++] = t;
+				}
+			}
+		}
+
+		// Trim the tables down to the states actually used
+		m_next = new int[states << 8];
+		m_match = new int[states];
+		System.arraycopy( next, 0, m_next, 0, m_next.length );
+		System.arraycopy( match, 0, m_match, 0, m_match.length );
+	}
+
+
+	/**
+	 * Finds the patch which StringPatcher would apply to the given
+	 * UTF-8 bytes, that is the first one in list order whose key
+	 * occurs anywhere in them.
+	 *
+	 * @param bytes Input bytes
+	 *
+	 * @return Index of the patch, or -1 if none applies
+	 */
+	public int findPatch ( ByteArray bytes )
+	{
+		int best = m_emptyMatch;
+		int size = bytes.size( );
+		int s = 0;
+
+		for ( int i = 0; i < size && best != 0; i++ )
+		{
+			s = m_next[(s << 8) | bytes.getUnsignedByte( i )];
+			if ( m_match[s] < best )
+				best = m_match[s];
+		}
+
+		return best == NO_MATCH ? -1 : best;
+	}
+
+
+	/**
+	 * Applies a patch to the given UTF-8 bytes, replacing each
+	 * occurrence of its key from left to right, the same way
+	 * String.replace does.
+	 *
+	 * @param bytes Input bytes
+	 * @param patch Index of the patch, as returned by findPatch
+	 *
+	 * @return Patched bytes
+	 */
+	public ByteArray apply ( ByteArray bytes,
+							 int patch )
+	{
+		byte[] key = m_keys[patch];
+		byte[] value = m_values[patch];
+		int size = bytes.size( );
+		byte[] in = new byte[size];
+
+		bytes.getBytes( in, 0 );
+
+		if ( key.length == 0 )
+		{
+			//
+			// Same as String.replace: the value goes before every
+			// char and at the end, so the input must be decoded to
+			// find the char boundaries.
+			//
+			String s = CstUtf8.utf8BytesToString( bytes );
+			String r = CstUtf8.utf8BytesToString( new ByteArray( value ) );
+			return new ByteArray(
+					CstUtf8.stringToUtf8Bytes( s.replace( "", r ) ) );
+		}
+
+		ByteArrayOutputStream out =
+			new ByteArrayOutputStream( size + value.length );
+		int copied = 0;
+		int i = 0;
+
+		while ( i <= size - key.length )
+		{
+			if ( regionMatches( in, i, key ) )
+			{
+				out.write( in, copied, i - copied );
+				out.write( value, 0, value.length );
+				i += key.length;
+				copied = i;
+			}
+			else
+			{
+				i++;
+			}
+		}
+
+		out.write( in, copied, size - copied );
+		return new ByteArray( out.toByteArray( ) );
+	}
+
+
+	/**
+	 * Returns whether the given key occurs in an array at an offset
+	 *
+	 * @param in Array to look in
+	 * @param at Offset to look at
+	 * @param key Key to look for
+	 *
+	 * @return true or false
+	 */
+	private static boolean regionMatches ( byte[] in,
+										   int at,
+										   byte[] key )
+	{
+		for ( int j = 0; j < key.length; j++ )
+		{
+			if ( in[at + j] != key[j] )
+				return false;
+		}
+
+		return true;
+	}
+}
@@ -1,5 +1,8 @@
 package com.mosync.android;
 
+import com.android.dx.util.ByteArray;
+
+import java.util.Collections;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.LinkedList;
@@ -17,6 +20,12 @@ public class StringPatcher
 {
 	private List<Entry<String, String>>	m_patchList;
 	
+	/**
+	 * Matcher for all the patches, built on first use, 
+	 * or null if it needs to be (re)built
+	 */
+	private volatile PatchMatcher		m_matcher;
+	
 	/**
 	 * Private constructor
 	 * 
@@ -38,6 +47,19 @@ public class StringPatcher
 	{
 		Entry<String, String> e = new SimpleEntry<String, String>( s, r );
 		m_patchList.add( e );		
+		m_matcher = null;
+	}
+
+	
+	/**
+	 * Removes all of the patches, e.g. before the arguments
+	 * of another run are parsed in the same VM
+	 * 
+	 */
+	public void clearPatches ( )
+	{
+		m_patchList.clear( );
+		m_matcher = null;
 	}
 
 	
@@ -63,6 +85,60 @@ public class StringPatcher
 	}
 	
 	
+	/**
+	 * Returns the patched (modified) UTF-8 bytes of a string,
+	 * with the same result as patch(String) on the decoded string.
+	 * All the patches are looked for in a single pass over the
+	 * bytes, and nothing is copied unless a patch applies.
+	 * Note: Patches must not be added while this is in use
+	 * 
+	 * @param bytes Input bytes
+	 * 
+	 * @return Patched bytes, if there was something to patch,
+	 * 		   if not, the same bytes. 
+	 */
+	public ByteArray patch ( ByteArray bytes )
+	{
+		if ( m_patchList.isEmpty( ) )
+			return bytes;
+
+		PatchMatcher matcher = getMatcher( );
+		int p = matcher.findPatch( bytes );
+
+		if ( p < 0 )
+			return bytes;
+
+		return matcher.apply( bytes, p );
+	}
+	
+	
+	/**
+	 * Returns the matcher for the current patches, building
+	 * it if needed
+	 * 
+	 * @return PatchMatcher instance
+	 */
+	private PatchMatcher getMatcher ( )
+	{
+		PatchMatcher matcher = m_matcher;
+
+		if ( matcher == null )
+		{
+			synchronized ( this )
+			{
+				matcher = m_matcher;
+				if ( matcher == null )
+				{
+					matcher = new PatchMatcher( m_patchList );
+					m_matcher = matcher;
+				}
+			}
+		}
+
+		return matcher;
+	}
+	
+	
 	/**
 	 * Returns whether or not there are any patches
 	 * 
@@ -74,18 +150,29 @@ public class StringPatcher
 	}
 	
 	
+	/**
+	 * Returns the patches, in the order they are tried
+	 * 
+	 * @return Unmodifiable list of (string to replace, 
+	 * 		   replacement) pairs
+	 */
+	public List<Entry<String, String>> getPatches ( )
+	{
+		return Collections.unmodifiableList( m_patchList );
+	}
+	
+	
 	/**
 	 * Returns singleton instance.
-	 * Note: This method is not thread safe.
+	 * Note: The instance is created eagerly, since the translator
+	 * threads all look it up, but patches must only be added
+	 * before translation starts.
 	 * 
 	 * @returns StringPatcher instance
 	 */
-	private static StringPatcher m_instance = null;
+	private static final StringPatcher m_instance = new StringPatcher( );
 	public static StringPatcher getInstance ( )
 	{
-		if ( m_instance == null )
-			m_instance = new StringPatcher( );
-		
 		return m_instance;
 	}
 	